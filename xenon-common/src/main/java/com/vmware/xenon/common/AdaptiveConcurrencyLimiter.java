@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limiter that adapts the number of requests admitted in parallel to the observed
+ * request latency, using a gradient algorithm. Latency measured from admission to completion
+ * includes the time requests wait in the host executor and service queues, so as queues build
+ * up, the latency of recent requests grows compared to its long term average and the limit
+ * shrinks. When latency returns to the long term average the limit grows again, by roughly the
+ * square root of the limit per sample window.
+ *
+ * Requests are grouped by subject. While the limiter is contended, a subject holding more than
+ * its fair share of the limit is rejected, so one tenant can not starve the others. Requests
+ * slightly over the limit are admitted but throttled, letting the caller slow down the source
+ * of requests, and requests further over the limit are rejected.
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+    public enum Decision {
+        /**
+         * Request is admitted
+         */
+        ADMIT,
+
+        /**
+         * Request is admitted, but the caller should pause reading further requests from the
+         * same source until the limiter has capacity
+         */
+        ADMIT_THROTTLED,
+
+        /**
+         * Request is rejected
+         */
+        REJECT
+    }
+
+    /**
+     * Number of latency samples averaged before the limit is updated
+     */
+    private static final int SAMPLE_WINDOW = 64;
+
+    /**
+     * Number of sample windows in the long term latency average
+     */
+    private static final int LONG_WINDOW_COUNT = 100;
+
+    /**
+     * Recent latency may exceed the long term average by this factor before the limit shrinks
+     */
+    private static final double LATENCY_TOLERANCE = 1.5;
+
+    /**
+     * Weight of a newly computed limit
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final ConcurrentHashMap<String, AtomicInteger> inFlightCountPerSubject = new ConcurrentHashMap<>();
+    private final AtomicLong throttledCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private final LongAdder sampleSumMicros = new LongAdder();
+    private final AtomicInteger sampleCount = new AtomicInteger();
+    private final AtomicInteger maxInFlightCount = new AtomicInteger();
+    private final AtomicBoolean isUpdating = new AtomicBoolean();
+
+    // written while isUpdating is held
+    private volatile double limit;
+    private volatile double shortLatencyMicros;
+    private volatile double longLatencyMicros;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("minLimit must be between 1 and maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Decides whether a request from the supplied subject is admitted. Admitted requests,
+     * throttled or not, must be followed by a call to {@link #release(String, long)}
+     */
+    public Decision acquire(String subject) {
+        int limit = getLimit();
+        int inFlight = this.inFlightCount.get();
+
+        Decision decision = Decision.ADMIT;
+        if (inFlight >= limit / 2) {
+            int subjectCount = this.inFlightCountPerSubject.size();
+            if (subjectCount > 1) {
+                AtomicInteger count = this.inFlightCountPerSubject.get(subject);
+                int fairShare = Math.max(1, limit / subjectCount);
+                if (count != null && count.get() >= fairShare) {
+                    this.rejectedCount.incrementAndGet();
+                    return Decision.REJECT;
+                }
+            }
+
+            if (inFlight >= limit + getQueueSize(limit)) {
+                this.rejectedCount.incrementAndGet();
+                return Decision.REJECT;
+            }
+
+            if (inFlight >= limit) {
+                this.throttledCount.incrementAndGet();
+                decision = Decision.ADMIT_THROTTLED;
+            }
+        }
+
+        int newInFlight = this.inFlightCount.incrementAndGet();
+        if (newInFlight > this.maxInFlightCount.get()) {
+            this.maxInFlightCount.accumulateAndGet(newInFlight, Math::max);
+        }
+        this.inFlightCountPerSubject.compute(subject, (k, count) -> {
+            if (count == null) {
+                return new AtomicInteger(1);
+            }
+            count.incrementAndGet();
+            return count;
+        });
+        return decision;
+    }
+
+    /**
+     * Releases an admitted request and records its latency
+     */
+    public void release(String subject, long latencyMicros) {
+        this.inFlightCountPerSubject.computeIfPresent(subject,
+                (k, count) -> count.decrementAndGet() == 0 ? null : count);
+        this.inFlightCount.decrementAndGet();
+
+        this.sampleSumMicros.add(Math.max(0, latencyMicros));
+        if (this.sampleCount.incrementAndGet() < SAMPLE_WINDOW) {
+            return;
+        }
+        if (!this.isUpdating.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            int count = this.sampleCount.getAndSet(0);
+            if (count == 0) {
+                return;
+            }
+            updateLimit((double) this.sampleSumMicros.sumThenReset() / count);
+        } finally {
+            this.isUpdating.set(false);
+        }
+    }
+
+    private void updateLimit(double latencyMicros) {
+        this.shortLatencyMicros = latencyMicros;
+        double longLatency = this.longLatencyMicros;
+        if (longLatency == 0) {
+            longLatency = latencyMicros;
+        } else {
+            longLatency += (latencyMicros - longLatency) / LONG_WINDOW_COUNT;
+        }
+
+        // after a period of overload the long term average is inflated, let it converge
+        // back to the recent latency, otherwise the limit would keep growing
+        if (longLatency > 2 * latencyMicros) {
+            longLatency *= 0.9;
+        }
+        this.longLatencyMicros = longLatency;
+
+        double limit = this.limit;
+        if (this.maxInFlightCount.getAndSet(this.inFlightCount.get()) < limit / 2) {
+            // the limit was not exercised, the samples say nothing about it
+            return;
+        }
+
+        double gradient = LATENCY_TOLERANCE * longLatency / Math.max(1, latencyMicros);
+        gradient = Math.max(0.5, Math.min(1.0, gradient));
+        double newLimit = limit * gradient + getQueueSize((int) limit);
+        newLimit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, newLimit));
+    }
+
+    private static int getQueueSize(int limit) {
+        return Math.max(1, (int) Math.sqrt(limit));
+    }
+
+    /**
+     * Returns true if a request would be admitted without being throttled
+     */
+    public boolean hasCapacity() {
+        return this.inFlightCount.get() < getLimit();
+    }
+
+    public int getLimit() {
+        return (int) this.limit;
+    }
+
+    public int getInFlightCount() {
+        return this.inFlightCount.get();
+    }
+
+    public int getSubjectCount() {
+        return this.inFlightCountPerSubject.size();
+    }
+
+    public long getThrottledCount() {
+        return this.throttledCount.get();
+    }
+
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    /**
+     * Average latency of the most recent sample window
+     */
+    public double getShortLatencyMicros() {
+        return this.shortLatencyMicros;
+    }
+
+    /**
+     * Long term average latency, the baseline recent latency is compared against
+     */
+    public double getLongLatencyMicros() {
+        return this.longLatencyMicros;
+    }
+}
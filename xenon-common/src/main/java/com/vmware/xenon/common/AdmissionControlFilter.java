@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import com.vmware.xenon.common.AdaptiveConcurrencyLimiter.Decision;
+import com.vmware.xenon.common.Operation.AuthorizationContext;
+import com.vmware.xenon.common.Operation.CompletionHandler;
+import com.vmware.xenon.common.Operation.OperationOption;
+import com.vmware.xenon.common.OperationProcessingChain.Filter;
+import com.vmware.xenon.common.OperationProcessingChain.FilterReturnCode;
+import com.vmware.xenon.common.OperationProcessingChain.OperationProcessingContext;
+import com.vmware.xenon.services.common.ServiceHostManagementService;
+
+/**
+ * Admits remote requests through the host {@link AdaptiveConcurrencyLimiter}, when admission
+ * control is enabled. Requests are grouped by authorization subject. Throttled and rejected
+ * requests are marked with {@link OperationOption#ADMISSION_THROTTLED} and the request listener
+ * pauses reads from the request channel, through the operation admission throttle handler,
+ * until the limiter has capacity. Admitted requests are marked with
+ * {@link OperationOption#ADMITTED} and are not admitted again when they re-enter the chain
+ */
+public class AdmissionControlFilter implements Filter {
+
+    static final String ANONYMOUS_SUBJECT = "";
+
+    @Override
+    public FilterReturnCode processRequest(Operation op, OperationProcessingContext context) {
+        ServiceHost host = context.getHost();
+        if (!host.isAdmissionControlEnabled()) {
+            return FilterReturnCode.CONTINUE_PROCESSING;
+        }
+
+        if (op.isFromReplication() || op.isForwarded()) {
+            // admission control is applied on the entry point host
+            return FilterReturnCode.CONTINUE_PROCESSING;
+        }
+
+        if (!op.isRemote()) {
+            return FilterReturnCode.CONTINUE_PROCESSING;
+        }
+
+        if (op.hasOption(OperationOption.ADMITTED)) {
+            // the operation was queued by its target service and passes through the chain
+            // again, it already holds a limiter slot
+            return FilterReturnCode.CONTINUE_PROCESSING;
+        }
+
+        String subject = getSubject(op);
+        AdaptiveConcurrencyLimiter limiter = host.getAdmissionLimiter();
+        Decision decision = limiter.acquire(subject);
+        if (decision != Decision.ADMIT) {
+            op.toggleOption(OperationOption.ADMISSION_THROTTLED, true);
+            // pause reads from the channel now, not once the response is written
+            Runnable throttleHandler = op.getAdmissionThrottleHandler();
+            if (throttleHandler != null) {
+                throttleHandler.run();
+            }
+        }
+
+        if (decision == Decision.REJECT) {
+            Operation.failLimitExceeded(op,
+                    ServiceErrorResponse.ERROR_CODE_HOST_ADMISSION_LIMIT_EXCEEDED,
+                    "admission limit for " + op.getUri().getPath());
+            return FilterReturnCode.FAILED_STOP_PROCESSING;
+        }
+
+        // release the limiter slot when the request completes, before the listener
+        // completion writes the response
+        op.toggleOption(OperationOption.ADMITTED, true);
+        long startMicros = Utils.getSystemNowMicrosUtc();
+        CompletionHandler c = op.getCompletion();
+        op.setCompletion((o, e) -> {
+            limiter.release(subject, Utils.getSystemNowMicrosUtc() - startMicros);
+            if (c != null) {
+                c.handle(o, e);
+            }
+        });
+        return FilterReturnCode.CONTINUE_PROCESSING;
+    }
+
+    private static String getSubject(Operation op) {
+        AuthorizationContext authCtx = op.getAuthorizationContext();
+        if (authCtx == null) {
+            return ANONYMOUS_SUBJECT;
+        }
+        Claims claims = authCtx.getClaims();
+        if (claims == null || claims.getSubject() == null) {
+            return ANONYMOUS_SUBJECT;
+        }
+        return claims.getSubject();
+    }
+
+    /**
+     * Publishes the limiter state
+     */
+    static void updateStats(Service mgmtService, AdaptiveConcurrencyLimiter limiter) {
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_ADMISSION_LIMIT,
+                limiter.getLimit());
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_ADMISSION_IN_FLIGHT_COUNT,
+                limiter.getInFlightCount());
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_ADMISSION_SUBJECT_COUNT,
+                limiter.getSubjectCount());
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_ADMISSION_THROTTLED_COUNT,
+                limiter.getThrottledCount());
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_ADMISSION_REJECTED_COUNT,
+                limiter.getRejectedCount());
+        mgmtService.setStat(
+                ServiceHostManagementService.STAT_NAME_ADMISSION_SHORT_LATENCY_MICROS,
+                limiter.getShortLatencyMicros());
+        mgmtService.setStat(
+                ServiceHostManagementService.STAT_NAME_ADMISSION_LONG_LATENCY_MICROS,
+                limiter.getLongLatencyMicros());
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2014-2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.vmware.xenon.common.Operation.AuthorizationContext;
+
+/**
+ * Size bounded cache of authorization contexts, by token, with an index of the tokens of each
+ * user. Entries expire with the token expiration claim.
+ *
+ * Reads, inserts and invalidations only lock the hash bins of the keys they touch. When an insert
+ * grows the cache over its maximum size, expired entries are removed, then entries in hash order,
+ * until the cache is a tenth below its maximum size, so the eviction cost is amortized over the
+ * inserts that follow.
+ */
+final class AuthorizationContextCache {
+
+    private static final class Entry {
+        final AuthorizationContext ctx;
+        final String userLink;
+        final long expirationMicros;
+
+        Entry(AuthorizationContext ctx, String userLink, long expirationMicros) {
+            this.ctx = ctx;
+            this.userLink = userLink;
+            this.expirationMicros = expirationMicros;
+        }
+    }
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> tokensPerUser = new ConcurrentHashMap<>();
+    private final AtomicBoolean isEvicting = new AtomicBoolean();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    AuthorizationContextCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached context for the token, or null if it is not cached or it expired
+     */
+    AuthorizationContext get(String token) {
+        Entry entry = this.entries.get(token);
+        if (entry == null) {
+            this.missCount.increment();
+            return null;
+        }
+
+        if (entry.expirationMicros <= Utils.getSystemNowMicrosUtc()) {
+            if (remove(token, entry)) {
+                this.evictionCount.increment();
+            }
+            this.missCount.increment();
+            return null;
+        }
+
+        this.hitCount.increment();
+        return entry.ctx;
+    }
+
+    void put(String token, AuthorizationContext ctx) {
+        Claims claims = ctx.getClaims();
+        Long expirationTime = claims.getExpirationTime();
+        long expirationMicros = expirationTime == null ? Long.MAX_VALUE
+                : TimeUnit.SECONDS.toMicros(expirationTime);
+        String userLink = claims.getSubject();
+
+        this.entries.put(token, new Entry(ctx, userLink, expirationMicros));
+        if (userLink != null) {
+            addUserToken(userLink, token);
+        }
+
+        if (this.entries.size() > this.maxSize) {
+            evict();
+        }
+    }
+
+    /**
+     * Removes the cached contexts of all the tokens of the user
+     */
+    void clear(String userLink) {
+        Set<String> tokens = this.tokensPerUser.remove(userLink);
+        if (tokens == null) {
+            return;
+        }
+        for (String token : tokens) {
+            this.entries.remove(token);
+        }
+    }
+
+    void clear() {
+        this.entries.clear();
+        this.tokensPerUser.clear();
+    }
+
+    int size() {
+        return this.entries.size();
+    }
+
+    long getHitCount() {
+        return this.hitCount.sum();
+    }
+
+    long getMissCount() {
+        return this.missCount.sum();
+    }
+
+    long getEvictionCount() {
+        return this.evictionCount.sum();
+    }
+
+    private void addUserToken(String userLink, String token) {
+        while (true) {
+            Set<String> tokens = this.tokensPerUser.computeIfAbsent(userLink,
+                    (k) -> ConcurrentHashMap.newKeySet());
+            tokens.add(token);
+            if (this.tokensPerUser.get(userLink) == tokens) {
+                return;
+            }
+            // the token set was removed concurrently, add the token to the current set
+        }
+    }
+
+    private boolean remove(String token, Entry entry) {
+        if (!this.entries.remove(token, entry)) {
+            return false;
+        }
+        if (entry.userLink != null) {
+            this.tokensPerUser.computeIfPresent(entry.userLink, (k, tokens) -> {
+                tokens.remove(token);
+                return tokens.isEmpty() ? null : tokens;
+            });
+        }
+        return true;
+    }
+
+    private void evict() {
+        if (!this.isEvicting.compareAndSet(false, true)) {
+            // another thread is evicting
+            return;
+        }
+
+        try {
+            long now = Utils.getSystemNowMicrosUtc();
+            for (Map.Entry<String, Entry> e : this.entries.entrySet()) {
+                if (e.getValue().expirationMicros <= now && remove(e.getKey(), e.getValue())) {
+                    this.evictionCount.increment();
+                }
+            }
+
+            int targetSize = this.maxSize - this.maxSize / 10;
+            Iterator<Map.Entry<String, Entry>> it = this.entries.entrySet().iterator();
+            while (this.entries.size() > targetSize && it.hasNext()) {
+                Map.Entry<String, Entry> e = it.next();
+                if (remove(e.getKey(), e.getValue())) {
+                    this.evictionCount.increment();
+                }
+            }
+        } finally {
+            this.isEvicting.set(false);
+        }
+    }
+}
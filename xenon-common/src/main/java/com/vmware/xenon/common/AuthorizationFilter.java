@@ -16,10 +16,7 @@ package com.vmware.xenon.common;
 import java.net.URI;
 import java.security.GeneralSecurityException;
 import java.time.Instant;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.logging.Level;
@@ -29,6 +26,7 @@ import com.vmware.xenon.common.OperationProcessingChain.Filter;
 import com.vmware.xenon.common.OperationProcessingChain.FilterReturnCode;
 import com.vmware.xenon.common.OperationProcessingChain.OperationProcessingContext;
 import com.vmware.xenon.common.Service.ServiceOption;
+import com.vmware.xenon.common.config.XenonConfiguration;
 import com.vmware.xenon.common.jwt.Signer;
 import com.vmware.xenon.services.common.ServiceHostManagementService;
 import com.vmware.xenon.services.common.authn.AuthenticationConstants;
@@ -37,45 +35,41 @@ import com.vmware.xenon.services.common.authz.AuthorizationConstants;
 
 public class AuthorizationFilter implements Filter {
 
-    private ConcurrentHashMap<String, AuthorizationContext> authorizationContextCache;
-    private ConcurrentHashMap<String, Set<String>> userLinkToTokenMap;
+    /**
+     * Maximum number of authorization contexts cached by token
+     */
+    private static final int MAX_CACHE_SIZE = XenonConfiguration.integer(
+            AuthorizationFilter.class,
+            "maxCacheSize",
+            50000
+    );
+
+    private AuthorizationContextCache authorizationContextCache;
 
     @Override
     public void init() {
-        this.authorizationContextCache = new ConcurrentHashMap<>();
-        this.userLinkToTokenMap = new ConcurrentHashMap<>();
+        this.authorizationContextCache = new AuthorizationContextCache(MAX_CACHE_SIZE);
     }
 
     @Override
     public void close() {
         this.authorizationContextCache.clear();
-        this.userLinkToTokenMap.clear();
     }
 
     public void cacheAuthorizationContext(ServiceHost h, String token, AuthorizationContext ctx) {
-        synchronized (this) {
-            this.authorizationContextCache.put(token, ctx);
-            addUserToken(this.userLinkToTokenMap, ctx.getClaims().getSubject(), token);
-        }
+        this.authorizationContextCache.put(token, ctx);
 
         h.getManagementService().adjustStat(
                 ServiceHostManagementService.STAT_NAME_AUTHORIZATION_CACHE_INSERT_COUNT, 1);
-        h.getManagementService().adjustStat(
+        h.getManagementService().setStat(
                 ServiceHostManagementService.STAT_NAME_AUTHORIZATION_CACHE_SIZE,
                 this.authorizationContextCache.size());
     }
 
     public void clearAuthorizationContext(ServiceHost h, String userLink) {
-        synchronized (this) {
-            Set<String> tokenSet = this.userLinkToTokenMap.remove(userLink);
-            if (tokenSet != null) {
-                for (String token : tokenSet) {
-                    this.authorizationContextCache.remove(token);
-                }
-            }
-        }
+        this.authorizationContextCache.clear(userLink);
 
-        h.getManagementService().adjustStat(
+        h.getManagementService().setStat(
                 ServiceHostManagementService.STAT_NAME_AUTHORIZATION_CACHE_SIZE,
                 this.authorizationContextCache.size());
     }
@@ -84,6 +78,22 @@ public class AuthorizationFilter implements Filter {
         return this.authorizationContextCache.get(token);
     }
 
+    /**
+     * Publishes the authorization cache size, hit, miss and eviction counts
+     */
+    void updateStats(Service mgmtService) {
+        AuthorizationContextCache cache = this.authorizationContextCache;
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_AUTHORIZATION_CACHE_SIZE,
+                cache.size());
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_AUTHORIZATION_CACHE_HIT_COUNT,
+                cache.getHitCount());
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_AUTHORIZATION_CACHE_MISS_COUNT,
+                cache.getMissCount());
+        mgmtService.setStat(
+                ServiceHostManagementService.STAT_NAME_AUTHORIZATION_CACHE_EVICTION_COUNT,
+                cache.getEvictionCount());
+    }
+
     public AuthorizationContext createAuthorizationContext(Signer tokenSigner, String userLink) {
         Claims.Builder cb = new Claims.Builder();
         cb.setIssuer(AuthenticationConstants.DEFAULT_ISSUER);
@@ -336,14 +346,4 @@ public class AuthorizationFilter implements Filter {
         verifyOp.setAuthorizationContext(host.getSystemAuthorizationContext());
         host.sendRequest(verifyOp);
     }
-
-    private void addUserToken(Map<String, Set<String>> userLinktoTokenMap, String userServiceLink,
-            String token) {
-        Set<String> tokenSet = userLinktoTokenMap.get(userServiceLink);
-        if (tokenSet == null) {
-            tokenSet = new HashSet<String>();
-        }
-        tokenSet.add(token);
-        userLinktoTokenMap.put(userServiceLink, tokenSet);
-    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.xenon.common.config.XenonConfiguration;
+
+/**
+ * Creates executors for work that blocks, such as file IO, waiting on a child process or
+ * handlers calling blocking libraries. When the JVM supports virtual threads (Java 21 and
+ * later), each task runs on its own virtual thread, so blocked tasks do not hold a platform
+ * thread. Otherwise tasks run on an elastic pool of platform threads, which grows up to the
+ * supplied limit and releases idle threads.
+ *
+ * Virtual threads are looked up reflectively, so the framework still builds and runs on
+ * Java 8.
+ */
+public final class BlockingExecutors {
+
+    /**
+     * Idle time after which a platform thread of an elastic pool exits
+     */
+    private static final long PLATFORM_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    /**
+     * Maximum platform threads of the host blocking executor, when virtual threads are not
+     * supported
+     */
+    public static final int DEFAULT_PLATFORM_THREAD_COUNT = XenonConfiguration.integer(
+            BlockingExecutors.class,
+            "platformThreadCount",
+            Utils.DEFAULT_THREAD_COUNT * 16
+    );
+
+    private static final MethodHandle VIRTUAL_THREAD_FACTORY = lookupVirtualThreadFactory();
+    private static final MethodHandle THREAD_PER_TASK_EXECUTOR = lookupThreadPerTaskExecutor();
+
+    private BlockingExecutors() {
+    }
+
+    /**
+     * Returns a handle to {@code Thread.ofVirtual().name(prefix, 0).factory()}, or null
+     */
+    private static MethodHandle lookupVirtualThreadFactory() {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Class<?> virtualBuilderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual",
+                    MethodType.methodType(virtualBuilderClass));
+            MethodHandle name = lookup.findVirtual(virtualBuilderClass, "name",
+                    MethodType.methodType(virtualBuilderClass, String.class, long.class));
+            MethodHandle factory = lookup.findVirtual(builderClass, "factory",
+                    MethodType.methodType(ThreadFactory.class));
+            // (String prefix, long start) -> Thread.ofVirtual().name(prefix, start).factory()
+            MethodHandle namedBuilder = MethodHandles.foldArguments(name, ofVirtual);
+            namedBuilder = MethodHandles.filterReturnValue(namedBuilder,
+                    factory.asType(MethodType.methodType(ThreadFactory.class,
+                            virtualBuilderClass)));
+            return namedBuilder;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static MethodHandle lookupThreadPerTaskExecutor() {
+        try {
+            return MethodHandles.publicLookup().findStatic(Executors.class,
+                    "newThreadPerTaskExecutor",
+                    MethodType.methodType(ExecutorService.class, ThreadFactory.class));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return VIRTUAL_THREAD_FACTORY != null && THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor running each task on a new virtual thread, named after the supplied
+     * name. Returns null if the JVM does not support virtual threads
+     */
+    public static ExecutorService createVirtualThreadExecutor(String name) {
+        if (!isVirtualThreadSupported()) {
+            return null;
+        }
+        try {
+            ThreadFactory factory = (ThreadFactory) VIRTUAL_THREAD_FACTORY.invoke(
+                    name + "/virtual-", 0L);
+            return (ExecutorService) THREAD_PER_TASK_EXECUTOR.invoke(factory);
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * Creates an executor for blocking work: virtual threads if supported, otherwise an
+     * elastic pool of at most maxPlatformThreadCount platform threads. Tasks submitted while
+     * all platform threads are busy are queued
+     */
+    public static ExecutorService create(String name, int maxPlatformThreadCount) {
+        ExecutorService virtualExecutor = createVirtualThreadExecutor(name);
+        if (virtualExecutor != null) {
+            return virtualExecutor;
+        }
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(maxPlatformThreadCount,
+                maxPlatformThreadCount, PLATFORM_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new NamedThreadFactory(name));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+}
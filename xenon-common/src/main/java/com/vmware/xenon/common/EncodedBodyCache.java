@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2014-2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import java.util.Objects;
+
+/**
+ * Infrastructure use only. Encoded request body shared, read only, by the remote sends of an
+ * operation to multiple peers or subscribers, so the body is serialized, and compressed if
+ * requested, once instead of once per send.
+ *
+ * The cache is associated with an operation using
+ * {@link Operation#setEncodedBodyCache(EncodedBodyCache)} and is shared by its clones. The
+ * encoded body is only reused if the body instance, content type and content encoding of the
+ * operation match the ones it was encoded for.
+ */
+public final class EncodedBodyCache {
+
+    private static final class Entry {
+        final Object body;
+        final String contentType;
+        final boolean isGzip;
+        final byte[] data;
+        final String encodedContentType;
+        final long encodedContentLength;
+
+        Entry(Object body, String contentType, boolean isGzip, byte[] data,
+                String encodedContentType, long encodedContentLength) {
+            this.body = body;
+            this.contentType = contentType;
+            this.isGzip = isGzip;
+            this.data = data;
+            this.encodedContentType = encodedContentType;
+            this.encodedContentLength = encodedContentLength;
+        }
+    }
+
+    private final Service owner;
+
+    private volatile Entry entry;
+
+    /**
+     * Creates a cache. Encodings saved are counted in the
+     * {@link Service#STAT_NAME_BODY_ENCODINGS_SAVED_COUNT} stat of the owner, if not null
+     */
+    public EncodedBodyCache(Service owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Returns the encoded request body and sets the operation content length and type, as
+     * {@link Utils#encodeBody(Operation, boolean)} does. The returned array must not be modified
+     */
+    public byte[] encodeBody(Operation op) throws Exception {
+        Object body = op.getBodyRaw();
+        String contentType = op.getContentType();
+        boolean isGzip = Utils.isGzipEncodingRequired(op, true);
+        if (body instanceof byte[] && !isGzip) {
+            // nothing to encode
+            return Utils.encodeBody(op, true);
+        }
+
+        Entry e = this.entry;
+        if (e != null && e.body == body && e.isGzip == isGzip
+                && Objects.equals(e.contentType, contentType)) {
+            op.setContentType(e.encodedContentType);
+            op.setContentLength(e.encodedContentLength);
+            if (this.owner != null) {
+                this.owner.adjustStat(Service.STAT_NAME_BODY_ENCODINGS_SAVED_COUNT, 1);
+            }
+            return e.data;
+        }
+
+        byte[] data = Utils.encodeBody(op, true);
+        if (data != null) {
+            // concurrent sends of the first clones might each encode, the last one is kept
+            this.entry = new Entry(body, contentType, isGzip, data, op.getContentType(),
+                    op.getContentLength());
+        }
+        return data;
+    }
+}
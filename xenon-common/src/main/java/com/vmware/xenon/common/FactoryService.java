@@ -361,7 +361,9 @@ public abstract class FactoryService extends StatelessService {
                 // before we modify the body, clone it, to isolate our changes from a local client
                 // that decided to mutate the body and re-use, after it called
                 // sendRequest(op.setBody()). Operation clones on setBody() only, not getBody() if
-                // the body is already in native form (not serialized)
+                // the body is already in native form (not serialized). Bodies of frozen types are
+                // not cloned even on setBody(), and this copy keeps the framework from writing
+                // into the instance of the client
                 initialState = Utils.clone(initialState);
             }
 
@@ -526,6 +528,11 @@ public abstract class FactoryService extends StatelessService {
                             }
                             SelectOwnerResponse rsp = so.getBody(SelectOwnerResponse.class);
                             ServiceDocument initialState = (ServiceDocument) o.getBodyRaw();
+                            if (FrozenDocuments.isFrozen(initialState)) {
+                                // the body was frozen when it was set, update a copy
+                                initialState = Utils.clone(initialState);
+                                o.setBodyNoCloning(initialState);
+                            }
                             initialState.documentOwner = rsp.ownerNodeId;
                             if (initialState.documentEpoch == null) {
                                 initialState.documentEpoch = 0L;
@@ -807,7 +814,12 @@ public abstract class FactoryService extends StatelessService {
                         op.fail(e);
                         return;
                     }
-                    op.setBodyNoCloning(o.getBodyRaw()).complete();
+                    Object rsp = o.getBodyRaw();
+                    if (rsp instanceof ServiceDocumentQueryResult) {
+                        // large result sets are paged by the index, link pages through this factory
+                        prepareNavigationResult((ServiceDocumentQueryResult) rsp);
+                    }
+                    op.setBodyNoCloning(rsp).complete();
                 });
 
         sendRequest(query);
@@ -891,10 +903,15 @@ public abstract class FactoryService extends StatelessService {
 
     @Override
     public void toggleOption(ServiceOption option, boolean enable) {
+        boolean optionsChanged;
         if (enable) {
-            this.options.add(option);
+            optionsChanged = this.options.add(option);
         } else {
-            this.options.remove(option);
+            optionsChanged = this.options.remove(option);
+        }
+
+        if (optionsChanged && getHost() != null) {
+            getHost().updateServiceOption(this, option, enable);
         }
     }
 
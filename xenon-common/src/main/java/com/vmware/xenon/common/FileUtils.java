@@ -40,6 +40,11 @@ import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
@@ -47,6 +52,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -155,6 +161,98 @@ public final class FileUtils {
         }
     }
 
+    /**
+     * Operation body referring to a region of a file. The HTTP listener writes the region to
+     * the connection directly from the file, without reading it into a heap buffer first
+     */
+    public static class FileContent {
+        public File file;
+        public long position;
+        public long count;
+
+        public FileContent() {
+        }
+
+        public FileContent(File file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.count = count;
+        }
+    }
+
+    /**
+     * A single byte range requested by an HTTP Range header, with inclusive first and last
+     * positions, see RFC 7233. Unlike {@link ContentRange}, used by the chunked file transfer
+     * of {@link #getFile(ServiceClient, Operation, File)} and
+     * {@link #putFile(ServiceClient, Operation, File)}, the last position is part of the range
+     */
+    static final class ByteRange {
+        static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+        private static final String BYTES_UNIT_PREFIX = "bytes=";
+
+        final long first;
+        final long last;
+
+        ByteRange(long first, long last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        long getCount() {
+            return this.last - this.first + 1;
+        }
+
+        /**
+         * Returns the range of a file of the supplied length selected by the header value,
+         * {@link #UNSATISFIABLE} if the range starts past the end of the file, or null if the
+         * header is absent, malformed or selects several ranges, and the whole file is served
+         */
+        static ByteRange fromRangeHeader(String header, long length) {
+            if (header == null) {
+                return null;
+            }
+            header = header.trim();
+            if (!header.regionMatches(true, 0, BYTES_UNIT_PREFIX, 0,
+                    BYTES_UNIT_PREFIX.length())) {
+                return null;
+            }
+            String spec = header.substring(BYTES_UNIT_PREFIX.length()).trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0 || spec.indexOf(',') >= 0) {
+                return null;
+            }
+
+            String firstSpec = spec.substring(0, dash).trim();
+            String lastSpec = spec.substring(dash + 1).trim();
+            try {
+                if (firstSpec.isEmpty()) {
+                    // suffix range, the last n bytes of the file
+                    long suffixLength = Long.parseLong(lastSpec);
+                    if (suffixLength < 0) {
+                        return null;
+                    }
+                    if (suffixLength == 0 || length == 0) {
+                        return UNSATISFIABLE;
+                    }
+                    return new ByteRange(Math.max(0, length - suffixLength), length - 1);
+                }
+
+                long first = Long.parseLong(firstSpec);
+                long last = lastSpec.isEmpty() ? Long.MAX_VALUE : Long.parseLong(lastSpec);
+                if (first < 0 || last < first) {
+                    return null;
+                }
+                if (first >= length) {
+                    return UNSATISFIABLE;
+                }
+                return new ByteRange(first, Math.min(last, length - 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
     /*
      * Finds a resource in a specified search path.
      */
@@ -432,14 +530,113 @@ public final class FileUtils {
         return mediaType;
     }
 
+    /**
+     * Completes a GET with the contents of a file, or with the range of the file selected by the
+     * {@link Operation#RANGE_HEADER} request header. The response carries an entity tag and the
+     * last modification time of the file, and a request presenting either of them, while the file
+     * is unchanged, completes with {@link Operation#STATUS_CODE_NOT_MODIFIED} without reading it.
+     *
+     * A range starting past the end of the file fails with
+     * {@link Operation#STATUS_CODE_RANGE_NOT_SATISFIABLE}.
+     *
+     * An operation received from the network completes with a {@link FileContent} body, which the
+     * HTTP listener sends directly from the file. Other operations, and requests for a whole text
+     * file from clients accepting gzip, complete with the file contents
+     */
+    public static void serveFileAndComplete(Operation get, File f) {
+        long lastModified = f.lastModified();
+        if (lastModified == 0) {
+            // the file does not exist, or can not be accessed: fail with the read error
+            readFileAndComplete(get, f);
+            return;
+        }
+
+        long length = f.length();
+        String entityTag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified)
+                + "\"";
+        get.addResponseHeader(Operation.ETAG_HEADER, entityTag);
+        get.addResponseHeader(Operation.LAST_MODIFIED_HEADER, DateTimeFormatter.RFC_1123_DATE_TIME
+                .format(Instant.ofEpochMilli(lastModified).atZone(ZoneOffset.UTC)));
+        get.addResponseHeader(Operation.ACCEPT_RANGES_HEADER, "bytes");
+
+        if (isNotModified(get, entityTag, lastModified)) {
+            get.setStatusCode(Operation.STATUS_CODE_NOT_MODIFIED);
+            get.complete();
+            return;
+        }
+
+        String rangeHeader = get.getRequestHeader(Operation.RANGE_HEADER);
+        ByteRange range = ByteRange.fromRangeHeader(rangeHeader, length);
+        if (range == ByteRange.UNSATISFIABLE) {
+            get.addResponseHeader(Operation.CONTENT_RANGE_HEADER, "bytes */" + length);
+            get.fail(Operation.STATUS_CODE_RANGE_NOT_SATISFIABLE,
+                    new Exception("Range not satisfiable: " + rangeHeader), null);
+            return;
+        }
+
+        long position = 0;
+        long count = length;
+        if (range != null) {
+            position = range.first;
+            count = range.getCount();
+            get.setStatusCode(Operation.STATUS_CODE_PARTIAL_CONTENT);
+            get.addResponseHeader(Operation.CONTENT_RANGE_HEADER,
+                    "bytes " + range.first + "-" + range.last + "/" + length);
+        }
+
+        String contentType = FileUtils.getContentType(f.toURI());
+        boolean isGzipRequired = range == null && contentType != null
+                && Utils.isContentTypeText(contentType)
+                && Utils.isGzipEncodingRequired(get, false);
+        if (!get.isRemote() || isGzipRequired) {
+            // text files are compressed by the listener when the client accepts gzip, which
+            // needs the file contents in the operation body
+            readFileAndComplete(get, f, position, count, range == null);
+            return;
+        }
+
+        if (contentType != null) {
+            get.setContentType(contentType);
+        }
+        get.setContentLength(count);
+        get.setBodyNoCloning(new FileContent(f, position, count));
+        get.complete();
+    }
+
+    private static boolean isNotModified(Operation get, String entityTag, long lastModified) {
+        String ifNoneMatch = get.getRequestHeader(Operation.IF_NONE_MATCH_HEADER);
+        if (ifNoneMatch != null) {
+            return ifNoneMatch.equals("*") || ifNoneMatch.contains(entityTag);
+        }
+
+        String ifModifiedSince = get.getRequestHeader(Operation.IF_MODIFIED_SINCE_HEADER);
+        if (ifModifiedSince == null) {
+            return false;
+        }
+        try {
+            long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli();
+            // HTTP dates have a resolution of one second
+            return TimeUnit.MILLISECONDS.toSeconds(lastModified)
+                    <= TimeUnit.MILLISECONDS.toSeconds(since);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
     public static void readFileAndComplete(final Operation op, File f) {
+        readFileAndComplete(op, f, 0, f.length(), true);
+    }
+
+    private static void readFileAndComplete(final Operation op, File f, long position,
+            long count, boolean decodeText) {
         AsynchronousFileChannel channel = null;
         try {
             final AsynchronousFileChannel ch = AsynchronousFileChannel.open(f.toPath(),
                     StandardOpenOption.READ);
-            final ByteBuffer bb = ByteBuffer.allocate((int) f.length());
+            final ByteBuffer bb = ByteBuffer.allocate((int) count);
             channel = ch;
-            ch.read(bb, 0L, null,
+            ch.read(bb, position, null,
                     new CompletionHandler<Integer, Void>() {
 
                         @Override
@@ -452,7 +649,8 @@ public final class FileUtils {
                                     op.setContentType(contentType);
                                 }
 
-                                String body = Utils.decodeIfText(bb, contentType);
+                                String body = decodeText ? Utils.decodeIfText(bb, contentType)
+                                        : null;
                                 if (body != null) {
                                     op.setBody(body);
                                 } else {
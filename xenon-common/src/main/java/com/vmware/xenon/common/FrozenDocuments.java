@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.vmware.xenon.common.ServiceDocument.Frozen;
+import com.vmware.xenon.common.config.XenonConfiguration;
+import com.vmware.xenon.common.serialization.GsonSerializers;
+
+/**
+ * Tracks documents of {@link Frozen} types. When mutation detection is enabled, the JSON hash
+ * of a frozen document is recorded when it is sent or cached, and checked when it is read
+ * again, or sent or cached again
+ */
+final class FrozenDocuments {
+
+    private static volatile boolean isMutationDetectionEnabled = XenonConfiguration.bool(
+            FrozenDocuments.class,
+            "detectMutation",
+            false
+    );
+
+    private static final ClassValue<Boolean> FROZEN_TYPES = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            return ServiceDocument.class.isAssignableFrom(type)
+                    && type.isAnnotationPresent(Frozen.class);
+        }
+    };
+
+    /**
+     * Weak reference compared by identity of the referent, so documents overriding equals are
+     * tracked per instance and are not kept alive by the tracker
+     */
+    private static final class IdentityKey extends WeakReference<Object> {
+        private final int hash;
+
+        IdentityKey(Object referent, ReferenceQueue<Object> queue) {
+            super(referent, queue);
+            this.hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof IdentityKey)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null && referent == ((IdentityKey) o).get();
+        }
+    }
+
+    private static final ConcurrentHashMap<IdentityKey, Long> hashes = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    private FrozenDocuments() {
+    }
+
+    static boolean isFrozen(Object document) {
+        return document instanceof ServiceDocument && FROZEN_TYPES.get(document.getClass());
+    }
+
+    static boolean isMutationDetectionEnabled() {
+        return isMutationDetectionEnabled;
+    }
+
+    static void setMutationDetectionEnabled(boolean enable) {
+        isMutationDetectionEnabled = enable;
+        if (!enable) {
+            hashes.clear();
+        }
+    }
+
+    /**
+     * Records the hash of a frozen document, after checking it was not mutated since it was
+     * last recorded
+     */
+    static void freeze(Object document) {
+        if (!isMutationDetectionEnabled || !isFrozen(document)) {
+            return;
+        }
+        expungeCollected();
+        long hash = hash(document);
+        Long previous = hashes.putIfAbsent(new IdentityKey(document, collected), hash);
+        if (previous != null && previous != hash) {
+            throw new IllegalStateException(mutationMessage(document));
+        }
+    }
+
+    /**
+     * Records the hash of a frozen document, replacing any previous record
+     */
+    static void track(Object document) {
+        if (!isMutationDetectionEnabled || !isFrozen(document)) {
+            return;
+        }
+        expungeCollected();
+        hashes.put(new IdentityKey(document, collected), hash(document));
+    }
+
+    /**
+     * Checks a frozen document was not mutated since it was recorded
+     */
+    static void verify(Object document) {
+        if (!isMutationDetectionEnabled || !isFrozen(document)) {
+            return;
+        }
+        Long previous = hashes.get(new IdentityKey(document, null));
+        if (previous != null && previous != hash(document)) {
+            throw new IllegalStateException(mutationMessage(document));
+        }
+    }
+
+    private static long hash(Object document) {
+        return GsonSerializers.hashJson(document, FNVHash.FNV_OFFSET_MINUS_MSB);
+    }
+
+    private static String mutationMessage(Object document) {
+        return String.format("Frozen document %s (%s) was mutated after it was sent or cached",
+                ((ServiceDocument) document).documentSelfLink, document.getClass().getName());
+    }
+
+    private static void expungeCollected() {
+        Reference<?> ref;
+        while ((ref = collected.poll()) != null) {
+            hashes.remove(ref);
+        }
+    }
+}
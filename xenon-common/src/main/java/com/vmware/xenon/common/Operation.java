@@ -15,6 +15,7 @@ package com.vmware.xenon.common;
 
 import static java.lang.String.format;
 
+import java.lang.reflect.Modifier;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.security.Principal;
@@ -34,6 +35,7 @@ import javax.security.cert.X509Certificate;
 import com.vmware.xenon.common.Service.Action;
 import com.vmware.xenon.common.ServiceDocumentDescription.Builder;
 import com.vmware.xenon.common.ServiceHost.ServiceNotFoundException;
+import com.vmware.xenon.common.serialization.GsonSerializers;
 import com.vmware.xenon.common.serialization.KryoSerializers;
 import com.vmware.xenon.services.common.GuestUserService;
 import com.vmware.xenon.services.common.QueryFilter;
@@ -113,6 +115,8 @@ public class Operation implements Cloneable {
         X509Certificate[] peerCertificateChain;
         String connectionTag;
         Map<String, String> cookies;
+        EncodedBodyCache encodedBodyCache;
+        Runnable admissionThrottleHandler;
     }
 
     /**
@@ -312,6 +316,21 @@ public class Operation implements Cloneable {
          */
         RATE_LIMITED,
 
+        /**
+         * The operation arrived while the host admission limit was reached, the request listener
+         * pauses reads from the operation channel until the host has capacity
+         */
+        ADMISSION_THROTTLED,
+
+        /**
+         * Infrastructure use only
+         *
+         * Set by the admission control filter when the operation is admitted, so that an
+         * operation passing through the processing chain again, after it was queued by the
+         * target service, is not admitted twice
+         */
+        ADMITTED,
+
         /**
          * Infrastructure use only
          *
@@ -451,6 +470,11 @@ public class Operation implements Cloneable {
     public static final String CONTENT_LENGTH_HEADER = "content-length";
     public static final String CONTENT_RANGE_HEADER = "content-range";
     public static final String RANGE_HEADER = "range";
+    public static final String ACCEPT_RANGES_HEADER = "accept-ranges";
+    public static final String ETAG_HEADER = "etag";
+    public static final String IF_NONE_MATCH_HEADER = "if-none-match";
+    public static final String LAST_MODIFIED_HEADER = "last-modified";
+    public static final String IF_MODIFIED_SINCE_HEADER = "if-modified-since";
     public static final String RETRY_AFTER_HEADER = "retry-after";
     public static final String PRAGMA_HEADER = "pragma";
     public static final String SET_COOKIE_HEADER = "set-cookie";
@@ -666,8 +690,10 @@ public class Operation implements Cloneable {
     public static final int STATUS_CODE_OK = HttpURLConnection.HTTP_OK;
     public static final int STATUS_CODE_CREATED = HttpURLConnection.HTTP_CREATED;
     public static final int STATUS_CODE_ACCEPTED = HttpURLConnection.HTTP_ACCEPTED;
+    public static final int STATUS_CODE_PARTIAL_CONTENT = HttpURLConnection.HTTP_PARTIAL;
     public static final int STATUS_CODE_BAD_REQUEST = HttpURLConnection.HTTP_BAD_REQUEST;
     public static final int STATUS_CODE_BAD_METHOD = HttpURLConnection.HTTP_BAD_METHOD;
+    public static final int STATUS_CODE_RANGE_NOT_SATISFIABLE = 416;
     public static final int STATUS_CODE_INTERNAL_ERROR = HttpURLConnection.HTTP_INTERNAL_ERROR;
 
     public static final String MEDIA_TYPE_EVERYTHING_WILDCARDS = "*/*";
@@ -878,6 +904,8 @@ public class Operation implements Cloneable {
                         this.remoteCtx.peerCertificateChain.length);
             }
             clone.remoteCtx.connectionTag = this.remoteCtx.connectionTag;
+            // the encoded body is shared, read only, by the clones sent to each peer
+            clone.remoteCtx.encodedBodyCache = this.remoteCtx.encodedBodyCache;
         }
 
         return clone;
@@ -950,6 +978,10 @@ public class Operation implements Cloneable {
         if (body != null) {
             if (hasOption(OperationOption.CLONING_DISABLED)) {
                 this.body = body;
+            } else if (FrozenDocuments.isFrozen(body)) {
+                // frozen documents are never mutated once sent, no need to isolate the sender
+                FrozenDocuments.freeze(body);
+                this.body = body;
             } else {
                 this.body = Utils.clone(body);
             }
@@ -964,6 +996,24 @@ public class Operation implements Cloneable {
         return this;
     }
 
+    /**
+     * Infrastructure use only. Associates a cache for the encoded request body with the
+     * operation and its clones, so sending the same body to multiple peers or subscribers
+     * encodes it once
+     */
+    public Operation setEncodedBodyCache(EncodedBodyCache cache) {
+        allocateRemoteContext();
+        this.remoteCtx.encodedBodyCache = cache;
+        return this;
+    }
+
+    /**
+     * Infrastructure use only
+     */
+    public EncodedBodyCache getEncodedBodyCache() {
+        return this.remoteCtx == null ? null : this.remoteCtx.encodedBodyCache;
+    }
+
     /**
      * Infrastructure use only
      *
@@ -1000,6 +1050,9 @@ public class Operation implements Cloneable {
     @SuppressWarnings("unchecked")
     public <T> T getBody(Class<T> type) {
         if (this.body != null && this.body.getClass() == type) {
+            if (FrozenDocuments.isMutationDetectionEnabled()) {
+                FrozenDocuments.verify(this.body);
+            }
             return (T) this.body;
         }
 
@@ -1007,11 +1060,18 @@ public class Operation implements Cloneable {
             if (this.contentType != null && Utils.isContentTypeKryoBinary(this.contentType)
                     && this.body instanceof byte[]) {
                 byte[] bytes = (byte[])this.body;
+                // JSON is produced on demand, from the deserialized document
                 this.body = KryoSerializers.deserializeDocument(bytes, 0, bytes.length);
-                this.serializedBody = Utils.toJson(this.body);
                 return (T) this.body;
             }
 
+            if (this.serializedBody == null) {
+                T converted = convertBody(type);
+                if (converted != null) {
+                    return converted;
+                }
+            }
+
             if (this.contentType == null
                     || !this.contentType.contains(MEDIA_TYPE_APPLICATION_JSON)) {
                 throw new IllegalStateException("content type is not JSON: " + this.contentType);
@@ -1049,6 +1109,29 @@ public class Operation implements Cloneable {
         throw new IllegalStateException();
     }
 
+    /**
+     * Converts a document body to one of its super types, without a JSON round trip. The
+     * result is a deep copy holding the fields of the requested type, like the document parsed
+     * from its JSON form would. Returns null if the body can not be converted directly
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T convertBody(Class<T> type) {
+        if (!(this.body instanceof ServiceDocument) || !type.isInstance(this.body)
+                || !ServiceDocument.class.isAssignableFrom(type)
+                || Modifier.isAbstract(type.getModifiers())) {
+            return null;
+        }
+        if (GsonSerializers.hasCustomJsonMapper(this.body.getClass())
+                || GsonSerializers.hasCustomJsonMapper(type)) {
+            return null;
+        }
+        T copy = ReflectionUtils.copyInstanceFields(this.body, type);
+        if (copy == null) {
+            return null;
+        }
+        return Utils.clone(copy);
+    }
+
     public Object getBodyRaw() {
         return this.body;
     }
@@ -1183,6 +1266,25 @@ public class Operation implements Cloneable {
         return this.setHeadersReceivedHandler(handler);
     }
 
+    /**
+     * Infrastructure use only.
+     *
+     * Sets the handler the request listener uses to pause reads from the operation channel,
+     * invoked when the operation is throttled or rejected by the host admission limit
+     */
+    public Operation setAdmissionThrottleHandler(Runnable handler) {
+        allocateRemoteContext();
+        this.remoteCtx.admissionThrottleHandler = handler;
+        return this;
+    }
+
+    /**
+     * Infrastructure use only.
+     */
+    public Runnable getAdmissionThrottleHandler() {
+        return this.remoteCtx == null ? null : this.remoteCtx.admissionThrottleHandler;
+    }
+
     public CompletionHandler getCompletion() {
         return this.completion;
     }
@@ -18,11 +18,13 @@ import java.util.Collection;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * Queue implementation customized for the needs of a service. Depending on creation options
  * it will act as a limited capacity {@code Deque} with either FIFO or LIFO behavior.
- * The queue is not thread safe and should be used within a synchronized context
+ * The queue is thread safe and lock free: the element count is reserved with a compare and
+ * set before an operation is added, so concurrent producers never exceed the limit
  */
 public class OperationQueue {
 
@@ -44,7 +46,10 @@ public class OperationQueue {
      */
     private int limit;
 
-    private int elementCount;
+    private volatile int elementCount;
+
+    private static final AtomicIntegerFieldUpdater<OperationQueue> elementCountUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(OperationQueue.class, "elementCount");
 
     /**
      * Underlying storage for the operation queue. The choice of data structure is subject to
@@ -82,26 +87,24 @@ public class OperationQueue {
             throw new IllegalArgumentException("op is required");
         }
 
-        // we use non restricted queue so we do not check for offer failures
-        if (this.limit < 0) {
-            // LIFO queue
-            if (this.elementCount >= -this.limit) {
+        // reserve a slot before adding, the underlying queue is not restricted
+        int max = Math.abs(this.limit);
+        int count;
+        do {
+            count = this.elementCount;
+            if (count >= max) {
                 return false;
             }
+        } while (!elementCountUpdater.compareAndSet(this, count, count + 1));
 
+        if (this.limit < 0) {
+            // LIFO queue
             this.store.offerFirst(op);
-            this.elementCount++;
-            return true;
         } else {
             // FIFO queue
-            if (this.elementCount >= this.limit) {
-                return false;
-            }
-
             this.store.offerLast(op);
-            this.elementCount++;
-            return true;
         }
+        return true;
     }
 
     /**
@@ -113,15 +116,25 @@ public class OperationQueue {
         if (op == null) {
             return null;
         }
-        this.elementCount--;
-        if (this.elementCount < 0) {
+        if (elementCountUpdater.decrementAndGet(this) < 0) {
             throw new IllegalStateException("elementCount is negative");
         }
         return op;
     }
 
+    /**
+     * Removes the given operation, if present. Returns true if the operation was removed
+     */
+    public boolean remove(Operation op) {
+        if (!this.store.removeFirstOccurrence(op)) {
+            return false;
+        }
+        elementCountUpdater.decrementAndGet(this);
+        return true;
+    }
+
     Collection<Operation> toCollection() {
-        ArrayList<Operation> clone = new ArrayList<>(this.elementCount);
+        ArrayList<Operation> clone = new ArrayList<>(Math.max(0, this.elementCount));
         for (Operation op : this.store) {
             clone.add(op);
         }
@@ -132,19 +145,26 @@ public class OperationQueue {
      * Inserts all items to the supplied collection and clears this queue
      */
     public void transferAll(Collection<Operation> pendingOps) {
-        pendingOps.addAll(this.store);
-        this.store.clear();
+        Operation op;
+        while ((op = poll()) != null) {
+            pendingOps.add(op);
+        }
     }
 
     /**
      * Clears all items
      */
     public void clear() {
-        this.store.clear();
+        while (poll() != null) {
+            // drain, so the element count stays consistent with concurrent producers
+        }
     }
 
+    /**
+     * Returns the number of queued operations. The count can briefly include an operation
+     * that is being added concurrently
+     */
     public int size() {
-        this.elementCount = this.store.size();
         return this.elementCount;
     }
 
@@ -16,6 +16,7 @@ package com.vmware.xenon.common;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.SortedSet;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
@@ -28,7 +29,9 @@ import com.vmware.xenon.common.Service.ProcessingStage;
 
 /**
  * Performs periodic maintenance and expiration tracking on operations. Utilized by
- * service host for all operation related maintenance.
+ * service host for all operation related maintenance. Operation expiration is scheduled
+ * on the host {@link TimingWheel}, so tracking and un-tracking an operation is constant time
+ * and maintenance does not walk the pending operations.
  */
 public class OperationTracker {
 
@@ -41,6 +44,9 @@ public class OperationTracker {
     private final ConcurrentHashMap<String, SortedSet<Operation>> pendingServiceStartCompletions = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, SortedSet<Operation>> pendingServiceAvailableCompletions = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Long, Operation> pendingOperationsForRetry = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Operation, TimingWheel.Timeout> startOperationTimeouts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Operation, TimingWheel.Timeout> serviceStartCompletionTimeouts = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Operation, TimingWheel.Timeout> serviceAvailableCompletionTimeouts = new ConcurrentHashMap<>();
 
     public static OperationTracker create(ServiceHost host) {
         OperationTracker omt = new OperationTracker();
@@ -60,10 +66,12 @@ public class OperationTracker {
 
     public void trackStartOperation(Operation op) {
         this.pendingStartOperations.add(op);
+        trackExpiration(op, this.pendingStartOperations, this.startOperationTimeouts);
     }
 
     public void removeStartOperation(Operation post) {
         this.pendingStartOperations.remove(post);
+        cancelExpiration(post, this.startOperationTimeouts);
     }
 
     public void trackServiceStartCompletion(String link, Operation op) {
@@ -74,12 +82,15 @@ public class OperationTracker {
                         pendingOps = createOperationSet();
                     }
                     pendingOps.add(op);
+                    trackExpiration(op, pendingOps, this.serviceStartCompletionTimeouts);
                     return pendingOps;
                 });
     }
 
     public SortedSet<Operation> removeServiceStartCompletions(String link) {
-        return this.pendingServiceStartCompletions.remove(link);
+        SortedSet<Operation> ops = this.pendingServiceStartCompletions.remove(link);
+        cancelExpiration(ops, this.serviceStartCompletionTimeouts);
+        return ops;
     }
 
     public void trackServiceAvailableCompletion(String link,
@@ -92,6 +103,7 @@ public class OperationTracker {
                         pendingOps = createOperationSet();
                     }
                     pendingOps.add(op);
+                    trackExpiration(op, pendingOps, this.serviceAvailableCompletionTimeouts);
                     return pendingOps;
                 });
     }
@@ -101,18 +113,55 @@ public class OperationTracker {
     }
 
     public SortedSet<Operation> removeServiceAvailableCompletions(String link) {
-        return this.pendingServiceAvailableCompletions.remove(link);
+        SortedSet<Operation> ops = this.pendingServiceAvailableCompletions.remove(link);
+        cancelExpiration(ops, this.serviceAvailableCompletionTimeouts);
+        return ops;
+    }
+
+    /**
+     * Schedules the operation to fail with a timeout on expiration, unless it has been removed
+     * from the pending set by then
+     */
+    private void trackExpiration(Operation op, Set<Operation> pendingOps,
+            ConcurrentHashMap<Operation, TimingWheel.Timeout> timeouts) {
+        TimingWheel.Timeout timeout = this.host.getTimingWheel().schedule(
+                op.getExpirationMicrosUtc(), () -> {
+                    timeouts.remove(op);
+                    if (!pendingOps.remove(op)) {
+                        return;
+                    }
+                    this.host.run(() -> op.fail(new TimeoutException(op.toString())));
+                });
+        TimingWheel.Timeout existing = timeouts.put(op, timeout);
+        if (existing != null) {
+            existing.cancel();
+        }
+    }
+
+    private void cancelExpiration(Operation op,
+            ConcurrentHashMap<Operation, TimingWheel.Timeout> timeouts) {
+        TimingWheel.Timeout timeout = timeouts.remove(op);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    private void cancelExpiration(SortedSet<Operation> ops,
+            ConcurrentHashMap<Operation, TimingWheel.Timeout> timeouts) {
+        if (ops == null) {
+            return;
+        }
+        for (Operation op : ops) {
+            cancelExpiration(op, timeouts);
+        }
     }
 
     public void performMaintenance(long nowMicros) {
-        // check pendingStartOperations
-        Iterator<Operation> startOpsIt = this.pendingStartOperations.iterator();
-        checkOperationExpiration(nowMicros, startOpsIt);
+        // expiration of pending operations is driven by the host timing wheel, here we
+        // only check for services that changed stage without processing their pending operations
 
         // check pendingServiceStartCompletions
-        for (Entry<String, SortedSet<Operation>> entry : this.pendingServiceStartCompletions.entrySet()) {
-            String link = entry.getKey();
-            SortedSet<Operation> pendingOps = entry.getValue();
+        for (String link : this.pendingServiceStartCompletions.keySet()) {
             Service s = this.host.findService(link, true);
             if (s != null && s.getProcessingStage() == ProcessingStage.AVAILABLE) {
                 this.host.log(Level.WARNING,
@@ -125,28 +174,17 @@ public class OperationTracker {
                 this.host.log(Level.WARNING,
                         "Service %s has stopped, but has pending start operations", link);
                 processPendingServiceStartOperations(link, ProcessingStage.STOPPED, null);
-                continue;
             }
-
-            Iterator<Operation> it = pendingOps.iterator();
-            checkOperationExpiration(nowMicros, it);
         }
 
         // check pendingServiceAvailableCompletions
-        for (Entry<String, SortedSet<Operation>> entry : this.pendingServiceAvailableCompletions
-                .entrySet()) {
-            String link = entry.getKey();
-            SortedSet<Operation> pendingOps = entry.getValue();
+        for (String link : this.pendingServiceAvailableCompletions.keySet()) {
             Service s = this.host.findService(link, true);
             if (s != null && s.getProcessingStage() == ProcessingStage.AVAILABLE) {
                 this.host.log(Level.WARNING,
                         "Service %s available, but has pending start operations", link);
                 this.host.processPendingServiceAvailableOperations(s, null, false);
-                continue;
             }
-
-            Iterator<Operation> it = pendingOps.iterator();
-            checkOperationExpiration(nowMicros, it);
         }
 
         // check pendingOperationsForRetry
@@ -173,19 +211,6 @@ public class OperationTracker {
         }
     }
 
-    private void checkOperationExpiration(long now, Iterator<Operation> iterator) {
-        while (iterator.hasNext()) {
-            Operation op = iterator.next();
-            if (op == null || op.getExpirationMicrosUtc() > now) {
-                // not expired, and since we walk in ascending order, no other operations
-                // are expired
-                break;
-            }
-            iterator.remove();
-            this.host.run(() -> op.fail(new TimeoutException(op.toString())));
-        }
-    }
-
     void processPendingServiceStartOperations(String link, ProcessingStage processingStage, Service s) {
         SortedSet<Operation> ops = removeServiceStartCompletions(link);
         if (ops == null || ops.isEmpty()) {
@@ -210,6 +235,10 @@ public class OperationTracker {
     }
 
     public void close() {
+        cancelExpiration(this.startOperationTimeouts);
+        cancelExpiration(this.serviceStartCompletionTimeouts);
+        cancelExpiration(this.serviceAvailableCompletionTimeouts);
+
         for (Operation op : this.pendingOperationsForRetry.values()) {
             op.fail(new CancellationException("Operation tracker is closing"));
         }
@@ -234,4 +263,11 @@ public class OperationTracker {
         }
         this.pendingServiceAvailableCompletions.clear();
     }
+
+    private void cancelExpiration(ConcurrentHashMap<Operation, TimingWheel.Timeout> timeouts) {
+        for (TimingWheel.Timeout timeout : timeouts.values()) {
+            timeout.cancel();
+        }
+        timeouts.clear();
+    }
 }
\ No newline at end of file
@@ -50,11 +50,20 @@ public final class QueryFilterUtils {
 
     /**
      * Evaluates the given document state given the filter and an available service document
-     * description cached by the service host.
+     * description cached by the service host. The description is only looked up if the filter
+     * can match the document kind and constrains properties other than the built-in ones.
      *
      * The service associated with the state must be started on the host.
      */
     public static boolean evaluate(QueryFilter filter, ServiceDocument state, ServiceHost host) {
+        if (!filter.matchesKind(state.documentKind)) {
+            return false;
+        }
+
+        if (!filter.isDescriptionRequired()) {
+            return evaluate(filter, state, (ServiceDocumentDescription) null);
+        }
+
         ServiceDocumentDescription sdd = host.buildDocumentDescription(state.documentSelfLink);
         if (sdd == null) {
             host.log(Level.WARNING, "Description not found for %s", state.documentSelfLink);
@@ -193,7 +193,7 @@ public final class QueryResultsProcessor {
         }
         if (type.isInstance(o)) {
             return type.cast(o);
-        } else if (o instanceof String || o instanceof JsonObject) {
+        } else if (o instanceof String || o instanceof JsonObject || o instanceof ServiceDocument) {
             // assume json serialized string
             return Utils.fromJson(o, type);
         } else {
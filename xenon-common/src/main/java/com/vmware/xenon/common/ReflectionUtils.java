@@ -16,8 +16,12 @@ package com.vmware.xenon.common;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.toMap;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -31,11 +35,50 @@ import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyDescription;
+import com.vmware.xenon.common.config.XenonConfiguration;
 
 public final class ReflectionUtils {
 
     private static final ConcurrentHashMap<Class<?>, Map<String, Field>> DECLARED_FIELDS_CACHE = new ConcurrentHashMap<>();
 
+    /**
+     * Instance fields of a class and its super classes, the fields serialized to JSON
+     */
+    private static final ClassValue<Field[]> INSTANCE_FIELDS_CACHE = new ClassValue<Field[]>() {
+        @Override
+        protected Field[] computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    int mods = f.getModifiers();
+                    if (Modifier.isStatic(mods) || Modifier.isTransient(mods)
+                            || f.isSynthetic()) {
+                        continue;
+                    }
+                    f.setAccessible(true);
+                    fields.add(f);
+                }
+            }
+            return fields.toArray(new Field[fields.size()]);
+        }
+    };
+
+    /**
+     * Access document properties through method handles created once per property, instead
+     * of through {@link Field} reflection on every access
+     */
+    public static final boolean METHOD_HANDLE_ACCESSORS = XenonConfiguration.bool(
+            ReflectionUtils.class,
+            "methodHandleAccessors",
+            true
+    );
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class,
+            Object.class);
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class,
+            Object.class, Object.class);
+
     private ReflectionUtils() {
 
     }
@@ -53,19 +96,82 @@ public final class ReflectionUtils {
         return null;
     }
 
+    /**
+     * Creates an instance of the supplied type holding the values of the source instance
+     * fields declared by the type and its super classes. The source must be an instance of the
+     * type. Values are shared with the source, not copied. Returns null if the type can not be
+     * instantiated
+     */
+    public static <T> T copyInstanceFields(Object source, Class<T> type) {
+        if (!type.isInstance(source)) {
+            throw new IllegalArgumentException(source.getClass() + " is not a " + type);
+        }
+        T target = instantiate(type);
+        if (target == null) {
+            return null;
+        }
+        try {
+            for (Field f : INSTANCE_FIELDS_CACHE.get(type)) {
+                f.set(target, f.get(source));
+            }
+        } catch (IllegalAccessException e) {
+            Utils.logWarning("Reflection error: %s", Utils.toString(e));
+            return null;
+        }
+        return target;
+    }
+
+    /**
+     * Creates the getter and setter method handles of a property, from its field. The
+     * handles are not created if disabled or if the field is not accessible, in which case the
+     * property is accessed with reflection
+     */
+    static void createAccessors(PropertyDescription pd) {
+        if (!METHOD_HANDLE_ACCESSORS || pd.accessor == null) {
+            return;
+        }
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        try {
+            pd.getter = lookup.unreflectGetter(pd.accessor).asType(GETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            pd.getter = null;
+        }
+        try {
+            pd.setter = lookup.unreflectSetter(pd.accessor).asType(SETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            // final fields can only be set with reflection
+            pd.setter = null;
+        }
+    }
+
     public static Object getPropertyValue(PropertyDescription pd, Object instance) {
+        MethodHandle getter = pd.getter;
         try {
+            if (getter != null) {
+                return (Object) getter.invokeExact(instance);
+            }
             return pd.accessor.get(instance);
-        } catch (Exception e) {
+        } catch (RuntimeException | IllegalAccessException e) {
             Utils.logWarning("Reflection error: %s", Utils.toString(e));
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
         }
         return null;
     }
 
     public static void setPropertyValue(PropertyDescription pd, Object instance, Object value) {
+        MethodHandle setter = pd.setter;
         try {
+            if (setter != null) {
+                setter.invokeExact(instance, value);
+                return;
+            }
             pd.accessor.set(instance, value);
-        } catch (Exception e) {
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
             throw new RuntimeException(e);
         }
     }
@@ -88,21 +194,21 @@ public final class ReflectionUtils {
             Object value) {
         try {
             boolean hasValueChanged = false;
-            Object currentObj = pd.accessor.get(instance);
+            Object currentObj = getPropertyValue(pd, instance);
             if (currentObj != null) {
                 if (currentObj instanceof Collection) {
                     Collection<Object> existingCollection = (Collection<Object>) currentObj;
                     hasValueChanged = existingCollection.addAll((Collection<Object>) value);
-                    pd.accessor.set(instance, existingCollection);
+                    setPropertyValue(pd, instance, existingCollection);
                 } else if (currentObj instanceof Map) {
                     Map<Object, Object> existingMap = (Map<Object, Object>) currentObj;
                     hasValueChanged = mergeMapField(existingMap, (Map<Object, Object>) value);
-                    pd.accessor.set(instance, existingMap);
+                    setPropertyValue(pd, instance, existingMap);
                 } else {
                     throw new RuntimeException("Merge not supported for specified data type");
                 }
             } else {
-                pd.accessor.set(instance, value);
+                setPropertyValue(pd, instance, value);
                 hasValueChanged = value != null;
             }
             return hasValueChanged;
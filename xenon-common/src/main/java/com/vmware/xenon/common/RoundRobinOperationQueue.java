@@ -16,6 +16,7 @@ package com.vmware.xenon.common;
 import static java.lang.String.format;
 
 import java.util.ArrayDeque;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -93,6 +94,23 @@ public final class RoundRobinOperationQueue {
         return null;
     }
 
+    /**
+     * Polls up to maxCount operations, using the same fairness scheme as {@link #poll()}, and
+     * adds them to the supplied collection. Returns the number of operations added
+     */
+    public synchronized int drainTo(Collection<Operation> ops, int maxCount) {
+        int count = 0;
+        while (count < maxCount) {
+            Operation op = poll();
+            if (op == null) {
+                break;
+            }
+            ops.add(op);
+            count++;
+        }
+        return count;
+    }
+
     public boolean isEmpty() {
         return this.queues.isEmpty();
     }
@@ -318,6 +318,9 @@ public interface Service extends ServiceRequestSender {
     static final String STAT_NAME_REQUEST_FAILURE_QUEUE_LIMIT_EXCEEDED_COUNT = "requestFailureQueueLimitExceededCount";
     static final String STAT_NAME_STATE_PERSIST_LATENCY = "statePersistLatencyMicros";
     static final String STAT_NAME_OPERATION_QUEUEING_LATENCY = "operationQueueingLatencyMicros";
+    static final String STAT_NAME_OPERATION_QUEUE_CONTENTION_COUNT = "operationQueueContentionCount";
+    static final String STAT_NAME_OPERATION_QUEUE_DEPTH = "operationQueueDepth";
+    static final String STAT_NAME_BODY_ENCODINGS_SAVED_COUNT = "bodyEncodingsSavedCount";
     static final String STAT_NAME_SERVICE_HANDLER_LATENCY = "operationHandlerProcessingLatencyMicros";
     static final String STAT_NAME_CREATE_COUNT = "createCount";
     static final String STAT_NAME_OPERATION_DURATION = "operationDuration";
@@ -14,6 +14,7 @@
 package com.vmware.xenon.common;
 
 import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
 import java.lang.annotation.Repeatable;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -121,6 +122,23 @@ public class ServiceDocument {
         int versionRetentionFloor() default ServiceDocumentDescription.DEFAULT_VERSION_RETENTION_LIMIT / 2;
     }
 
+    /**
+     * Marks a document type as frozen: once an instance is set as an operation body or as
+     * service state, it is never mutated. Code that needs a modified document copies it first,
+     * with {@link Utils#clone(Object)}, and mutates the copy.
+     *
+     * Instances of frozen types are not cloned by {@link Operation#setBody(Object)}, and
+     * cached service state is handed to service handlers without a clone, so in process
+     * requests do not copy the document graph on every hop. Mutation of frozen documents can
+     * be detected with the {@code xenon.FrozenDocuments.detectMutation} property, at the cost
+     * of hashing every frozen document, so it is meant for tests and debugging
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @Inherited
+    public @interface Frozen {
+    }
+
     /**
      * Annotations for ServiceDocumentDescription
      */
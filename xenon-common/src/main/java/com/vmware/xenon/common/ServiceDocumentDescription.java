@@ -14,6 +14,7 @@
 package com.vmware.xenon.common;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -221,6 +222,18 @@ public class ServiceDocumentDescription {
         public Object exampleValue;
         transient Field accessor;
 
+        /**
+         * Getter and setter of the field, adapted to object arguments and return values. Null
+         * if the field is accessed with reflection, see
+         * {@link ReflectionUtils#getPropertyValue(PropertyDescription, Object)}.
+         *
+         * The handles are per property instance fields since properties are discovered at
+         * runtime, so they are not constant folded like static final handles. LambdaMetafactory
+         * does not accept field handles on Java 8
+         */
+        transient MethodHandle getter;
+        transient MethodHandle setter;
+
         public EnumSet<PropertyIndexingOption> indexingOptions;
         public EnumSet<PropertyUsageOption> usageOptions;
         public String propertyDocumentation;
@@ -424,6 +437,7 @@ public class ServiceDocumentDescription {
                 }
 
                 fd.accessor = f;
+                ReflectionUtils.createAccessors(fd);
                 String fieldName;
                 SerializedName sn = f.getAnnotation(SerializedName.class);
                 if (sn != null) {
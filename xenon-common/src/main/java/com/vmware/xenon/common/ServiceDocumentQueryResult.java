@@ -14,9 +14,11 @@
 package com.vmware.xenon.common;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import com.esotericsoftware.kryo.serializers.VersionFieldSerializer;
 
@@ -30,6 +32,8 @@ public class ServiceDocumentQueryResult extends ServiceDocument {
     public static final String FIELD_NAME_PREV_PAGE_LINK = "prevPageLink";
     public static final String FIELD_NAME_NEXT_PAGE_LINK = "nextPageLink";
     public static final String FIELD_NAME_QUERY_TIME_MICROS = "queryTimeMicros";
+    public static final String FIELD_NAME_AGGREGATIONS = "aggregations";
+    public static final String FIELD_NAME_AGGREGATIONS_PER_GROUP = "aggregationsPerGroup";
 
     public static final String KIND = Utils.buildKind(ServiceDocumentQueryResult.class);
     /**
@@ -110,6 +114,20 @@ public class ServiceDocumentQueryResult extends ServiceDocument {
     @VersionFieldSerializer.Since(ReleaseConstants.RELEASE_VERSION_1_4_2)
     public ContinuousResult continuousResults;
 
+    /**
+     * Valid only for queries with QueryOption.AGGREGATE. Aggregates of the documents that
+     * satisfy the query, per aggregated property name
+     */
+    @VersionFieldSerializer.Since(ReleaseConstants.RELEASE_VERSION_1_7_0)
+    public Map<String, AggregationResult> aggregations;
+
+    /**
+     * Valid only for queries with QueryOption.AGGREGATE and QueryOption.GROUP_BY. Aggregates
+     * of the documents that satisfy the query, per group value and aggregated property name
+     */
+    @VersionFieldSerializer.Since(ReleaseConstants.RELEASE_VERSION_1_7_0)
+    public Map<String, Map<String, AggregationResult>> aggregationsPerGroup;
+
     /**
      * Populated only for continuous query task.
      */
@@ -130,6 +148,147 @@ public class ServiceDocumentQueryResult extends ServiceDocument {
         public Long documentCountAdded = 0L;
     }
 
+    /**
+     * Aggregates of a numeric property, over the documents that have a value for it.
+     * Percentiles are approximated, within one percent of the actual value, from a histogram
+     * with logarithmic buckets, which is kept so results from multiple nodes can be merged
+     */
+    public static class AggregationResult {
+        private static final int[] PERCENTILES = { 50, 90, 95, 99 };
+
+        private static final double RELATIVE_ACCURACY = 0.01;
+        private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+        private static final double LOG_GAMMA = Math.log(GAMMA);
+
+        /**
+         * Added to the logarithmic index of a value, so the bucket of every finite, non zero
+         * value is positive, before applying the sign of the value
+         */
+        private static final int BUCKET_OFFSET = 20000;
+        private static final int INFINITE_BUCKET = Integer.MAX_VALUE;
+
+        /**
+         * Number of values
+         */
+        public long count;
+
+        public double sum;
+
+        public Double min;
+
+        public Double max;
+
+        public Double average;
+
+        /**
+         * Approximate 50th, 90th, 95th and 99th percentiles, keyed by percentile
+         */
+        public Map<String, Double> percentiles;
+
+        /**
+         * Infrastructure use only. Number of values per histogram bucket
+         */
+        public Map<Integer, Long> histogram = new HashMap<>();
+
+        /**
+         * Adds a value. NaN values are ignored
+         */
+        public void add(double value) {
+            if (Double.isNaN(value)) {
+                return;
+            }
+            this.count++;
+            this.sum += value;
+            if (this.min == null || value < this.min) {
+                this.min = value;
+            }
+            if (this.max == null || value > this.max) {
+                this.max = value;
+            }
+            this.histogram.merge(getBucket(value), 1L, (a, b) -> a + b);
+        }
+
+        /**
+         * Adds the values of another result to this one
+         */
+        public void merge(AggregationResult other) {
+            if (other.count == 0) {
+                return;
+            }
+            this.count += other.count;
+            this.sum += other.sum;
+            if (this.min == null || other.min < this.min) {
+                this.min = other.min;
+            }
+            if (this.max == null || other.max > this.max) {
+                this.max = other.max;
+            }
+            for (Map.Entry<Integer, Long> e : other.histogram.entrySet()) {
+                this.histogram.merge(e.getKey(), e.getValue(), (a, b) -> a + b);
+            }
+        }
+
+        /**
+         * Computes the average and percentiles from the values added so far
+         */
+        public void complete() {
+            if (this.count == 0) {
+                this.average = null;
+                this.percentiles = null;
+                return;
+            }
+            this.average = this.sum / this.count;
+            this.percentiles = new TreeMap<>();
+
+            TreeMap<Integer, Long> buckets = new TreeMap<>(this.histogram);
+            int i = 0;
+            long valueCount = 0;
+            for (Map.Entry<Integer, Long> e : buckets.entrySet()) {
+                valueCount += e.getValue();
+                while (i < PERCENTILES.length
+                        && valueCount >= Math.ceil(PERCENTILES[i] / 100.0 * this.count)) {
+                    double value = Math.max(this.min,
+                            Math.min(this.max, getBucketValue(e.getKey())));
+                    this.percentiles.put(Integer.toString(PERCENTILES[i]), value);
+                    i++;
+                }
+            }
+        }
+
+        /**
+         * Returns the bucket of a value. Buckets are ordered like the values they contain
+         */
+        static int getBucket(double value) {
+            if (value == 0) {
+                return 0;
+            }
+            int bucket;
+            if (Double.isInfinite(value)) {
+                bucket = INFINITE_BUCKET;
+            } else {
+                bucket = (int) Math.ceil(Math.log(Math.abs(value)) / LOG_GAMMA) + BUCKET_OFFSET;
+            }
+            return value > 0 ? bucket : -bucket;
+        }
+
+        /**
+         * Returns the value representing a bucket, within the relative accuracy of any value
+         * in the bucket
+         */
+        static double getBucketValue(int bucket) {
+            if (bucket == 0) {
+                return 0;
+            }
+            double value;
+            if (Math.abs(bucket) == INFINITE_BUCKET) {
+                value = Double.POSITIVE_INFINITY;
+            } else {
+                value = 2 * Math.pow(GAMMA, Math.abs(bucket) - BUCKET_OFFSET) / (GAMMA + 1);
+            }
+            return bucket > 0 ? value : -value;
+        }
+    }
+
     @Override
     public void copyTo(ServiceDocument target) {
         super.copyTo(target);
@@ -145,6 +304,8 @@ public class ServiceDocumentQueryResult extends ServiceDocument {
             sdqr.nextPageLinksPerGroup = this.nextPageLinksPerGroup;
             sdqr.queryTimeMicros = this.queryTimeMicros;
             sdqr.continuousResults = this.continuousResults;
+            sdqr.aggregations = this.aggregations;
+            sdqr.aggregationsPerGroup = this.aggregationsPerGroup;
         }
     }
 
@@ -162,6 +323,8 @@ public class ServiceDocumentQueryResult extends ServiceDocument {
         case FIELD_NAME_PREV_PAGE_LINK:
         case FIELD_NAME_NEXT_PAGE_LINK:
         case FIELD_NAME_QUERY_TIME_MICROS:
+        case FIELD_NAME_AGGREGATIONS:
+        case FIELD_NAME_AGGREGATIONS_PER_GROUP:
             return true;
         default:
             return false;
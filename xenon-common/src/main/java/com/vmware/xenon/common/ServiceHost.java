@@ -44,7 +44,6 @@ import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -135,6 +134,7 @@ import com.vmware.xenon.services.common.ServiceHostManagementService;
 import com.vmware.xenon.services.common.ServiceUriPaths;
 import com.vmware.xenon.services.common.ShardsManagementService;
 import com.vmware.xenon.services.common.ShardsManagementService.ShardsManagementServiceState;
+import com.vmware.xenon.services.common.SynchronizationDigestService;
 import com.vmware.xenon.services.common.SynchronizationManagementService;
 import com.vmware.xenon.services.common.SystemUserService;
 import com.vmware.xenon.services.common.TaskFactoryService;
@@ -310,6 +310,26 @@ public class ServiceHost implements ServiceRequestSender {
          * When enabled, perform incremental backup whenever document-index service performed commits.
          */
         public boolean isAutoBackupEnabled = false;
+
+        /**
+         * Value indicating whether the HTTP listeners and client use the native epoll transport,
+         * instead of NIO. The host falls back to NIO if the native transport is not available
+         * on this platform
+         */
+        public boolean isNativeTransportEnabled = false;
+
+        /**
+         * Value indicating whether service handlers run on virtual threads, one per request,
+         * instead of the shared fork join pool. Requires a JVM with virtual thread support
+         * (Java 21 or later); the host logs a warning and keeps the fork join pool otherwise
+         */
+        public boolean isVirtualThreadExecutorEnabled = false;
+
+        /**
+         * Value indicating whether remote requests are admitted through an adaptive concurrency
+         * limit, see {@link ServiceHost#getAdmissionLimiter()}
+         */
+        public boolean isAdmissionControlEnabled = false;
     }
 
     protected static final LogFormatter LOG_FORMATTER = new LogFormatter();
@@ -431,6 +451,33 @@ public class ServiceHost implements ServiceRequestSender {
             0
     );
 
+    /**
+     * Initial, minimum and maximum number of remote requests admitted in parallel, when
+     * admission control is enabled, see {@link #getAdmissionLimiter()}
+     */
+    private static final int ADMISSION_INITIAL_LIMIT = XenonConfiguration.integer(
+            ServiceHost.class,
+            "admissionInitialLimit",
+            Utils.DEFAULT_THREAD_COUNT * 64
+    );
+
+    private static final int ADMISSION_MIN_LIMIT = XenonConfiguration.integer(
+            ServiceHost.class,
+            "admissionMinLimit",
+            Utils.DEFAULT_THREAD_COUNT * 4
+    );
+
+    private static final int ADMISSION_MAX_LIMIT = XenonConfiguration.integer(
+            ServiceHost.class,
+            "admissionMaxLimit",
+            Utils.DEFAULT_THREAD_COUNT * 1024
+    );
+
+    /**
+     * Resolution of the host timing wheel, see {@link #getTimingWheel()}
+     */
+    private static final long TIMING_WHEEL_TICK_MICROS = TimeUnit.MILLISECONDS.toMicros(1);
+
     /**
      * Request rate limiting configuration and real time statistics
      */
@@ -491,6 +538,24 @@ public class ServiceHost implements ServiceRequestSender {
          * Last access time. Tracked only for persistent services.
          */
         public long lastAccessTime;
+
+        /**
+         * Set on every access, cleared when the service resource tracker clock hand passes
+         * over the service. Tracked only for persistent services.
+         */
+        volatile boolean isReferenced;
+
+        /**
+         * True while the service is tracked by the service resource tracker clock or expiration
+         * set. Guarded by the instance lock.
+         */
+        boolean isTracked;
+
+        /**
+         * Options of the service, one bit per {@link ServiceOption} ordinal, as last recorded by
+         * the {@link ServiceRegistry}. Guarded by the registry shard lock.
+         */
+        long optionBits;
     }
 
     public static class ServiceHostState extends ServiceDocument {
@@ -533,6 +598,9 @@ public class ServiceHost implements ServiceRequestSender {
         public boolean isPeerSynchronizationEnabled;
         public int peerSynchronizationTimeLimitSeconds;
         public boolean isAuthorizationEnabled;
+        public boolean isNativeTransportEnabled;
+        public boolean isVirtualThreadExecutorEnabled;
+        public boolean isAdmissionControlEnabled;
         public transient boolean isStarted;
         public transient boolean isStopping;
         public transient boolean isTracingEnabled;
@@ -641,11 +709,11 @@ public class ServiceHost implements ServiceRequestSender {
 
     private ExecutorService executor;
     private ForkJoinPool executorPool; // For service resource tracking
+    private ExecutorService blockingExecutor;
     private ScheduledExecutorService scheduledExecutor;
     private ScheduledThreadPoolExecutor scheduledExecutorPool; // For service resource tracking
 
-    private final ConcurrentHashMap<String, AttachedServiceInfo> attachedServices = new ConcurrentHashMap<>();
-    private final ConcurrentSkipListMap<String, Service> attachedNamespaceServices = new ConcurrentSkipListMap<>();
+    private final ServiceRegistry attachedServices = new ServiceRegistry();
 
     private final ConcurrentSkipListSet<String> coreServices = new ConcurrentSkipListSet<>();
     private final ConcurrentHashMap<String, Class<? extends Service>> privilegedServiceTypes = new ConcurrentHashMap<>();
@@ -691,6 +759,10 @@ public class ServiceHost implements ServiceRequestSender {
     private final ServiceResourceTracker serviceResourceTracker = ServiceResourceTracker
             .create(this, this.attachedServices);
     private final OperationTracker operationTracker = OperationTracker.create(this);
+    private final TimingWheel timingWheel = new TimingWheel(TIMING_WHEEL_TICK_MICROS,
+            Utils.getSystemNowMicrosUtc());
+    private final AdaptiveConcurrencyLimiter admissionLimiter = new AdaptiveConcurrencyLimiter(
+            ADMISSION_INITIAL_LIMIT, ADMISSION_MIN_LIMIT, ADMISSION_MAX_LIMIT);
 
     private String hashedId;
     private String logPrefix;
@@ -829,6 +901,7 @@ public class ServiceHost implements ServiceRequestSender {
                 new AuthenticationFilter(),
                 this.authorizationFilter,
                 new RequestRateLimitsFilter(),
+                new AdmissionControlFilter(),
                 new ForwardRequestFilter(),
                 new ServiceAvailabilityFilter());
     }
@@ -843,13 +916,34 @@ public class ServiceHost implements ServiceRequestSender {
         if (this.serviceScheduledExecutor != null) {
             this.serviceScheduledExecutor.shutdownNow();
         }
+        if (this.blockingExecutor != null) {
+            this.blockingExecutor.shutdownNow();
+        }
 
-        this.executorPool = new ForkJoinPool(Utils.DEFAULT_THREAD_COUNT, (pool) -> {
-            ForkJoinWorkerThread res = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
-            res.setName(getUri() + "/" + res.getName());
-            return res;
-        }, null, false);
-        this.executor = TracingExecutor.create(this.executorPool, this.otTracer);
+        ExecutorService virtualThreadExecutor = null;
+        if (isVirtualThreadExecutorEnabled()) {
+            virtualThreadExecutor = BlockingExecutors.createVirtualThreadExecutor(getUri() + "/handler");
+            if (virtualThreadExecutor == null) {
+                log(Level.WARNING, "Virtual threads are not supported by this JVM, using fork join pool");
+            }
+        }
+
+        if (virtualThreadExecutor != null) {
+            this.executorPool = null;
+            this.executor = TracingExecutor.create(virtualThreadExecutor, this.otTracer);
+        } else {
+            this.executorPool = new ForkJoinPool(Utils.DEFAULT_THREAD_COUNT, (pool) -> {
+                ForkJoinWorkerThread res = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                res.setName(getUri() + "/" + res.getName());
+                return res;
+            }, null, false);
+            this.executor = TracingExecutor.create(this.executorPool, this.otTracer);
+        }
+
+        this.blockingExecutor = TracingExecutor.create(
+                BlockingExecutors.create(getUri() + "/blocking",
+                        BlockingExecutors.DEFAULT_PLATFORM_THREAD_COUNT),
+                this.otTracer);
 
         this.scheduledExecutorPool = (ScheduledThreadPoolExecutor) Executors.newScheduledThreadPool(
                 Utils.DEFAULT_THREAD_COUNT,
@@ -903,6 +997,9 @@ public class ServiceHost implements ServiceRequestSender {
         this.state.peerSynchronizationTimeLimitSeconds = args.perFactoryPeerSynchronizationLimitSeconds;
         this.state.isPeerSynchronizationEnabled = args.isPeerSynchronizationEnabled;
         this.state.isAuthorizationEnabled = args.isAuthorizationEnabled;
+        this.state.isNativeTransportEnabled = args.isNativeTransportEnabled;
+        this.state.isVirtualThreadExecutorEnabled = args.isVirtualThreadExecutorEnabled;
+        this.state.isAdmissionControlEnabled = args.isAdmissionControlEnabled;
 
         RequestLoggingInfo requestLoggingInfo = new RequestLoggingInfo();
         requestLoggingInfo.enabled = ENABLE_REQUEST_LOGGING;
@@ -1130,6 +1227,48 @@ public class ServiceHost implements ServiceRequestSender {
         this.state.isAuthorizationEnabled = isAuthorizationEnabled;
     }
 
+    public boolean isNativeTransportEnabled() {
+        return this.state.isNativeTransportEnabled;
+    }
+
+    public void setNativeTransportEnabled(boolean isNativeTransportEnabled) {
+        if (isStarted()) {
+            throw new IllegalStateException("Already started");
+        }
+        this.state.isNativeTransportEnabled = isNativeTransportEnabled;
+    }
+
+    public boolean isVirtualThreadExecutorEnabled() {
+        return this.state.isVirtualThreadExecutorEnabled;
+    }
+
+    /**
+     * Runs service handlers on virtual threads, see
+     * {@link Arguments#isVirtualThreadExecutorEnabled}. Must be set before the host starts
+     */
+    public void setVirtualThreadExecutorEnabled(boolean isVirtualThreadExecutorEnabled) {
+        if (isStarted()) {
+            throw new IllegalStateException("Already started");
+        }
+        boolean changed = this.state.isVirtualThreadExecutorEnabled != isVirtualThreadExecutorEnabled;
+        this.state.isVirtualThreadExecutorEnabled = isVirtualThreadExecutorEnabled;
+        if (changed && this.executor != null) {
+            allocateExecutors();
+        }
+    }
+
+    public boolean isAdmissionControlEnabled() {
+        return this.state.isAdmissionControlEnabled;
+    }
+
+    /**
+     * Enables or disables admission control of remote requests, see
+     * {@link Arguments#isAdmissionControlEnabled}
+     */
+    public void setAdmissionControlEnabled(boolean isAdmissionControlEnabled) {
+        this.state.isAdmissionControlEnabled = isAdmissionControlEnabled;
+    }
+
     public boolean isPeerSynchronizationEnabled() {
         return this.state.isPeerSynchronizationEnabled;
     }
@@ -1450,6 +1589,10 @@ public class ServiceHost implements ServiceRequestSender {
         return this.managementService;
     }
 
+    AuthorizationFilter getAuthorizationFilter() {
+        return this.authorizationFilter;
+    }
+
     ServiceResourceTracker getServiceResourceTracker() {
         return this.serviceResourceTracker;
     }
@@ -1458,6 +1601,23 @@ public class ServiceHost implements ServiceRequestSender {
         return this.operationTracker;
     }
 
+    /**
+     * Timing wheel shared by the host components that track deadlines: periodic service
+     * maintenance, operation expiration and client request timeouts. The wheel is advanced
+     * once per host maintenance cycle, so scheduled tasks must not block
+     */
+    public TimingWheel getTimingWheel() {
+        return this.timingWheel;
+    }
+
+    /**
+     * Concurrency limiter applied to remote requests when admission control is enabled. The
+     * limit adapts to the latency of admitted requests, see {@link AdaptiveConcurrencyLimiter}
+     */
+    public AdaptiveConcurrencyLimiter getAdmissionLimiter() {
+        return this.admissionLimiter;
+    }
+
     public ServiceHost setAuthenticationService(Service service) {
         if (this.state.isStarted) {
             throw new IllegalStateException("Host is started");
@@ -1512,6 +1672,30 @@ public class ServiceHost implements ServiceRequestSender {
         return TracingExecutor.create(result, this.otTracer);
     }
 
+    /**
+     * Shared executor for work that blocks the calling thread, such as file IO or waiting on
+     * a child process, so it does not starve the service handler executor. Runs each task on
+     * a virtual thread if the JVM supports them, see {@link BlockingExecutors}. Use
+     * {@link #run(ExecutorService, Runnable)} to preserve the operation context
+     */
+    public ExecutorService getBlockingExecutor() {
+        return this.blockingExecutor;
+    }
+
+    /**
+     * Allocates a dedicated executor for blocking work, see {@link #getBlockingExecutor()}.
+     * The caller is responsible for shutting it down
+     */
+    public ExecutorService allocateBlockingExecutor(Service s) {
+        return allocateBlockingExecutor(s, Utils.DEFAULT_THREAD_COUNT);
+    }
+
+    public ExecutorService allocateBlockingExecutor(Service s, int maxPlatformThreadCount) {
+        ExecutorService result = BlockingExecutors.create(s.getUri().toString(),
+                maxPlatformThreadCount);
+        return TracingExecutor.create(result, this.otTracer);
+    }
+
     @SuppressWarnings("try")
     public ServiceHost start() throws Throwable {
         if (!isTracingEnabled()) {
@@ -1797,6 +1981,9 @@ public class ServiceHost implements ServiceRequestSender {
         coreServices.add(synchronizationManagementService);
         addPrivilegedService(SynchronizationManagementService.class);
 
+        coreServices.add(new SynchronizationDigestService());
+        addPrivilegedService(SynchronizationDigestService.class);
+
         Service[] coreServiceArray = new Service[coreServices.size()];
         coreServices.toArray(coreServiceArray);
         startCoreServicesSynchronously(coreServiceArray);
@@ -2970,15 +3157,12 @@ public class ServiceHost implements ServiceRequestSender {
                     serviceInfo = new AttachedServiceInfo();
                     serviceInfo.service = service;
                     this.attachedServices.put(servicePath, serviceInfo);
-                    if (service.hasOption(ServiceOption.URI_NAMESPACE_OWNER)) {
-                        this.attachedNamespaceServices.put(servicePath, service);
-                    }
 
                     if (service.hasOption(ServiceOption.REPLICATION)
                             && service.hasOption(ServiceOption.FACTORY)) {
                         this.serviceSynchTracker.addService(servicePath, 0L);
                     }
-                    this.state.serviceCount++;
+                    this.state.serviceCount = this.attachedServices.size();
                     return false;
                 }
             }
@@ -3442,13 +3626,25 @@ public class ServiceHost implements ServiceRequestSender {
     void loadServiceState(Service s, Operation op) {
         ServiceDocument state = this.serviceResourceTracker.getCachedServiceState(s, op);
 
-        // Clone state if it might change while processing
-        if (state != null && !s.hasOption(ServiceOption.CONCURRENT_UPDATE_HANDLING)) {
+        // Clone state if it might change while processing. Frozen documents are copied by
+        // the code modifying them
+        if (state != null && FrozenDocuments.isFrozen(state)) {
+            try {
+                FrozenDocuments.verify(state);
+            } catch (IllegalStateException e) {
+                op.fail(e);
+                return;
+            }
+        } else if (state != null && !s.hasOption(ServiceOption.CONCURRENT_UPDATE_HANDLING)) {
             state = Utils.clone(state);
         }
 
         if (state != null && state.documentKind == null) {
             log(Level.WARNING, "documentKind is null for %s", s.getSelfLink());
+            if (FrozenDocuments.isFrozen(state)) {
+                // cached frozen state is shared, stamp a private copy
+                state = Utils.clone(state);
+            }
             state.documentKind = Utils.buildKind(s.getStateType());
         }
 
@@ -3550,9 +3746,15 @@ public class ServiceHost implements ServiceRequestSender {
         }
 
         try {
-            ServiceDocumentDescription documentDescription = buildDocumentDescription(service);
             QueryFilter queryFilter = ctx.getResourceQueryFilter(op.getAction());
-            if (queryFilter == null || !queryFilter.evaluate(document, documentDescription)) {
+            if (queryFilter == null || !queryFilter.matchesKind(document.documentKind)) {
+                return false;
+            }
+            ServiceDocumentDescription documentDescription = null;
+            if (queryFilter.isDescriptionRequired()) {
+                documentDescription = buildDocumentDescription(service);
+            }
+            if (!queryFilter.evaluate(document, documentDescription)) {
                 return false;
             }
         } catch (Exception e) {
@@ -3790,15 +3992,12 @@ public class ServiceHost implements ServiceRequestSender {
 
             if (serviceInfo != null) {
                 serviceInfo.service.setProcessingStage(ProcessingStage.STOPPED);
-                if (serviceInfo.service.hasOption(ServiceOption.URI_NAMESPACE_OWNER)) {
-                    this.attachedNamespaceServices.remove(path);
-                }
             }
 
             this.serviceSynchTracker.removeService(path);
             this.serviceResourceTracker.clearCachedServiceState(service, null);
 
-            this.state.serviceCount--;
+            this.state.serviceCount = this.attachedServices.size();
         }
     }
 
@@ -3836,25 +4035,16 @@ public class ServiceHost implements ServiceRequestSender {
         return s;
     }
 
-    private Service findNamespaceOwnerService(String uriPath) {
-        // TODO We do not expect a lot of name space owner services, but we should switch to
-        // radix trees
-        int charsNotMatched = Integer.MAX_VALUE;
-        int uriPathLength = uriPath.length();
-        Service candidate = null;
-        // pick the service with the longest match
-        for (Entry<String, Service> e : this.attachedNamespaceServices.headMap(uriPath, true).entrySet()) {
-            if (!uriPath.startsWith(e.getKey())) {
-                continue;
-            }
-            int notMatchedCount = uriPathLength - e.getKey().length();
-            if (notMatchedCount < charsNotMatched) {
-                candidate = e.getValue();
-                charsNotMatched = notMatchedCount;
-            }
-        }
+    /**
+     * Infrastructure use only. Called by services toggling an option, so the service registry
+     * option counts stay current
+     */
+    void updateServiceOption(Service s, ServiceOption option, boolean enable) {
+        this.attachedServices.updateOption(s, option, enable);
+    }
 
-        return candidate;
+    private Service findNamespaceOwnerService(String uriPath) {
+        return this.attachedServices.findNamespaceOwner(uriPath);
     }
 
     Service findHelperService(String uriPath) {
@@ -4220,7 +4410,6 @@ public class ServiceHost implements ServiceRequestSender {
         stopCoreServices();
 
         this.attachedServices.clear();
-        this.attachedNamespaceServices.clear();
         this.pendingServiceDeletions.clear();
         this.state.isStarted = false;
 
@@ -4249,8 +4438,10 @@ public class ServiceHost implements ServiceRequestSender {
         this.executor.shutdownNow();
         this.scheduledExecutor.shutdownNow();
         this.serviceScheduledExecutor.shutdownNow();
+        this.blockingExecutor.shutdownNow();
         this.executor = null;
         this.scheduledExecutor = null;
+        this.blockingExecutor = null;
         this.opProcessingChain.close();
     }
 
@@ -5097,6 +5288,7 @@ public class ServiceHost implements ServiceRequestSender {
     private void performIOMaintenance(Operation post, long now, MaintenanceStage nextStage,
             long deadline) {
         try {
+            this.timingWheel.advance(now);
             this.operationTracker.performMaintenance(now);
             performMaintenanceStage(post, nextStage, deadline);
         } catch (Exception e) {
@@ -5391,7 +5583,17 @@ public class ServiceHost implements ServiceRequestSender {
             return;
         }
 
-        state.documentOwner = getId();
+        if (!getId().equals(state.documentOwner)) {
+            if (FrozenDocuments.isFrozen(state)) {
+                // never stamp a frozen instance that might be shared with the cache
+                boolean isLinked = op.getLinkedState() == state;
+                state = Utils.clone(state);
+                if (isLinked) {
+                    op.linkState(state);
+                }
+            }
+            state.documentOwner = getId();
+        }
 
         SelectAndForwardRequest req = new SelectAndForwardRequest();
         req.key = selectionKey;
@@ -5407,57 +5609,56 @@ public class ServiceHost implements ServiceRequestSender {
      * self link
      */
     public void queryServiceUris(String servicePath, Operation get) {
-        // TODO Use Radix trees for efficient prefix searches. This is not
-        // urgent since we consider queries directly on the host instead of the
-        // document index, to be rare
-
         ServiceDocumentQueryResult r = new ServiceDocumentQueryResult();
 
         boolean doPrefixMatch = servicePath.endsWith(UriUtils.URI_WILDCARD_CHAR);
         servicePath = servicePath.replace(UriUtils.URI_WILDCARD_CHAR, "");
 
-        for (AttachedServiceInfo serviceInfo : this.attachedServices.values()) {
-            Service s = serviceInfo.service;
-            if (s.getProcessingStage() != ProcessingStage.AVAILABLE) {
-                continue;
-            }
-            if (s.hasOption(ServiceOption.UTILITY)) {
-                continue;
-            }
-            String path = s.getSelfLink();
-            if (doPrefixMatch) {
-                if (!path.startsWith(servicePath)) {
-                    continue;
-                }
-            } else {
-                if (!path.equals(servicePath)) {
-                    continue;
-                }
-            }
-
-            // For wildcard search on index-service(e.g.: "/core/document-index?documentSelfLink=/core/examples/*"),
-            // when there is no matching in data store, it also searches available services on the host.
-            // Since document-index is already searched, only non-persisted stateful or stateless services are the
-            // target to check the authorization.
-            if (isAuthorizationEnabled()) {
-                // For non-persisted service, state is kept in resource-tracker cache.
-                // For stateless service, resource-tracker returns null.
-                // When null is passed to "isAuthorized()" method, it creates an empty ServiceDocument with self link
-                // from passed service; so that, it can check auth against selflink for stateless services.
-                // This is same behavior in "StatelessService#authorizeRequest()"
-                ServiceDocument state = this.serviceResourceTracker.getCachedServiceState(s, get);
-                if (!isAuthorized(s, state, get)) {
-                    continue;
-                }
+        if (doPrefixMatch) {
+            // only the registry shards under the prefix are visited
+            this.attachedServices.forEachWithPrefix(servicePath,
+                    serviceInfo -> addServiceUri(serviceInfo, get, r));
+        } else {
+            AttachedServiceInfo serviceInfo = this.attachedServices.get(servicePath);
+            if (serviceInfo != null) {
+                addServiceUri(serviceInfo, get, r);
             }
-
-            r.documentLinks.add(path);
         }
         r.documentOwner = getId();
         r.documentCount = (long) r.documentLinks.size();
         get.setBodyNoCloning(r).complete();
     }
 
+    private void addServiceUri(AttachedServiceInfo serviceInfo, Operation get,
+            ServiceDocumentQueryResult r) {
+        Service s = serviceInfo.service;
+        if (s.getProcessingStage() != ProcessingStage.AVAILABLE) {
+            return;
+        }
+        if (s.hasOption(ServiceOption.UTILITY)) {
+            return;
+        }
+        String path = s.getSelfLink();
+
+        // For wildcard search on index-service(e.g.: "/core/document-index?documentSelfLink=/core/examples/*"),
+        // when there is no matching in data store, it also searches available services on the host.
+        // Since document-index is already searched, only non-persisted stateful or stateless services are the
+        // target to check the authorization.
+        if (isAuthorizationEnabled()) {
+            // For non-persisted service, state is kept in resource-tracker cache.
+            // For stateless service, resource-tracker returns null.
+            // When null is passed to "isAuthorized()" method, it creates an empty ServiceDocument with self link
+            // from passed service; so that, it can check auth against selflink for stateless services.
+            // This is same behavior in "StatelessService#authorizeRequest()"
+            ServiceDocument state = this.serviceResourceTracker.getCachedServiceState(s, get);
+            if (!isAuthorized(s, state, get)) {
+                return;
+            }
+        }
+
+        r.documentLinks.add(path);
+    }
+
     public void queryServiceUris(EnumSet<ServiceOption> options, boolean matchAllOptions,
             Operation get) {
         queryServiceUris(options, matchAllOptions, get, null);
@@ -5476,49 +5677,52 @@ public class ServiceHost implements ServiceRequestSender {
             Operation get, EnumSet<ServiceOption> exclusionOptions) {
         ServiceDocumentQueryResult r = new ServiceDocumentQueryResult();
 
-        loop: for (AttachedServiceInfo serviceInfo : this.attachedServices.values()) {
-            Service s = serviceInfo.service;
-            if (s.getProcessingStage() != ProcessingStage.AVAILABLE) {
-                continue;
-            }
-            if (s.hasOption(ServiceOption.UTILITY)) {
-                continue;
-            }
+        // the registry skips shards where no service can match the options
+        this.attachedServices.forEachWithOptions(options, matchAllOptions, exclusionOptions,
+                serviceInfo -> addServiceUri(serviceInfo, options, matchAllOptions,
+                        exclusionOptions, r));
+        r.documentOwner = getId();
+        r.documentCount = (long) r.documentLinks.size();
+        get.setBodyNoCloning(r).complete();
+    }
 
-            if (exclusionOptions != null) {
-                for (ServiceOption exOp : exclusionOptions) {
-                    if (s.hasOption(exOp)) {
-                        continue loop;
-                    }
+    private void addServiceUri(AttachedServiceInfo serviceInfo, EnumSet<ServiceOption> options,
+            boolean matchAllOptions, EnumSet<ServiceOption> exclusionOptions,
+            ServiceDocumentQueryResult r) {
+        Service s = serviceInfo.service;
+        if (s.getProcessingStage() != ProcessingStage.AVAILABLE) {
+            return;
+        }
+        if (s.hasOption(ServiceOption.UTILITY)) {
+            return;
+        }
+
+        if (exclusionOptions != null) {
+            for (ServiceOption exOp : exclusionOptions) {
+                if (s.hasOption(exOp)) {
+                    return;
                 }
             }
+        }
 
-            String servicePath = s.getSelfLink();
-
-            if (matchAllOptions) {
-                boolean hasAllOptions = true;
+        String servicePath = s.getSelfLink();
 
-                for (ServiceOption option : options) {
-                    if (option != null && !s.hasOption(option)) {
-                        hasAllOptions = false;
-                        break;
-                    }
-                }
-                if (hasAllOptions) {
-                    r.documentLinks.add(servicePath);
-                }
-            } else {
-                for (ServiceOption option : options) {
-                    if (option != null && s.hasOption(option)) {
-                        r.documentLinks.add(servicePath);
-                        break;
-                    }
+        if (matchAllOptions) {
+            for (ServiceOption option : options) {
+                if (option != null && !s.hasOption(option)) {
+                    return;
                 }
             }
+            r.documentLinks.add(servicePath);
+            return;
+        }
+
+        for (ServiceOption option : options) {
+            if (option != null && s.hasOption(option)) {
+                r.documentLinks.add(servicePath);
+                return;
+            }
         }
-        r.documentOwner = getId();
-        r.documentCount = (long) r.documentLinks.size();
-        get.setBodyNoCloning(r).complete();
     }
 
     /**
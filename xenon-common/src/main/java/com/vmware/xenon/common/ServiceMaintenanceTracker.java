@@ -13,12 +13,9 @@
 
 package com.vmware.xenon.common;
 
-import java.util.HashSet;
-import java.util.Map.Entry;
-import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
@@ -27,7 +24,9 @@ import com.vmware.xenon.common.Service.ServiceOption;
 import com.vmware.xenon.common.ServiceMaintenanceRequest.MaintenanceReason;
 
 /**
- * Sequences service periodic maintenance
+ * Sequences service periodic maintenance. Next maintenance times are tracked on the host
+ * {@link TimingWheel}: services whose time has come are queued when the wheel advances,
+ * and drained by {@link #performMaintenance(Operation, long)}
  */
 class ServiceMaintenanceTracker {
     /**
@@ -45,10 +44,27 @@ class ServiceMaintenanceTracker {
         return smt;
     }
 
+    /**
+     * A scheduled maintenance for a service. Queued for maintenance when its timeout expires
+     */
+    private final class ScheduledMaintenance implements Runnable {
+        final String servicePath;
+        TimingWheel.Timeout timeout;
+
+        ScheduledMaintenance(String servicePath) {
+            this.servicePath = servicePath;
+        }
+
+        @Override
+        public void run() {
+            ServiceMaintenanceTracker.this.expiredServices.offer(this);
+        }
+    }
+
     private ServiceHost host;
 
-    private ConcurrentHashMap<String, Long> trackedServices = new ConcurrentHashMap<>();
-    private ConcurrentSkipListMap<Long, Set<String>> nextExpiration = new ConcurrentSkipListMap<>();
+    private ConcurrentHashMap<String, ScheduledMaintenance> trackedServices = new ConcurrentHashMap<>();
+    private ConcurrentLinkedQueue<ScheduledMaintenance> expiredServices = new ConcurrentLinkedQueue<>();
 
     public void schedule(Service s, long now) {
         long interval = s.getMaintenanceIntervalMicros();
@@ -64,103 +80,82 @@ class ServiceMaintenanceTracker {
         String selfLink = s.getSelfLink();
 
         synchronized (this) {
-            // To avoid double scheduling the same self-link
-            // we lookup the self-link in our trackedServices map and remove
-            // it before adding the new schedule.
-            Long expiration = this.trackedServices.get(selfLink);
-            if (expiration != null) {
-                Set<String> services = this.nextExpiration.get(expiration);
-                if (services != null) {
-                    services.remove(selfLink);
-                }
+            // To avoid double scheduling the same self-link we cancel any
+            // existing schedule before adding the new one.
+            ScheduledMaintenance existing = this.trackedServices.get(selfLink);
+            if (existing != null) {
+                existing.timeout.cancel();
             }
 
-            this.trackedServices.put(selfLink, nextExpirationMicros);
-            Set<String> services = this.nextExpiration.get(nextExpirationMicros);
-            if (services == null) {
-                services = new HashSet<>();
-                this.nextExpiration.put(nextExpirationMicros, services);
-            }
-            services.add(selfLink);
+            ScheduledMaintenance sm = new ScheduledMaintenance(selfLink);
+            sm.timeout = this.host.getTimingWheel().schedule(nextExpirationMicros, sm);
+            this.trackedServices.put(selfLink, sm);
         }
     }
 
     public void performMaintenance(Operation op, long deadline) {
-        long now = Utils.getSystemNowMicrosUtc();
-        // at least one set of expired service maintained regardless of deadline
+        // at least one expired service maintained regardless of deadline
         do {
             if (this.host.isStopping()) {
                 op.fail(new CancellationException("Host is stopping"));
                 return;
             }
 
-            Entry<Long, Set<String>> e;
+            ScheduledMaintenance sm = this.expiredServices.poll();
+            if (sm == null) {
+                // no service requires maintenance, yet
+                return;
+            }
 
-            // the nextExpiration map is a concurrent data structure, but since each value is a Set, we want
-            // to make sure modifications to that Set are not lost if a concurrent add() is happening
-            synchronized (this) {
-                // get any services set to expire within the current maintenance interval
-                e = this.nextExpiration.firstEntry();
-                if (e == null || e.getKey() >= now) {
-                    // no service requires maintenance, yet
-                    return;
-                }
-                this.nextExpiration.pollFirstEntry();
+            String servicePath = sm.servicePath;
+            if (this.trackedServices.get(servicePath) != sm) {
+                // service was re-scheduled after this maintenance expired
+                continue;
             }
 
-            Long expiration = e.getKey();
-            Set<String> services = e.getValue();
+            Service s = this.host.findService(servicePath);
+
+            boolean skipMaintenance =
+                    s == null ||
+                    s.getProcessingStage() != ProcessingStage.AVAILABLE ||
+                    !s.hasOption(ServiceOption.PERIODIC_MAINTENANCE);
+            if (skipMaintenance) {
+                checkAndRemoveFromMaintenance(sm);
+                continue;
+            }
 
-            for (String servicePath : services) {
-                Service s = this.host.findService(servicePath);
+            if (!s.hasOption(ServiceOption.OWNER_SELECTION)) {
+                performServiceMaintenance(servicePath, s);
+                continue;
+            }
 
-                boolean skipMaintenance =
-                        s == null ||
-                        s.getProcessingStage() != ProcessingStage.AVAILABLE ||
-                        !s.hasOption(ServiceOption.PERIODIC_MAINTENANCE);
-                if (skipMaintenance) {
-                    checkAndRemoveFromMaintenance(servicePath, expiration);
-                    continue;
+            // service has OWNER_SELECTION - we need to check ownership
+            long ownershipCheckExpiration = Math.max(deadline,
+                    Utils.fromNowMicrosUtc(this.host.getOperationTimeoutMicros()));
+            Utils.checkAndUpdateDocumentOwnership(this.host, s, ownershipCheckExpiration, (o, ex) -> {
+                if (ex != null) {
+                    this.host.log(Level.WARNING,
+                            "Failed to determine ownership for service %s: %s - skipping maintenance this time",
+                            servicePath, ex);
+                    schedule(s, Utils.getNowMicrosUtc());
+                    return;
                 }
 
-                if (!s.hasOption(ServiceOption.OWNER_SELECTION)) {
-                    performServiceMaintenance(servicePath, s);
-                    continue;
+                if (!s.hasOption(ServiceOption.DOCUMENT_OWNER)) {
+                    schedule(s, Utils.getNowMicrosUtc());
+                    return;
                 }
 
-                // service has OWNER_SELECTION - we need to check ownership
-                long ownershipCheckExpiration = Math.max(deadline,
-                        Utils.fromNowMicrosUtc(this.host.getOperationTimeoutMicros()));
-                Utils.checkAndUpdateDocumentOwnership(this.host, s, ownershipCheckExpiration, (o, ex) -> {
-                    if (ex != null) {
-                        this.host.log(Level.WARNING,
-                                "Failed to determine ownership for service %s: %s - skipping maintenance this time",
-                                servicePath, ex);
-                        schedule(s, Utils.getNowMicrosUtc());
-                        return;
-                    }
-
-                    if (!s.hasOption(ServiceOption.DOCUMENT_OWNER)) {
-                        schedule(s, Utils.getNowMicrosUtc());
-                        return;
-                    }
-
-                    performServiceMaintenance(servicePath, s);
-                });
-            }
-        } while ((now = Utils.getSystemNowMicrosUtc()) < deadline);
+                performServiceMaintenance(servicePath, s);
+            });
+        } while (Utils.getSystemNowMicrosUtc() < deadline);
     }
 
-    private void checkAndRemoveFromMaintenance(String servicePath, Long expiration) {
-        synchronized (this) {
-            // Another request scheduling this service's maintenance could
-            // have occurred. So double check the expiration time, if it
-            // matches the current expiration window, then remove it.
-            Long serviceExpiration = this.trackedServices.get(servicePath);
-            if (serviceExpiration.equals(expiration)) {
-                this.trackedServices.remove(servicePath);
-            }
-        }
+    private void checkAndRemoveFromMaintenance(ScheduledMaintenance sm) {
+        // Another request scheduling this service's maintenance could
+        // have occurred. So only remove the service if it still maps to
+        // the expired maintenance
+        this.trackedServices.remove(sm.servicePath, sm);
     }
 
     private void performServiceMaintenance(String servicePath, Service s) {
@@ -217,8 +212,11 @@ class ServiceMaintenanceTracker {
     }
 
     public synchronized void close() {
+        for (ScheduledMaintenance sm : this.trackedServices.values()) {
+            sm.timeout.cancel();
+        }
         this.trackedServices.clear();
-        this.nextExpiration.clear();
+        this.expiredServices.clear();
     }
 
     private void updateStats(Service s, long actual, long limit, String servicePath) {
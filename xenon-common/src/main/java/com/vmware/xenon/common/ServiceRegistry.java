@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.vmware.xenon.common.Service.ServiceOption;
+import com.vmware.xenon.common.ServiceHost.AttachedServiceInfo;
+
+/**
+ * Registry of the services attached to a host. Lookups by path go through a single map, while
+ * services are also grouped in shards by parent path, which for child services is the factory
+ * link. Each shard keeps its size and the number of its services with each
+ * {@link ServiceOption} up to date as services attach, detach and toggle options, so prefix
+ * and option queries only visit the shards that can have matches, and the host service count
+ * is available without walking any map
+ */
+class ServiceRegistry {
+
+    private static final ServiceOption[] OPTIONS = ServiceOption.values();
+
+    static {
+        if (OPTIONS.length > Long.SIZE) {
+            throw new IllegalStateException("Service options do not fit in a long bit set");
+        }
+    }
+
+    private static final class Shard {
+        final String parentPath;
+        final ConcurrentHashMap<String, AttachedServiceInfo> services = new ConcurrentHashMap<>();
+
+        // guarded by this shard
+        final int[] optionCounts = new int[OPTIONS.length];
+        int size;
+        boolean isRemoved;
+
+        Shard(String parentPath) {
+            this.parentPath = parentPath;
+        }
+
+        void addOptions(long optionBits, int delta) {
+            for (int i = 0; i < OPTIONS.length; i++) {
+                if ((optionBits & (1L << i)) != 0) {
+                    this.optionCounts[i] += delta;
+                }
+            }
+        }
+
+        /**
+         * Returns true if the shard can have services matching the option query. Counts are
+         * read without the shard lock, an option toggled concurrently with the query may or
+         * may not be observed
+         */
+        boolean canMatch(EnumSet<ServiceOption> options, boolean matchAllOptions,
+                EnumSet<ServiceOption> exclusionOptions) {
+            int size = this.size;
+            if (size == 0) {
+                return false;
+            }
+            if (exclusionOptions != null) {
+                for (ServiceOption option : exclusionOptions) {
+                    if (this.optionCounts[option.ordinal()] == size) {
+                        return false;
+                    }
+                }
+            }
+            if (this.optionCounts[ServiceOption.UTILITY.ordinal()] == size) {
+                return false;
+            }
+            if (matchAllOptions) {
+                for (ServiceOption option : options) {
+                    if (option != null && this.optionCounts[option.ordinal()] == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            for (ServiceOption option : options) {
+                if (option != null && this.optionCounts[option.ordinal()] > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final ConcurrentHashMap<String, AttachedServiceInfo> services = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<String, Shard> shards = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, Service> namespaceOwners = new ConcurrentSkipListMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    static String getParentPath(String path) {
+        int i = path.lastIndexOf(UriUtils.URI_PATH_CHAR);
+        return i <= 0 ? "" : path.substring(0, i);
+    }
+
+    static long toOptionBits(Service s) {
+        long bits = 0;
+        for (ServiceOption option : OPTIONS) {
+            if (s.hasOption(option)) {
+                bits |= 1L << option.ordinal();
+            }
+        }
+        return bits;
+    }
+
+    AttachedServiceInfo get(String path) {
+        return this.services.get(path);
+    }
+
+    /**
+     * Number of attached services
+     */
+    int size() {
+        return this.size.get();
+    }
+
+    /**
+     * Number of attached services directly under the supplied parent path, for example the
+     * children of a factory
+     */
+    int getServiceCount(String parentPath) {
+        Shard shard = this.shards.get(parentPath);
+        return shard == null ? 0 : shard.size;
+    }
+
+    Collection<AttachedServiceInfo> values() {
+        return this.services.values();
+    }
+
+    Set<String> keySet() {
+        return this.services.keySet();
+    }
+
+    /**
+     * Attaches the service under the supplied path, replacing any existing entry
+     */
+    void put(String path, AttachedServiceInfo serviceInfo) {
+        String parentPath = getParentPath(path);
+        while (true) {
+            Shard shard = this.shards.computeIfAbsent(parentPath, Shard::new);
+            synchronized (shard) {
+                if (shard.isRemoved) {
+                    continue;
+                }
+                serviceInfo.optionBits = toOptionBits(serviceInfo.service);
+                AttachedServiceInfo existing = this.services.put(path, serviceInfo);
+                shard.services.put(path, serviceInfo);
+                if (existing != null) {
+                    shard.addOptions(existing.optionBits, -1);
+                    shard.size--;
+                    this.size.decrementAndGet();
+                    if (existing.service.hasOption(ServiceOption.URI_NAMESPACE_OWNER)) {
+                        this.namespaceOwners.remove(path);
+                    }
+                }
+                shard.addOptions(serviceInfo.optionBits, 1);
+                shard.size++;
+                this.size.incrementAndGet();
+                if (serviceInfo.service.hasOption(ServiceOption.URI_NAMESPACE_OWNER)) {
+                    this.namespaceOwners.put(path, serviceInfo.service);
+                }
+                return;
+            }
+        }
+    }
+
+    AttachedServiceInfo remove(String path) {
+        return remove(path, null);
+    }
+
+    /**
+     * Detaches the service under the supplied path. If an expected entry is supplied, the
+     * service is detached only if it is still attached under that entry
+     */
+    AttachedServiceInfo remove(String path, AttachedServiceInfo expected) {
+        Shard shard = this.shards.get(getParentPath(path));
+        if (shard == null) {
+            return null;
+        }
+        synchronized (shard) {
+            AttachedServiceInfo serviceInfo = shard.services.get(path);
+            if (serviceInfo == null || (expected != null && expected != serviceInfo)) {
+                return null;
+            }
+            shard.services.remove(path);
+            this.services.remove(path);
+            shard.addOptions(serviceInfo.optionBits, -1);
+            shard.size--;
+            this.size.decrementAndGet();
+            if (serviceInfo.service.hasOption(ServiceOption.URI_NAMESPACE_OWNER)) {
+                this.namespaceOwners.remove(path);
+            }
+            if (shard.size == 0) {
+                shard.isRemoved = true;
+                this.shards.remove(shard.parentPath, shard);
+            }
+            return serviceInfo;
+        }
+    }
+
+    /**
+     * Updates the option counts after an attached service toggled one of its options
+     */
+    void updateOption(Service s, ServiceOption option, boolean enable) {
+        String path = s.getSelfLink();
+        if (path == null) {
+            return;
+        }
+        Shard shard = this.shards.get(getParentPath(path));
+        if (shard == null) {
+            return;
+        }
+        synchronized (shard) {
+            AttachedServiceInfo serviceInfo = shard.services.get(path);
+            if (serviceInfo == null || serviceInfo.service != s) {
+                return;
+            }
+            long bit = 1L << option.ordinal();
+            boolean isSet = (serviceInfo.optionBits & bit) != 0;
+            if (isSet == enable) {
+                return;
+            }
+            serviceInfo.optionBits ^= bit;
+            shard.optionCounts[option.ordinal()] += enable ? 1 : -1;
+        }
+    }
+
+    void clear() {
+        for (Shard shard : this.shards.values()) {
+            synchronized (shard) {
+                shard.isRemoved = true;
+            }
+        }
+        this.shards.clear();
+        this.services.clear();
+        this.namespaceOwners.clear();
+        this.size.set(0);
+    }
+
+    /**
+     * Visits the services whose path starts with the supplied prefix. Only the shards with a
+     * parent path under the prefix, and the shard holding the paths that complete the prefix
+     * last segment, are visited
+     */
+    void forEachWithPrefix(String prefix, Consumer<AttachedServiceInfo> consumer) {
+        String base = prefix.endsWith(UriUtils.URI_PATH_CHAR)
+                ? prefix.substring(0, prefix.length() - 1) : prefix;
+        String prefixParentPath = getParentPath(prefix);
+        boolean isPrefixParentVisited = false;
+
+        for (Entry<String, Shard> e : this.shards.tailMap(base, true).entrySet()) {
+            String parentPath = e.getKey();
+            if (!parentPath.startsWith(base)) {
+                break;
+            }
+            if (!(parentPath + UriUtils.URI_PATH_CHAR).startsWith(prefix)) {
+                continue;
+            }
+            isPrefixParentVisited |= parentPath.equals(prefixParentPath);
+            e.getValue().services.values().forEach(consumer);
+        }
+
+        if (isPrefixParentVisited) {
+            return;
+        }
+        Shard shard = this.shards.get(prefixParentPath);
+        if (shard == null) {
+            return;
+        }
+        for (Entry<String, AttachedServiceInfo> e : shard.services.entrySet()) {
+            if (e.getKey().startsWith(prefix)) {
+                consumer.accept(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Visits the services of all shards that can have services matching the option query,
+     * skipping shards where no service has the required options, or every service has an
+     * excluded option. The caller still checks the options of each visited service
+     */
+    void forEachWithOptions(EnumSet<ServiceOption> options, boolean matchAllOptions,
+            EnumSet<ServiceOption> exclusionOptions, Consumer<AttachedServiceInfo> consumer) {
+        for (Shard shard : this.shards.values()) {
+            if (!shard.canMatch(options, matchAllOptions, exclusionOptions)) {
+                continue;
+            }
+            shard.services.values().forEach(consumer);
+        }
+    }
+
+    /**
+     * Returns the URI namespace owner service with the longest path that is a prefix of the
+     * supplied path
+     */
+    Service findNamespaceOwner(String uriPath) {
+        // TODO We do not expect a lot of name space owner services, but we should switch to
+        // radix trees
+        int charsNotMatched = Integer.MAX_VALUE;
+        int uriPathLength = uriPath.length();
+        Service candidate = null;
+        // pick the service with the longest match
+        for (Entry<String, Service> e : this.namespaceOwners.headMap(uriPath, true).entrySet()) {
+            if (!uriPath.startsWith(e.getKey())) {
+                continue;
+            }
+            int notMatchedCount = uriPathLength - e.getKey().length();
+            if (notMatchedCount < charsNotMatched) {
+                candidate = e.getValue();
+                charsNotMatched = notMatchedCount;
+            }
+        }
+
+        return candidate;
+    }
+}
@@ -16,28 +16,57 @@ package com.vmware.xenon.common;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadMXBean;
 import java.util.EnumSet;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
 import com.vmware.xenon.common.Service.ServiceOption;
 import com.vmware.xenon.common.ServiceClient.ConnectionPoolMetrics;
 import com.vmware.xenon.common.ServiceHost.AttachedServiceInfo;
 import com.vmware.xenon.common.ServiceHost.ServiceHostState;
+import com.vmware.xenon.common.ServiceHost.ServiceHostState.MemoryLimitType;
 import com.vmware.xenon.common.ServiceStats.ServiceStat;
 import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.AggregationType;
+import com.vmware.xenon.common.config.XenonConfiguration;
 import com.vmware.xenon.services.common.ServiceHostManagementService;
 import com.vmware.xenon.services.common.ServiceUriPaths;
 
 /**
- * Monitors service resources, and takes action, during periodic maintenance
+ * Monitors service resources, and takes action, during periodic maintenance.
+ *
+ * Persistent services are kept resident in a CLOCK (second chance) queue, bounded by the
+ * {@link ServiceHost#ROOT_PATH} relative memory limit. Each access sets a reference bit on the
+ * service. During maintenance the clock hand stops idle services, clears the bit of services
+ * referenced since the previous pass and, while the resident services exceed the limit, stops
+ * unreferenced services. Only the services visited by the hand are examined, not all
+ * attached services
  */
 public class ServiceResourceTracker {
 
+    /**
+     * Estimate for the memory cost of a resident persistent service, in bytes
+     */
+    static final int RESIDENT_SERVICE_COST_BYTES = ServiceHost.DEFAULT_SERVICE_STATE_COST_BYTES
+            + ServiceHost.DEFAULT_SERVICE_INSTANCE_COST_BYTES;
+
+    /**
+     * Maximum number of services, per maintenance pass, the clock hand passes over without
+     * stopping them or clearing their reference bit
+     */
+    private static final int MAX_CLOCK_SCAN_COUNT = XenonConfiguration.integer(
+            ServiceResourceTracker.class,
+            "maxClockScanCount",
+            1024
+    );
+
     /**
      * This class is used for keeping cached transactional state of services under
      * active optimistic transactions.
@@ -86,15 +115,42 @@ public class ServiceResourceTracker {
     }
 
     /**
-     * For performance reasons, this map is owned and directly operated by the host
+     * For performance reasons, this registry is owned and directly operated by the host
      */
-    private final ConcurrentMap<String, AttachedServiceInfo> attachedServices;
+    private final ServiceRegistry attachedServices;
 
     /**
      * Tracks cached service state. Cleared periodically during maintenance
      */
     private final ConcurrentMap<CachedServiceStateKey, ServiceDocument> cachedTransactionalServiceStates = new ConcurrentHashMap<>();
 
+    /**
+     * Resident persistent services, in clock order. A service is added on its first access and
+     * removed by the clock hand, once it is stopped or exempt from cache eviction
+     */
+    private final ConcurrentLinkedQueue<AttachedServiceInfo> clock = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of services in the clock queue. The queue size is not tracked by the queue itself
+     */
+    private final AtomicInteger clockSize = new AtomicInteger();
+
+    /**
+     * Accesses to services already in the clock queue. Published during maintenance
+     */
+    private final AtomicLong clockHitCount = new AtomicLong();
+
+    /**
+     * Accesses that added a service to the clock queue, after it started or was reloaded.
+     * Published during maintenance
+     */
+    private final AtomicLong clockMissCount = new AtomicLong();
+
+    /**
+     * Non persistent services with a cached state that expires
+     */
+    private final Set<AttachedServiceInfo> expiringServices = ConcurrentHashMap.newKeySet();
+
     private final ServiceHost host;
 
     private boolean isServiceStateCaching = true;
@@ -105,12 +161,12 @@ public class ServiceResourceTracker {
 
     private Service mgmtService;
 
-    public static ServiceResourceTracker create(ServiceHost host, ConcurrentMap<String, AttachedServiceInfo> services) {
+    static ServiceResourceTracker create(ServiceHost host, ServiceRegistry services) {
         ServiceResourceTracker srt = new ServiceResourceTracker(host, services);
         return srt;
     }
 
-    public ServiceResourceTracker(ServiceHost host, ConcurrentMap<String, AttachedServiceInfo> services) {
+    ServiceResourceTracker(ServiceHost host, ServiceRegistry services) {
         this.attachedServices = services;
         this.host = host;
     }
@@ -178,6 +234,15 @@ public class ServiceResourceTracker {
         mgmtService.setStat(ServiceHostManagementService.STAT_NAME_SERVICE_COUNT,
                 hostState.serviceCount);
 
+        AuthorizationFilter authorizationFilter = this.host.getAuthorizationFilter();
+        if (authorizationFilter != null) {
+            authorizationFilter.updateStats(mgmtService);
+        }
+
+        if (this.host.isAdmissionControlEnabled()) {
+            AdmissionControlFilter.updateStats(mgmtService, this.host.getAdmissionLimiter());
+        }
+
         // The JVM reports free memory in a indirect way, relative to the current "total". But the
         // true free memory is the estimated used memory subtracted from the JVM heap max limit
         long freeMemory = shi.maxMemoryByteCount
@@ -307,7 +372,7 @@ public class ServiceResourceTracker {
         if (!cacheState) {
             if (ServiceHost.isServiceIndexed(s)) {
                 synchronized (serviceInfo) {
-                    serviceInfo.lastAccessTime = Utils.getNowMicrosUtc();
+                    trackAccess(serviceInfo);
                 }
             }
             return;
@@ -321,9 +386,13 @@ public class ServiceResourceTracker {
                     return;
                 }
 
+                FrozenDocuments.track(st);
                 serviceInfo.cachedState = st;
                 if (ServiceHost.isServiceIndexed(s)) {
-                    serviceInfo.lastAccessTime = Utils.getNowMicrosUtc();
+                    trackAccess(serviceInfo);
+                } else if (st.documentExpirationTimeMicros > 0 && !serviceInfo.isTracked) {
+                    serviceInfo.isTracked = true;
+                    this.expiringServices.add(serviceInfo);
                 }
             }
 
@@ -385,7 +454,7 @@ public class ServiceResourceTracker {
 
         if (ServiceHost.isServiceIndexed(s) && !isTransactional(op)) {
             synchronized (serviceInfo) {
-                serviceInfo.lastAccessTime = Utils.getNowMicrosUtc();
+                trackAccess(serviceInfo);
             }
         }
 
@@ -393,6 +462,23 @@ public class ServiceResourceTracker {
         return state;
     }
 
+    /**
+     * Updates the access time and reference bit of a persistent service, adding it to the clock
+     * on its first access. The caller must hold the service info lock
+     */
+    private void trackAccess(AttachedServiceInfo serviceInfo) {
+        serviceInfo.lastAccessTime = Utils.getNowMicrosUtc();
+        serviceInfo.isReferenced = true;
+        if (serviceInfo.isTracked) {
+            this.clockHitCount.incrementAndGet();
+            return;
+        }
+        this.clockMissCount.incrementAndGet();
+        serviceInfo.isTracked = true;
+        this.clockSize.incrementAndGet();
+        this.clock.offer(serviceInfo);
+    }
+
     private void stopServiceAndClearFromCache(Service s, ServiceDocument state) {
         // Issue DELETE to stop the service and clear it from cache
         Operation deleteExp = Operation.createDelete(this.host, s.getSelfLink())
@@ -460,34 +546,102 @@ public class ServiceResourceTracker {
     public void performMaintenance(long now, long deadlineMicros) {
         updateStats(now);
         ServiceHostState hostState = this.host.getStateNoCloning();
-        int stopServiceCount = 0;
 
-        for (AttachedServiceInfo serviceInfo : this.attachedServices.values()) {
+        stopExpiredServices(now);
+
+        Long limitMB = this.host.getServiceMemoryLimitMB(ServiceHost.ROOT_PATH,
+                MemoryLimitType.EXACT);
+        long residentLimit = limitMB == null ? Long.MAX_VALUE
+                : limitMB * 1024 * 1024 / RESIDENT_SERVICE_COST_BYTES;
+        int stopServiceCount = advanceClock(now, deadlineMicros, residentLimit);
+        updateResidentServiceStats(limitMB, stopServiceCount);
+
+        if (stopServiceCount == 0) {
+            return;
+        }
+
+        this.host.log(Level.FINE,
+                "Attempt stop on %d services, resident: %d, attached: %d",
+                stopServiceCount, this.clockSize.get(), hostState.serviceCount);
+    }
+
+    /**
+     * Stops non persistent services with expired cached state
+     */
+    private void stopExpiredServices(long now) {
+        for (AttachedServiceInfo serviceInfo : this.expiringServices) {
             Service service = serviceInfo.service;
             ServiceDocument state;
             synchronized (serviceInfo) {
                 state = serviceInfo.cachedState;
+                if (state == null || state.documentExpirationTimeMicros <= 0
+                        || this.attachedServices.get(service.getSelfLink()) != serviceInfo) {
+                    // service stopped, or its state no longer expires
+                    serviceInfo.isTracked = false;
+                    this.expiringServices.remove(serviceInfo);
+                    continue;
+                }
+            }
+
+            if (state.documentExpirationTimeMicros < now) {
+                stopServiceAndClearFromCache(service, state);
+            }
+        }
+    }
+
+    /**
+     * Advances the clock hand, stopping idle services and, while the resident services exceed
+     * the limit, services not referenced since the previous pass. Returns the number of services
+     * stopped
+     */
+    private int advanceClock(long now, long deadlineMicros, long residentLimit) {
+        int residentCount = this.clockSize.get();
+        // a service is visited at most twice per pass: once to clear its reference bit and once
+        // to stop it
+        int maxStepCount = residentCount * 2;
+        int stopServiceCount = 0;
+        int scanCount = 0;
+
+        for (int i = 0; i < maxStepCount && scanCount < MAX_CLOCK_SCAN_COUNT; i++) {
+            AttachedServiceInfo serviceInfo = this.clock.poll();
+            if (serviceInfo == null) {
+                break;
             }
 
-            if (!ServiceHost.isServiceIndexed(service)) {
-                // service is not persistent - just check if it's expired, and
-                // if so - stop and clear from cache
-                if (state != null &&
-                        state.documentExpirationTimeMicros > 0 &&
-                        state.documentExpirationTimeMicros < now) {
-                    stopServiceAndClearFromCache(service, state);
+            Service service = serviceInfo.service;
+            if (this.attachedServices.get(service.getSelfLink()) != serviceInfo
+                    || serviceExemptFromCacheEviction(service)) {
+                // service is stopped, or it is exempt from cache eviction (e.g. it has soft
+                // state). An exempt service is added back on its next access
+                synchronized (serviceInfo) {
+                    serviceInfo.isTracked = false;
                 }
+                this.clockSize.decrementAndGet();
+                residentCount--;
                 continue;
             }
 
-            // service is persistent - check whether it's exempt from cache
-            // eviction (e.g. it has soft state)
-            if (serviceExemptFromCacheEviction(service)) {
+            ServiceDocument state;
+            long lastAccessTime;
+            synchronized (serviceInfo) {
+                state = serviceInfo.cachedState;
+                lastAccessTime = serviceInfo.lastAccessTime;
+            }
+
+            boolean isActive = serviceActive(lastAccessTime, service, now);
+            if (isActive && serviceInfo.isReferenced) {
+                // second chance: the service was accessed since the previous pass
+                serviceInfo.isReferenced = false;
+                this.clock.offer(serviceInfo);
                 continue;
             }
 
-            if (serviceActive(serviceInfo.lastAccessTime, service, now)) {
-                // Skip stop for services that have been recently active
+            // stopped services stay in the clock until they are detached, so the stop is
+            // retried if the service is still attached on the next pass
+            this.clock.offer(serviceInfo);
+
+            if (isActive && residentCount - stopServiceCount <= residentLimit) {
+                scanCount++;
                 continue;
             }
 
@@ -500,22 +654,33 @@ public class ServiceResourceTracker {
             }
         }
 
-        if (hostState.serviceCount < 0) {
-            // Make sure our service count matches the list contents, they could drift. Using size()
-            // on a concurrent data structure is costly so we do this only when pausing services or
-            // the count is negative
-            synchronized (hostState) {
-                hostState.serviceCount = this.attachedServices.size();
-            }
-        }
+        return stopServiceCount;
+    }
 
-        if (stopServiceCount == 0) {
+    private void updateResidentServiceStats(Long limitMB, int evictionCount) {
+        Service mgmtService = getManagementService();
+        if (mgmtService == null) {
             return;
         }
 
-        this.host.log(Level.FINE,
-                "Attempt stop on %d services, attached: %d",
-                stopServiceCount, hostState.serviceCount);
+        long residentCount = this.clockSize.get();
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_SERVICE_CACHE_RESIDENT_COUNT,
+                residentCount);
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_SERVICE_CACHE_RESIDENT_BYTES,
+                residentCount * RESIDENT_SERVICE_COST_BYTES);
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_SERVICE_CACHE_RESIDENT_HIT_COUNT,
+                this.clockHitCount.get());
+        mgmtService.setStat(ServiceHostManagementService.STAT_NAME_SERVICE_CACHE_RESIDENT_MISS_COUNT,
+                this.clockMissCount.get());
+        if (limitMB != null) {
+            mgmtService.setStat(ServiceHostManagementService.STAT_NAME_SERVICE_CACHE_LIMIT_BYTES,
+                    limitMB * 1024 * 1024);
+        }
+        if (evictionCount > 0) {
+            mgmtService.adjustStat(
+                    ServiceHostManagementService.STAT_NAME_SERVICE_CACHE_EVICTION_COUNT,
+                    evictionCount);
+        }
     }
 
     private boolean serviceExemptFromCacheEviction(Service service) {
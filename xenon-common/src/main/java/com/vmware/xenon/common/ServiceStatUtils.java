@@ -19,13 +19,26 @@ import java.util.function.Supplier;
 
 import com.vmware.xenon.common.Service.Action;
 import com.vmware.xenon.common.Service.ServiceOption;
+import com.vmware.xenon.common.ServiceStats.RingBufferTimeSeriesStats;
 import com.vmware.xenon.common.ServiceStats.ServiceStat;
 import com.vmware.xenon.common.ServiceStats.ServiceStatLogHistogram;
 import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
 import com.vmware.xenon.common.ServiceStats.TimeSeriesStats.AggregationType;
+import com.vmware.xenon.common.config.XenonConfiguration;
 
 public final class ServiceStatUtils {
 
+    /**
+     * Use {@link RingBufferTimeSeriesStats} for the hourly and daily time series stats, instead
+     * of {@link TimeSeriesStats}. Off by default, since the bins of these stats are only current
+     * after {@link TimeSeriesStats#refreshBins()}
+     */
+    public static final boolean RING_BUFFER_TIME_SERIES = XenonConfiguration.bool(
+            ServiceStatUtils.class,
+            "ringBufferTimeSeries",
+            false
+    );
+
     static final String GET_DURATION = Action.GET + Service.STAT_NAME_OPERATION_DURATION;
     static final String POST_DURATION = Action.POST + Service.STAT_NAME_OPERATION_DURATION;
     static final String PATCH_DURATION = Action.PATCH + Service.STAT_NAME_OPERATION_DURATION;
@@ -66,11 +79,19 @@ public final class ServiceStatUtils {
     }
 
     public static TimeSeriesStats createHourlyTimeSeriesStat(EnumSet<AggregationType> aggregationTypes) {
-        return new TimeSeriesStats((int) TimeUnit.HOURS.toMinutes(1), TimeUnit.MINUTES.toMillis(1), aggregationTypes);
+        return createTimeSeriesStat((int) TimeUnit.HOURS.toMinutes(1), TimeUnit.MINUTES.toMillis(1), aggregationTypes);
     }
 
     public static TimeSeriesStats createDailyTimeSeriesStat(EnumSet<AggregationType> aggregationTypes) {
-        return new TimeSeriesStats((int) TimeUnit.DAYS.toHours(1), TimeUnit.HOURS.toMillis(1), aggregationTypes);
+        return createTimeSeriesStat((int) TimeUnit.DAYS.toHours(1), TimeUnit.HOURS.toMillis(1), aggregationTypes);
+    }
+
+    private static TimeSeriesStats createTimeSeriesStat(int numBins, long binDurationMillis,
+            EnumSet<AggregationType> aggregationTypes) {
+        if (RING_BUFFER_TIME_SERIES) {
+            return new RingBufferTimeSeriesStats(numBins, binDurationMillis, aggregationTypes);
+        }
+        return new TimeSeriesStats(numBins, binDurationMillis, aggregationTypes);
     }
 
     public static ServiceStat getOrCreateHourlyTimeSeriesStat(Service service, String prefix,
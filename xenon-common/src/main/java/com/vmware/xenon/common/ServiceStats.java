@@ -20,6 +20,7 @@ import java.util.Map;
 import java.util.SortedMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import com.esotericsoftware.kryo.serializers.VersionFieldSerializer.Since;
 
@@ -144,11 +145,19 @@ public class ServiceStats extends ServiceDocument {
             }
         }
 
+        /**
+         * Infrastructure use only. Updates {@link #bins} with the current aggregates, for
+         * implementations that do not maintain them on every {@link #add(long, double, double)}
+         */
+        public void refreshBins() {
+            // no-op, bins are always current
+        }
+
         /**
          * This method normalizes the input timestamp at UTC time boundaries
          *  based on the bin size, effectively creating time series that are comparable to each other
          */
-        private long normalizeTimestamp(long timestampMicros, long binDurationMillis) {
+        static long normalizeTimestamp(long timestampMicros, long binDurationMillis) {
             long timeMillis = TimeUnit.MICROSECONDS.toMillis(timestampMicros);
             timeMillis -= (timeMillis % binDurationMillis);
             return timeMillis;
@@ -156,6 +165,204 @@ public class ServiceStats extends ServiceDocument {
 
     }
 
+    /**
+     * Time series backed by a ring of bins, with the aggregates of each bin held in primitive
+     * arrays and updated with compare and set, so {@link #add(long, double, double)} neither locks
+     * nor allocates.
+     *
+     * A bin is placed in the ring slot given by its start time, so a new bin replaces the bin
+     * one full ring earlier. The average and variance are computed from the sum and sum of squares
+     * of the differences between each value and the first value of the bin, which keeps the
+     * variance accurate when the values are large compared to their spread.
+     *
+     * The aggregates are copied to {@link #bins} only by {@link #refreshBins()}, which the stats
+     * utility service calls before it returns the stats, so the serialized form is the same as for
+     * {@link TimeSeriesStats}. Code reading {@link #bins} in process must call
+     * {@link #refreshBins()} first. An update racing with the replacement of the bin in its slot
+     * might be counted in the new bin
+     */
+    public static class RingBufferTimeSeriesStats extends TimeSeriesStats {
+
+        private static final long SLOT_EMPTY = -1;
+        private static final long SLOT_RESETTING = -2;
+
+        private static final int FIELD_COUNT = 8;
+        private static final int FIELD_UPDATE_COUNT = 0;
+        private static final int FIELD_VALUE_SHIFT = 1;
+        private static final int FIELD_SHIFTED_SUM = 2;
+        private static final int FIELD_SHIFTED_SQUARE_SUM = 3;
+        private static final int FIELD_DELTA_SUM = 4;
+        private static final int FIELD_MIN = 5;
+        private static final int FIELD_MAX = 6;
+        private static final int FIELD_LATEST = 7;
+
+        /**
+         * Start time, in milliseconds, of the bin in each slot
+         */
+        private transient AtomicLongArray slotBinIds;
+
+        /**
+         * Aggregates of the bin in each slot, {@link #FIELD_COUNT} entries per slot. The update
+         * count is stored as a long, all other fields as double bits
+         */
+        private transient AtomicLongArray slotFields;
+
+        public RingBufferTimeSeriesStats() {
+            // no-op
+        }
+
+        public RingBufferTimeSeriesStats(int numBins, long binDurationMillis,
+                EnumSet<AggregationType> aggregationType) {
+            super(numBins, binDurationMillis, aggregationType);
+            this.slotBinIds = new AtomicLongArray(numBins);
+            for (int i = 0; i < numBins; i++) {
+                this.slotBinIds.set(i, SLOT_EMPTY);
+            }
+            this.slotFields = new AtomicLongArray(numBins * FIELD_COUNT);
+        }
+
+        @Override
+        public void add(long timestampMicros, double value, double delta) {
+            if (this.slotBinIds == null) {
+                // deserialized copy, only bins are available
+                super.add(timestampMicros, value, delta);
+                return;
+            }
+
+            long binId = normalizeTimestamp(timestampMicros, this.binDurationMillis);
+            int slot = (int) ((binId / this.binDurationMillis) % this.numBins);
+            if (!acquireSlot(slot, binId, value)) {
+                // incoming data is too old; ignore
+                return;
+            }
+
+            int base = slot * FIELD_COUNT;
+            if (this.aggregationType.contains(AggregationType.AVG)) {
+                double shifted = value - getDouble(base + FIELD_VALUE_SHIFT);
+                addDouble(base + FIELD_SHIFTED_SUM, shifted);
+                addDouble(base + FIELD_SHIFTED_SQUARE_SUM, shifted * shifted);
+            }
+            if (this.aggregationType.contains(AggregationType.SUM)) {
+                addDouble(base + FIELD_DELTA_SUM, delta);
+            }
+            if (this.aggregationType.contains(AggregationType.MAX)) {
+                long bits;
+                do {
+                    bits = this.slotFields.get(base + FIELD_MAX);
+                    if (Double.longBitsToDouble(bits) >= value) {
+                        break;
+                    }
+                } while (!this.slotFields.compareAndSet(base + FIELD_MAX, bits,
+                        Double.doubleToRawLongBits(value)));
+            }
+            if (this.aggregationType.contains(AggregationType.MIN)) {
+                long bits;
+                do {
+                    bits = this.slotFields.get(base + FIELD_MIN);
+                    if (Double.longBitsToDouble(bits) <= value) {
+                        break;
+                    }
+                } while (!this.slotFields.compareAndSet(base + FIELD_MIN, bits,
+                        Double.doubleToRawLongBits(value)));
+            }
+            if (this.aggregationType.contains(AggregationType.LATEST)) {
+                this.slotFields.set(base + FIELD_LATEST, Double.doubleToRawLongBits(value));
+            }
+            // the update is counted last, so bins without a complete update are not reported
+            this.slotFields.incrementAndGet(base + FIELD_UPDATE_COUNT);
+        }
+
+        /**
+         * Returns true once the slot holds the bin, resetting the slot if it holds an older bin,
+         * with the given value as the shift of the bin. Returns false if the slot holds a newer bin
+         */
+        private boolean acquireSlot(int slot, long binId, double value) {
+            while (true) {
+                long current = this.slotBinIds.get(slot);
+                if (current == binId) {
+                    return true;
+                }
+                if (current == SLOT_RESETTING) {
+                    Thread.yield();
+                    continue;
+                }
+                if (current > binId) {
+                    return false;
+                }
+                if (!this.slotBinIds.compareAndSet(slot, current, SLOT_RESETTING)) {
+                    continue;
+                }
+                int base = slot * FIELD_COUNT;
+                this.slotFields.set(base + FIELD_UPDATE_COUNT, 0);
+                this.slotFields.set(base + FIELD_VALUE_SHIFT, Double.doubleToRawLongBits(value));
+                this.slotFields.set(base + FIELD_SHIFTED_SUM, Double.doubleToRawLongBits(0));
+                this.slotFields.set(base + FIELD_SHIFTED_SQUARE_SUM,
+                        Double.doubleToRawLongBits(0));
+                this.slotFields.set(base + FIELD_DELTA_SUM, Double.doubleToRawLongBits(0));
+                this.slotFields.set(base + FIELD_MIN,
+                        Double.doubleToRawLongBits(Double.POSITIVE_INFINITY));
+                this.slotFields.set(base + FIELD_MAX,
+                        Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY));
+                this.slotFields.set(base + FIELD_LATEST, Double.doubleToRawLongBits(0));
+                this.slotBinIds.set(slot, binId);
+                return true;
+            }
+        }
+
+        private void addDouble(int index, double delta) {
+            long bits;
+            do {
+                bits = this.slotFields.get(index);
+            } while (!this.slotFields.compareAndSet(index, bits,
+                    Double.doubleToRawLongBits(Double.longBitsToDouble(bits) + delta)));
+        }
+
+        @Override
+        public void refreshBins() {
+            if (this.slotBinIds == null) {
+                return;
+            }
+
+            SortedMap<Long, TimeBin> snapshot = new ConcurrentSkipListMap<>();
+            for (int slot = 0; slot < this.numBins; slot++) {
+                long binId = this.slotBinIds.get(slot);
+                int base = slot * FIELD_COUNT;
+                long count = this.slotFields.get(base + FIELD_UPDATE_COUNT);
+                if (binId < 0 || count == 0) {
+                    continue;
+                }
+
+                TimeBin bin = new TimeBin();
+                if (this.aggregationType.contains(AggregationType.AVG)) {
+                    double sum = getDouble(base + FIELD_SHIFTED_SUM);
+                    double squareSum = getDouble(base + FIELD_SHIFTED_SQUARE_SUM);
+                    bin.count = count;
+                    bin.avg = getDouble(base + FIELD_VALUE_SHIFT) + sum / count;
+                    // sum of squared differences from the average, as computed by TimeSeriesStats
+                    bin.var = Math.max(0, squareSum - sum * sum / count);
+                }
+                if (this.aggregationType.contains(AggregationType.SUM)) {
+                    bin.sum = getDouble(base + FIELD_DELTA_SUM);
+                }
+                if (this.aggregationType.contains(AggregationType.MAX)) {
+                    bin.max = getDouble(base + FIELD_MAX);
+                }
+                if (this.aggregationType.contains(AggregationType.MIN)) {
+                    bin.min = getDouble(base + FIELD_MIN);
+                }
+                if (this.aggregationType.contains(AggregationType.LATEST)) {
+                    bin.latest = getDouble(base + FIELD_LATEST);
+                }
+                snapshot.put(binId, bin);
+            }
+            this.bins = snapshot;
+        }
+
+        private double getDouble(int index) {
+            return Double.longBitsToDouble(this.slotFields.get(index));
+        }
+    }
+
     public static class ServiceStat {
         public static final String KIND = Utils.buildKind(ServiceStat.class);
 
@@ -18,11 +18,14 @@ import static com.vmware.xenon.common.TransactionServiceHelper.handleOperationIn
 import static com.vmware.xenon.common.TransactionServiceHelper.notifyTransactionCoordinatorOp;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -55,7 +58,7 @@ public class StatefulService implements Service {
     }
 
     private static class RuntimeContext {
-        public ProcessingStage processingStage = ProcessingStage.CREATED;
+        public volatile ProcessingStage processingStage = ProcessingStage.CREATED;
         public String selfLink;
         public long version;
         public long epoch;
@@ -63,10 +66,15 @@ public class StatefulService implements Service {
         public EnumSet<ServiceOption> options = EnumSet.noneOf(ServiceOption.class);
         public Class<? extends ServiceDocument> stateType;
 
-        public OperationQueue synchQueue;
+        public volatile OperationQueue synchQueue;
         public OperationQueue operationQueue;
-        public boolean isUpdateActive;
-        public int getActiveCount;
+
+        /**
+         * Serialization state for request dispatch. {@link #DISPATCH_UPDATE_ACTIVE} is set while an
+         * update is processed, the remaining bits count the active GET requests. Updated with
+         * compare and set, see {@link StatefulService#queueRequestInternal(Operation)}
+         */
+        public volatile int dispatchState;
 
         public transient ServiceHost host;
         public UtilityService utilityService;
@@ -75,6 +83,16 @@ public class StatefulService implements Service {
         public AdditionalContext extras;
     }
 
+    private static final int DISPATCH_UPDATE_ACTIVE = 0x1;
+    private static final int DISPATCH_GET_INCREMENT = 0x2;
+
+    private static final AtomicIntegerFieldUpdater<RuntimeContext> dispatchStateUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(RuntimeContext.class, "dispatchState");
+
+    private static final AtomicReferenceFieldUpdater<RuntimeContext, OperationQueue> synchQueueUpdater =
+            AtomicReferenceFieldUpdater.newUpdater(RuntimeContext.class, OperationQueue.class,
+                    "synchQueue");
+
     private final RuntimeContext context = new RuntimeContext();
 
     public StatefulService(Class<? extends ServiceDocument> stateType) {
@@ -173,17 +191,9 @@ public class StatefulService implements Service {
     private boolean checkServiceStopped(Operation op, boolean stop) {
         boolean isAlreadyStopped = this.context.processingStage == ProcessingStage.STOPPED;
         boolean isDeleteAndStop = ServiceHost.isServiceDeleteAndStop(op);
-        boolean hasActiveUpdates = false;
-
-        synchronized (this.context) {
-            isAlreadyStopped = this.context.processingStage == ProcessingStage.STOPPED;
-            if (!hasActiveUpdates && this.context.synchQueue != null) {
-                hasActiveUpdates = true;
-            }
-            if (!hasActiveUpdates && !this.context.operationQueue.isEmpty()) {
-                hasActiveUpdates = true;
-            }
-        }
+        OperationQueue synchQueue = this.context.synchQueue;
+        boolean hasActiveUpdates = (synchQueue != null && !synchQueue.isEmpty())
+                || !this.context.operationQueue.isEmpty();
 
         if (!isAlreadyStopped && !stop) {
             return false;
@@ -217,17 +227,15 @@ public class StatefulService implements Service {
     }
 
     private void cancelPendingRequests(Operation op) {
-        Collection<Operation> opsToCancel = null;
+        Collection<Operation> opsToCancel = new ArrayList<>();
         boolean isDeleteAndStop = ServiceHost.isServiceDeleteAndStop(op);
 
-        synchronized (this.context) {
-            opsToCancel = this.context.operationQueue.toCollection();
-            this.context.operationQueue.clear();
-
-            if (this.context.synchQueue != null) {
-                opsToCancel.addAll(this.context.synchQueue.toCollection());
-                this.context.synchQueue.clear();
-            }
+        // requests queued concurrently with the transition to STOPPED are removed by the
+        // producer, see enqueueRequest
+        this.context.operationQueue.transferAll(opsToCancel);
+        OperationQueue synchQueue = this.context.synchQueue;
+        if (synchQueue != null) {
+            synchQueue.transferAll(opsToCancel);
         }
 
         for (Operation o : opsToCancel) {
@@ -293,46 +301,75 @@ public class StatefulService implements Service {
 
     private int queueGetRequestInternal(final Operation op, int stopped) {
         // queue GETs, if updates are pending
-        synchronized (this.context) {
+        while (true) {
             if (this.context.processingStage == ProcessingStage.STOPPED) {
-                stopped |= STOP_FLAG;
-            } else if (this.context.isUpdateActive) {
-                if (!this.context.operationQueue.offer(op)) {
-                    failRequestLimitExceeded(op, "operationQueue for GET on " + getSelfLink());
-                }
-                return RETURN_TRUE_FLAG;
-            } else {
-                this.context.getActiveCount++;
+                return stopped | STOP_FLAG;
+            }
+            int state = this.context.dispatchState;
+            if ((state & DISPATCH_UPDATE_ACTIVE) != 0) {
+                return enqueueRequest(op, this.context.operationQueue, "operationQueue for GET");
+            }
+            if (dispatchStateUpdater.compareAndSet(this.context, state,
+                    state + DISPATCH_GET_INCREMENT)) {
+                return stopped;
             }
         }
-        return stopped;
     }
 
     private int queueUpdateRequestInternal(final Operation op, int stopped) {
         // serialize updates
-        synchronized (this.context) {
-            if (this.context.processingStage == ProcessingStage.STOPPED) {
-                stopped |= STOP_FLAG;
-            } else if ((this.context.isUpdateActive || this.context.getActiveCount != 0)) {
-                if (op.isSynchronizeOwner()) {
-                    // Synchronization requests are queued in a separate queue
-                    // so that they can prioritized higher than other updates.
-                    if (this.context.synchQueue == null) {
-                        this.context.synchQueue = OperationQueue
-                                .createFifo(Service.SYNCH_QUEUE_DEFAULT_LIMIT);
-                    }
-                    if (!this.context.synchQueue.offer(op)) {
-                        failRequestLimitExceeded(op, "synchQueue on " + getSelfLink());
-                    }
-                } else if (!this.context.operationQueue.offer(op)) {
-                    failRequestLimitExceeded(op, "operationQueue for update on " + getSelfLink());
-                }
-                return RETURN_TRUE_FLAG;
-            } else {
-                this.context.isUpdateActive = true;
+        if (this.context.processingStage == ProcessingStage.STOPPED) {
+            return stopped | STOP_FLAG;
+        }
+        if (dispatchStateUpdater.compareAndSet(this.context, 0, DISPATCH_UPDATE_ACTIVE)) {
+            return stopped;
+        }
+
+        if (op.isSynchronizeOwner()) {
+            // Synchronization requests are queued in a separate queue
+            // so that they can prioritized higher than other updates.
+            OperationQueue synchQueue = this.context.synchQueue;
+            if (synchQueue == null) {
+                synchQueueUpdater.compareAndSet(this.context, null,
+                        OperationQueue.createFifo(Service.SYNCH_QUEUE_DEFAULT_LIMIT));
+                synchQueue = this.context.synchQueue;
             }
+            return enqueueRequest(op, synchQueue, "synchQueue");
         }
-        return stopped;
+        return enqueueRequest(op, this.context.operationQueue, "operationQueue for update");
+    }
+
+    /**
+     * Queues a request that lost the race for the dispatch state, then re-checks the state:
+     * if the active requests completed before the request became visible in the queue, the
+     * queue is drained here, since the completing requests might have found it empty
+     */
+    private int enqueueRequest(Operation op, OperationQueue queue, String queueDescription) {
+        if (!queue.offer(op)) {
+            failRequestLimitExceeded(op, queueDescription + " on " + getSelfLink());
+            return RETURN_TRUE_FLAG;
+        }
+
+        if (hasOption(ServiceOption.INSTRUMENTATION)) {
+            adjustStat(Service.STAT_NAME_OPERATION_QUEUE_CONTENTION_COUNT, 1);
+            setStat(Service.STAT_NAME_OPERATION_QUEUE_DEPTH, queue.size());
+        }
+
+        if (this.context.processingStage == ProcessingStage.STOPPED) {
+            // pending requests might have already been cancelled
+            if (queue.remove(op)) {
+                return STOP_FLAG;
+            }
+            return RETURN_TRUE_FLAG;
+        }
+
+        int state = this.context.dispatchState;
+        boolean isIdle = op.getAction() == Action.GET ? (state & DISPATCH_UPDATE_ACTIVE) == 0
+                : state == 0;
+        if (isIdle) {
+            getHost().handleRequest(this, null);
+        }
+        return RETURN_TRUE_FLAG;
     }
 
     @Override
@@ -817,6 +854,8 @@ public class StatefulService implements Service {
                 if (linkedState != null
                         && !op.isFromReplication()
                         && !hasOption(ServiceOption.CONCURRENT_UPDATE_HANDLING)) {
+                    // a frozen cached state must not have been mutated by the handler
+                    FrozenDocuments.verify(linkedState);
                     op.linkState(Utils.clone(op.getLinkedState()));
                 }
                 applyUpdate(op);
@@ -1284,6 +1323,18 @@ public class StatefulService implements Service {
             }
 
             if (linkedState != null) {
+                boolean isOwnerStale = hasOption(ServiceOption.DOCUMENT_OWNER)
+                        && !getHost().getId().equals(linkedState.documentOwner);
+                boolean isEpochStale = hasOption(ServiceOption.OWNER_SELECTION)
+                        && (linkedState.documentEpoch == null
+                                || linkedState.documentEpoch != this.context.epoch);
+                if ((isOwnerStale || isEpochStale) && FrozenDocuments.isFrozen(linkedState)) {
+                    // frozen state is linked straight from the cache, and shared with concurrent
+                    // requests: update a copy
+                    linkedState = Utils.clone(linkedState);
+                    op.linkState(linkedState);
+                }
+
                 if (hasOption(ServiceOption.DOCUMENT_OWNER)) {
                     linkedState.documentOwner = getHost().getId();
                 }
@@ -1309,9 +1360,11 @@ public class StatefulService implements Service {
         }
 
         if (op.getAction() != Action.GET) {
-            synchronized (this.context) {
-                this.context.isUpdateActive = false;
-            }
+            int state;
+            do {
+                state = this.context.dispatchState;
+            } while (!dispatchStateUpdater.compareAndSet(this.context, state,
+                    state & ~DISPATCH_UPDATE_ACTIVE));
         }
 
         if (op.getAction() == Action.GET) {
@@ -1320,14 +1373,16 @@ public class StatefulService implements Service {
                 return;
             }
 
-            synchronized (this.context) {
-                this.context.getActiveCount--;
-                if (this.context.getActiveCount < 0) {
+            int state;
+            do {
+                state = this.context.dispatchState;
+                if (state < DISPATCH_GET_INCREMENT) {
                     logSevere(new IllegalStateException(
                             "Synchronization state is invalid: Negative pending gets"));
-                    this.context.getActiveCount = 0;
+                    break;
                 }
-            }
+            } while (!dispatchStateUpdater.compareAndSet(this.context, state,
+                    state - DISPATCH_GET_INCREMENT));
         }
 
         this.context.host.handleRequest(this, null);
@@ -1336,18 +1391,14 @@ public class StatefulService implements Service {
     @Override
     public Operation dequeueRequest() {
         Operation op = null;
-        synchronized (this.context) {
-            if (this.context.synchQueue != null) {
-                // Synch requests are prioritized higher than
-                // other update requests.
-                op = this.context.synchQueue.poll();
-                if (this.context.synchQueue.isEmpty()) {
-                    this.context.synchQueue = null;
-                }
-            }
-            if (op == null) {
-                op = this.context.operationQueue.poll();
-            }
+        OperationQueue synchQueue = this.context.synchQueue;
+        if (synchQueue != null) {
+            // Synch requests are prioritized higher than
+            // other update requests.
+            op = synchQueue.poll();
+        }
+        if (op == null) {
+            op = this.context.operationQueue.poll();
         }
         return op;
     }
@@ -1663,6 +1714,10 @@ public class StatefulService implements Service {
             return;
         }
 
+        if (optionsChanged) {
+            getHost().updateServiceOption(this, option, enable);
+        }
+
         if (optionsChanged && option == ServiceOption.DOCUMENT_OWNER) {
             EnumSet<ServiceOption> addedOptions = null;
             EnumSet<ServiceOption> removedOptions = null;
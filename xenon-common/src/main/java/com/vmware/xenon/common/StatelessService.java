@@ -372,6 +372,10 @@ public class StatelessService implements Service {
             optionsChanged = this.options.remove(option);
         }
 
+        if (optionsChanged && this.host != null) {
+            this.host.updateServiceOption(this, option, enable);
+        }
+
         if (enable
                 && optionsChanged
                 && option == ServiceOption.PERIODIC_MAINTENANCE
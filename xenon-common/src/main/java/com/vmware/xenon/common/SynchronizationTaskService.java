@@ -18,6 +18,8 @@ import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
@@ -32,6 +34,9 @@ import com.vmware.xenon.services.common.NodeGroupBroadcastResponse;
 import com.vmware.xenon.services.common.QueryTask;
 import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
 import com.vmware.xenon.services.common.ServiceUriPaths;
+import com.vmware.xenon.services.common.SynchronizationDigestService;
+import com.vmware.xenon.services.common.SynchronizationDigestService.DigestRequest;
+import com.vmware.xenon.services.common.SynchronizationDigestService.DigestTree;
 import com.vmware.xenon.services.common.TaskService;
 
 /**
@@ -45,6 +50,7 @@ public class SynchronizationTaskService
 
     public static final String STAT_NAME_CHILD_SYNCH_RETRY_COUNT = "childSynchRetryCount";
     public static final String STAT_NAME_SYNCH_RETRY_COUNT = "synchRetryCount";
+    public static final String STAT_NAME_CHILD_SYNCH_SKIPPED_COUNT = "childSynchSkippedCount";
 
     /**
      * Maximum synch-task retry limit.
@@ -145,6 +151,22 @@ public class SynchronizationTaskService
          */
         @UsageOption(option = PropertyUsageOption.AUTO_MERGE_IF_NOT_NULL)
         public int synchCompletionCount;
+
+        /**
+         * Digest tree buckets in which the peers do not agree. When set, only child
+         * services in these buckets are synchronized.
+         */
+        @UsageOption(option = PropertyUsageOption.AUTO_MERGE_IF_NOT_NULL)
+        public Set<Integer> outOfSyncBuckets;
+
+        /**
+         * The membershipUpdateTimeMicros of the last completed synchronization that went
+         * through all child services. Digests do not cover document ownership, so they are
+         * only compared once such a synchronization re-owned the child services for the
+         * current membership.
+         */
+        @UsageOption(option = PropertyUsageOption.AUTO_MERGE_IF_NOT_NULL)
+        public Long fullSynchMembershipUpdateTimeMicros;
     }
 
     private Supplier<Service> childServiceInstantiator;
@@ -166,6 +188,16 @@ public class SynchronizationTaskService
             false
     );
 
+    /**
+     * whether to compare per factory digest trees across peers, and only synchronize
+     * child services in buckets where the peers disagree
+     */
+    private final boolean isDigestSynchEnabled = XenonConfiguration.bool(
+            SynchronizationTaskService.class,
+            "isDigestSynchEnabled",
+            false
+    );
+
     /**
      * check point period in millisecond
      */
@@ -270,6 +302,15 @@ public class SynchronizationTaskService
             post.fail(new IllegalArgumentException("queryPageReference must not be set."));
             return null;
         }
+        if (task.outOfSyncBuckets != null) {
+            post.fail(new IllegalArgumentException("outOfSyncBuckets must not be set."));
+            return null;
+        }
+        if (task.fullSynchMembershipUpdateTimeMicros != null) {
+            post.fail(new IllegalArgumentException(
+                    "fullSynchMembershipUpdateTimeMicros must not be set."));
+            return null;
+        }
         return task;
     }
 
@@ -355,6 +396,7 @@ public class SynchronizationTaskService
             // correctness we do it here again.
             task.startTimeMicros = Utils.getNowMicrosUtc();
             task.synchCompletionCount = 0;
+            task.outOfSyncBuckets = null;
             setStat(STAT_NAME_CHILD_SYNCH_RETRY_COUNT, 0);
             setStat(STAT_NAME_CHILD_SYNCH_FAILURE_COUNT, 0);
             setFactoryAvailability(task, false, (o) -> handleSubStage(task), put);
@@ -455,6 +497,7 @@ public class SynchronizationTaskService
                 task.checkpoint = 0L;
             }
             task.synchCompletionCount = 0;
+            task.outOfSyncBuckets = null;
             setStat(STAT_NAME_CHILD_SYNCH_RETRY_COUNT, 0);
             setStat(STAT_NAME_CHILD_SYNCH_FAILURE_COUNT, 0);
         } else {
@@ -567,6 +610,103 @@ public class SynchronizationTaskService
     }
 
     private void handleQueryStage(State task) {
+        if (!isDigestSynchSupported(task) || isMembershipChanged(task)) {
+            queryChildServices(task);
+            return;
+        }
+        compareDigests(task);
+    }
+
+    private boolean isDigestSynchSupported(State task) {
+        // digests only cover the latest version of indexed documents. Services that are not
+        // persisted are not in the index, and are always synchronized one by one
+        return this.isDigestSynchEnabled
+                && !task.synchAllVersions
+                && task.childOptions.contains(ServiceOption.REPLICATION)
+                && task.childOptions.contains(ServiceOption.PERSISTENCE);
+    }
+
+    private boolean isMembershipChanged(State task) {
+        // after a membership change the selected owner of some child services differs from
+        // their documentOwner, even where all peers hold the same versions. Synchronizing
+        // all child services lets the new owners take over
+        return !Objects.equals(task.membershipUpdateTimeMicros,
+                task.fullSynchMembershipUpdateTimeMicros);
+    }
+
+    /**
+     * Collects the digest tree of the factory from every peer. If all trees are equal, the
+     * peers already agree on all child services and synchronization is skipped. Otherwise
+     * the buckets that differ are recorded in the task, and only the child services in those
+     * buckets are synchronized. Any failure falls back to synchronizing all child services.
+     */
+    private void compareDigests(State task) {
+        DigestRequest request = new DigestRequest();
+        request.factoryLink = task.factorySelfLink;
+        request.documentKind = task.factoryStateKind;
+        request.indexLink = task.childDocumentIndexLink;
+        request.leafCount = SynchronizationDigestService.LEAF_COUNT;
+        request.resultLimit = task.queryResultLimit;
+
+        Operation post = Operation.createPost(this, SynchronizationDigestService.SELF_LINK)
+                .setBody(request)
+                .setReferer(getUri())
+                .setConnectionSharing(true)
+                .setConnectionTag(ServiceClient.CONNECTION_TAG_SYNCHRONIZATION)
+                .setCompletion((o, e) -> {
+                    if (getHost().isStopping()) {
+                        sendSelfCancellationPatch(task, "host is stopping");
+                        return;
+                    }
+
+                    task.outOfSyncBuckets = null;
+                    if (e != null) {
+                        logWarning("Digest comparison failed, synchronizing all services: %s",
+                                e.toString());
+                        queryChildServices(task);
+                        return;
+                    }
+
+                    NodeGroupBroadcastResponse rsp = o.getBody(NodeGroupBroadcastResponse.class);
+                    if (!rsp.failures.isEmpty() || rsp.jsonResponses.size() != rsp.nodeCount) {
+                        // a peer that did not respond might hold documents the others miss
+                        logWarning("Digests received from %d of %d peers, synchronizing all services",
+                                rsp.jsonResponses.size(), rsp.nodeCount);
+                        queryChildServices(task);
+                        return;
+                    }
+
+                    List<DigestTree> trees = rsp.jsonResponses.values().stream()
+                            .map(json -> Utils.fromJson(json, DigestTree.class))
+                            .collect(Collectors.toList());
+                    Set<Integer> buckets = SynchronizationDigestService.findOutOfSyncBuckets(trees);
+                    if (this.isDetailedLoggingEnabled) {
+                        logInfo("%d of %d digest buckets out of sync for %s", buckets.size(),
+                                request.leafCount, task.factorySelfLink);
+                    }
+
+                    if (!buckets.isEmpty()) {
+                        task.outOfSyncBuckets = buckets;
+                        queryChildServices(task);
+                        return;
+                    }
+
+                    // the synchronize stage is skipped, so ownership is verified here instead
+                    long documentCount = trees.isEmpty() ? 0 : trees.get(0).documentCount;
+                    Runnable skipSynchronization = () -> {
+                        adjustStat(STAT_NAME_CHILD_SYNCH_SKIPPED_COUNT, documentCount);
+                        task.synchCompletionCount += (int) documentCount;
+                        sendSelfPatch(task, TaskState.TaskStage.STARTED,
+                                subStageSetter(SubStage.CHECK_NG_AVAILABILITY));
+                    };
+                    if (!verifySynchronizationOwnership(task, skipSynchronization)) {
+                        skipSynchronization.run();
+                    }
+                });
+        getHost().broadcastRequest(task.nodeSelectorLink, false, post);
+    }
+
+    private void queryChildServices(State task) {
         QueryTask queryTask = buildChildQueryTask(task);
         Operation queryPost = Operation
                 .createPost(this, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS)
@@ -672,7 +812,8 @@ public class SynchronizationTaskService
             return;
         }
 
-        if (verifyOwnership && verifySynchronizationOwnership(task)) {
+        if (verifyOwnership && verifySynchronizationOwnership(task,
+                () -> handleSynchronizeStage(task, false))) {
             // Verifying ownership will recursively call into
             // handleSynchronizationStage with verifyOwnership set to false.
             return;
@@ -709,7 +850,14 @@ public class SynchronizationTaskService
                 return;
             }
             List<String> list = new ArrayList<>(rsp.documentLinks);
-            synchronizeChildrenInQueryPage(task, rsp, list, 0, list.size());
+            int totalServiceCount = list.size();
+            if (task.outOfSyncBuckets != null) {
+                // skip services in buckets where all peers agree
+                list.removeIf(link -> !task.outOfSyncBuckets.contains(
+                        SynchronizationDigestService.getBucket(link, SynchronizationDigestService.LEAF_COUNT)));
+                adjustStat(STAT_NAME_CHILD_SYNCH_SKIPPED_COUNT, totalServiceCount - list.size());
+            }
+            synchronizeChildrenInQueryPage(task, rsp, list, 0, totalServiceCount);
         };
 
         sendRequest(Operation.createGet(task.queryPageReference)
@@ -725,6 +873,11 @@ public class SynchronizationTaskService
             return;
         }
 
+        if (documentLinks.isEmpty()) {
+            completeQueryPage(task, rsp, totalServiceCount);
+            return;
+        }
+
         // Keep track of failed services.
         List<String> failedServices = new ArrayList<>();
 
@@ -798,18 +951,7 @@ public class SynchronizationTaskService
                 }
             }
 
-            setStat(STAT_NAME_CHILD_SYNCH_RETRY_COUNT, 0);
-            task.queryPageReference = rsp.nextPageLink != null
-                    ? UriUtils.buildUri(task.queryPageReference, rsp.nextPageLink)
-                    : null;
-
-            task.synchCompletionCount += totalServiceCount;
-
-            if (task.queryPageReference == null) {
-                sendSelfPatch(task, TaskState.TaskStage.STARTED, subStageSetter(SubStage.CHECK_NG_AVAILABILITY));
-                return;
-            }
-            sendSelfPatch(task, TaskState.TaskStage.STARTED, subStageSetter(SubStage.SYNCHRONIZE));
+            completeQueryPage(task, rsp, totalServiceCount);
         };
 
         for (String link : documentLinks) {
@@ -822,6 +964,21 @@ public class SynchronizationTaskService
         }
     }
 
+    private void completeQueryPage(State task, ServiceDocumentQueryResult rsp, int totalServiceCount) {
+        setStat(STAT_NAME_CHILD_SYNCH_RETRY_COUNT, 0);
+        task.queryPageReference = rsp.nextPageLink != null
+                ? UriUtils.buildUri(task.queryPageReference, rsp.nextPageLink)
+                : null;
+
+        task.synchCompletionCount += totalServiceCount;
+
+        if (task.queryPageReference == null) {
+            sendSelfPatch(task, TaskState.TaskStage.STARTED, subStageSetter(SubStage.CHECK_NG_AVAILABILITY));
+            return;
+        }
+        sendSelfPatch(task, TaskState.TaskStage.STARTED, subStageSetter(SubStage.SYNCHRONIZE));
+    }
+
     private void scheduleRetry(Runnable task, String statNameRetryCount) {
         adjustStat(statNameRetryCount, 1);
         ServiceStats.ServiceStat stat = getStat(statNameRetryCount);
@@ -863,7 +1020,7 @@ public class SynchronizationTaskService
         return delay;
     }
 
-    private boolean verifySynchronizationOwnership(State task) {
+    private boolean verifySynchronizationOwnership(State task, Runnable onOwnerVerified) {
         // If this is not a REPLICATED factory, we don't
         // bother verifying ownership.
         if (!task.childOptions.contains(ServiceOption.REPLICATION)) {
@@ -890,9 +1047,7 @@ public class SynchronizationTaskService
                         return;
                     }
 
-                    // Recursively call handleSynchronizeStage
-                    // without owner verification.
-                    handleSynchronizeStage(task, false);
+                    onOwnerVerified.run();
                 });
 
         getHost().selectOwner(task.nodeSelectorLink, task.factorySelfLink, selectOp);
@@ -953,6 +1108,9 @@ public class SynchronizationTaskService
                         return;
                     }
 
+                    // digest runs only start once this is set for the current membership
+                    task.fullSynchMembershipUpdateTimeMicros = task.membershipUpdateTimeMicros;
+
                     if (this.parent != null && this.parent.hasChildOption(ServiceOption.PERSISTENCE)
                             && this.isCheckpointEnabled) {
                         CheckpointService.CheckpointState s = new CheckpointService.CheckpointState();
@@ -0,0 +1,354 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Level;
+
+/**
+ * Hierarchical timing wheel. Tasks are scheduled against an absolute deadline, in microseconds
+ * since epoch, and run on the thread calling {@link #advance(long)}, once the wheel time has
+ * moved past their deadline. Scheduling and cancelling a task are constant time operations;
+ * advancing the wheel costs one slot check per elapsed tick plus the work of moving the tasks
+ * that expire or cascade to a lower level.
+ *
+ * Each level has {@link #WHEEL_SIZE} slots. A slot at level N spans {@code WHEEL_SIZE^N}
+ * ticks, so six levels cover {@code 2^36} ticks. Tasks with deadlines further in the future
+ * are kept in an overflow list that is re-examined every time the top level wraps around.
+ *
+ * Tasks never run before their deadline and run at most one tick, plus the interval between
+ * calls to {@link #advance(long)}, after it.
+ *
+ * {@link #schedule(long, Runnable)} and {@link Timeout#cancel()} take no lock: they add the
+ * timeout to a concurrent queue, which the thread calling {@link #advance(long)} drains before
+ * it moves the wheel. Only that thread links timeouts into the wheel slots
+ */
+public final class TimingWheel {
+
+    /**
+     * Handle to a scheduled task
+     */
+    public static final class Timeout {
+        private static final int STATE_PENDING = 0;
+        private static final int STATE_CANCELLED = 1;
+        private static final int STATE_EXPIRED = 2;
+
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadlineMicros;
+        private final long expirationTick;
+
+        // accessed only by the thread advancing the owning wheel
+        private Timeout prev;
+        private Timeout next;
+        private Bucket bucket;
+
+        private volatile int state = STATE_PENDING;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadlineMicros,
+                long expirationTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineMicros = deadlineMicros;
+            this.expirationTick = expirationTick;
+        }
+
+        public long getDeadlineMicros() {
+            return this.deadlineMicros;
+        }
+
+        /**
+         * Cancels the task. Returns false if the task has already expired or was cancelled
+         */
+        public boolean cancel() {
+            return this.wheel.cancel(this);
+        }
+
+        public boolean isCancelled() {
+            return this.state == STATE_CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return this.state == STATE_EXPIRED;
+        }
+
+        private boolean transition(int newState) {
+            return STATE_UPDATER.compareAndSet(this, STATE_PENDING, newState);
+        }
+    }
+
+    /**
+     * Doubly linked list of timeouts, so a timeout can unlink itself in constant time
+     */
+    private static final class Bucket {
+        private Timeout head;
+
+        void add(Timeout t) {
+            t.bucket = this;
+            t.prev = null;
+            t.next = this.head;
+            if (this.head != null) {
+                this.head.prev = t;
+            }
+            this.head = t;
+        }
+
+        void remove(Timeout t) {
+            if (t.prev != null) {
+                t.prev.next = t.next;
+            } else {
+                this.head = t.next;
+            }
+            if (t.next != null) {
+                t.next.prev = t.prev;
+            }
+            t.prev = null;
+            t.next = null;
+            t.bucket = null;
+        }
+
+        /**
+         * Detaches and returns the list of timeouts, still linked through {@link Timeout#next}
+         */
+        Timeout drain() {
+            Timeout h = this.head;
+            this.head = null;
+            return h;
+        }
+    }
+
+    public static final int WHEEL_SIZE = 64;
+    private static final int WHEEL_BITS = 6;
+    private static final long WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVEL_COUNT = 6;
+
+    /**
+     * Largest number of ticks the wheel steps through one by one. Larger jumps, for example
+     * after a long pause between calls to {@link #advance(long)}, re-insert all pending
+     * timeouts instead
+     */
+    private static final long MAX_STEP_COUNT = WHEEL_SIZE * WHEEL_SIZE;
+
+    private final long tickMicros;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    // guarded by the thread advancing the wheel
+    private final Bucket[][] levels = new Bucket[LEVEL_COUNT][WHEEL_SIZE];
+    private final Bucket overflow = new Bucket();
+    private final Bucket due = new Bucket();
+    private long currentTick;
+    private int linkedCount;
+
+    public TimingWheel(long tickMicros, long nowMicros) {
+        if (tickMicros <= 0) {
+            throw new IllegalArgumentException("tickMicros must be positive");
+        }
+        this.tickMicros = tickMicros;
+        this.currentTick = nowMicros / tickMicros;
+        for (Bucket[] level : this.levels) {
+            for (int i = 0; i < level.length; i++) {
+                level[i] = new Bucket();
+            }
+        }
+    }
+
+    public long getTickMicros() {
+        return this.tickMicros;
+    }
+
+    /**
+     * Returns the number of tasks that are scheduled, but have not run or been cancelled
+     */
+    public int size() {
+        return this.pendingCount.get();
+    }
+
+    /**
+     * Schedules the task to run once the wheel advances past the supplied deadline. A deadline
+     * in the past makes the task run on the next call to {@link #advance(long)}
+     */
+    public Timeout schedule(long deadlineMicros, Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException("task is required");
+        }
+        long expirationTick = deadlineMicros / this.tickMicros;
+        if (deadlineMicros % this.tickMicros > 0) {
+            expirationTick++;
+        }
+        Timeout t = new Timeout(this, task, deadlineMicros, expirationTick);
+        this.pendingCount.incrementAndGet();
+        this.scheduled.offer(t);
+        return t;
+    }
+
+    /**
+     * Moves the wheel time forward and runs, on the calling thread, all tasks with a deadline
+     * at or before the supplied time. Returns the number of tasks that ran
+     */
+    public int advance(long nowMicros) {
+        Timeout expired;
+        synchronized (this) {
+            linkScheduled();
+            unlinkCancelled();
+
+            long targetTick = nowMicros / this.tickMicros;
+            if (targetTick > this.currentTick) {
+                if (this.linkedCount == 0) {
+                    this.currentTick = targetTick;
+                } else if (targetTick - this.currentTick > MAX_STEP_COUNT) {
+                    rebuild(targetTick);
+                } else {
+                    while (this.currentTick < targetTick) {
+                        this.currentTick++;
+                        cascade();
+                    }
+                }
+            }
+
+            expired = this.due.drain();
+            for (Timeout t = expired; t != null; t = t.next) {
+                t.bucket = null;
+                this.linkedCount--;
+            }
+        }
+
+        int count = 0;
+        while (expired != null) {
+            Timeout t = expired;
+            expired = t.next;
+            t.next = null;
+            t.prev = null;
+            if (!t.transition(Timeout.STATE_EXPIRED)) {
+                // cancelled after the cancellations were processed
+                continue;
+            }
+            this.pendingCount.decrementAndGet();
+            count++;
+            try {
+                t.task.run();
+            } catch (Throwable e) {
+                Utils.log(TimingWheel.class, TimingWheel.class.getSimpleName(), Level.WARNING,
+                        "Task failed: %s", Utils.toString(e));
+            }
+        }
+        return count;
+    }
+
+    private boolean cancel(Timeout t) {
+        if (!t.transition(Timeout.STATE_CANCELLED)) {
+            return false;
+        }
+        this.pendingCount.decrementAndGet();
+        // unlinked from its slot on the next advance, so the slots are never shared
+        this.cancelled.offer(t);
+        return true;
+    }
+
+    private void linkScheduled() {
+        Timeout t;
+        while ((t = this.scheduled.poll()) != null) {
+            if (t.state != Timeout.STATE_PENDING) {
+                // cancelled before it was linked, and never will be
+                continue;
+            }
+            place(t);
+            this.linkedCount++;
+        }
+    }
+
+    private void unlinkCancelled() {
+        Timeout t;
+        while ((t = this.cancelled.poll()) != null) {
+            if (t.bucket == null) {
+                // not linked yet, or already drained from the due list
+                continue;
+            }
+            t.bucket.remove(t);
+            this.linkedCount--;
+        }
+    }
+
+    /**
+     * Places a timeout at the lowest level whose slot range, relative to the current tick,
+     * contains its expiration tick
+     */
+    private void place(Timeout t) {
+        long expirationTick = t.expirationTick;
+        if (expirationTick <= this.currentTick) {
+            this.due.add(t);
+            return;
+        }
+        for (int level = 0; level < LEVEL_COUNT; level++) {
+            int shift = WHEEL_BITS * (level + 1);
+            if ((expirationTick >>> shift) == (this.currentTick >>> shift)) {
+                int slot = (int) ((expirationTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+                this.levels[level][slot].add(t);
+                return;
+            }
+        }
+        this.overflow.add(t);
+    }
+
+    /**
+     * Called after the current tick moves forward by one: every level whose slot boundary
+     * was crossed re-distributes the timeouts of its now current slot to the lower levels,
+     * top level first. Level zero always re-distributes, moving its timeouts to the due list
+     */
+    private void cascade() {
+        if ((this.currentTick & ((1L << (WHEEL_BITS * LEVEL_COUNT)) - 1)) == 0) {
+            replace(this.overflow.drain());
+        }
+        for (int level = LEVEL_COUNT - 1; level >= 0; level--) {
+            int shift = WHEEL_BITS * level;
+            if ((this.currentTick & ((1L << shift) - 1)) != 0) {
+                continue;
+            }
+            int slot = (int) ((this.currentTick >>> shift) & WHEEL_MASK);
+            replace(this.levels[level][slot].drain());
+        }
+    }
+
+    private void rebuild(long targetTick) {
+        Timeout pending = this.overflow.drain();
+        for (Bucket[] level : this.levels) {
+            for (Bucket b : level) {
+                Timeout h = b.drain();
+                while (h != null) {
+                    Timeout next = h.next;
+                    h.next = pending;
+                    pending = h;
+                    h = next;
+                }
+            }
+        }
+        this.currentTick = targetTick;
+        replace(pending);
+    }
+
+    private void replace(Timeout t) {
+        while (t != null) {
+            Timeout next = t.next;
+            place(t);
+            t = next;
+        }
+    }
+}
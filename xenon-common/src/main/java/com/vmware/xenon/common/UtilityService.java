@@ -403,6 +403,8 @@ public class UtilityService implements Service {
             Operation clone = op.clone();
             clone.toggleOption(OperationOption.REMOTE, false);
             clone.addPragmaDirective(Operation.PRAGMA_DIRECTIVE_NOTIFICATION);
+            // remote subscribers share the body encoded for the first one
+            clone.setEncodedBodyCache(new EncodedBodyCache(this.parent));
             for (Entry<URI, ServiceSubscriber> e : this.subscriptions.subscribers.entrySet()) {
                 ServiceSubscriber s = e.getValue();
                 notifySubscriber(now, clone, s);
@@ -618,6 +620,11 @@ public class UtilityService implements Service {
             } else {
                 ServiceStats rsp;
                 synchronized (this.stats) {
+                    for (ServiceStat st : this.stats.entries.values()) {
+                        if (st.timeSeriesStats != null) {
+                            st.timeSeriesStats.refreshBins();
+                        }
+                    }
                     rsp = populateDocumentProperties(this.stats);
                     rsp = Utils.clone(rsp);
                 }
@@ -868,19 +875,20 @@ public class UtilityService implements Service {
     public void setStat(ServiceStat stat, double newValue) {
         allocateStats();
         findStat(stat.name, true, stat);
+        long timestampMicros;
         synchronized (stat) {
             stat.version++;
             stat.accumulatedValue += newValue;
             stat.latestValue = newValue;
             addHistogram(stat, newValue);
             stat.lastUpdateMicrosUtc = Utils.getNowMicrosUtc();
-            if (stat.timeSeriesStats != null) {
-                if (stat.sourceTimeMicrosUtc != null) {
-                    stat.timeSeriesStats.add(stat.sourceTimeMicrosUtc, newValue, newValue);
-                } else {
-                    stat.timeSeriesStats.add(stat.lastUpdateMicrosUtc, newValue, newValue);
-                }
-            }
+            timestampMicros = stat.sourceTimeMicrosUtc != null ? stat.sourceTimeMicrosUtc
+                    : stat.lastUpdateMicrosUtc;
+        }
+        // time series stats are thread safe, keep them out of the stat lock
+        TimeSeriesStats timeSeriesStats = stat.timeSeriesStats;
+        if (timeSeriesStats != null) {
+            timeSeriesStats.add(timestampMicros, newValue, newValue);
         }
     }
 
@@ -899,18 +907,20 @@ public class UtilityService implements Service {
     @Override
     public void adjustStat(ServiceStat stat, double delta) {
         allocateStats();
+        long timestampMicros;
+        double latestValue;
         synchronized (stat) {
             stat.latestValue += delta;
+            latestValue = stat.latestValue;
             stat.version++;
-            addHistogram(stat, stat.latestValue);
+            addHistogram(stat, latestValue);
             stat.lastUpdateMicrosUtc = Utils.getNowMicrosUtc();
-            if (stat.timeSeriesStats != null) {
-                if (stat.sourceTimeMicrosUtc != null) {
-                    stat.timeSeriesStats.add(stat.sourceTimeMicrosUtc, stat.latestValue, delta);
-                } else {
-                    stat.timeSeriesStats.add(stat.lastUpdateMicrosUtc, stat.latestValue, delta);
-                }
-            }
+            timestampMicros = stat.sourceTimeMicrosUtc != null ? stat.sourceTimeMicrosUtc
+                    : stat.lastUpdateMicrosUtc;
+        }
+        TimeSeriesStats timeSeriesStats = stat.timeSeriesStats;
+        if (timeSeriesStats != null) {
+            timeSeriesStats.add(timestampMicros, latestValue, delta);
         }
     }
 
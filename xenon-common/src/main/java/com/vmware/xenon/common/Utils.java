@@ -534,8 +534,10 @@ public final class Utils {
         JsonObject jo;
         if (body instanceof JsonObject) {
             jo = (JsonObject) body;
-        } else {
+        } else if (body instanceof String) {
             jo = new JsonParser().parse((String) body).getAsJsonObject();
+        } else {
+            jo = fromJson(body, JsonObject.class);
         }
         jo.remove(fieldName);
         if (fieldValue != null) {
@@ -848,31 +850,7 @@ public final class Utils {
             op.setContentLength(data.length);
         }
 
-        // For requests, if encoding is specified as gzip, then compress body
-        // For responses, if request accepts gzip body, then compress body and add response header
-        boolean gzip = false;
-        if (isRequest) {
-            String encoding = op.getRequestHeader(Operation.CONTENT_ENCODING_HEADER);
-            gzip = Operation.CONTENT_ENCODING_GZIP.equals(encoding);
-        } else {
-            String encoding = op.getRequestHeader(Operation.ACCEPT_ENCODING_HEADER);
-            // encoding can be of form br;q=1.0, gzip;q=0.8, *;q=0.1
-            // see https://tools.ietf.org/html/rfc7231#section-5.3.4
-            if (encoding != null) {
-                String[] encodings = encoding.split(",");
-                for (String enc : encodings) {
-                    int idx = enc.indexOf(';');
-                    if (idx > 0) {
-                        enc = enc.substring(0, idx);
-                    }
-                    if (Operation.CONTENT_ENCODING_GZIP.equals(enc.trim())) {
-                        gzip = true;
-                        break;
-                    }
-                }
-            }
-        }
-        if (gzip) {
+        if (isGzipEncodingRequired(op, isRequest)) {
             data = compressGZip(data);
             op.setContentLength(data.length);
             if (!isRequest) {
@@ -883,6 +861,36 @@ public final class Utils {
         return data;
     }
 
+    /**
+     * Infrastructure use. Returns true if the encoded body must be gzip compressed.
+     * For requests, if encoding is specified as gzip, then compress body.
+     * For responses, if request accepts gzip body, then compress body
+     */
+    public static boolean isGzipEncodingRequired(Operation op, boolean isRequest) {
+        if (isRequest) {
+            String encoding = op.getRequestHeader(Operation.CONTENT_ENCODING_HEADER);
+            return Operation.CONTENT_ENCODING_GZIP.equals(encoding);
+        }
+
+        String encoding = op.getRequestHeader(Operation.ACCEPT_ENCODING_HEADER);
+        if (encoding == null) {
+            return false;
+        }
+        // encoding can be of form br;q=1.0, gzip;q=0.8, *;q=0.1
+        // see https://tools.ietf.org/html/rfc7231#section-5.3.4
+        String[] encodings = encoding.split(",");
+        for (String enc : encodings) {
+            int idx = enc.indexOf(';');
+            if (idx > 0) {
+                enc = enc.substring(0, idx);
+            }
+            if (Operation.CONTENT_ENCODING_GZIP.equals(enc.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
    /**
      * Compresses byte[] to gzip byte[]
      */
@@ -1017,7 +1025,7 @@ public final class Utils {
                 && contentType.charAt(15) == 'o';
     }
 
-    private static boolean isContentTypeText(String contentType) {
+    static boolean isContentTypeText(String contentType) {
         return Operation.MEDIA_TYPE_APPLICATION_JSON.equals(contentType)
                 || contentType.contains(Operation.MEDIA_TYPE_APPLICATION_JSON)
                 || contentType.contains("text")
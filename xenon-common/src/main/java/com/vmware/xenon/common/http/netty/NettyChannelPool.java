@@ -34,8 +34,6 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.ssl.SslContext;
 
 import com.vmware.xenon.common.NamedThreadFactory;
@@ -168,6 +166,7 @@ public class NettyChannelPool {
     private String threadTag = NettyChannelPool.class.getSimpleName();
     private int threadCount;
     private boolean isHttp2Only = false;
+    private boolean isNativeTransportEnabled = false;
     private Bootstrap bootStrap;
 
     private final Map<NettyChannelGroupKey, NettyChannelGroup> channelGroups = new ConcurrentSkipListMap<>();
@@ -213,6 +212,14 @@ public class NettyChannelPool {
         return this.isHttp2Only;
     }
 
+    /**
+     * Use the native epoll transport, if available. Must be called before the pool is started
+     */
+    public NettyChannelPool setNativeTransportEnabled(boolean enabled) {
+        this.isNativeTransportEnabled = enabled;
+        return this;
+    }
+
     public void start() {
         if (this.bootStrap != null) {
             return;
@@ -223,13 +230,14 @@ public class NettyChannelPool {
                     new NamedThreadFactory(this.threadTag));
             this.executor = this.nettyExecutorService;
         }
-        this.eventGroup = new NioEventLoopGroup(this.threadCount, this.executor);
+        NettyTransport transport = NettyTransport.select(this.isNativeTransportEnabled);
+        this.eventGroup = transport.createEventLoopGroup(this.threadCount, this.executor);
 
         this.bootStrap = new Bootstrap();
         this.bootStrap.group(this.eventGroup)
-                .channel(NioSocketChannel.class)
                 .handler(new NettyHttpClientRequestInitializer(this, this.isHttp2Only,
                         this.requestPayloadSizeLimit));
+        transport.configure(this.bootStrap);
     }
 
     public boolean isStarted() {
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2014-2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common.http.netty;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import com.esotericsoftware.kryo.io.Output;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import com.vmware.xenon.common.EncodedBodyCache;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.ServiceClient;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.serialization.GsonSerializers;
+import com.vmware.xenon.common.serialization.KryoSerializers;
+
+/**
+ * Encodes operation bodies into buffers for the Netty client and listener.
+ *
+ * JSON and Kryo bodies are serialized into thread local buffers and copied once, into a buffer
+ * from the channel allocator, instead of being copied into an intermediate byte array that is
+ * then wrapped. Byte array bodies are wrapped without a copy. Compressed bodies are encoded by
+ * {@link Utils#encodeBody(Operation, boolean)}. Requests sent to multiple peers reuse the body
+ * encoded by the first send, see {@link EncodedBodyCache}.
+ */
+final class NettyHttpBodyEncoder {
+
+    private static final ThreadLocal<CharsetEncoder> encodersPerThread = ThreadLocal
+            .withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+    private NettyHttpBodyEncoder() {
+    }
+
+    /**
+     * Encodes the operation body and sets the operation content length and, if not set,
+     * content type. Returns null if the operation has no body. The caller owns the returned
+     * buffer and must release it, if it is not written to a channel.
+     */
+    static ByteBuf encodeBody(Operation op, boolean isRequest, ByteBufAllocator allocator)
+            throws Exception {
+        Object body = op.getBodyRaw();
+        if (body == null) {
+            op.setContentLength(0);
+            return null;
+        }
+
+        EncodedBodyCache cache = isRequest ? op.getEncodedBodyCache() : null;
+        if (cache != null) {
+            // the encoded body is shared with the sends to other peers, it is only read
+            byte[] data = cache.encodeBody(op);
+            return Unpooled.wrappedBuffer(data, 0, (int) op.getContentLength());
+        }
+
+        if (body instanceof byte[] || Utils.isGzipEncodingRequired(op, isRequest)) {
+            byte[] data = Utils.encodeBody(op, isRequest);
+            // requests send the content length set on the operation, responses the whole array
+            return isRequest ? Unpooled.wrappedBuffer(data, 0, (int) op.getContentLength())
+                    : Unpooled.wrappedBuffer(data);
+        }
+
+        String contentType = op.getContentType();
+        ByteBuf buffer;
+        if (body instanceof String) {
+            buffer = encodeText((String) body, allocator);
+        } else if (Operation.MEDIA_TYPE_APPLICATION_KRYO_OCTET_STREAM.equals(contentType)) {
+            Output o = KryoSerializers.serializeAsDocument(body,
+                    ServiceClient.MAX_BINARY_SERIALIZED_BODY_LIMIT);
+            buffer = allocator.buffer(o.position());
+            buffer.writeBytes(o.getBuffer(), 0, o.position());
+        } else {
+            StringBuilder content = Utils.getBuilder();
+            GsonSerializers.getJsonMapperFor(body).toJson(body, content);
+            if (op.getAction() != Action.GET && contentType == null) {
+                op.setContentType(Operation.MEDIA_TYPE_APPLICATION_JSON);
+            }
+            buffer = encodeText(content, allocator);
+        }
+
+        op.setContentLength(buffer.readableBytes());
+        return buffer;
+    }
+
+    /**
+     * Encodes the text as UTF-8 into a buffer of the exact encoded size
+     */
+    private static ByteBuf encodeText(CharSequence text, ByteBufAllocator allocator) {
+        int length = text.length();
+        int encodedLength = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                encodedLength++;
+            } else if (c < 0x800) {
+                encodedLength += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                encodedLength += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // malformed input is replaced with a single byte
+                encodedLength++;
+            } else {
+                encodedLength += 3;
+            }
+        }
+
+        if (encodedLength == length) {
+            ByteBuf buffer = allocator.buffer(length);
+            ByteBufUtil.writeAscii(buffer, text);
+            return buffer;
+        }
+
+        ByteBuf buffer = allocator.buffer(encodedLength);
+        try {
+            ByteBuffer target = buffer.nioBuffer(0, encodedLength);
+            CharsetEncoder encoder = encodersPerThread.get().reset();
+            CoderResult result = encoder.encode(CharBuffer.wrap(text), target, true);
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+            result = encoder.flush(target);
+            if (!result.isUnderflow()) {
+                result.throwException();
+            }
+            buffer.writerIndex(target.position());
+            return buffer;
+        } catch (Exception e) {
+            buffer.release();
+            byte[] data = text.toString().getBytes(StandardCharsets.UTF_8);
+            return Unpooled.wrappedBuffer(data);
+        }
+    }
+}
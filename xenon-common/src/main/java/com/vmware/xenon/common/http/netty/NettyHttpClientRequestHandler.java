@@ -13,10 +13,14 @@
 
 package com.vmware.xenon.common.http.netty;
 
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Map.Entry;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -29,11 +33,14 @@ import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.FileRegion;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpChunkedInput;
 import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpHeaderValues;
 import io.netty.handler.codec.http.HttpHeaders;
@@ -42,14 +49,18 @@ import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpUtil;
 import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.QueryStringDecoder;
 import io.netty.handler.codec.http.cookie.Cookie;
 import io.netty.handler.codec.http.cookie.DefaultCookie;
 import io.netty.handler.codec.http.cookie.ServerCookieEncoder;
 import io.netty.handler.codec.http2.HttpConversionUtil;
 import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
 import io.netty.util.AsciiString;
 
+import com.vmware.xenon.common.FileUtils.ContentRange;
+import com.vmware.xenon.common.FileUtils.FileContent;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.Operation.AuthorizationContext;
 import com.vmware.xenon.common.Operation.CompletionHandler;
@@ -418,6 +429,10 @@ public class NettyHttpClientRequestHandler extends SimpleChannelInboundHandler<O
             setRefererFromSocketContext(ctx, request);
         }
 
+        if (this.host.isAdmissionControlEnabled()) {
+            request.setAdmissionThrottleHandler(() -> this.listener.throttleChannel(ctx.channel()));
+        }
+
         this.host.handleRequest(null, request);
     }
 
@@ -426,6 +441,7 @@ public class NettyHttpClientRequestHandler extends SimpleChannelInboundHandler<O
         try {
             applyRateLimit(ctx, request);
             writeResponseUnsafe(ctx, request, streamId, originalPath, startTime);
+            this.listener.resumeThrottledChannels();
         } catch (Exception e1) {
             this.host.log(Level.SEVERE, "%s", Utils.toString(e1));
         }
@@ -444,21 +460,26 @@ public class NettyHttpClientRequestHandler extends SimpleChannelInboundHandler<O
         ByteBuf bodyBuffer = null;
         FullHttpResponse response;
 
+        if (request.getBodyRaw() instanceof FileContent
+                && request.getStatusCode() != Operation.STATUS_CODE_NOT_MODIFIED) {
+            writeFileResponse(ctx, request, (FileContent) request.getBodyRaw(), streamId,
+                    originalPath, startTime);
+            return;
+        }
+
         try {
-            byte[] data = Utils.encodeBody(request, false);
+            bodyBuffer = NettyHttpBodyEncoder.encodeBody(request, false, ctx.alloc());
 
             // if some service returns a response that is greater than the maximum allowed size,
             // we return an INTERNAL_SERVER_ERROR.
             if (request.getContentLength() > this.responsePayloadSizeLimit) {
+                bodyBuffer.release();
                 String errorMessage = "Content-Length " + request.getContentLength()
                         + " is greater than max size allowed " + this.responsePayloadSizeLimit;
                 this.host.log(Level.SEVERE, errorMessage);
                 writeInternalServerError(ctx, request, streamId, errorMessage, originalPath, startTime);
                 return;
             }
-            if (data != null) {
-                bodyBuffer = Unpooled.wrappedBuffer(data);
-            }
         } catch (Exception e1) {
             // Note that this is a program logic error - some service isn't properly checking or setting Content-Type
             this.host.log(Level.SEVERE, "Error encoding body: %s", Utils.toString(e1));
@@ -468,6 +489,9 @@ public class NettyHttpClientRequestHandler extends SimpleChannelInboundHandler<O
         }
 
         if (bodyBuffer == null || request.getStatusCode() == Operation.STATUS_CODE_NOT_MODIFIED) {
+            if (bodyBuffer != null) {
+                bodyBuffer.release();
+            }
             response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
                     HttpResponseStatus.valueOf(request.getStatusCode()), false, false);
         } else {
@@ -481,6 +505,94 @@ public class NettyHttpClientRequestHandler extends SimpleChannelInboundHandler<O
         writeResponse(ctx, request, response, streamId, originalPath, startTime);
     }
 
+    /**
+     * Writes a response with a body read from a file region. On HTTP/1.1 connections without TLS the
+     * region is handed to the transport as a {@link DefaultFileRegion}, which is sent with
+     * sendfile and never copied to user space. TLS encrypts in user space, so the region is read in
+     * chunks, as the connection accepts them. HTTP/2 responses are converted to frames from a
+     * single buffer, so the region is read into a pooled buffer first, on the host blocking
+     * executor
+     */
+    private void writeFileResponse(ChannelHandlerContext ctx, Operation request,
+            FileContent fileContent, Integer streamId, String originalPath, double startTime) {
+        HttpResponseStatus status = HttpResponseStatus.valueOf(request.getStatusCode());
+        if (streamId != null) {
+            if (fileContent.count > this.responsePayloadSizeLimit) {
+                String errorMessage = "Content-Length " + fileContent.count
+                        + " is greater than max size allowed " + this.responsePayloadSizeLimit;
+                this.host.log(Level.SEVERE, errorMessage);
+                writeInternalServerError(ctx, request, streamId, errorMessage, originalPath,
+                        startTime);
+                return;
+            }
+
+            // the read blocks, keep it off the listener and service handler threads
+            try {
+                this.host.run(this.host.getBlockingExecutor(), () -> writeFileResponseFromBuffer(
+                        ctx, request, fileContent, status, streamId, originalPath, startTime));
+            } catch (IllegalStateException e) {
+                writeInternalServerError(ctx, request, streamId, "Host is stopping",
+                        originalPath, startTime);
+            }
+            return;
+        }
+
+        Object content;
+        if (this.sslHandler == null) {
+            content = new DefaultFileRegion(fileContent.file, fileContent.position,
+                    fileContent.count);
+        } else {
+            try {
+                FileChannel channel = FileChannel.open(fileContent.file.toPath(),
+                        StandardOpenOption.READ);
+                // the chunked input closes the channel once the content is written
+                content = new HttpChunkedInput(new ChunkedNioFile(channel,
+                        fileContent.position, fileContent.count, ContentRange.CHUNK_SIZE));
+            } catch (IOException e) {
+                writeFileReadError(ctx, request, fileContent, e, null, originalPath, startTime);
+                return;
+            }
+        }
+
+        HttpResponse response = new DefaultHttpResponse(HttpVersion.HTTP_1_1, status, false);
+        this.addCommonHeaders(response, request, null);
+        HttpUtil.setContentLength(response, fileContent.count);
+        writeResponse(ctx, request, response, content, null, originalPath, startTime);
+    }
+
+    private void writeFileResponseFromBuffer(ChannelHandlerContext ctx, Operation request,
+            FileContent fileContent, HttpResponseStatus status, Integer streamId,
+            String originalPath, double startTime) {
+        ByteBuf body = ctx.alloc().buffer((int) fileContent.count);
+        try (FileChannel channel = FileChannel.open(fileContent.file.toPath(),
+                StandardOpenOption.READ)) {
+            while (body.isWritable()) {
+                long position = fileContent.position + body.writerIndex();
+                if (body.writeBytes(channel, position, body.writableBytes()) < 0) {
+                    throw new EOFException(fileContent.file + " is shorter than expected");
+                }
+            }
+        } catch (IOException e) {
+            body.release();
+            writeFileReadError(ctx, request, fileContent, e, streamId, originalPath, startTime);
+            return;
+        }
+
+        FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1,
+                status, body, false, false);
+        this.addCommonHeaders(response, request, streamId);
+        response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, body.readableBytes());
+        writeResponse(ctx, request, response, streamId, originalPath, startTime);
+    }
+
+    private void writeFileReadError(ChannelHandlerContext ctx, Operation request,
+            FileContent fileContent, IOException e, Integer streamId, String originalPath,
+            double startTime) {
+        this.host.log(Level.SEVERE, "Error reading %s: %s", fileContent.file, Utils.toString(e));
+        writeInternalServerError(ctx, request, streamId, "Error reading file: " + e.getMessage(),
+                originalPath, startTime);
+    }
+
     private void addCommonHeaders(HttpResponse response, Operation request, Integer streamId) {
         if (streamId != null) {
             // This is the stream ID from the incoming request: we need to use it for our
@@ -596,6 +708,16 @@ public class NettyHttpClientRequestHandler extends SimpleChannelInboundHandler<O
 
     private void writeResponse(ChannelHandlerContext ctx, Operation request,
             FullHttpResponse response, Integer streamId, String originalPath, double startTime) {
+        writeResponse(ctx, request, response, null, streamId, originalPath, startTime);
+    }
+
+    /**
+     * Writes the response, followed by its content, if any. A file region is followed by the last
+     * HTTP content marker, while chunked input produces the marker itself
+     */
+    private void writeResponse(ChannelHandlerContext ctx, Operation request,
+            HttpResponse response, Object content, Integer streamId, String originalPath,
+            double startTime) {
         boolean isClose = !request.isKeepAlive() || response == null;
         Object rsp = Unpooled.EMPTY_BUFFER;
         if (response != null) {
@@ -605,7 +727,17 @@ public class NettyHttpClientRequestHandler extends SimpleChannelInboundHandler<O
         }
 
         ctx.channel().attr(NettyChannelContext.OPERATION_KEY).set(null);
-        ChannelFuture future = ctx.writeAndFlush(rsp);
+        ChannelFuture future;
+        if (content == null) {
+            future = ctx.writeAndFlush(rsp);
+        } else if (content instanceof FileRegion) {
+            ctx.write(rsp);
+            ctx.write(content);
+            future = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        } else {
+            ctx.write(rsp);
+            future = ctx.writeAndFlush(content);
+        }
 
         if (this.host.isRequestLoggingEnabled()) {
             boolean avoidLogging =
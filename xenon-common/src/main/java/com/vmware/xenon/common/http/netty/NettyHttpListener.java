@@ -17,7 +17,10 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -28,8 +31,7 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelOption;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.EventLoopGroup;
 import io.netty.handler.codec.http.cors.CorsConfig;
 import io.netty.handler.codec.http2.Http2SecurityUtil;
 import io.netty.handler.ssl.ApplicationProtocolConfig;
@@ -72,9 +74,10 @@ public class NettyHttpListener implements ServiceRequestListener {
     private AtomicInteger activeChannelCount = new AtomicInteger();
     private int port;
     private ServiceHost host;
-    private Channel serverChannel;
+    private List<Channel> serverChannels = new ArrayList<>();
     private Map<String, NettyListenerChannelContext> pausedChannels = new ConcurrentSkipListMap<>();
-    private NioEventLoopGroup eventLoopGroup;
+    private Map<String, NettyListenerChannelContext> throttledChannels = new ConcurrentHashMap<>();
+    private EventLoopGroup eventLoopGroup;
     private ExecutorService nettyExecutorService;
     private SslContext sslContext;
     private boolean secureAuthCookie;
@@ -106,7 +109,9 @@ public class NettyHttpListener implements ServiceRequestListener {
         this.nettyExecutorService = Executors.newFixedThreadPool(EVENT_LOOP_THREAD_COUNT,
                 new NamedThreadFactory(this.host.getUri() + "/netty-listener"));
 
-        this.eventLoopGroup = new NioEventLoopGroup(EVENT_LOOP_THREAD_COUNT, this.nettyExecutorService);
+        NettyTransport transport = NettyTransport.select(this.host.isNativeTransportEnabled());
+        this.eventLoopGroup = transport.createEventLoopGroup(EVENT_LOOP_THREAD_COUNT,
+                this.nettyExecutorService);
         if (this.childChannelHandler == null) {
             this.childChannelHandler = new NettyHttpServerInitializer(this, this.host,
                     this.sslContext, this.responsePayloadSizeLimit, this.secureAuthCookie, this.corsConfig);
@@ -114,8 +119,8 @@ public class NettyHttpListener implements ServiceRequestListener {
 
         ServerBootstrap b = new ServerBootstrap();
         b.group(this.eventLoopGroup)
-                .channel(NioServerSocketChannel.class)
                 .childHandler(this.childChannelHandler);
+        transport.configure(b);
 
         InetSocketAddress addr;
         if (bindAddress != null) {
@@ -125,9 +130,18 @@ public class NettyHttpListener implements ServiceRequestListener {
                     "*** Binding to all interfaces, please supply a bindAddress instead ***");
             addr = new InetSocketAddress(port);
         }
-        this.serverChannel = b.bind(addr).sync().channel();
-        this.serverChannel.config().setOption(ChannelOption.SO_LINGER, 0);
-        this.port = ((InetSocketAddress) this.serverChannel.localAddress()).getPort();
+        Channel serverChannel = b.bind(addr).sync().channel();
+        serverChannel.config().setOption(ChannelOption.SO_LINGER, 0);
+        this.serverChannels.add(serverChannel);
+        this.port = ((InetSocketAddress) serverChannel.localAddress()).getPort();
+
+        // additional server channels share the port through SO_REUSEPORT
+        addr = new InetSocketAddress(addr.getAddress(), this.port);
+        for (int i = 1; i < transport.getAcceptorCount(); i++) {
+            serverChannel = b.bind(addr).sync().channel();
+            serverChannel.config().setOption(ChannelOption.SO_LINGER, 0);
+            this.serverChannels.add(serverChannel);
+        }
         this.isListening = true;
 
         MaintenanceProxyService.start(this.host, this::handleMaintenance);
@@ -139,9 +153,47 @@ public class NettyHttpListener implements ServiceRequestListener {
 
     void removeChannel(Channel c) {
         this.pausedChannels.remove(c.id().toString());
+        this.throttledChannels.remove(c.id().toString());
         this.activeChannelCount.decrementAndGet();
     }
 
+    /**
+     * Pauses reads from a channel that sent a request over the host admission limit. The
+     * channel resumes as soon as the host admission limiter has capacity
+     */
+    void throttleChannel(Channel c) {
+        NettyListenerChannelContext ctx = new NettyListenerChannelContext();
+        ctx.setChannel(c);
+        c.config().setAutoRead(false);
+        this.throttledChannels.put(c.id().toString(), ctx);
+    }
+
+    /**
+     * Resumes throttled channels if the host admission limiter has capacity. Called on every
+     * response, so must be cheap when no channel is throttled
+     */
+    void resumeThrottledChannels() {
+        if (this.throttledChannels.isEmpty()) {
+            return;
+        }
+        if (!this.host.getAdmissionLimiter().hasCapacity()) {
+            return;
+        }
+        resumeThrottledChannels(Long.MAX_VALUE);
+    }
+
+    private void resumeThrottledChannels(long pausedBeforeMicros) {
+        for (NettyListenerChannelContext ctx : this.throttledChannels.values()) {
+            if (ctx.getLastUseTimeMicros() > pausedBeforeMicros) {
+                continue;
+            }
+            Channel c = ctx.getChannel();
+            if (this.throttledChannels.remove(c.id().toString(), ctx)) {
+                c.config().setAutoRead(true);
+            }
+        }
+    }
+
     void pauseChannel(Channel c) {
         NettyListenerChannelContext ctx = new NettyListenerChannelContext();
         ctx.setChannel(c);
@@ -153,6 +205,12 @@ public class NettyHttpListener implements ServiceRequestListener {
 
     @Override
     public void handleMaintenance(Operation op) {
+        if (!this.throttledChannels.isEmpty()) {
+            // channels are resumed on responses once the admission limiter has capacity, but
+            // do not keep a channel paused for longer than a maintenance interval
+            resumeThrottledChannels(Utils.getSystemNowMicrosUtc()
+                    - this.host.getMaintenanceIntervalMicros());
+        }
         if (this.pausedChannels.isEmpty()) {
             op.complete();
             return;
@@ -184,10 +242,11 @@ public class NettyHttpListener implements ServiceRequestListener {
     public void stop() throws IOException {
         this.isListening = false;
         this.pausedChannels.clear();
-        if (this.serverChannel != null) {
-            this.serverChannel.close();
-            this.serverChannel = null;
+        this.throttledChannels.clear();
+        for (Channel serverChannel : this.serverChannels) {
+            serverChannel.close();
         }
+        this.serverChannels.clear();
         if (this.eventLoopGroup != null) {
             this.eventLoopGroup.shutdownGracefully();
             this.eventLoopGroup = null;
@@ -42,6 +42,7 @@ import io.netty.handler.ssl.ApplicationProtocolNames;
 import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.util.AsciiString;
 
 import com.vmware.xenon.common.ServiceHost;
@@ -110,6 +111,7 @@ public class NettyHttpServerInitializer extends ChannelInitializer<SocketChannel
     public static final String HTTP2_UPGRADE_HANDLER = "http2-upgrade-handler";
     public static final String SSL_HANDLER = "ssl";
     public static final String CORS_HANDLER = "cors-handler";
+    public static final String CHUNKED_WRITE_HANDLER = "chunked-write-handler";
 
     private static final boolean debugLogging = false;
 
@@ -216,6 +218,12 @@ public class NettyHttpServerInitializer extends ChannelInitializer<SocketChannel
             p.addLast(CORS_HANDLER, new CorsHandler(this.corsConfig));
         }
 
+        if (sslHandler != null) {
+            // file content can not be sent with sendfile over TLS, it is read and encrypted
+            // in chunks instead
+            p.addLast(CHUNKED_WRITE_HANDLER, new ChunkedWriteHandler());
+        }
+
         initializeCommon(p, sslHandler);
     }
 
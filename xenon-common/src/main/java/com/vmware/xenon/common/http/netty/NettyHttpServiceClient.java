@@ -18,13 +18,13 @@ import java.net.URISyntaxException;
 import java.util.EnumSet;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.SortedMap;
 import java.util.concurrent.CancellationException;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.net.ssl.SSLContext;
@@ -59,6 +59,7 @@ import com.vmware.xenon.common.ServiceErrorResponse;
 import com.vmware.xenon.common.ServiceErrorResponse.ErrorDetail;
 import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.ServiceHost.ServiceHostState;
+import com.vmware.xenon.common.TimingWheel;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.common.http.netty.NettyChannelPool.NettyChannelGroupKey;
@@ -108,7 +109,9 @@ public class NettyHttpServiceClient implements ServiceClient {
     private NettyChannelPool channelPool;
     private NettyChannelPool http2SslChannelPool;
     private NettyChannelPool http2ChannelPool;
-    private SortedMap<Long, Operation> pendingRequests = new ConcurrentSkipListMap<>();
+    private Map<Long, TimingWheel.Timeout> pendingRequests = new ConcurrentHashMap<>();
+    private final AtomicInteger expiredRequestCount = new AtomicInteger();
+    private final AtomicInteger forcedExpiredRequestCount = new AtomicInteger();
 
     private ScheduledExecutorService scheduledExecutor;
 
@@ -192,6 +195,12 @@ public class NettyHttpServiceClient implements ServiceClient {
             }
         }
 
+        boolean isNativeTransportEnabled = this.host != null && this.host.isNativeTransportEnabled();
+        this.channelPool.setNativeTransportEnabled(isNativeTransportEnabled);
+        this.http2ChannelPool.setNativeTransportEnabled(isNativeTransportEnabled);
+        this.sslChannelPool.setNativeTransportEnabled(isNativeTransportEnabled);
+        this.http2SslChannelPool.setNativeTransportEnabled(isNativeTransportEnabled);
+
         this.channelPool.setThreadTag(buildThreadTag());
         this.channelPool.setThreadCount(Utils.DEFAULT_IO_THREAD_COUNT);
         this.channelPool.setExecutor(this.executor);
@@ -240,6 +249,9 @@ public class NettyHttpServiceClient implements ServiceClient {
         this.channelPool.stop();
         this.sslChannelPool.stop();
         this.http2ChannelPool.stop();
+        for (TimingWheel.Timeout timeout : this.pendingRequests.values()) {
+            timeout.cancel();
+        }
         this.pendingRequests.clear();
     }
 
@@ -309,11 +321,28 @@ public class NettyHttpServiceClient implements ServiceClient {
     }
 
     private void startTracking(Operation op) {
-        this.pendingRequests.put(op.getId(), op);
+        // expiration is enforced through the host timing wheel, which is advanced as part of
+        // host maintenance. Without a host, there is no maintenance to expire requests
+        if (this.host == null) {
+            return;
+        }
+        TimingWheel.Timeout existing = this.pendingRequests.put(op.getId(),
+                scheduleExpiration(op, op.getExpirationMicrosUtc()));
+        if (existing != null) {
+            existing.cancel();
+        }
+    }
+
+    private TimingWheel.Timeout scheduleExpiration(Operation op, long deadlineMicros) {
+        return this.host.getTimingWheel().schedule(deadlineMicros,
+                () -> failExpiredRequest(op));
     }
 
     void stopTracking(Operation op) {
-        this.pendingRequests.remove(op.getId());
+        TimingWheel.Timeout timeout = this.pendingRequests.remove(op.getId());
+        if (timeout != null) {
+            timeout.cancel();
+        }
     }
 
     private void updateCookieJarFromResponseHeaders(Operation op) {
@@ -431,9 +460,12 @@ public class NettyHttpServiceClient implements ServiceClient {
 
     private void sendHttpRequest(Operation op) {
         final Object originalBody = op.getBodyRaw();
+        ByteBuf body = null;
         try {
-            byte[] body = Utils.encodeBody(op, true);
+            body = NettyHttpBodyEncoder.encodeBody(op, true, NettyChannelContext.ALLOCATOR);
             if (op.getContentLength() > getRequestPayloadSizeLimit()) {
+                body.release();
+                body = null;
                 String error = String.format("Content length %d, limit is %d",
                         op.getContentLength(), getRequestPayloadSizeLimit());
                 Exception e = new IllegalArgumentException(error);
@@ -460,13 +492,12 @@ public class NettyHttpServiceClient implements ServiceClient {
 
             NettyFullHttpRequest request = null;
             HttpMethod method = toHttpMethod(op.getAction());
-            if (body == null || body.length == 0) {
+            if (body == null || !body.isReadable()) {
                 request = new NettyFullHttpRequest(HttpVersion.HTTP_1_1, method, pathAndQuery,
                         Unpooled.EMPTY_BUFFER, false);
             } else {
-                ByteBuf content = Unpooled.wrappedBuffer(body, 0, (int) op.getContentLength());
                 request = new NettyFullHttpRequest(HttpVersion.HTTP_1_1, method, pathAndQuery,
-                        content, false);
+                        body, false);
             }
 
             HttpHeaders httpHeaders = request.headers();
@@ -600,8 +631,16 @@ public class NettyHttpServiceClient implements ServiceClient {
             });
 
             op.toggleOption(OperationOption.SOCKET_ACTIVE, true);
+            if (body != null && !body.isReadable()) {
+                body.release();
+            }
+            // the channel releases the body buffer, once the request is written
+            body = null;
             op.getSocketContext().writeHttpRequest(request);
         } catch (Exception e) {
+            if (body != null) {
+                body.release();
+            }
             op.setBody(ServiceErrorResponse.create(e, Operation.STATUS_CODE_BAD_REQUEST,
                     EnumSet.of(ErrorDetail.SHOULD_RETRY)));
             fail(e, op, originalBody);
@@ -784,7 +823,6 @@ public class NettyHttpServiceClient implements ServiceClient {
 
     @Override
     public void handleMaintenance(Operation op) {
-        long now = Utils.getSystemNowMicrosUtc();
         if (this.sslChannelPool != null) {
             this.sslChannelPool.handleMaintenance(Operation.createPost(op.getUri()));
         }
@@ -796,66 +834,56 @@ public class NettyHttpServiceClient implements ServiceClient {
         }
         this.channelPool.handleMaintenance(Operation.createPost(op.getUri()));
 
-        failExpiredRequests(now);
+        logExpiredRequests();
         op.complete();
     }
 
     /**
-     * Periodically check our pending request sorted map for expired operations. Since
-     * maintenance (this method) runs in parallel with the connect and send state machine,
-     * we need to be careful on how we fail expired operations. The connect() method
-     * uses nestCompletion() which is meant to be used in a asynchronous, but isolated
-     * flow over a single operation, where only one stage acts on the operation at a time.
-     * We violate this design requirement, since we want to avoid locks, and we want to
-     * leverage the maintenance interval. So, we run two passes, first marking the operation
-     * with a status code, allowing the parallel connect/send pipeline to avoid triggering
-     * a complete() and non atomic roll back of the nested completions.
+     * Invoked from the host timing wheel when a pending request reaches its expiration. Since
+     * the wheel is advanced from host maintenance, which runs in parallel with the connect and
+     * send state machine, we need to be careful on how we fail expired operations. The
+     * connect() method uses nestCompletion() which is meant to be used in a asynchronous, but
+     * isolated flow over a single operation, where only one stage acts on the operation at a
+     * time. We violate this design requirement, since we want to avoid locks. So, we only fail
+     * operations already written to the channel, and check back later on the others
      */
-    private void failExpiredRequests(long now) {
-        if (this.pendingRequests.isEmpty()) {
+    private void failExpiredRequest(Operation o) {
+        TimingWheel.Timeout current = this.pendingRequests.get(o.getId());
+        if (current == null) {
             return;
         }
 
-
-        // We do a limited search of pending operation, in each maintenance period, to
-        // determine if any have expired. The operations are kept in a sorted map,
-        // with the key being the operation id. The operation id increments monotonically
-        // so we are effectively traversing oldest to newest. We can not assume if operation
-        // with id k, with k << n, has expired, also operation with id n has, since operations
-        // have different expirations. We limit the search so we don't take too much time when
-        // millions of operations are pending
-        final int searchLimit = 1000;
         final long epsilonMicros = TimeUnit.SECONDS.toMicros(1);
-        int expiredCount = 0;
-        int forcedExpiredCount = 0;
-        int i = 0;
-        for (Operation o : this.pendingRequests.values()) {
-            if (i++ >= searchLimit) {
-                break;
-            }
-            long exp = o.getExpirationMicrosUtc();
-
-            if (exp > now) {
-                continue;
-            }
-
-            // Bad HTTP/2 connections will not close until idle detection kicks in, which can
-            // be much longer than operation expiration. We force expiration even if the operation
-            // has not been written to the channel, if it has expired and some additional time has
-            // passed.
-            boolean forceExpiration = o.hasOption(OperationOption.CONNECTION_SHARING) &&
-                    now - exp > epsilonMicros;
-
-            if (!forceExpiration && !o.hasOption(OperationOption.SOCKET_ACTIVE)) {
-                continue;
-            }
-            o.fail(Operation.STATUS_CODE_TIMEOUT);
-            expiredCount++;
-            if (forceExpiration) {
-                forcedExpiredCount++;
+        long now = Utils.getSystemNowMicrosUtc();
+        long exp = o.getExpirationMicrosUtc();
+
+        // Bad HTTP/2 connections will not close until idle detection kicks in, which can
+        // be much longer than operation expiration. We force expiration even if the operation
+        // has not been written to the channel, if it has expired and some additional time has
+        // passed.
+        boolean forceExpiration = o.hasOption(OperationOption.CONNECTION_SHARING) &&
+                now - exp > epsilonMicros;
+
+        if (!forceExpiration && !o.hasOption(OperationOption.SOCKET_ACTIVE)) {
+            // check back on the next maintenance, like the other requests it waits on
+            TimingWheel.Timeout retry = scheduleExpiration(o,
+                    now + this.host.getMaintenanceIntervalMicros());
+            if (!this.pendingRequests.replace(o.getId(), current, retry)) {
+                // the request completed, or was tracked again, since it was looked up
+                retry.cancel();
             }
+            return;
         }
+        o.fail(Operation.STATUS_CODE_TIMEOUT);
+        this.expiredRequestCount.incrementAndGet();
+        if (forceExpiration) {
+            this.forcedExpiredRequestCount.incrementAndGet();
+        }
+    }
 
+    private void logExpiredRequests() {
+        int expiredCount = this.expiredRequestCount.getAndSet(0);
+        int forcedExpiredCount = this.forcedExpiredRequestCount.getAndSet(0);
         if (expiredCount == 0) {
             return;
         }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2014-2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common.http.netty;
+
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollMode;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.channel.unix.UnixChannelOption;
+
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.config.XenonConfiguration;
+
+/**
+ * Selects and configures the Netty transport used by {@link NettyHttpListener} and
+ * {@link NettyChannelPool}: the native epoll transport, if requested and available on this
+ * platform, NIO otherwise
+ */
+final class NettyTransport {
+
+    /**
+     * Use edge triggered, rather than level triggered, notifications with the epoll transport
+     */
+    static final boolean EPOLL_EDGE_TRIGGERED = XenonConfiguration.bool(
+            NettyTransport.class,
+            "epollEdgeTriggered",
+            true
+    );
+
+    /**
+     * Number of server channels bound to the listener port, with SO_REUSEPORT, so the kernel
+     * distributes incoming connections across the event loop threads. Requires the epoll
+     * transport, a single server channel is used with NIO
+     */
+    static final int ACCEPTOR_COUNT = XenonConfiguration.integer(
+            NettyTransport.class,
+            "acceptorCount",
+            1
+    );
+
+    static final boolean TCP_NODELAY = XenonConfiguration.bool(
+            NettyTransport.class,
+            "tcpNoDelay",
+            true
+    );
+
+    /**
+     * Send TCP acknowledgements immediately, instead of delaying them. Requires the epoll
+     * transport
+     */
+    static final boolean TCP_QUICKACK = XenonConfiguration.bool(
+            NettyTransport.class,
+            "tcpQuickAck",
+            false
+    );
+
+    private static boolean isUnavailabilityLogged;
+
+    private final boolean isNative;
+
+    private NettyTransport(boolean isNative) {
+        this.isNative = isNative;
+    }
+
+    /**
+     * Returns the native transport if requested and available, the NIO transport otherwise
+     */
+    static NettyTransport select(boolean useNativeTransport) {
+        if (!useNativeTransport) {
+            return new NettyTransport(false);
+        }
+        if (Epoll.isAvailable()) {
+            return new NettyTransport(true);
+        }
+        synchronized (NettyTransport.class) {
+            if (!isUnavailabilityLogged) {
+                isUnavailabilityLogged = true;
+                Throwable cause = Epoll.unavailabilityCause();
+                Utils.log(NettyTransport.class, NettyTransport.class.getSimpleName(),
+                        Level.WARNING, "Native transport not available, using NIO: %s",
+                        cause != null ? cause.toString() : "unknown");
+            }
+        }
+        return new NettyTransport(false);
+    }
+
+    boolean isNative() {
+        return this.isNative;
+    }
+
+    /**
+     * Number of server channels a listener should bind
+     */
+    int getAcceptorCount() {
+        return this.isNative ? Math.max(1, ACCEPTOR_COUNT) : 1;
+    }
+
+    EventLoopGroup createEventLoopGroup(int threadCount, Executor executor) {
+        if (this.isNative) {
+            return new EpollEventLoopGroup(threadCount, executor);
+        }
+        return new NioEventLoopGroup(threadCount, executor);
+    }
+
+    void configure(ServerBootstrap b) {
+        if (!this.isNative) {
+            b.channel(NioServerSocketChannel.class)
+                    .childOption(ChannelOption.TCP_NODELAY, TCP_NODELAY);
+            return;
+        }
+
+        EpollMode mode = EPOLL_EDGE_TRIGGERED ? EpollMode.EDGE_TRIGGERED
+                : EpollMode.LEVEL_TRIGGERED;
+        b.channel(EpollServerSocketChannel.class)
+                .option(EpollChannelOption.EPOLL_MODE, mode)
+                .childOption(EpollChannelOption.EPOLL_MODE, mode)
+                .childOption(ChannelOption.TCP_NODELAY, TCP_NODELAY)
+                .childOption(EpollChannelOption.TCP_QUICKACK, TCP_QUICKACK);
+        if (getAcceptorCount() > 1) {
+            b.option(UnixChannelOption.SO_REUSEPORT, true);
+        }
+    }
+
+    void configure(Bootstrap b) {
+        if (!this.isNative) {
+            b.channel(NioSocketChannel.class)
+                    .option(ChannelOption.TCP_NODELAY, TCP_NODELAY);
+            return;
+        }
+
+        b.channel(EpollSocketChannel.class)
+                .option(EpollChannelOption.EPOLL_MODE, EPOLL_EDGE_TRIGGERED
+                        ? EpollMode.EDGE_TRIGGERED : EpollMode.LEVEL_TRIGGERED)
+                .option(ChannelOption.TCP_NODELAY, TCP_NODELAY)
+                .option(EpollChannelOption.TCP_QUICKACK, TCP_QUICKACK);
+    }
+}
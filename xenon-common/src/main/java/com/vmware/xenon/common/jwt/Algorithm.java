@@ -56,8 +56,17 @@ public enum Algorithm {
     }
 
     public byte[] sign(byte[] payload, byte[] secret) throws GeneralSecurityException {
+        return createMac(secret).doFinal(payload);
+    }
+
+    /**
+     * Creates a {@link Mac} for this algorithm, initialized with the secret. Looking up the
+     * {@link Mac} implementation is costly, so callers that sign repeatedly reuse the instance,
+     * see {@link MacPerThread}
+     */
+    Mac createMac(byte[] secret) throws GeneralSecurityException {
         Mac mac = Mac.getInstance(this.value);
         mac.init(new SecretKeySpec(secret, this.value));
-        return mac.doFinal(payload);
+        return mac;
     }
 }
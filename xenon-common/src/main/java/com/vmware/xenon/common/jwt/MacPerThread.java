@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2014-2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common.jwt;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import javax.crypto.Mac;
+
+/**
+ * Computes signatures with {@link Mac} instances that are created once per thread and
+ * algorithm, for a secret. A {@link Mac} is not thread safe, but it resets after each signature,
+ * so the thread that owns it can reuse it.
+ */
+final class MacPerThread {
+
+    private static final int ALGORITHM_COUNT = Algorithm.values().length;
+
+    private final byte[] secret;
+
+    private final ThreadLocal<Mac[]> macs = ThreadLocal
+            .withInitial(() -> new Mac[ALGORITHM_COUNT]);
+
+    MacPerThread(byte[] secret) {
+        this.secret = Arrays.copyOf(secret, secret.length);
+    }
+
+    byte[] sign(Algorithm algorithm, byte[] payload) throws GeneralSecurityException {
+        return sign(algorithm, payload, 0, payload.length);
+    }
+
+    byte[] sign(Algorithm algorithm, byte[] payload, int offset, int length)
+            throws GeneralSecurityException {
+        Mac[] macsPerAlgorithm = this.macs.get();
+        Mac mac = macsPerAlgorithm[algorithm.ordinal()];
+        if (mac == null) {
+            mac = algorithm.createMac(this.secret);
+            macsPerAlgorithm[algorithm.ordinal()] = mac;
+        }
+
+        mac.update(payload, offset, length);
+        return mac.doFinal();
+    }
+}
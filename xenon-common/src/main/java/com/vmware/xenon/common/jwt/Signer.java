@@ -14,7 +14,6 @@
 package com.vmware.xenon.common.jwt;
 
 import java.security.GeneralSecurityException;
-import java.util.Arrays;
 import java.util.Base64;
 
 import com.google.gson.Gson;
@@ -23,7 +22,7 @@ import com.google.gson.GsonBuilder;
 public class Signer {
     protected Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
 
-    private byte[] secret;
+    private final MacPerThread macs;
 
     protected Gson gson;
 
@@ -32,7 +31,7 @@ public class Signer {
     }
 
     public Signer(byte[] secret, Gson gson) {
-        this.secret = Arrays.copyOf(secret, secret.length);
+        this.macs = new MacPerThread(secret);
         this.gson = gson;
     }
 
@@ -59,8 +58,8 @@ public class Signer {
         builder.append(encClaims);
 
         // Compute and append signature
-        byte[] signature = algorithm.sign(builder.toString().getBytes(Constants.DEFAULT_CHARSET),
-                this.secret);
+        byte[] signature = this.macs.sign(algorithm,
+                builder.toString().getBytes(Constants.DEFAULT_CHARSET));
         builder.append(Constants.JWT_SEPARATOR);
         builder.append(encode(signature));
 
@@ -13,28 +13,78 @@
 
 package com.vmware.xenon.common.jwt;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.security.GeneralSecurityException;
-import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonParseException;
+
+import com.vmware.xenon.common.config.XenonConfiguration;
 
 public class Verifier {
+
+    /**
+     * Maximum number of verified tokens whose claims are cached, by signature. Zero disables
+     * the cache
+     */
+    private static final int VERIFIED_TOKEN_CACHE_SIZE = XenonConfiguration.integer(
+            Verifier.class,
+            "verifiedTokenCacheSize",
+            1024
+    );
+
+    /**
+     * Maximum number of distinct valid encoded headers remembered. Tokens signed by the same
+     * signer share the same encoded header
+     */
+    private static final int MAX_KNOWN_HEADER_COUNT = 8;
+
+    private static final class KnownHeader {
+        final String encodedHeader;
+        final Algorithm algorithm;
+
+        KnownHeader(String encodedHeader, Algorithm algorithm) {
+            this.encodedHeader = encodedHeader;
+            this.algorithm = algorithm;
+        }
+    }
+
+    private static final class VerifiedToken {
+        final String jwt;
+        final Class<?> type;
+        final Object claims;
+
+        VerifiedToken(String jwt, Class<?> type, Object claims) {
+            this.jwt = jwt;
+            this.type = type;
+            this.claims = claims;
+        }
+    }
+
     protected Base64.Decoder decoder = Base64.getUrlDecoder();
 
-    private byte[] secret;
+    private final MacPerThread macs;
 
     protected Gson gson;
 
+    private volatile KnownHeader[] knownHeaders = new KnownHeader[0];
+
+    private final ConcurrentHashMap<String, VerifiedToken> verifiedTokens =
+            new ConcurrentHashMap<>();
+
     public Verifier(byte[] secret) {
         this(secret, new GsonBuilder().create());
     }
 
     public Verifier(byte[] secret, Gson gson) {
-        this.secret = Arrays.copyOf(secret, secret.length);
+        this.macs = new MacPerThread(secret);
         this.gson = gson;
     }
 
@@ -42,6 +92,11 @@ public class Verifier {
         return verify(jwt, Rfc7519Claims.class);
     }
 
+    /**
+     * Verifies the token signature and returns its claims. The claims of recently verified
+     * tokens are cached and the same instance is returned for each verification, so callers
+     * must not modify them.
+     */
     public <T extends Rfc7519Claims> T verify(String jwt, Class<T> klass) throws TokenException,
             GeneralSecurityException {
         int headerIndex = jwt.indexOf(Constants.JWT_SEPARATOR, 0);
@@ -54,14 +109,68 @@ public class Verifier {
             throw new InvalidTokenException("Separator for payload not found");
         }
 
-        String encodedHeader = jwt.substring(0, headerIndex);
-        String encodedPayload = jwt.substring(headerIndex + 1, payloadIndex);
         String encodedSignature = jwt.substring(payloadIndex + 1);
+        VerifiedToken verifiedToken = this.verifiedTokens.get(encodedSignature);
+        if (verifiedToken != null && verifiedToken.type == klass
+                && verifiedToken.jwt.equals(jwt)) {
+            return klass.cast(verifiedToken.claims);
+        }
+
+        // the token is base64url encoded, so its characters and bytes match one to one
+        byte[] jwtBytes = jwt.getBytes(Constants.DEFAULT_CHARSET);
+        if (jwtBytes.length != jwt.length()) {
+            throw new InvalidTokenException("Invalid token: non ASCII characters");
+        }
+
+        Algorithm algorithm = decodeAlgorithm(jwt, jwtBytes, headerIndex);
+
+        // Verify signature
+        byte[] expectedSignature = this.macs.sign(algorithm, jwtBytes, 0, payloadIndex);
+        ByteBuffer actualSignature = decode(jwtBytes, payloadIndex + 1, jwtBytes.length);
+        if (!isEqual(expectedSignature, actualSignature)) {
+            throw new InvalidSignatureException("Signature does not match");
+        }
+
+        T payload;
+        try {
+            payload = decode(decode(jwtBytes, headerIndex + 1, payloadIndex), klass);
+        } catch (JsonParseException ex) {
+            throw new InvalidTokenException(String.format("Invalid payload JSON: %s",
+                    ex.getMessage()));
+        }
+
+        if (payload == null) {
+            throw new InvalidTokenException("Invalid payload: null");
+        }
+
+        if (VERIFIED_TOKEN_CACHE_SIZE > 0) {
+            if (this.verifiedTokens.size() >= VERIFIED_TOKEN_CACHE_SIZE) {
+                this.verifiedTokens.clear();
+            }
+            this.verifiedTokens.put(encodedSignature, new VerifiedToken(jwt, klass, payload));
+        }
+
+        return payload;
+    }
+
+    /**
+     * Returns the algorithm of a valid header. Headers already seen are matched against the
+     * token without decoding them
+     */
+    private Algorithm decodeAlgorithm(String jwt, byte[] jwtBytes, int headerIndex)
+            throws TokenException {
+        KnownHeader[] knownHeaders = this.knownHeaders;
+        for (KnownHeader knownHeader : knownHeaders) {
+            if (knownHeader.encodedHeader.length() == headerIndex
+                    && jwt.regionMatches(0, knownHeader.encodedHeader, 0, headerIndex)) {
+                return knownHeader.algorithm;
+            }
+        }
 
         Header header;
         try {
-            header = decode(encodedHeader, Header.class);
-        } catch (JsonSyntaxException ex) {
+            header = decode(decode(jwtBytes, 0, headerIndex), Header.class);
+        } catch (JsonParseException ex) {
             throw new InvalidTokenException(String.format("Invalid header JSON: %s",
                     ex.getMessage()));
         }
@@ -85,27 +194,53 @@ public class Verifier {
             throw new InvalidTokenException(ex.getMessage());
         }
 
-        // Verify signature
-        byte[] bytesToSign = jwt.substring(0, payloadIndex).getBytes(Constants.DEFAULT_CHARSET);
-        byte[] expectedSignature = algorithm.sign(bytesToSign, this.secret);
-        byte[] actualSignature = decode(encodedSignature);
-        if (!MessageDigest.isEqual(expectedSignature, actualSignature)) {
-            throw new InvalidSignatureException("Signature does not match");
+        if (algorithm == null) {
+            throw new InvalidTokenException("Invalid header: no algorithm");
         }
 
-        T payload;
+        if (knownHeaders.length < MAX_KNOWN_HEADER_COUNT) {
+            KnownHeader[] newKnownHeaders = Arrays.copyOf(knownHeaders, knownHeaders.length + 1);
+            newKnownHeaders[knownHeaders.length] = new KnownHeader(jwt.substring(0, headerIndex),
+                    algorithm);
+            this.knownHeaders = newKnownHeaders;
+        }
+
+        return algorithm;
+    }
+
+    private ByteBuffer decode(byte[] jwtBytes, int start, int end) throws TokenException {
         try {
-            payload = decode(encodedPayload, klass);
-        } catch (JsonSyntaxException ex) {
-            throw new InvalidTokenException(String.format("Invalid payload JSON: %s",
+            return this.decoder.decode(ByteBuffer.wrap(jwtBytes, start, end - start));
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidTokenException(String.format("Invalid base64 encoding: %s",
                     ex.getMessage()));
         }
+    }
 
-        if (payload == null) {
-            throw new InvalidTokenException("Invalid payload: null");
+    private <T> T decode(ByteBuffer json, Class<T> klass) {
+        Reader reader = new InputStreamReader(new ByteArrayInputStream(json.array(),
+                json.arrayOffset() + json.position(), json.remaining()),
+                Constants.DEFAULT_CHARSET);
+        return this.gson.fromJson(reader, klass);
+    }
+
+    /**
+     * Compares the signatures in constant time, like
+     * {@link java.security.MessageDigest#isEqual(byte[], byte[])}
+     */
+    private static boolean isEqual(byte[] expected, ByteBuffer actual) {
+        int length = actual.remaining();
+        if (expected.length != length) {
+            return false;
         }
 
-        return payload;
+        int offset = actual.arrayOffset() + actual.position();
+        byte[] actualBytes = actual.array();
+        int result = 0;
+        for (int i = 0; i < length; i++) {
+            result |= expected[i] ^ actualBytes[offset + i];
+        }
+        return result == 0;
     }
 
     protected byte[] decode(String payload) {
@@ -49,6 +49,14 @@ public final class GsonSerializers {
         return CUSTOM_JSON.getOrDefault(type, JSON);
     }
 
+    /**
+     * Returns true if the type is serialized with a mapper registered through
+     * {@link #registerCustomJsonMapper(Class, JsonMapper)}
+     */
+    public static boolean hasCustomJsonMapper(Class<?> type) {
+        return !CUSTOM_JSON.isEmpty() && CUSTOM_JSON.containsKey(type);
+    }
+
     public static JsonMapper getJsonMapperFor(Type type) {
         if (type instanceof Class) {
             return getJsonMapperFor((Class<?>) type);
@@ -260,6 +260,10 @@ public class JsonMapper {
         try {
             if (json instanceof JsonElement) {
                 return this.compact.fromJson((JsonElement) json, type);
+            } else if (json instanceof ServiceDocument) {
+                // expanded query results hold documents, convert through the tree
+                JsonElement tree = GsonSerializers.getJsonMapperFor(json).toJsonElement(json);
+                return this.compact.fromJson(tree, type);
             } else {
                 return this.compact.fromJson(json.toString(), type);
             }
@@ -312,7 +316,7 @@ public class JsonMapper {
         bldr.registerTypeAdapter(ObjectCollectionTypeConverter.TYPE_LIST, ObjectCollectionTypeConverter.INSTANCE);
         bldr.registerTypeAdapter(ObjectCollectionTypeConverter.TYPE_SET, ObjectCollectionTypeConverter.INSTANCE);
         bldr.registerTypeAdapter(ObjectCollectionTypeConverter.TYPE_COLLECTION, ObjectCollectionTypeConverter.INSTANCE);
-        bldr.registerTypeAdapter(ObjectMapTypeConverter.TYPE, ObjectMapTypeConverter.INSTANCE);
+        bldr.registerTypeAdapterFactory(ObjectMapTypeConverter.INSTANCE);
         bldr.registerTypeAdapter(InstantConverter.TYPE, InstantConverter.INSTANCE);
         bldr.registerTypeAdapter(ZonedDateTimeConverter.TYPE, ZonedDateTimeConverter.INSTANCE);
         bldr.registerTypeHierarchyAdapter(byte[].class, new ByteArrayToBase64TypeAdapter());
@@ -13,54 +13,95 @@
 
 package com.vmware.xenon.common.serialization;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
+import com.google.gson.Gson;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonNull;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.internal.Streams;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import com.vmware.xenon.common.ServiceDocument;
 
 /**
- * GSON {@link JsonSerializer}/{@link JsonDeserializer} for representing {@link Map}s of objects
- * keyed by strings, whereby the objects are themselves serialized as JSON objects.
+ * GSON {@link TypeAdapterFactory} for representing {@link Map}s of objects keyed by strings,
+ * whereby the objects are themselves serialized as JSON objects.
+ *
+ * Values are written straight to the output, without building an intermediate JSON tree, so
+ * maps holding documents, like expanded query results, are serialized in a single pass.
+ * Documents with a custom {@link JsonMapper} are written with that mapper.
  */
-public enum ObjectMapTypeConverter
-        implements JsonSerializer<Map<String, Object>>, JsonDeserializer<Map<String, Object>> {
+public enum ObjectMapTypeConverter implements TypeAdapterFactory {
     INSTANCE;
 
     public static final Type TYPE = TypeTokens.MAP_OF_OBJECTS_BY_STRING;
 
-    @Override
-    public JsonElement serialize(Map<String, Object> map, Type type,
-            JsonSerializationContext context) {
-        JsonObject mapObject = new JsonObject();
-        for (Entry<String, Object> e : map.entrySet()) {
-            Object v = e.getValue();
-            if (v == null) {
-                mapObject.add(e.getKey(), JsonNull.INSTANCE);
-            } else if (v instanceof JsonElement) {
-                mapObject.add(e.getKey(), (JsonElement) v);
-            } else {
-                mapObject.add(e.getKey(), context.serialize(v));
+    private static final class Adapter extends TypeAdapter<Map<String, Object>> {
+        private final Gson gson;
+
+        Adapter(Gson gson) {
+            this.gson = gson;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void write(JsonWriter out, Map<String, Object> map) throws IOException {
+            if (map == null) {
+                out.nullValue();
+                return;
             }
+            out.beginObject();
+            for (Entry<String, Object> e : map.entrySet()) {
+                out.name(e.getKey());
+                Object v = e.getValue();
+                if (v == null) {
+                    out.nullValue();
+                } else if (v instanceof JsonElement) {
+                    Streams.write((JsonElement) v, out);
+                } else if (v instanceof ServiceDocument
+                        && GsonSerializers.hasCustomJsonMapper(v.getClass())) {
+                    Streams.write(GsonSerializers.getJsonMapperFor(v).toJsonElement(v), out);
+                } else {
+                    TypeAdapter<Object> adapter = (TypeAdapter<Object>) this.gson
+                            .getAdapter(v.getClass());
+                    adapter.write(out, v);
+                }
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Map<String, Object> read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            return INSTANCE.deserialize(Streams.parse(in));
         }
-        return mapObject;
     }
 
     @Override
-    public Map<String, Object> deserialize(JsonElement json, Type unused,
-            JsonDeserializationContext context)
-            throws JsonParseException {
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> typeToken) {
+        if (!TYPE.equals(typeToken.getType())) {
+            return null;
+        }
+        return (TypeAdapter<T>) new Adapter(gson);
+    }
 
+    public Map<String, Object> deserialize(JsonElement json) throws JsonParseException {
         if (!json.isJsonObject()) {
             throw new JsonParseException("Expecting a json Map object but found: " + json);
         }
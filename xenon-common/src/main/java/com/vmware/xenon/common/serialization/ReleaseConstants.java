@@ -22,6 +22,7 @@ public final class ReleaseConstants {
     public static final int RELEASE_VERSION_1_5_2 = 152;
     public static final int RELEASE_VERSION_1_6_0 = 160;
     public static final int RELEASE_VERSION_1_6_2 = 162;
+    public static final int RELEASE_VERSION_1_7_0 = 170;
 
     private ReleaseConstants() {
     }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2014-2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.services.common;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.vmware.xenon.common.ServiceDocument;
+
+/**
+ * Inverted index over active continuous query tasks, used by the index service to find the
+ * queries that can possibly match an updated document, without evaluating every query filter.
+ *
+ * Each query is indexed under the exact match values its filter requires for the document
+ * self link or, if it does not constrain the self link, the document kind. Queries that
+ * constrain neither are kept in a separate set and are candidates for every update.
+ *
+ * The index is safe for concurrent use: queries are added and removed on query threads
+ * while candidates are looked up on indexing threads.
+ */
+final class ActiveQueryIndex {
+
+    private final Map<String, Set<QueryTask>> tasksBySelfLink = new ConcurrentHashMap<>();
+
+    private final Map<String, Set<QueryTask>> tasksByKind = new ConcurrentHashMap<>();
+
+    private final Set<QueryTask> unindexedTasks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Indexes the active query task. The task must have a query filter in its query
+     * specification context
+     */
+    void add(QueryTask task) {
+        QueryFilter filter = task.querySpec.context.filter;
+        Set<String> values = filter.getRequiredTermValues(ServiceDocument.FIELD_NAME_SELF_LINK);
+        if (values != null) {
+            index(this.tasksBySelfLink, values, task);
+            return;
+        }
+
+        values = filter.getRequiredTermValues(ServiceDocument.FIELD_NAME_KIND);
+        if (values != null) {
+            index(this.tasksByKind, values, task);
+            return;
+        }
+
+        this.unindexedTasks.add(task);
+    }
+
+    /**
+     * Removes a task previously added with {@link #add(QueryTask)}
+     */
+    void remove(QueryTask task) {
+        if (this.unindexedTasks.remove(task)) {
+            return;
+        }
+
+        // the filter is immutable, so the required values are the ones the task was indexed under
+        QueryFilter filter = task.querySpec.context.filter;
+        Set<String> values = filter.getRequiredTermValues(ServiceDocument.FIELD_NAME_SELF_LINK);
+        if (values != null) {
+            unindex(this.tasksBySelfLink, values, task);
+            return;
+        }
+
+        values = filter.getRequiredTermValues(ServiceDocument.FIELD_NAME_KIND);
+        if (values != null) {
+            unindex(this.tasksByKind, values, task);
+        }
+    }
+
+    /**
+     * Invokes the consumer for every active query that can match the supplied document
+     * and returns the number of candidates
+     */
+    int forEachCandidate(ServiceDocument document, Consumer<QueryTask> consumer) {
+        int count = 0;
+        count += forEach(lookup(this.tasksBySelfLink, document.documentSelfLink), consumer);
+        count += forEach(lookup(this.tasksByKind, document.documentKind), consumer);
+        count += forEach(this.unindexedTasks, consumer);
+        return count;
+    }
+
+    private static int forEach(Set<QueryTask> tasks, Consumer<QueryTask> consumer) {
+        int count = 0;
+        for (QueryTask task : tasks) {
+            consumer.accept(task);
+            count++;
+        }
+        return count;
+    }
+
+    private static Set<QueryTask> lookup(Map<String, Set<QueryTask>> table, String value) {
+        if (value == null) {
+            return Collections.emptySet();
+        }
+        Set<QueryTask> tasks = table.get(value);
+        return tasks != null ? tasks : Collections.emptySet();
+    }
+
+    private static void index(Map<String, Set<QueryTask>> table, Set<String> values,
+            QueryTask task) {
+        for (String value : values) {
+            table.compute(value, (k, v) -> {
+                if (v == null) {
+                    v = ConcurrentHashMap.newKeySet();
+                }
+                v.add(task);
+                return v;
+            });
+        }
+    }
+
+    private static void unindex(Map<String, Set<QueryTask>> table, Set<String> values,
+            QueryTask task) {
+        for (String value : values) {
+            table.computeIfPresent(value, (k, v) -> {
+                v.remove(task);
+                return v.isEmpty() ? null : v;
+            });
+        }
+    }
+}
@@ -38,6 +38,7 @@ import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.config.XenonConfiguration;
 import com.vmware.xenon.services.common.NodeGroupService.NodeGroupChange;
 import com.vmware.xenon.services.common.NodeGroupService.NodeGroupState;
 import com.vmware.xenon.services.common.NodeGroupService.UpdateQuorumRequest;
@@ -49,6 +50,18 @@ import com.vmware.xenon.services.common.NodeGroupService.UpdateQuorumRequest;
 public class ConsistentHashingNodeSelectorService extends StatelessService implements
         NodeSelectorService {
 
+    /**
+     * Number of positions each node occupies on the consistent hash ring. The default of zero
+     * selects the owner by the squared difference of the key and node id hashes, the scheme
+     * used by earlier releases. A positive value changes owner placement, so all nodes in a
+     * node group must use the same setting
+     */
+    public static final int VIRTUAL_NODE_COUNT = XenonConfiguration.integer(
+            ConsistentHashingNodeSelectorService.class,
+            "virtualNodeCount",
+            0
+    );
+
     private long operationQueueLimit = Service.OPERATION_QUEUE_DEFAULT_LIMIT;
     private AtomicLong pendingOperationCount = new AtomicLong();
     private ConcurrentLinkedQueue<SelectAndForwardRequest> pendingRequestQueue = new ConcurrentLinkedQueue<>();
@@ -56,6 +69,10 @@ public class ConsistentHashingNodeSelectorService extends StatelessService imple
     // Cached node group state. Refreshed during maintenance
     private NodeGroupState cachedGroupState;
 
+    // Hash ring for the available nodes in the cached node group state. Rebuilt when the
+    // cached node group state changes
+    private volatile NodeSelectorHashRing hashRing;
+
     // Cached initial state. This service has "soft" state: Its configured on start and then its state is immutable.
     // If the service host restarts, all state is lost, by design.
     // Note: This is not a recommended pattern! Regular services must not use instanced fields
@@ -331,8 +348,8 @@ public class ConsistentHashingNodeSelectorService extends StatelessService imple
     }
 
     /**
-     * Uses the squared difference between the key and the server id of each member node to select a
-     * node. Both the key and the nodes are hashed
+     * Uses a consistent hash ring over the hashed node ids to select the owner node for the
+     * hashed key, then forwards or replicates the request
      */
     private void selectAndForward(SelectAndForwardRequest forwardRequest, Operation op, NodeGroupState localState) {
 
@@ -425,12 +442,54 @@ public class ConsistentHashingNodeSelectorService extends StatelessService imple
             neighbourCount = this.cachedState.replicationFactor.intValue();
         }
 
+        if (VIRTUAL_NODE_COUNT <= 0) {
+            return selectClosestNodes(response, localState, neighbourCount, getHost().getId());
+        }
+
+        NodeSelectorHashRing ring = this.hashRing;
+        if (ring == null || ring.groupState != localState) {
+            ring = updateHashRing(ring, localState);
+        }
+
+        Collection<NodeState> selectedNodes = ring.select(FNVHash.compute(key), neighbourCount);
+        if (selectedNodes.isEmpty()) {
+            // no available nodes, the caller fails the request based on the node count
+            return response;
+        }
+
+        NodeState owner = selectedNodes.iterator().next();
+        response.ownerNodeId = owner.id;
+        response.isLocalHostOwner = response.ownerNodeId.equals(getHost().getId());
+        response.ownerNodeGroupReference = owner.groupReference;
+        response.selectedNodes = selectedNodes;
+        response.membershipUpdateTimeMicros = localState.membershipUpdateTimeMicros;
+        response.availableNodeCount = ring.getAvailableNodeCount();
+        return response;
+    }
+
+    private NodeSelectorHashRing updateHashRing(NodeSelectorHashRing ring,
+            NodeGroupState localState) {
+        NodeSelectorHashRing newRing = ring != null ? ring.rebind(localState) : null;
+        if (newRing == null) {
+            newRing = NodeSelectorHashRing.create(localState, VIRTUAL_NODE_COUNT);
+        }
+        if (localState == this.cachedGroupState) {
+            this.hashRing = newRing;
+        }
+        return newRing;
+    }
+
+    /**
+     * Uses the squared difference between the key and the server id of each member node to
+     * select the closest nodes. Used when virtual nodes are disabled
+     */
+    static SelectOwnerResponse selectClosestNodes(SelectOwnerResponse response,
+            NodeGroupState localState, int neighbourCount, String selfId) {
         ClosestNNeighbours closestNodes = new ClosestNNeighbours(neighbourCount);
 
         long keyHash = FNVHash.compute(response.key);
         for (NodeState m : localState.nodes.values()) {
             if (NodeState.isUnAvailable(m)) {
-                availableNodes--;
                 continue;
             }
 
@@ -448,7 +507,7 @@ public class ConsistentHashingNodeSelectorService extends StatelessService imple
 
         NodeState closest = closestNodes.firstEntry().getValue();
         response.ownerNodeId = closest.id;
-        response.isLocalHostOwner = response.ownerNodeId.equals(getHost().getId());
+        response.isLocalHostOwner = response.ownerNodeId.equals(selfId);
         response.ownerNodeGroupReference = closest.groupReference;
         response.selectedNodes = closestNodes.values();
         response.membershipUpdateTimeMicros = localState.membershipUpdateTimeMicros;
@@ -794,6 +853,9 @@ public class ConsistentHashingNodeSelectorService extends StatelessService imple
                 this.cachedState.documentUpdateTimeMicros = now;
                 this.cachedState.membershipUpdateTimeMicros = ngs.membershipUpdateTimeMicros;
                 this.cachedGroupState = ngs;
+                if (VIRTUAL_NODE_COUNT > 0) {
+                    updateHashRing(this.hashRing, ngs);
+                }
                 // every time we update cached state, request convergence check
                 this.isNodeGroupConverged = false;
                 this.isSynchronizationRequired = true;
@@ -53,6 +53,6 @@ public class DirectoryContentService extends StatelessService {
             return;
         }
 
-        FileUtils.readFileAndComplete(get, file);
+        FileUtils.serveFileAndComplete(get, file);
     }
 }
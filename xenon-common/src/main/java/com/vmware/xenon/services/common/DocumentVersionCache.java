@@ -0,0 +1,460 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.services.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+import com.vmware.xenon.common.FNVHash;
+
+/**
+ * Caches the latest version and update time per document link, for the document index.
+ *
+ * Entries are keyed by a 64 bit hash of the link and spread across segments. Each segment is
+ * an open addressing table with linear probing, holding the primitive hash in the entry, so
+ * lookups do not box keys. Entries are immutable and carry the link, so lookups verify it and
+ * links with colliding hashes are chained in the same slot. Lookups do not lock. Updates lock
+ * a single segment, removals leave a tombstone and the table is rebuilt and republished when
+ * it fills up.
+ *
+ * The cache tracks an estimate of its memory use. When the estimate exceeds the budget,
+ * {@link #applyMemoryLimit(long, Predicate)} first removes entries the caller considers
+ * evictable and, if that is not enough, clears whole segments in round robin order. Readers
+ * treat a missing entry as a cache miss and fall back to the index.
+ */
+final class DocumentVersionCache {
+
+    static final class Entry {
+        final long hash;
+        final String link;
+        final long version;
+        final long updateTimeMicros;
+        final Entry next;
+
+        private Entry(long hash, String link, long version, long updateTimeMicros, Entry next) {
+            this.hash = hash;
+            this.link = link;
+            this.version = version;
+            this.updateTimeMicros = updateTimeMicros;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Marks a slot whose entries were removed. Lookups probe past it, inserts reuse it
+     */
+    private static final Entry TOMBSTONE = new Entry(0, null, 0, 0, null);
+
+    private static final class Table {
+        final AtomicReferenceArray<Entry> slots;
+        final int mask;
+
+        /**
+         * Slots holding entries or tombstones. Only read and written under the segment lock
+         */
+        int usedCount;
+
+        /**
+         * Slots holding entries. Only read and written under the segment lock
+         */
+        int liveCount;
+
+        Table(int capacity) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+    }
+
+    private static final class Segment {
+        volatile Table table = new Table(INITIAL_SEGMENT_CAPACITY);
+        final AtomicLong estimatedBytes = new AtomicLong();
+        final AtomicInteger writerCount = new AtomicInteger();
+    }
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+    /**
+     * Estimated size of an entry and its share of the slot array, not counting the link
+     */
+    private static final int ENTRY_BYTES_ESTIMATE = 56;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    private final ToLongFunction<String> hashFunction;
+
+    private final LongAdder lookupCount = new LongAdder();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder contendedNanos = new LongAdder();
+
+    private int evictionCursor;
+
+    DocumentVersionCache() {
+        this(FNVHash::compute);
+    }
+
+    DocumentVersionCache(ToLongFunction<String> hashFunction) {
+        this.hashFunction = hashFunction;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            this.segments[i] = new Segment();
+        }
+    }
+
+    private long hash(String link) {
+        return this.hashFunction.applyAsLong(link);
+    }
+
+    private Segment segmentFor(long hash) {
+        return this.segments[(int) (hash ^ (hash >>> 32)) & (SEGMENT_COUNT - 1)];
+    }
+
+    /**
+     * Home slot of the hash. Uses the high bits of a multiplicative hash, since the low bits
+     * select the segment
+     */
+    private static int slotFor(long hash, int mask) {
+        return (int) ((hash * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    private static long estimateBytes(String link) {
+        return ENTRY_BYTES_ESTIMATE + 2L * link.length();
+    }
+
+    private static Entry find(Entry head, String link) {
+        for (Entry e = head; e != null; e = e.next) {
+            if (e.link.equals(link)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a chain with the old entry replaced, or removed if the replacement is null
+     */
+    private static Entry replace(Entry head, Entry old, Entry replacement) {
+        if (head == old) {
+            return replacement != null ? replacement : old.next;
+        }
+        return new Entry(head.hash, head.link, head.version, head.updateTimeMicros,
+                replace(head.next, old, replacement));
+    }
+
+    Entry get(String link) {
+        long h = hash(link);
+        Table t = segmentFor(h).table;
+        for (int i = slotFor(h, t.mask), n = 0; n <= t.mask; i = (i + 1) & t.mask, n++) {
+            Entry head = t.slots.get(i);
+            if (head == null) {
+                return null;
+            }
+            if (head != TOMBSTONE && head.hash == h) {
+                return find(head, link);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records whether a version lookup was served from the cache
+     */
+    void recordLookup(boolean isHit) {
+        this.lookupCount.increment();
+        if (isHit) {
+            this.hitCount.increment();
+        }
+    }
+
+    /**
+     * Sets the version and update time for the link, unless the cached version is newer
+     */
+    void update(String link, long version, long updateTimeMicros) {
+        long h = hash(link);
+        compute(segmentFor(h), h, head -> {
+            Entry old = find(head, link);
+            if (old == null) {
+                return new Entry(h, link, version, updateTimeMicros, head);
+            }
+            if (version < old.version) {
+                return head;
+            }
+            return replace(head, old, new Entry(h, link, version,
+                    Math.max(old.updateTimeMicros, updateTimeMicros), old.next));
+        });
+    }
+
+    /**
+     * Advances the update time of an existing entry
+     */
+    void touch(String link, long updateTimeMicros) {
+        long h = hash(link);
+        compute(segmentFor(h), h, head -> {
+            Entry old = find(head, link);
+            if (old == null || old.updateTimeMicros >= updateTimeMicros) {
+                return head;
+            }
+            return replace(head, old, new Entry(h, link, old.version, updateTimeMicros,
+                    old.next));
+        });
+    }
+
+    void remove(String link) {
+        long h = hash(link);
+        compute(segmentFor(h), h, head -> {
+            Entry old = find(head, link);
+            if (old == null) {
+                return head;
+            }
+            return replace(head, old, null);
+        });
+    }
+
+    /**
+     * Replaces the chain of entries for the hash with the result of the function, under the
+     * segment lock. The function receives null if the hash has no entries and returns null to
+     * remove them
+     */
+    private void compute(Segment s, long h, UnaryOperator<Entry> fn) {
+        long startNanos = beginWrite(s);
+        try {
+            synchronized (s) {
+                Table t = s.table;
+                int index = -1;
+                int freeIndex = -1;
+                Entry head = null;
+                for (int i = slotFor(h, t.mask), n = 0; n <= t.mask;
+                        i = (i + 1) & t.mask, n++) {
+                    Entry e = t.slots.get(i);
+                    if (e == null) {
+                        if (freeIndex < 0) {
+                            freeIndex = i;
+                        }
+                        break;
+                    }
+                    if (e == TOMBSTONE) {
+                        if (freeIndex < 0) {
+                            freeIndex = i;
+                        }
+                        continue;
+                    }
+                    if (e.hash == h) {
+                        index = i;
+                        head = e;
+                        break;
+                    }
+                }
+
+                Entry newHead = fn.apply(head);
+                if (newHead == head) {
+                    return;
+                }
+                s.estimatedBytes.addAndGet(chainBytes(newHead) - chainBytes(head));
+
+                if (head != null) {
+                    t.slots.set(index, newHead != null ? newHead : TOMBSTONE);
+                    if (newHead == null) {
+                        t.liveCount--;
+                    }
+                    return;
+                }
+
+                if (t.slots.get(freeIndex) == null) {
+                    t.usedCount++;
+                }
+                t.slots.set(freeIndex, newHead);
+                t.liveCount++;
+                if (t.usedCount * 4 > t.slots.length() * 3) {
+                    rebuild(s, t);
+                }
+            }
+        } finally {
+            endWrite(s, startNanos);
+        }
+    }
+
+    /**
+     * Publishes a table holding the live entries of the current one, without tombstones,
+     * doubling the capacity if more than half of the slots are live
+     */
+    private static void rebuild(Segment s, Table t) {
+        int capacity = t.slots.length();
+        if (t.liveCount * 2 > capacity) {
+            capacity *= 2;
+        }
+        Table newTable = new Table(capacity);
+        for (int i = 0; i < t.slots.length(); i++) {
+            Entry head = t.slots.get(i);
+            if (head == null || head == TOMBSTONE) {
+                continue;
+            }
+            int j = slotFor(head.hash, newTable.mask);
+            while (newTable.slots.get(j) != null) {
+                j = (j + 1) & newTable.mask;
+            }
+            newTable.slots.set(j, head);
+        }
+        newTable.usedCount = t.liveCount;
+        newTable.liveCount = t.liveCount;
+        s.table = newTable;
+    }
+
+    private static long chainBytes(Entry head) {
+        long bytes = 0;
+        for (Entry e = head; e != null; e = e.next) {
+            bytes += estimateBytes(e.link);
+        }
+        return bytes;
+    }
+
+    private static long beginWrite(Segment s) {
+        if (s.writerCount.getAndIncrement() == 0) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    private void endWrite(Segment s, long startNanos) {
+        s.writerCount.decrementAndGet();
+        if (startNanos != 0) {
+            this.contendedNanos.add(System.nanoTime() - startNanos);
+        }
+    }
+
+    void clear() {
+        for (Segment s : this.segments) {
+            clearSegment(s);
+        }
+    }
+
+    private int clearSegment(Segment s) {
+        long startNanos = beginWrite(s);
+        try {
+            synchronized (s) {
+                int count = 0;
+                AtomicReferenceArray<Entry> slots = s.table.slots;
+                for (int i = 0; i < slots.length(); i++) {
+                    Entry head = slots.get(i);
+                    if (head == null || head == TOMBSTONE) {
+                        continue;
+                    }
+                    for (Entry e = head; e != null; e = e.next) {
+                        count++;
+                    }
+                    s.estimatedBytes.addAndGet(-chainBytes(head));
+                }
+                s.table = new Table(INITIAL_SEGMENT_CAPACITY);
+                return count;
+            }
+        } finally {
+            endWrite(s, startNanos);
+        }
+    }
+
+    /**
+     * Removes entries until the estimated memory use is within the budget. Returns the number
+     * of entries removed
+     */
+    int applyMemoryLimit(long budgetBytes, Predicate<String> isEvictable) {
+        if (getEstimatedBytes() <= budgetBytes) {
+            return 0;
+        }
+
+        int count = 0;
+        for (Segment s : this.segments) {
+            AtomicReferenceArray<Entry> slots = s.table.slots;
+            for (int i = 0; i < slots.length(); i++) {
+                Entry head = slots.get(i);
+                if (head == TOMBSTONE) {
+                    continue;
+                }
+                for (Entry e = head; e != null; e = e.next) {
+                    if (isEvictable.test(e.link)) {
+                        remove(e.link);
+                        count++;
+                    }
+                }
+            }
+        }
+
+        if (budgetBytes <= 0) {
+            // no budget was configured, only evictable entries are removed
+            return count;
+        }
+
+        for (int i = 0; i < SEGMENT_COUNT && getEstimatedBytes() > budgetBytes; i++) {
+            Segment s = this.segments[this.evictionCursor];
+            this.evictionCursor = (this.evictionCursor + 1) % SEGMENT_COUNT;
+            count += clearSegment(s);
+        }
+        return count;
+    }
+
+    int size() {
+        int count = 0;
+        for (Segment s : this.segments) {
+            AtomicReferenceArray<Entry> slots = s.table.slots;
+            for (int i = 0; i < slots.length(); i++) {
+                Entry head = slots.get(i);
+                if (head == TOMBSTONE) {
+                    continue;
+                }
+                for (Entry e = head; e != null; e = e.next) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    long getEstimatedBytes() {
+        long bytes = 0;
+        for (Segment s : this.segments) {
+            bytes += s.estimatedBytes.get();
+        }
+        return bytes;
+    }
+
+    long getLookupCount() {
+        return this.lookupCount.sum();
+    }
+
+    long getHitCount() {
+        return this.hitCount.sum();
+    }
+
+    /**
+     * Ratio of version lookups served from the cache
+     */
+    double getHitRatio() {
+        long lookups = this.lookupCount.sum();
+        if (lookups == 0) {
+            return 0;
+        }
+        return (double) this.hitCount.sum() / lookups;
+    }
+
+    /**
+     * Time updates spent while another update to the same segment was in progress
+     */
+    long getContendedMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(this.contendedNanos.sum());
+    }
+}
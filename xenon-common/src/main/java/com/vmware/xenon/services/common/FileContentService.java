@@ -38,6 +38,6 @@ public class FileContentService extends StatelessService {
 
     @Override
     public void handleGet(Operation get) {
-        FileUtils.readFileAndComplete(get, this.file);
+        FileUtils.serveFileAndComplete(get, this.file);
     }
 }
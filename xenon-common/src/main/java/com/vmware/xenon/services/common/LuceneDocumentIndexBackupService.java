@@ -255,14 +255,15 @@ public class LuceneDocumentIndexBackupService extends StatelessService {
                                     return;
                                 }
 
-                                // perform backup
-                                try {
-                                    handleBackupInternal(op, backupRequest, indexInfo);
-                                } catch (Exception e) {
-                                    logSevere("Failed to handle backup request. %s", Utils.toString(e));
-                                    op.fail(e);
-                                    return;
-                                }
+                                // perform backup, copying the index files blocks on IO
+                                getHost().run(getHost().getBlockingExecutor(), () -> {
+                                    try {
+                                        handleBackupInternal(op, backupRequest, indexInfo);
+                                    } catch (Exception e) {
+                                        logSevere("Failed to handle backup request. %s", Utils.toString(e));
+                                        op.fail(e);
+                                    }
+                                });
                             });
                 })
                 .setExpiration(Utils.fromNowMicrosUtc(TimeUnit.DAYS.toMicros(1)))
@@ -496,17 +497,19 @@ public class LuceneDocumentIndexBackupService extends StatelessService {
 
                                 InternalDocumentIndexInfo indexInfo = oo.getBody(InternalDocumentIndexInfo.class);
 
-                                // perform restore from local file/dir
-                                restoreFromLocal(op, backupFilePath, restoreRequest.timeSnapshotBoundaryMicros, indexInfo);
-
-                                if (isFromRemote) {
-                                    try {
-                                        Files.deleteIfExists(backupFilePath);
-                                    } catch (IOException e) {
-                                        logWarning("Failed to delete temporary backup file %s: %s",
-                                                backupFilePath, Utils.toString(e));
+                                // perform restore from local file/dir, which blocks on IO
+                                getHost().run(getHost().getBlockingExecutor(), () -> {
+                                    restoreFromLocal(op, backupFilePath, restoreRequest.timeSnapshotBoundaryMicros, indexInfo);
+
+                                    if (isFromRemote) {
+                                        try {
+                                            Files.deleteIfExists(backupFilePath);
+                                        } catch (IOException e) {
+                                            logWarning("Failed to delete temporary backup file %s: %s",
+                                                    backupFilePath, Utils.toString(e));
+                                        }
                                     }
-                                }
+                                });
                             })
                             .sendWith(this);
                 });
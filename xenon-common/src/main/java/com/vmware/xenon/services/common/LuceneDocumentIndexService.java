@@ -23,6 +23,7 @@ import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -48,6 +49,7 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.stream.Stream;
 
@@ -67,11 +69,14 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.index.SegmentCommitInfo;
 import org.apache.lucene.index.SegmentInfo;
 import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.SnapshotDeletionPolicy;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
@@ -92,6 +97,7 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
 import org.apache.lucene.util.Version;
 
 import com.vmware.xenon.common.FileUtils;
@@ -157,6 +163,27 @@ public class LuceneDocumentIndexService extends StatelessService {
             10 * Service.OPERATION_QUEUE_DEFAULT_LIMIT
     );
 
+    /**
+     * Maximum number of index update requests applied to the index writer as a single batch.
+     * A value of 1 (the default) disables batching and each update is applied individually
+     */
+    public static final int DEFAULT_UPDATE_BATCH_SIZE = XenonConfiguration.integer(
+            LuceneDocumentIndexService.class,
+            "updateBatchSize",
+            1
+    );
+
+    /**
+     * Time an indexing thread waits for additional update requests, when it polled fewer than
+     * the update batch size. Only applies when batching is enabled
+     */
+    public static final long DEFAULT_UPDATE_BATCH_WINDOW_MICROS = XenonConfiguration.duration(
+            LuceneDocumentIndexService.class,
+            "updateBatchWindow",
+            TimeUnit.MICROSECONDS,
+            0
+    );
+
     public static final String FILE_PATH_LUCENE = "lucene";
 
     public static final int DEFAULT_INDEX_FILE_COUNT_THRESHOLD_FOR_WRITER_REFRESH = 10000;
@@ -175,7 +202,25 @@ public class LuceneDocumentIndexService extends StatelessService {
 
     public static final long DEFAULT_PAGINATED_SEARCHER_EXPIRATION_DELAY = TimeUnit.SECONDS.toMicros(1);
 
-    private static final String DOCUMENTS_WITHOUT_RESULTS = "DocumentsWithoutResults";
+    /**
+     * Maximum number of documents returned by a self link prefix query, the query a GET on a
+     * factory translates to. When more documents match, the result carries a next page link.
+     * A value of 0, the default, disables paging
+     */
+    public static final int DEFAULT_PREFIX_QUERY_PAGE_SIZE = XenonConfiguration.integer(
+            LuceneDocumentIndexService.class,
+            "prefixQueryPageSize",
+            0
+    );
+
+    /**
+     * Expiration of the pages of a self link prefix query. Clients are expected to walk the
+     * pages of a factory right away, so the searcher the pages share is released sooner than
+     * for query tasks
+     */
+    private static final long PREFIX_QUERY_PAGE_EXPIRATION_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    static final String DOCUMENTS_WITHOUT_RESULTS = "DocumentsWithoutResults";
 
     /**
      * Try to find a reusable searcher this many times.
@@ -200,6 +245,12 @@ public class LuceneDocumentIndexService extends StatelessService {
 
     private static int metadataUpdateMaxQueueDepth = DEFAULT_METADATA_UPDATE_MAX_QUEUE_DEPTH;
 
+    private static int updateBatchSize = DEFAULT_UPDATE_BATCH_SIZE;
+
+    private static long updateBatchWindowMicros = DEFAULT_UPDATE_BATCH_WINDOW_MICROS;
+
+    private static int prefixQueryPageSize = DEFAULT_PREFIX_QUERY_PAGE_SIZE;
+
     private final Runnable queryTaskHandler = this::handleQueryRequest;
 
     private final Runnable updateRequestHandler = this::handleUpdateRequest;
@@ -268,6 +319,30 @@ public class LuceneDocumentIndexService extends StatelessService {
         return metadataUpdateMaxQueueDepth;
     }
 
+    public static void setUpdateBatchSize(int size) {
+        updateBatchSize = Math.max(1, size);
+    }
+
+    public static int getUpdateBatchSize() {
+        return updateBatchSize;
+    }
+
+    public static void setUpdateBatchWindowMicros(long windowMicros) {
+        updateBatchWindowMicros = Math.max(0, windowMicros);
+    }
+
+    public static long getUpdateBatchWindowMicros() {
+        return updateBatchWindowMicros;
+    }
+
+    public static void setPrefixQueryPageSize(int size) {
+        prefixQueryPageSize = Math.max(0, size);
+    }
+
+    public static int getPrefixQueryPageSize() {
+        return prefixQueryPageSize;
+    }
+
 
 
     static final String LUCENE_FIELD_NAME_BINARY_SERIALIZED_STATE = "binarySerializedState";
@@ -276,6 +351,10 @@ public class LuceneDocumentIndexService extends StatelessService {
 
     public static final String STAT_NAME_ACTIVE_QUERY_FILTERS = "activeQueryFilterCount";
 
+    public static final String STAT_NAME_ACTIVE_QUERY_CANDIDATE_COUNT = "activeQueryCandidateCount";
+
+    public static final String STAT_NAME_ACTIVE_QUERY_MATCH_COUNT = "activeQueryMatchCount";
+
     public static final String STAT_NAME_ACTIVE_PAGINATED_QUERIES = "activePaginatedQueryCount";
 
     public static final String STAT_NAME_COMMIT_COUNT = "commitCount";
@@ -306,6 +385,10 @@ public class LuceneDocumentIndexService extends StatelessService {
 
     public static final String STAT_NAME_INDEXING_DURATION_MICROS = "indexingDurationMicros";
 
+    public static final String STAT_NAME_UPDATE_BATCH_SIZE = "updateBatchSize";
+
+    public static final String STAT_NAME_UPDATE_BATCH_DURATION_MICROS = "updateBatchDurationMicros";
+
     public static final String STAT_NAME_SEARCHER_UPDATE_COUNT = "indexSearcherUpdateCount";
 
     public static final String STAT_NAME_SEARCHER_REUSE_BY_DOCUMENT_KIND_COUNT = "indexSearcherReuseByDocumentKindCount";
@@ -332,6 +415,12 @@ public class LuceneDocumentIndexService extends StatelessService {
 
     public static final String STAT_NAME_VERSION_CACHE_ENTRY_COUNT = "versionCacheEntryCount";
 
+    public static final String STAT_NAME_VERSION_CACHE_HIT_RATIO = "versionCacheHitRatio";
+
+    public static final String STAT_NAME_VERSION_CACHE_MEMORY_BYTES = "versionCacheMemoryBytes";
+
+    public static final String STAT_NAME_VERSION_CACHE_CONTENDED_MICROS = "versionCacheContendedMicros";
+
     public static final String STAT_NAME_MAINTENANCE_SEARCHER_REFRESH_DURATION_MICROS =
             "maintenanceSearcherRefreshDurationMicros";
 
@@ -398,6 +487,13 @@ public class LuceneDocumentIndexService extends StatelessService {
     private ThreadLocal<LuceneIndexDocumentHelper> indexDocumentHelper = ThreadLocal
             .withInitial(LuceneIndexDocumentHelper::new);
 
+    /**
+     * Document helpers used when update batching is enabled. The helper re-uses its document
+     * and fields, so each document in a batch needs its own helper instance
+     */
+    private ThreadLocal<LuceneIndexDocumentHelper[]> batchIndexDocumentHelpers = ThreadLocal
+            .withInitial(() -> new LuceneIndexDocumentHelper[0]);
+
     /**
      * Searcher refresh time, per searcher (using hash code)
      */
@@ -567,20 +663,31 @@ public class LuceneDocumentIndexService extends StatelessService {
 
     protected IndexWriter writer = null;
 
-    protected Map<String, QueryTask> activeQueries = new ConcurrentHashMap<>();
+    /**
+     * Active continuous query tasks by self link. Updated only through
+     * {@link #putActiveQuery(QueryTask)} and {@link #removeActiveQuery(String)}, which keep
+     * {@link #activeQueryIndex} in sync
+     */
+    private final Map<String, QueryTask> activeQueries = new ConcurrentHashMap<>();
+
+    /**
+     * Inverted index over {@link #activeQueries}, used to select the candidate queries for
+     * each index update
+     */
+    private final ActiveQueryIndex activeQueryIndex = new ActiveQueryIndex();
 
     private long writerUpdateTimeMicros;
 
     private long writerCreationTimeMicros;
 
     /**
-     * Time when memory pressure removed {@link #updatesPerLink} entries.
+     * Time when memory pressure removed {@link #versionCache} entries.
      */
     private long serviceRemovalDetectedTimeMicros;
 
-    private final Map<String, DocumentUpdateInfo> updatesPerLink = new HashMap<>();
+    private final DocumentVersionCache versionCache = new DocumentVersionCache();
     private final Map<String, Long> liveVersionsPerLink = new HashMap<>();
-    private final Map<String, Long> immutableParentLinks = new HashMap<>();
+    private final Map<String, Long> immutableParentLinks = new ConcurrentHashMap<>();
     private final Map<String, Long> documentKindUpdateInfo = new HashMap<>();
 
     private final SortedSet<MetadataUpdateInfo> metadataUpdates =
@@ -617,11 +724,6 @@ public class LuceneDocumentIndexService extends StatelessService {
         public long updateTimeMicros;
     }
 
-    public static class DocumentUpdateInfo {
-        public long updateTimeMicros;
-        public long version;
-    }
-
     public static class DeleteQueryRuntimeContextRequest extends ServiceDocument {
         public QueryRuntimeContext context;
         static final String KIND = Utils.buildKind(DeleteQueryRuntimeContextRequest.class);
@@ -769,7 +871,7 @@ public class LuceneDocumentIndexService extends StatelessService {
 
     private void initializeInstance() {
         this.liveVersionsPerLink.clear();
-        this.updatesPerLink.clear();
+        this.versionCache.clear();
         this.searcherUpdateTimesMicros.clear();
         this.paginatedSearcherManager.clear();
         this.versionSort = new Sort(new SortedNumericSortField(ServiceDocument.FIELD_NAME_VERSION,
@@ -907,7 +1009,7 @@ public class LuceneDocumentIndexService extends StatelessService {
 
         synchronized (this.searchSync) {
             this.writer = w;
-            this.updatesPerLink.clear();
+            this.versionCache.clear();
             this.writerUpdateTimeMicros = Utils.getNowMicrosUtc();
             this.writerCreationTimeMicros = this.writerUpdateTimeMicros;
         }
@@ -1229,6 +1331,11 @@ public class LuceneDocumentIndexService extends StatelessService {
     }
 
     private void handleUpdateRequest() {
+        if (updateBatchSize > 1) {
+            handleUpdateBatchRequest();
+            return;
+        }
+
         Operation op = pollUpdateOperation();
         if (op == null) {
             return;
@@ -1237,29 +1344,7 @@ public class LuceneDocumentIndexService extends StatelessService {
         OperationContext originalContext = OperationContext.getOperationContext();
         try {
             this.writerSync.acquire();
-            OperationContext.setFrom(op);
-
-            switch (op.getAction()) {
-            case DELETE:
-                handleDeleteImpl(op);
-                break;
-            case POST:
-                Object o = op.getBodyRaw();
-                if (o != null) {
-                    if (o instanceof UpdateIndexRequest) {
-                        updateIndex(op);
-                        break;
-                    }
-                    if (o instanceof MaintenanceRequest) {
-                        handleMaintenanceImpl(op);
-                        break;
-                    }
-                }
-                Operation.failActionNotSupported(op);
-                break;
-            default:
-                break;
-            }
+            processUpdateOperation(op);
         } catch (Exception e) {
             checkFailureAndRecover(e);
             op.fail(e);
@@ -1269,6 +1354,85 @@ public class LuceneDocumentIndexService extends StatelessService {
         }
     }
 
+    /**
+     * Drains up to {@link #getUpdateBatchSize()} operations from the update queue and applies
+     * consecutive document updates to the index writer as a single batch. Operations that can not
+     * be batched (deletes, maintenance, forced index updates) are processed individually, in
+     * queue order, after flushing any pending batch
+     */
+    private void handleUpdateBatchRequest() {
+        List<Operation> ops = pollUpdateOperations(updateBatchSize, updateBatchWindowMicros);
+        if (ops.isEmpty()) {
+            return;
+        }
+
+        OperationContext originalContext = OperationContext.getOperationContext();
+        try {
+            this.writerSync.acquire();
+        } catch (InterruptedException e) {
+            for (Operation op : ops) {
+                op.fail(e);
+            }
+            return;
+        }
+
+        try {
+            List<Operation> batch = new ArrayList<>(ops.size());
+            for (Operation op : ops) {
+                if (isBatchableUpdate(op)) {
+                    batch.add(op);
+                    continue;
+                }
+                applyUpdateBatch(batch);
+                try {
+                    processUpdateOperation(op);
+                } catch (Exception e) {
+                    checkFailureAndRecover(e);
+                    op.fail(e);
+                }
+            }
+            applyUpdateBatch(batch);
+        } finally {
+            OperationContext.setFrom(originalContext);
+            this.writerSync.release();
+        }
+    }
+
+    private boolean isBatchableUpdate(Operation op) {
+        return op.getAction() == Action.POST
+                && op.getBodyRaw() instanceof UpdateIndexRequest
+                && !op.hasPragmaDirective(Operation.PRAGMA_DIRECTIVE_FORCE_INDEX_UPDATE);
+    }
+
+    /**
+     * Processes a single update queue operation. The caller must hold a writer permit
+     */
+    private void processUpdateOperation(Operation op) throws Exception {
+        OperationContext.setFrom(op);
+
+        switch (op.getAction()) {
+        case DELETE:
+            handleDeleteImpl(op);
+            break;
+        case POST:
+            Object o = op.getBodyRaw();
+            if (o != null) {
+                if (o instanceof UpdateIndexRequest) {
+                    updateIndex(op);
+                    break;
+                }
+                if (o instanceof MaintenanceRequest) {
+                    handleMaintenanceImpl(op);
+                    break;
+                }
+            }
+            Operation.failActionNotSupported(op);
+            break;
+        default:
+            break;
+        }
+    }
+
     private void handleQueryTaskPatch(Operation op, QueryTask task) throws Exception {
         QueryTask.QuerySpecification qs = task.querySpec;
 
@@ -1302,7 +1466,8 @@ public class LuceneDocumentIndexService extends StatelessService {
             // intentional fall through for tasks just starting and need to execute a query
         }
 
-        if (qs.options.contains(QueryOption.GROUP_BY)) {
+        if (qs.options.contains(QueryOption.GROUP_BY)
+                && !qs.options.contains(QueryOption.AGGREGATE)) {
             handleGroupByQueryTaskPatch(op, task);
             return;
         }
@@ -1344,7 +1509,7 @@ public class LuceneDocumentIndexService extends StatelessService {
             clonedTask.querySpec = task.querySpec;
             clonedTask.querySpec.context.filter = QueryFilter.create(qs.query);
             clonedTask.querySpec.context.subjectLink = getSubject(op);
-            this.activeQueries.put(task.documentSelfLink, clonedTask);
+            putActiveQuery(clonedTask);
             adjustTimeSeriesStat(STAT_NAME_ACTIVE_QUERY_FILTERS, AGGREGATION_TYPE_SUM,
                     1);
             logInfo("Activated continuous query task: %s", task.documentSelfLink);
@@ -1352,7 +1517,8 @@ public class LuceneDocumentIndexService extends StatelessService {
         case CANCELLED:
         case FAILED:
         case FINISHED:
-            if (this.activeQueries.remove(task.documentSelfLink) != null) {
+            QueryTask removedTask = removeActiveQuery(task.documentSelfLink);
+            if (removedTask != null) {
                 adjustTimeSeriesStat(STAT_NAME_ACTIVE_QUERY_FILTERS, AGGREGATION_TYPE_SUM,
                         -1);
             }
@@ -1364,6 +1530,35 @@ public class LuceneDocumentIndexService extends StatelessService {
         return false;
     }
 
+    /**
+     * Adds or replaces the active query task with the same self link. The index is updated
+     * under the map entry lock, so concurrent updates for the same link can not leave a
+     * stale task indexed
+     */
+    private void putActiveQuery(QueryTask task) {
+        this.activeQueries.compute(task.documentSelfLink, (link, existingTask) -> {
+            if (existingTask != null) {
+                this.activeQueryIndex.remove(existingTask);
+            }
+            this.activeQueryIndex.add(task);
+            return task;
+        });
+    }
+
+    /**
+     * Removes the active query task with the self link, and its index entries. Returns the
+     * removed task, or null if there was none
+     */
+    private QueryTask removeActiveQuery(String selfLink) {
+        QueryTask[] removedTask = new QueryTask[1];
+        this.activeQueries.computeIfPresent(selfLink, (link, existingTask) -> {
+            this.activeQueryIndex.remove(existingTask);
+            removedTask[0] = existingTask;
+            return null;
+        });
+        return removedTask[0];
+    }
+
     private IndexSearcher createOrUpdatePaginatedQuerySearcher(long expirationMicros,
             IndexWriter w, Set<String> kindScope, EnumSet<QueryOption> queryOptions)
             throws IOException {
@@ -1548,14 +1743,12 @@ public class LuceneDocumentIndexService extends StatelessService {
 
         // Self link prefix query, returns all self links with the same prefix. A GET on a
         // factory translates to this query.
-        int resultLimit = Integer.MAX_VALUE;
         selfLink = selfLink.substring(0, selfLink.length() - 1);
         Query tq = new PrefixQuery(new Term(ServiceDocument.FIELD_NAME_SELF_LINK, selfLink));
 
         ServiceDocumentQueryResult rsp = new ServiceDocumentQueryResult();
         rsp.documentLinks = new ArrayList<>();
-        if (queryIndex(null, get, selfLink, options, tq, null, resultLimit, 0, null, null, rsp,
-                null)) {
+        if (queryIndexPrefix(get, selfLink, options, tq, rsp)) {
             return;
         }
 
@@ -1569,6 +1762,83 @@ public class LuceneDocumentIndexService extends StatelessService {
         queryServiceHost(selfLink + UriUtils.URI_WILDCARD_CHAR, options, get);
     }
 
+    /**
+     * Queries the documents with a self link prefix. When more current documents match than the
+     * prefix query page size, the first page of results is returned, with a next page link to a
+     * forward only {@link QueryPageService}. Like the pages of a paginated query task, the pages
+     * share a paginated searcher, which is also shared with other prefix queries while the index
+     * is not updated
+     */
+    private boolean queryIndexPrefix(Operation get, String selfLinkPrefix,
+            EnumSet<QueryOption> options, Query tq, ServiceDocumentQueryResult rsp)
+            throws Exception {
+        IndexWriter w = this.writer;
+        int pageSize = prefixQueryPageSize;
+        if (w == null || pageSize == 0) {
+            return queryIndex(null, get, selfLinkPrefix, options, tq, null, Integer.MAX_VALUE, 0,
+                    null, null, rsp, null);
+        }
+
+        boolean doNotRefresh = options.contains(QueryOption.DO_NOT_REFRESH);
+        IndexSearcher s = createOrRefreshSearcher(selfLinkPrefix, null, Integer.MAX_VALUE, w,
+                doNotRefresh);
+        if (!hasMoreSelfLinksThan(s.getIndexReader(), selfLinkPrefix, pageSize)) {
+            return queryIndex(s, get, selfLinkPrefix, options, tq, null, Integer.MAX_VALUE, 0,
+                    null, null, rsp, null);
+        }
+
+        QuerySpecification qs = new QuerySpecification();
+        qs.query = QueryTask.Query.Builder.create()
+                .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK, selfLinkPrefix,
+                        MatchType.PREFIX)
+                .build();
+        qs.options = EnumSet.copyOf(options);
+        qs.options.add(QueryOption.FORWARD_ONLY);
+        qs.resultLimit = pageSize;
+        qs.context.nativeQuery = tq;
+
+        long expiration = Utils.fromNowMicrosUtc(PREFIX_QUERY_PAGE_EXPIRATION_MICROS);
+        long searcherExpiration = expiration + DEFAULT_PAGINATED_SEARCHER_EXPIRATION_DELAY;
+        synchronized (this.searchSync) {
+            // reuse a paginated searcher opened since the last index update
+            s = getOrUpdateExistingSearcher(searcherExpiration, null, doNotRefresh);
+        }
+        if (s == null) {
+            s = createPaginatedQuerySearcher(searcherExpiration, w);
+        }
+        LuceneQueryPage firstPage = new LuceneQueryPage(null, (ScoreDoc) null);
+        return queryIndex(s, get, selfLinkPrefix, qs.options, tq, firstPage, pageSize,
+                expiration, getSelfLink(), null, rsp, qs);
+    }
+
+    /**
+     * Returns true if more than the given number of distinct self links start with the prefix.
+     * Each document is counted once, regardless of the number of its versions, and without
+     * loading it
+     */
+    private static boolean hasMoreSelfLinksThan(IndexReader reader, String selfLinkPrefix,
+            int limit) throws IOException {
+        Terms terms = MultiFields.getTerms(reader, ServiceDocument.FIELD_NAME_SELF_LINK);
+        if (terms == null) {
+            return false;
+        }
+        BytesRef prefix = new BytesRef(selfLinkPrefix);
+        TermsEnum termsEnum = terms.iterator();
+        if (termsEnum.seekCeil(prefix) == TermsEnum.SeekStatus.END) {
+            return false;
+        }
+        int count = 0;
+        do {
+            if (!StringHelper.startsWith(termsEnum.term(), prefix)) {
+                return false;
+            }
+            if (++count > limit) {
+                return true;
+            }
+        } while (termsEnum.next() != null);
+        return false;
+    }
+
     /**
      * retrieves the next available operation given the fairness scheme
      */
@@ -1580,6 +1850,22 @@ public class LuceneDocumentIndexService extends StatelessService {
         return this.updateQueue.poll();
     }
 
+    /**
+     * Retrieves up to maxCount operations. If fewer operations are available and a batch window
+     * is specified, waits once for the window to elapse and polls again
+     */
+    private List<Operation> pollUpdateOperations(int maxCount, long windowMicros) {
+        List<Operation> ops = new ArrayList<>(maxCount);
+        int count = this.updateQueue.drainTo(ops, maxCount);
+        if (count == 0 || count >= maxCount || windowMicros <= 0) {
+            return ops;
+        }
+
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(windowMicros));
+        this.updateQueue.drainTo(ops, maxCount - count);
+        return ops;
+    }
+
     /**
      * Queues operation in a multi-queue that uses the subject as the key per queue
      */
@@ -1630,7 +1916,9 @@ public class LuceneDocumentIndexService extends StatelessService {
             rsp.documents = new HashMap<>();
         }
 
-        if (options.contains(QueryOption.COUNT)) {
+        boolean isCountQuery = options.contains(QueryOption.COUNT)
+                || options.contains(QueryOption.AGGREGATE);
+        if (isCountQuery) {
             rsp.documentCount = 0L;
         } else {
             rsp.documentLinks = new ArrayList<>();
@@ -1665,7 +1953,7 @@ public class LuceneDocumentIndexService extends StatelessService {
         }
 
         ServiceDocumentQueryResult result;
-        if (options.contains(QueryOption.COUNT)) {
+        if (isCountQuery) {
             result = queryIndexCount(options, s, tq, rsp, qs, queryStartTimeMicros, nodeSelectorPath);
         } else {
             result = queryIndexPaginated(op, options, s, tq, page, count, expiration, indexLink, nodeSelectorPath,
@@ -1673,7 +1961,7 @@ public class LuceneDocumentIndexService extends StatelessService {
         }
 
         result.documentOwner = getHost().getId();
-        if (!options.contains(QueryOption.COUNT) && result.documentLinks.isEmpty()) {
+        if (!isCountQuery && result.documentLinks.isEmpty()) {
             return false;
         }
         op.setBodyNoCloning(result).complete();
@@ -1986,7 +2274,10 @@ public class LuceneDocumentIndexService extends StatelessService {
             String nodeSelectorPath)
             throws Exception {
 
-        if (queryOptions.contains(QueryOption.INCLUDE_ALL_VERSIONS)) {
+        LuceneQueryAggregator aggregator = null;
+        if (queryOptions.contains(QueryOption.AGGREGATE)) {
+            aggregator = new LuceneQueryAggregator(querySpec);
+        } else if (queryOptions.contains(QueryOption.INCLUDE_ALL_VERSIONS)) {
             // Special handling for queries which include all versions in order to avoid allocating
             // a large, unnecessary ScoreDocs array.
             response.documentCount = (long) searcher.count(termQuery);
@@ -2018,7 +2309,7 @@ public class LuceneDocumentIndexService extends StatelessService {
 
             after = processQueryResults(querySpec, queryOptions, resultLimit, searcher,
                     response,
-                    results.scoreDocs, start, nodeSelectorPath, false);
+                    results.scoreDocs, start, nodeSelectorPath, false, aggregator);
 
             long now = Utils.getNowMicrosUtc();
             setTimeSeriesHistogramStat(STAT_NAME_RESULT_PROCESSING_DURATION_MICROS,
@@ -2029,6 +2320,9 @@ public class LuceneDocumentIndexService extends StatelessService {
             resultLimit = Math.min(resultLimit * 2, queryResultLimit);
         } while (true);
 
+        if (aggregator != null) {
+            aggregator.aggregate(searcher, response);
+        }
         response.documentLinks.clear();
         return response;
     }
@@ -2146,7 +2440,7 @@ public class LuceneDocumentIndexService extends StatelessService {
             if (shouldProcessResults) {
                 start = end;
                 bottom = processQueryResults(qs, options, count, s, rsp, hits,
-                        queryStartTimeMicros, nodeSelectorPath,true);
+                        queryStartTimeMicros, nodeSelectorPath,true, null);
                 end = Utils.getNowMicrosUtc();
 
                 // remove docs for offset
@@ -2278,7 +2572,7 @@ public class LuceneDocumentIndexService extends StatelessService {
             rspForNextPage.documents = new HashMap<>();
             // use resultLimit=1 as even one found result means there has to be a next page
             after = processQueryResults(qs, options, 1, s, rspForNextPage, hits,
-                    queryStartTimeMicros, nodeSelectorPath, false);
+                    queryStartTimeMicros, nodeSelectorPath, false, null);
 
             if (rspForNextPage.documentCount > 0) {
                 hasValidNextPageEntry = true;
@@ -2384,7 +2678,8 @@ public class LuceneDocumentIndexService extends StatelessService {
             int resultLimit, IndexSearcher s, ServiceDocumentQueryResult rsp, ScoreDoc[] hits,
             long queryStartTimeMicros,
             String nodeSelectorPath,
-            boolean populateResponse) throws Exception {
+            boolean populateResponse,
+            LuceneQueryAggregator aggregator) throws Exception {
 
         ScoreDoc lastDocVisited = null;
         Set<String> fieldsToLoad = this.fieldsToLoadNoExpand;
@@ -2404,7 +2699,7 @@ public class LuceneDocumentIndexService extends StatelessService {
 
         // Keep duplicates out
         Set<String> uniques = new LinkedHashSet<>(rsp.documentLinks);
-        final boolean hasCountOption = options.contains(QueryOption.COUNT);
+        final boolean hasCountOption = options.contains(QueryOption.COUNT) || aggregator != null;
         boolean hasIncludeAllVersionsOption = options.contains(QueryOption.INCLUDE_ALL_VERSIONS);
         Set<String> linkWhiteList = null;
         long documentsUpdatedBefore = -1;
@@ -2490,6 +2785,19 @@ public class LuceneDocumentIndexService extends StatelessService {
                 }
             }
 
+            if (aggregator != null) {
+                // with OWNER_SELECTION, only aggregate documents owned by this node, so the
+                // results of all nodes can be merged
+                if (options.contains(QueryOption.OWNER_SELECTION)
+                        && !isLocalOwner(nodeSelectorPath, originalLink)) {
+                    continue;
+                }
+                if (uniques.add(link)) {
+                    aggregator.collect(sd.doc);
+                }
+                continue;
+            }
+
             if (hasCountOption || !populateResponse) {
                 // count unique instances of this link
                 uniques.add(link);
@@ -2536,8 +2844,9 @@ public class LuceneDocumentIndexService extends StatelessService {
                 } else if (state == null) {
                     rsp.documents.put(link, Utils.fromJson(json, JsonElement.class));
                 } else {
-                    JsonObject jo = toJsonElement(state);
-                    rsp.documents.put(link, jo);
+                    // the document is serialized straight into the response body, without
+                    // building an intermediate JSON tree
+                    rsp.documents.put(link, state);
                 }
             } else if (options.contains(QueryOption.EXPAND_SELECTED_FIELDS) && !rsp.documents.containsKey(link)) {
                 // filter out only the selected fields
@@ -2602,6 +2911,10 @@ public class LuceneDocumentIndexService extends StatelessService {
         } else {
             documentSelfLink = state.documentSelfLink;
         }
+        return isLocalOwner(nodeSelectorPath, documentSelfLink);
+    }
+
+    private boolean isLocalOwner(String nodeSelectorPath, String documentSelfLink) {
         // when node-selector is not specified via query, use the one for index-service which may be null
         if (nodeSelectorPath == null) {
             nodeSelectorPath = getPeerNodeSelectorPath();
@@ -2708,20 +3021,21 @@ public class LuceneDocumentIndexService extends StatelessService {
             adjustStat(STAT_NAME_VERSION_CACHE_LOOKUP_COUNT, 1);
         }
 
-        synchronized (this.searchSync) {
-            DocumentUpdateInfo dui = this.updatesPerLink.get(link);
-            if (documentsUpdatedBeforeInMicros == -1 && dui != null && dui.updateTimeMicros <= searcherUpdateTime) {
-                return Math.max(version, dui.version);
-            }
+        DocumentVersionCache.Entry dui = this.versionCache.get(link);
+        if (documentsUpdatedBeforeInMicros == -1 && dui != null && dui.updateTimeMicros <= searcherUpdateTime) {
+            this.versionCache.recordLookup(true);
+            return Math.max(version, dui.version);
+        }
 
-            if (!this.immutableParentLinks.isEmpty()) {
-                String parentLink = UriUtils.getParentPath(link);
-                if (this.immutableParentLinks.containsKey(parentLink)) {
-                    // all immutable services have just a single, zero, version
-                    return 0;
-                }
+        if (!this.immutableParentLinks.isEmpty()) {
+            String parentLink = UriUtils.getParentPath(link);
+            if (this.immutableParentLinks.containsKey(parentLink)) {
+                // all immutable services have just a single, zero, version
+                this.versionCache.recordLookup(true);
+                return 0;
             }
         }
+        this.versionCache.recordLookup(false);
 
         if (hasOption(ServiceOption.INSTRUMENTATION)) {
             adjustStat(STAT_NAME_VERSION_CACHE_MISS_COUNT, 1);
@@ -2807,48 +3121,166 @@ public class LuceneDocumentIndexService extends StatelessService {
     }
 
     protected void updateIndex(Operation updateOp) throws Exception {
+        LuceneIndexDocumentHelper indexDocHelper = this.indexDocumentHelper.get();
+        Document threadLocalDoc = indexDocHelper.getDoc();
+        try {
+            UpdateIndexRequest r = prepareIndexDocument(updateOp, indexDocHelper);
+            if (r == null) {
+                return;
+            }
+            addDocumentToIndex(this.writer, updateOp, threadLocalDoc, r.document, r.description);
+        } finally {
+            // NOTE: The Document is a thread local managed by the index document helper. Its fields
+            // must be cleared *after* its added to the index (above) and *before* its re-used.
+            // After the fields are cleared, the document can not be used in this scope
+            threadLocalDoc.clear();
+        }
+    }
+
+    /**
+     * Applies a batch of index update requests with a single {@link IndexWriter#addDocuments}
+     * call, then completes all operations. The caller must hold a writer permit. The supplied
+     * list is cleared before returning
+     */
+    private void applyUpdateBatch(List<Operation> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        long startNanos = System.nanoTime();
+        LuceneIndexDocumentHelper[] helpers = getBatchIndexDocumentHelpers(batch.size());
+        List<Document> docs = new ArrayList<>(batch.size());
+        List<Operation> indexedOps = new ArrayList<>(batch.size());
+        List<UpdateIndexRequest> requests = new ArrayList<>(batch.size());
+        try {
+            for (Operation op : batch) {
+                OperationContext.setFrom(op);
+                LuceneIndexDocumentHelper helper = helpers[docs.size()];
+                try {
+                    UpdateIndexRequest r = prepareIndexDocument(op, helper);
+                    if (r == null) {
+                        helper.getDoc().clear();
+                        continue;
+                    }
+                    docs.add(helper.getDoc());
+                    indexedOps.add(op);
+                    requests.add(r);
+                } catch (Exception e) {
+                    helper.getDoc().clear();
+                    checkFailureAndRecover(e);
+                    op.fail(e);
+                }
+            }
+
+            if (docs.isEmpty()) {
+                return;
+            }
+
+            try {
+                IndexWriter wr = this.writer;
+                if (wr == null) {
+                    throw new CancellationException("Index writer is null");
+                }
+                wr.addDocuments(docs);
+            } catch (Exception e) {
+                checkFailureAndRecover(e);
+                for (Operation op : indexedOps) {
+                    op.fail(e);
+                }
+                return;
+            }
+
+            if (hasOption(ServiceOption.INSTRUMENTATION)) {
+                long durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+                setTimeSeriesStat(STAT_NAME_INDEXED_DOCUMENT_COUNT, AGGREGATION_TYPE_SUM, docs.size());
+                setTimeSeriesHistogramStat(STAT_NAME_INDEXING_DURATION_MICROS, AGGREGATION_TYPE_AVG_MAX,
+                        (double) durationMicros / docs.size());
+                setTimeSeriesHistogramStat(STAT_NAME_UPDATE_BATCH_SIZE, AGGREGATION_TYPE_AVG_MAX,
+                        docs.size());
+                setTimeSeriesHistogramStat(STAT_NAME_UPDATE_BATCH_DURATION_MICROS,
+                        AGGREGATION_TYPE_AVG_MAX, durationMicros);
+            }
+
+            // Use time AFTER index was updated, see addDocumentToIndex
+            long updateTime = Utils.getNowMicrosUtc();
+            for (int i = 0; i < indexedOps.size(); i++) {
+                Operation op = indexedOps.get(i);
+                UpdateIndexRequest r = requests.get(i);
+                OperationContext.setFrom(op);
+                try {
+                    completeDocumentIndexing(op, r.document, r.description, updateTime);
+                } catch (Exception e) {
+                    checkFailureAndRecover(e);
+                    op.fail(e);
+                }
+            }
+        } finally {
+            for (Document doc : docs) {
+                doc.clear();
+            }
+            batch.clear();
+        }
+    }
+
+    private LuceneIndexDocumentHelper[] getBatchIndexDocumentHelpers(int count) {
+        LuceneIndexDocumentHelper[] helpers = this.batchIndexDocumentHelpers.get();
+        if (helpers.length >= count) {
+            return helpers;
+        }
+        LuceneIndexDocumentHelper[] newHelpers = Arrays.copyOf(helpers, count);
+        for (int i = helpers.length; i < count; i++) {
+            newHelpers[i] = new LuceneIndexDocumentHelper();
+        }
+        this.batchIndexDocumentHelpers.set(newHelpers);
+        return newHelpers;
+    }
+
+    /**
+     * Validates the update request and populates the document of the supplied helper with the
+     * indexable fields. Returns null if the operation was failed
+     */
+    private UpdateIndexRequest prepareIndexDocument(Operation updateOp,
+            LuceneIndexDocumentHelper indexDocHelper) {
         UpdateIndexRequest r = updateOp.getBody(UpdateIndexRequest.class);
         ServiceDocument s = r.document;
         ServiceDocumentDescription desc = r.description;
 
         if (updateOp.isRemote()) {
             updateOp.fail(new IllegalStateException("Remote requests not allowed"));
-            return;
+            return null;
         }
 
         if (s == null) {
             updateOp.fail(new IllegalArgumentException("document is required"));
-            return;
+            return null;
         }
 
         String link = s.documentSelfLink;
         if (link == null) {
             updateOp.fail(new IllegalArgumentException(
                     "documentSelfLink is required"));
-            return;
+            return null;
         }
 
         if (s.documentUpdateAction == null) {
             updateOp.fail(new IllegalArgumentException(
                     String.format("documentUpdateAction is required (document: %s)",
                             Utils.toJsonHtml(s))));
-            return;
+            return null;
         }
 
         if (desc == null) {
             updateOp.fail(new IllegalArgumentException("description is required"));
-            return;
+            return null;
         }
 
         IndexWriter wr = this.writer;
         if (wr == null) {
             updateOp.fail(new CancellationException("Index writer is null"));
-            return;
+            return null;
         }
         s.documentDescription = null;
 
-        LuceneIndexDocumentHelper indexDocHelper = this.indexDocumentHelper.get();
-
         indexDocHelper.addSelfLinkField(link);
         if (s.documentKind != null) {
             indexDocHelper.addKindField(s.documentKind);
@@ -2872,32 +3304,22 @@ public class LuceneDocumentIndexService extends StatelessService {
             indexDocHelper.addTombstoneTimeField();
         }
 
-        Document threadLocalDoc = indexDocHelper.getDoc();
-        try {
-            if (desc.propertyDescriptions == null
-                    || desc.propertyDescriptions.isEmpty()) {
-                // no additional property type information, so we will add the
-                // document with common fields indexed plus the full body
-                addDocumentToIndex(wr, updateOp, threadLocalDoc, s, desc);
-                return;
-            }
-
-            indexDocHelper.addIndexableFieldsToDocument(s, desc);
+        if (desc.propertyDescriptions == null
+                || desc.propertyDescriptions.isEmpty()) {
+            // no additional property type information, so we will add the
+            // document with common fields indexed plus the full body
+            return r;
+        }
 
-            if (hasOption(ServiceOption.INSTRUMENTATION)) {
-                int fieldCount = indexDocHelper.getDoc().getFields().size();
-                setTimeSeriesStat(STAT_NAME_INDEXED_FIELD_COUNT, AGGREGATION_TYPE_SUM, fieldCount);
-                ServiceStat st = ServiceStatUtils.getOrCreateHistogramStat(this, STAT_NAME_FIELD_COUNT_PER_DOCUMENT);
-                setStat(st, fieldCount);
-            }
+        indexDocHelper.addIndexableFieldsToDocument(s, desc);
 
-            addDocumentToIndex(wr, updateOp, threadLocalDoc, s, desc);
-        } finally {
-            // NOTE: The Document is a thread local managed by the index document helper. Its fields
-            // must be cleared *after* its added to the index (above) and *before* its re-used.
-            // After the fields are cleared, the document can not be used in this scope
-            threadLocalDoc.clear();
+        if (hasOption(ServiceOption.INSTRUMENTATION)) {
+            int fieldCount = indexDocHelper.getDoc().getFields().size();
+            setTimeSeriesStat(STAT_NAME_INDEXED_FIELD_COUNT, AGGREGATION_TYPE_SUM, fieldCount);
+            ServiceStat st = ServiceStatUtils.getOrCreateHistogramStat(this, STAT_NAME_FIELD_COUNT_PER_DOCUMENT);
+            setStat(st, fieldCount);
         }
+        return r;
     }
 
     private void checkDocumentRetentionLimit(ServiceDocument state, ServiceDocumentDescription desc)
@@ -2978,7 +3400,7 @@ public class LuceneDocumentIndexService extends StatelessService {
         wr.deleteDocuments(new Term(ServiceDocument.FIELD_NAME_SELF_LINK, sd.documentSelfLink));
         synchronized (this.searchSync) {
             // Clean previous cached entry
-            this.updatesPerLink.remove(sd.documentSelfLink);
+            this.versionCache.remove(sd.documentSelfLink);
             long now = Utils.getNowMicrosUtc();
             this.writerUpdateTimeMicros = now;
             this.serviceRemovalDetectedTimeMicros = now;
@@ -2995,7 +3417,7 @@ public class LuceneDocumentIndexService extends StatelessService {
                 link, state != null ? state.documentKind : null, 0, Long.MAX_VALUE);
         synchronized (this.searchSync) {
             // Remove previous cached entry
-            this.updatesPerLink.remove(link);
+            this.versionCache.remove(link);
             long now = Utils.getNowMicrosUtc();
             this.writerUpdateTimeMicros = now;
             this.serviceRemovalDetectedTimeMicros = now;
@@ -3100,7 +3522,11 @@ public class LuceneDocumentIndexService extends StatelessService {
         // be reflected in the new searcher. If the start time would be used,
         // it is possible to race with updating the searcher and NOT have this
         // change be reflected in the searcher.
-        long updateTime = Utils.getNowMicrosUtc();
+        completeDocumentIndexing(op, sd, desc, Utils.getNowMicrosUtc());
+    }
+
+    private void completeDocumentIndexing(Operation op, ServiceDocument sd,
+            ServiceDocumentDescription desc, long updateTime) throws IOException {
         updateLinkInfoCache(desc, sd.documentSelfLink, sd.documentKind, sd.documentVersion,
                 updateTime);
         op.setBody(null).complete();
@@ -3158,16 +3584,7 @@ public class LuceneDocumentIndexService extends StatelessService {
                     return time;
                 });
             } else {
-                this.updatesPerLink.compute(link, (k, entry) -> {
-                    if (entry == null) {
-                        entry = new DocumentUpdateInfo();
-                    }
-                    if (version >= entry.version) {
-                        entry.updateTimeMicros = Math.max(entry.updateTimeMicros, lastAccessTime);
-                        entry.version = version;
-                    }
-                    return entry;
-                });
+                this.versionCache.update(link, version, lastAccessTime);
             }
 
             if (kind != null) {
@@ -3191,12 +3608,7 @@ public class LuceneDocumentIndexService extends StatelessService {
             Collection<MetadataUpdateInfo> entries) {
         synchronized (this.searchSync) {
             for (MetadataUpdateInfo info : entries) {
-                this.updatesPerLink.compute(info.selfLink, (k, entry) -> {
-                    if (entry != null) {
-                        entry.updateTimeMicros = Math.max(entry.updateTimeMicros, updateTimeMicros);
-                    }
-                    return entry;
-                });
+                this.versionCache.touch(info.selfLink, updateTimeMicros);
 
                 this.documentKindUpdateInfo.compute(info.kind, (k, entry) -> {
                     entry = Math.max(entry, updateTimeMicros);
@@ -3283,7 +3695,7 @@ public class LuceneDocumentIndexService extends StatelessService {
     private boolean documentNeedsNewSearcher(String selfLink, Set<String> kindScope,
             int resultLimit, long searcherUpdateTime, boolean doNotRefresh) {
         if (selfLink != null && resultLimit == 1) {
-            DocumentUpdateInfo du = this.updatesPerLink.get(selfLink);
+            DocumentVersionCache.Entry du = this.versionCache.get(selfLink);
 
             // ODL services may be created and removed due to memory pressure while searcher was not updated.
             // Then, retrieval of those services will fail because searcher doesn't know the creation yet.
@@ -3807,41 +4219,28 @@ public class LuceneDocumentIndexService extends StatelessService {
     }
 
     void applyMemoryLimitToDocumentUpdateInfo() {
-        long memThresholdBytes = this.updateMapMemoryLimit;
-        final int bytesPerLinkEstimate = 64;
-        int count = 0;
-
         if (hasOption(ServiceOption.INSTRUMENTATION)) {
-            setStat(STAT_NAME_VERSION_CACHE_ENTRY_COUNT, this.updatesPerLink.size());
-        }
-        // Note: this code will be updated in the future. It currently calls a host
-        // method, inside a lock, which is always a bad idea. The getServiceStage()
-        // method is lock free, but its still brittle.
-        synchronized (this.searchSync) {
-            if (this.updatesPerLink.isEmpty()) {
-                return;
-            }
-            if (memThresholdBytes > this.updatesPerLink.size() * bytesPerLinkEstimate) {
-                return;
-            }
-            Iterator<Entry<String, DocumentUpdateInfo>> li = this.updatesPerLink.entrySet()
-                    .iterator();
-            while (li.hasNext()) {
-                Entry<String, DocumentUpdateInfo> e = li.next();
-                // remove entries for services no longer attached / started on host
-                if (getHost().getServiceStage(e.getKey()) == null) {
-                    count++;
-                    li.remove();
-                }
-            }
-            // update index time to force searcher update, per thread
-            this.writerUpdateTimeMicros = Utils.getNowMicrosUtc();
+            setStat(STAT_NAME_VERSION_CACHE_ENTRY_COUNT, this.versionCache.size());
+            setStat(STAT_NAME_VERSION_CACHE_HIT_RATIO, this.versionCache.getHitRatio());
+            setStat(STAT_NAME_VERSION_CACHE_MEMORY_BYTES, this.versionCache.getEstimatedBytes());
+            setStat(STAT_NAME_VERSION_CACHE_CONTENDED_MICROS,
+                    this.versionCache.getContendedMicros());
         }
 
+        // entries for services no longer attached / started on host are evicted first,
+        // then whole cache segments, until the cache is within its memory budget
+        int count = this.versionCache.applyMemoryLimit(this.updateMapMemoryLimit,
+                link -> getHost().getServiceStage(link) == null);
         if (count == 0) {
             return;
         }
-        this.serviceRemovalDetectedTimeMicros = Utils.getNowMicrosUtc();
+
+        // update index time to force searcher update, per thread
+        long now = Utils.getNowMicrosUtc();
+        synchronized (this.searchSync) {
+            this.writerUpdateTimeMicros = now;
+            this.serviceRemovalDetectedTimeMicros = now;
+        }
 
         logInfo("Cleared %d document update entries", count);
     }
@@ -3927,53 +4326,70 @@ public class LuceneDocumentIndexService extends StatelessService {
         // same context as the operation that updated the index
         OperationContext.setFrom(op);
 
-        // TODO Optimize. We currently traverse each query independently. We can collapse the queries
-        // and evaluate clauses keeping track which clauses applied, then skip any queries accordingly.
-
-        for (Entry<String, QueryTask> taskEntry : this.activeQueries.entrySet()) {
-            if (getHost().isStopping()) {
-                continue;
+        // Only evaluate the queries that can match the document kind or self link, as
+        // determined by the active query index
+        ServiceDocument state = latestState;
+        int[] matchCount = new int[1];
+        int candidateCount = this.activeQueryIndex.forEachCandidate(state, (activeTask) -> {
+            if (applyActiveQuery(activeTask, state, desc)) {
+                matchCount[0]++;
             }
+        });
 
-            QueryTask activeTask = taskEntry.getValue();
-            QueryFilter filter = activeTask.querySpec.context.filter;
-            boolean notify = false;
-            if (activeTask.querySpec.options.contains(QueryOption.CONTINUOUS)) {
-                notify = evaluateQuery(desc, filter, latestState);
-            }
-            if (!notify && activeTask.querySpec.options.contains(QueryOption.CONTINUOUS_STOP_MATCH)) {
-                notify = evaluateQuery(desc, filter, getPreviousStateForDoc(activeTask, latestState));
-            }
-            if (!notify) {
-                continue;
-            }
+        adjustTimeSeriesStat(STAT_NAME_ACTIVE_QUERY_CANDIDATE_COUNT, AGGREGATION_TYPE_SUM,
+                candidateCount);
+        adjustTimeSeriesStat(STAT_NAME_ACTIVE_QUERY_MATCH_COUNT, AGGREGATION_TYPE_SUM,
+                matchCount[0]);
+    }
+
+    /**
+     * Evaluates the active query task filter and sends a notification to the task if the
+     * document matches. Returns true if a notification was sent
+     */
+    private boolean applyActiveQuery(QueryTask activeTask, ServiceDocument latestState,
+            ServiceDocumentDescription desc) {
+        if (getHost().isStopping()) {
+            return false;
+        }
 
-            QueryTask patchBody = new QueryTask();
-            patchBody.taskInfo.stage = TaskStage.STARTED;
-            patchBody.querySpec = null;
-            patchBody.results = new ServiceDocumentQueryResult();
-            patchBody.results.documentLinks.add(latestState.documentSelfLink);
-            if (activeTask.querySpec.options.contains(QueryOption.EXPAND_CONTENT) ||
-                    activeTask.querySpec.options.contains(QueryOption.COUNT)) {
-                patchBody.results.documents = new HashMap<>();
-                patchBody.results.documents.put(latestState.documentSelfLink, latestState);
-            }
-
-            // Send PATCH to continuous query task with document that passed the query filter.
-            // Any subscribers will get notified with the body containing just this document
-            Operation patchOperation = Operation.createPatch(this, activeTask.documentSelfLink)
-                    .setBodyNoCloning(
-                            patchBody);
-            // Set the authorization context to the user who created the continous query.
-            OperationContext currentContext = OperationContext.getOperationContext();
-            if (activeTask.querySpec.context.subjectLink != null) {
-                setAuthorizationContext(patchOperation,
-                        getAuthorizationContextForSubject(
-                                activeTask.querySpec.context.subjectLink));
-            }
-            sendRequest(patchOperation);
-            OperationContext.restoreOperationContext(currentContext);
+        QueryFilter filter = activeTask.querySpec.context.filter;
+        boolean notify = false;
+        if (activeTask.querySpec.options.contains(QueryOption.CONTINUOUS)) {
+            notify = evaluateQuery(desc, filter, latestState);
+        }
+        if (!notify && activeTask.querySpec.options.contains(QueryOption.CONTINUOUS_STOP_MATCH)) {
+            notify = evaluateQuery(desc, filter, getPreviousStateForDoc(activeTask, latestState));
         }
+        if (!notify) {
+            return false;
+        }
+
+        QueryTask patchBody = new QueryTask();
+        patchBody.taskInfo.stage = TaskStage.STARTED;
+        patchBody.querySpec = null;
+        patchBody.results = new ServiceDocumentQueryResult();
+        patchBody.results.documentLinks.add(latestState.documentSelfLink);
+        if (activeTask.querySpec.options.contains(QueryOption.EXPAND_CONTENT) ||
+                activeTask.querySpec.options.contains(QueryOption.COUNT)) {
+            patchBody.results.documents = new HashMap<>();
+            patchBody.results.documents.put(latestState.documentSelfLink, latestState);
+        }
+
+        // Send PATCH to continuous query task with document that passed the query filter.
+        // Any subscribers will get notified with the body containing just this document
+        Operation patchOperation = Operation.createPatch(this, activeTask.documentSelfLink)
+                .setBodyNoCloning(
+                        patchBody);
+        // Set the authorization context to the user who created the continous query.
+        OperationContext currentContext = OperationContext.getOperationContext();
+        if (activeTask.querySpec.context.subjectLink != null) {
+            setAuthorizationContext(patchOperation,
+                    getAuthorizationContextForSubject(
+                            activeTask.querySpec.context.subjectLink));
+        }
+        sendRequest(patchOperation);
+        OperationContext.restoreOperationContext(currentContext);
+        return true;
     }
 
     private boolean evaluateQuery(ServiceDocumentDescription desc, QueryFilter filter, ServiceDocument serviceState) {
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2014-2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.services.common;
+
+import static com.vmware.xenon.services.common.LuceneIndexDocumentHelper.GROUP_BY_PROPERTY_NAME_SUFFIX;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.util.NumericUtils;
+
+import com.vmware.xenon.common.ServiceDocumentDescription.TypeName;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.ServiceDocumentQueryResult.AggregationResult;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+
+/**
+ * Computes {@link QueryOption#AGGREGATE} results from the numeric doc values of the documents
+ * that satisfy a query. Documents are collected while the query results are processed, then
+ * their doc values are read in index order, per segment.
+ */
+final class LuceneQueryAggregator {
+
+    private final QuerySpecification qs;
+    private final String groupByFieldName;
+    private int[] docIds = new int[64];
+    private int docCount;
+
+    LuceneQueryAggregator(QuerySpecification qs) {
+        this.qs = qs;
+        if (!qs.options.contains(QueryOption.GROUP_BY)) {
+            this.groupByFieldName = null;
+        } else if (qs.groupByTerm.propertyType == TypeName.LONG
+                || qs.groupByTerm.propertyType == TypeName.DOUBLE) {
+            this.groupByFieldName = qs.groupByTerm.propertyName + GROUP_BY_PROPERTY_NAME_SUFFIX;
+        } else {
+            this.groupByFieldName = LuceneIndexDocumentHelper
+                    .createSortFieldPropertyName(qs.groupByTerm.propertyName);
+        }
+    }
+
+    /**
+     * Adds a document to the aggregation, by its index wide document id
+     */
+    void collect(int docId) {
+        if (this.docCount == this.docIds.length) {
+            this.docIds = Arrays.copyOf(this.docIds, this.docCount * 2);
+        }
+        this.docIds[this.docCount++] = docId;
+    }
+
+    /**
+     * Aggregates the collected documents and sets the aggregations on the response
+     */
+    void aggregate(IndexSearcher s, ServiceDocumentQueryResult rsp) throws IOException {
+        Map<String, AggregationResult> aggregations = createAggregations();
+        Map<String, Map<String, AggregationResult>> aggregationsPerGroup = null;
+        if (this.groupByFieldName != null) {
+            aggregationsPerGroup = new TreeMap<>();
+        }
+
+        Arrays.sort(this.docIds, 0, this.docCount);
+        List<LeafReaderContext> leaves = s.getIndexReader().leaves();
+        int termCount = this.qs.aggregateTerms.size();
+        NumericDocValues[] values = new NumericDocValues[termCount];
+        SortedDocValues groupValues = null;
+        LeafReaderContext leaf = null;
+        int leafIndex = -1;
+
+        for (int i = 0; i < this.docCount; i++) {
+            int docId = this.docIds[i];
+            if (leaf == null || docId >= leaf.docBase + leaf.reader().maxDoc()) {
+                do {
+                    leaf = leaves.get(++leafIndex);
+                } while (docId >= leaf.docBase + leaf.reader().maxDoc());
+                LeafReader reader = leaf.reader();
+                for (int t = 0; t < termCount; t++) {
+                    values[t] = reader.getNumericDocValues(
+                            this.qs.aggregateTerms.get(t).propertyName);
+                }
+                if (this.groupByFieldName != null) {
+                    groupValues = reader.getSortedDocValues(this.groupByFieldName);
+                }
+            }
+
+            int leafDocId = docId - leaf.docBase;
+            Map<String, AggregationResult> target = aggregations;
+            if (aggregationsPerGroup != null) {
+                String groupValue = LuceneDocumentIndexService.DOCUMENTS_WITHOUT_RESULTS;
+                if (groupValues != null && groupValues.advanceExact(leafDocId)) {
+                    groupValue = groupValues.binaryValue().utf8ToString();
+                }
+                target = aggregationsPerGroup.computeIfAbsent(groupValue,
+                        (k) -> createAggregations());
+            }
+
+            for (int t = 0; t < termCount; t++) {
+                NumericDocValues dv = values[t];
+                if (dv == null || !dv.advanceExact(leafDocId)) {
+                    continue;
+                }
+                QueryTask.QueryTerm term = this.qs.aggregateTerms.get(t);
+                long value = dv.longValue();
+                target.get(term.propertyName).add(term.propertyType == TypeName.DOUBLE
+                        ? NumericUtils.sortableLongToDouble(value) : value);
+            }
+        }
+
+        if (aggregationsPerGroup == null) {
+            aggregations.values().forEach(AggregationResult::complete);
+            rsp.aggregations = aggregations;
+            return;
+        }
+
+        for (Map<String, AggregationResult> groupAggregations : aggregationsPerGroup.values()) {
+            groupAggregations.values().forEach(AggregationResult::complete);
+        }
+        rsp.aggregationsPerGroup = aggregationsPerGroup;
+    }
+
+    private Map<String, AggregationResult> createAggregations() {
+        Map<String, AggregationResult> aggregations = new HashMap<>();
+        for (QueryTask.QueryTerm term : this.qs.aggregateTerms) {
+            aggregations.put(term.propertyName, new AggregationResult());
+        }
+        return aggregations;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2014-2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.services.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.vmware.xenon.common.FNVHash;
+import com.vmware.xenon.services.common.NodeGroupService.NodeGroupState;
+
+/**
+ * Immutable consistent hash ring used by {@link ConsistentHashingNodeSelectorService} to map
+ * keys to nodes.
+ *
+ * Each available node is placed on the ring at a configurable number of virtual node
+ * positions, derived from the node id hash. A key is owned by the node of the first virtual
+ * node at or after the key hash, wrapping around at the end of the ring. Additional replicas
+ * are the next distinct nodes, walking the ring clockwise.
+ *
+ * The ring is built once per membership change, so a lookup is a binary search over a sorted
+ * primitive array and does not allocate, other than for the returned collection.
+ */
+final class NodeSelectorHashRing {
+
+    /**
+     * Node group state the ring was built for. Node states are looked up from this instance
+     */
+    final NodeGroupState groupState;
+
+    /**
+     * Sorted virtual node hashes
+     */
+    private final long[] hashes;
+
+    /**
+     * Index into {@link #nodes} of the node owning the virtual node at the same position
+     * in {@link #hashes}
+     */
+    private final int[] owners;
+
+    /**
+     * Available nodes, sorted by id
+     */
+    private final NodeState[] nodes;
+
+    private NodeSelectorHashRing(NodeGroupState groupState, long[] hashes, int[] owners,
+            NodeState[] nodes) {
+        this.groupState = groupState;
+        this.hashes = hashes;
+        this.owners = owners;
+        this.nodes = nodes;
+    }
+
+    /**
+     * Builds a ring for the available nodes in the group state, with the given number of
+     * virtual nodes per node
+     */
+    static NodeSelectorHashRing create(NodeGroupState groupState, int virtualNodeCount) {
+        List<NodeState> available = new ArrayList<>(groupState.nodes.size());
+        for (NodeState m : groupState.nodes.values()) {
+            if (!NodeState.isUnAvailable(m)) {
+                available.add(m);
+            }
+        }
+        // sort by id so the ring, including the resolution of hash collisions, is the same
+        // on every node in the group
+        available.sort((a, b) -> a.id.compareTo(b.id));
+        NodeState[] nodes = available.toArray(new NodeState[available.size()]);
+
+        int count = nodes.length * virtualNodeCount;
+        long[] points = new long[count];
+        int[] pointOwners = new int[count];
+        Integer[] order = new Integer[count];
+        int p = 0;
+        for (int n = 0; n < nodes.length; n++) {
+            long nodeHash = nodes[n].getNodeIdHash();
+            for (int v = 0; v < virtualNodeCount; v++) {
+                points[p] = v == 0 ? nodeHash : FNVHash.compute(v, nodeHash);
+                pointOwners[p] = n;
+                order[p] = p;
+                p++;
+            }
+        }
+
+        // colliding virtual nodes are ordered by node id, see above
+        Arrays.sort(order, (a, b) -> {
+            int c = Long.compare(points[a], points[b]);
+            return c != 0 ? c : Integer.compare(pointOwners[a], pointOwners[b]);
+        });
+
+        long[] hashes = new long[count];
+        int[] owners = new int[count];
+        for (int i = 0; i < count; i++) {
+            int index = order[i];
+            hashes[i] = points[index];
+            owners[i] = pointOwners[index];
+        }
+        return new NodeSelectorHashRing(groupState, hashes, owners, nodes);
+    }
+
+    /**
+     * Returns a ring with the same node placement, bound to a new group state with the same
+     * available node ids, or null if the available nodes differ
+     */
+    NodeSelectorHashRing rebind(NodeGroupState newGroupState) {
+        int availableCount = 0;
+        for (NodeState m : newGroupState.nodes.values()) {
+            if (NodeState.isUnAvailable(m)) {
+                continue;
+            }
+            availableCount++;
+        }
+        if (availableCount != this.nodes.length) {
+            return null;
+        }
+
+        NodeState[] newNodes = new NodeState[this.nodes.length];
+        for (int i = 0; i < this.nodes.length; i++) {
+            NodeState m = newGroupState.nodes.get(this.nodes[i].id);
+            if (m == null || NodeState.isUnAvailable(m)) {
+                return null;
+            }
+            newNodes[i] = m;
+        }
+        return new NodeSelectorHashRing(newGroupState, this.hashes, this.owners, newNodes);
+    }
+
+    int getAvailableNodeCount() {
+        return this.nodes.length;
+    }
+
+    /**
+     * Returns up to count distinct nodes for the key hash, the owner first
+     */
+    Collection<NodeState> select(long keyHash, int count) {
+        if (this.nodes.length == 0) {
+            return Collections.emptyList();
+        }
+
+        int start = Arrays.binarySearch(this.hashes, keyHash);
+        if (start < 0) {
+            start = -start - 1;
+        }
+        if (start == this.hashes.length) {
+            start = 0;
+        }
+
+        NodeState owner = this.nodes[this.owners[start]];
+        if (count <= 1 || this.nodes.length == 1) {
+            return Collections.singletonList(owner);
+        }
+
+        count = Math.min(count, this.nodes.length);
+        List<NodeState> selected = new ArrayList<>(count);
+        selected.add(owner);
+        BitSet isSelected = new BitSet(this.nodes.length);
+        isSelected.set(this.owners[start]);
+        for (int i = 1; i < this.hashes.length && selected.size() < count; i++) {
+            int n = this.owners[(start + i) % this.hashes.length];
+            if (!isSelected.get(n)) {
+                isSelected.set(n);
+                selected.add(this.nodes[n]);
+            }
+        }
+        return selected;
+    }
+}
@@ -19,6 +19,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.vmware.xenon.common.EncodedBodyCache;
 import com.vmware.xenon.common.NodeSelectorService;
 import com.vmware.xenon.common.NodeSelectorService.SelectAndForwardRequest;
 import com.vmware.xenon.common.NodeSelectorService.SelectOwnerResponse;
@@ -190,6 +191,8 @@ public class NodeSelectorReplicationService extends StatelessService {
         Operation update = createReplicationRequest(context.parentOp, null);
         update.setAuthorizationContext(getSystemAuthorizationContext());
         update.setCompletion((o, e) -> handleReplicationCompletion(context, o, e));
+        // every peer is sent the same body, encode it once
+        update.setEncodedBodyCache(new EncodedBodyCache(this.parent));
 
         // trigger completion once, for self node, since its part of our accounting
         handleReplicationCompletion(context, null, null);
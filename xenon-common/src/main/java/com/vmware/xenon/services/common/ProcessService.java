@@ -165,8 +165,11 @@ public class ProcessService extends StatefulService {
 
     @Override
     public void handleStop(Operation op) {
-        this.stopProcess();
-        op.complete();
+        // waiting for the process to exit blocks, keep it off the service handler threads
+        getHost().run(getHost().getBlockingExecutor(), () -> {
+            this.stopProcess();
+            op.complete();
+        });
     }
 
     @Override
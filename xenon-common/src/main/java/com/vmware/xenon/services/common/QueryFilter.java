@@ -19,12 +19,16 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.regex.Pattern;
 
 import com.vmware.xenon.common.ReflectionUtils;
@@ -46,6 +50,12 @@ import com.vmware.xenon.services.common.QueryTask.QueryTerm.MatchType;
  * disjunctive normal form. In the second pass, this DNF is converted into a
  * tree of evaluators that can be called to determine whether or not
  * any of the queries applies to the given document.
+ *
+ * Terms are compiled when the filter is created: wildcard terms that only test a prefix or a
+ * suffix are matched without regular expressions, and built-in string properties, like
+ * {@link ServiceDocument#documentKind} and {@link ServiceDocument#documentSelfLink}, are read
+ * directly from the document instead of through its description. Filters where every conjunction
+ * requires a kind reject documents of other kinds before any term is evaluated.
  */
 public class QueryFilter {
     public static class QueryFilterException extends Exception {
@@ -86,22 +96,128 @@ public class QueryFilter {
      */
     public static final QueryFilter FALSE = new QueryFilter(StaticEvaluator.FALSE);
 
+    /**
+     * Readers of the built-in string properties of {@link ServiceDocument}, by property name
+     */
+    private static final Map<String, Function<ServiceDocument, String>> BUILT_IN_ACCESSORS =
+            new HashMap<>();
+
+    static {
+        BUILT_IN_ACCESSORS.put(ServiceDocument.FIELD_NAME_SELF_LINK, (d) -> d.documentSelfLink);
+        BUILT_IN_ACCESSORS.put(ServiceDocument.FIELD_NAME_KIND, (d) -> d.documentKind);
+        BUILT_IN_ACCESSORS.put(ServiceDocument.FIELD_NAME_OWNER, (d) -> d.documentOwner);
+        BUILT_IN_ACCESSORS.put(ServiceDocument.FIELD_NAME_SOURCE_LINK,
+                (d) -> d.documentSourceLink);
+        BUILT_IN_ACCESSORS.put(ServiceDocument.FIELD_NAME_AUTH_PRINCIPAL_LINK,
+                (d) -> d.documentAuthPrincipalLink);
+        BUILT_IN_ACCESSORS.put(ServiceDocument.FIELD_NAME_TRANSACTION_ID,
+                (d) -> d.documentTransactionId);
+    }
+
     private final Evaluator evaluator;
 
+    /**
+     * The query in disjunctive normal form. Evaluator creation marks terms as skipped in
+     * the conjunctions but does not remove them, so the full term arrays remain available.
+     */
+    private final List<Conjunction> dnf;
+
+    /**
+     * Kinds a document must have to match the filter, or null if any kind can match
+     */
+    private final Set<String> requiredKinds;
+
+    private final boolean isDescriptionRequired;
+
     public static QueryFilter create(Query q) throws QueryFilterException {
         List<Conjunction> dnf = createDisjunctiveNormalForm(q);
+        // evaluator creation mutates the list, so keep a copy
+        List<Conjunction> conjunctions = new ArrayList<>(dnf);
         Evaluator ev = DisjunctionEvaluator.create(dnf);
-        return new QueryFilter(ev);
+        return new QueryFilter(ev, conjunctions);
     }
 
     private QueryFilter(Evaluator evaluator) {
+        this(evaluator, null);
+    }
+
+    private QueryFilter(Evaluator evaluator, List<Conjunction> dnf) {
         this.evaluator = evaluator;
+        this.dnf = dnf;
+        this.requiredKinds = getRequiredTermValues(ServiceDocument.FIELD_NAME_KIND);
+
+        boolean isDescriptionRequired = false;
+        if (dnf != null) {
+            for (Conjunction conjunction : dnf) {
+                for (Term term : conjunction.terms) {
+                    isDescriptionRequired |= term.builtInAccessor == null;
+                }
+            }
+        }
+        this.isDescriptionRequired = isDescriptionRequired;
     }
 
+    /**
+     * Evaluates the filter against the document. The description can be null if
+     * {@link #isDescriptionRequired()} returns {@code false}.
+     */
     public boolean evaluate(ServiceDocument document, ServiceDocumentDescription description) {
+        if (!matchesKind(document.documentKind)) {
+            return false;
+        }
         return this.evaluator.evaluate(document, description);
     }
 
+    /**
+     * Returns {@code false} if no document of the specified kind can match the filter.
+     */
+    public boolean matchesKind(String documentKind) {
+        return this.requiredKinds == null || this.requiredKinds.contains(documentKind);
+    }
+
+    /**
+     * Returns whether evaluation needs the document description. Filters that only constrain
+     * built-in string properties, like {@link ServiceDocument#documentKind} and
+     * {@link ServiceDocument#documentSelfLink}, are evaluated without it.
+     */
+    public boolean isDescriptionRequired() {
+        return this.isDescriptionRequired;
+    }
+
+    /**
+     * Returns the set of values the specified top level property is required to match exactly,
+     * for this filter to evaluate to {@code true}. A document whose property value is not in
+     * the returned set can not match the filter.
+     *
+     * Returns {@code null} if there is at least one conjunction that does not constrain the
+     * property with a non negated {@link MatchType#TERM} match, in which case no such set exists.
+     *
+     * @param propertyName top level property name
+     * @return set of values or {@code null}
+     */
+    public Set<String> getRequiredTermValues(String propertyName) {
+        if (this.dnf == null) {
+            return null;
+        }
+
+        Set<String> values = new HashSet<>();
+        for (Conjunction conjunction : this.dnf) {
+            String value = null;
+            for (Term term : conjunction.terms) {
+                if (isTermEligibleForDispatch(term) && term.term.propertyName.equals(propertyName)
+                        && term.term.matchValue != null) {
+                    value = term.term.matchValue;
+                    break;
+                }
+            }
+            if (value == null) {
+                return null;
+            }
+            values.add(value);
+        }
+        return values;
+    }
+
     /**
      * Term represents a single term in a {@link Conjunction}.
      *
@@ -112,7 +228,17 @@ public class QueryFilter {
     static class Term {
         final QueryTerm term;
         final boolean negate;
-        final Pattern pattern;
+
+        /**
+         * Matches string values, and string collection elements, against the term
+         */
+        final Predicate<String> matcher;
+
+        /**
+         * Reads the property from the document, if it is a built-in string property, otherwise
+         * null
+         */
+        final Function<ServiceDocument, String> builtInAccessor;
 
         final List<String> propertyParts;
 
@@ -120,13 +246,17 @@ public class QueryFilter {
             this.term = term;
             this.negate = negate;
 
+            String matchValue = term.matchValue;
             if (term.matchType == MatchType.WILDCARD) {
-                String regex = wildcardToRegex(term.matchValue);
-                this.pattern = Pattern.compile(regex);
+                this.matcher = compileWildcard(matchValue);
+            } else if (term.matchType == MatchType.PREFIX) {
+                this.matcher = (o) -> o != null && o.startsWith(matchValue);
             } else {
-                this.pattern = null;
+                this.matcher = (o) -> Objects.equals(o, matchValue);
             }
 
+            this.builtInAccessor = BUILT_IN_ACCESSORS.get(term.propertyName);
+
             // Build collection of parts the propertyName is made up of.
             // Cheaper to build once than to build at run time.
             List<String> tmp = Arrays.asList(this.term.propertyName
@@ -134,6 +264,63 @@ public class QueryFilter {
             this.propertyParts = Collections.unmodifiableList(tmp);
         }
 
+        /**
+         * Compiles a wildcard into a prefix, suffix or equality check when it has a single
+         * leading or trailing '*' and no other wildcard characters, otherwise into a regular
+         * expression. A null value is matched as an empty string.
+         */
+        private static Predicate<String> compileWildcard(String wildcard) {
+            int len = wildcard.length();
+            int starCount = 0;
+            boolean hasOtherWildcards = false;
+            for (int i = 0; i < len; i++) {
+                char c = wildcard.charAt(i);
+                if (c == '*') {
+                    starCount++;
+                } else if (c == '?' || c == '+') {
+                    hasOtherWildcards = true;
+                }
+            }
+
+            if (!hasOtherWildcards && starCount == 0) {
+                return (o) -> wildcard.equals(o == null ? "" : o);
+            }
+
+            if (!hasOtherWildcards && starCount == 1 && wildcard.charAt(len - 1) == '*') {
+                String prefix = wildcard.substring(0, len - 1);
+                return (o) -> {
+                    String value = o == null ? "" : o;
+                    return value.startsWith(prefix)
+                            && !hasLineTerminator(value, prefix.length(), value.length());
+                };
+            }
+
+            if (!hasOtherWildcards && starCount == 1 && wildcard.charAt(0) == '*') {
+                String suffix = wildcard.substring(1);
+                return (o) -> {
+                    String value = o == null ? "" : o;
+                    return value.endsWith(suffix)
+                            && !hasLineTerminator(value, 0, value.length() - suffix.length());
+                };
+            }
+
+            Pattern pattern = Pattern.compile(wildcardToRegex(wildcard));
+            return (o) -> pattern.matcher(o == null ? "" : o).matches();
+        }
+
+        /**
+         * Returns whether the range has a character the regular expression '.' does not match
+         */
+        private static boolean hasLineTerminator(String value, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = value.charAt(i);
+                if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         private static String wildcardToRegex(String wildcard) {
             int len = wildcard.length();
             StringBuilder sb = new StringBuilder(len + 10);
@@ -455,6 +642,13 @@ public class QueryFilter {
         @Override
         public boolean evaluate(ServiceDocument document, ServiceDocumentDescription description) {
             for (Term term : this.terms) {
+                if (term.builtInAccessor != null) {
+                    if (term.matcher.test(term.builtInAccessor.apply(document)) == term.negate) {
+                        return false;
+                    }
+                    continue;
+                }
+
                 String propertyName = term.propertyParts.get(0);
                 PropertyDescription pd = description.propertyDescriptions.get(propertyName);
                 if (pd == null) {
@@ -475,12 +669,7 @@ public class QueryFilter {
         }
 
         private boolean evaluateString(Term term, String o) {
-            if (term.term.matchType == MatchType.WILDCARD) {
-                return term.pattern.matcher(o == null ? "" : o).matches();
-            } else if (term.term.matchType == MatchType.PREFIX) {
-                return o != null && o.startsWith(term.term.matchValue);
-            }
-            return Objects.equals(o, term.term.matchValue);
+            return term.matcher.test(o);
         }
 
         private boolean evaluateNumber(Term term, Number o) {
@@ -688,22 +877,30 @@ public class QueryFilter {
      */
     static class DispatchEvaluator implements Evaluator {
         private final String propertyName;
+        private final Function<ServiceDocument, String> builtInAccessor;
         private final Map<String, Evaluator> table;
 
         private DispatchEvaluator(String propertyName, Map<String, Evaluator> table) {
             this.propertyName = propertyName;
+            this.builtInAccessor = BUILT_IN_ACCESSORS.get(propertyName);
             this.table = table;
         }
 
         @Override
         public boolean evaluate(ServiceDocument document, ServiceDocumentDescription description) {
-            PropertyDescription pd = description.propertyDescriptions.get(this.propertyName);
-            if (pd == null) {
-                return false;
+            String matchAs;
+            if (this.builtInAccessor != null) {
+                matchAs = this.builtInAccessor.apply(document);
+            } else {
+                PropertyDescription pd = description.propertyDescriptions.get(this.propertyName);
+                if (pd == null) {
+                    return false;
+                }
+
+                Object propValue = ReflectionUtils.getPropertyValue(pd, document);
+                matchAs = QuerySpecification.toMatchValue(propValue);
             }
 
-            Object propValue = ReflectionUtils.getPropertyValue(pd, document);
-            String matchAs = QuerySpecification.toMatchValue(propValue);
             if (matchAs == null) {
                 return false;
             }
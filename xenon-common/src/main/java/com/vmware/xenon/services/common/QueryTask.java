@@ -228,6 +228,18 @@ public class QueryTask extends ServiceDocument {
              * for broadcast result({@link BroadcastQueryPageService}.
              */
             FORWARD_ONLY,
+
+            /**
+             * Query results will include aggregates (count, sum, average, min, max and approximate
+             * percentiles) of the numeric properties in {@link QuerySpecification#aggregateTerms},
+             * computed from the index doc values, in {@link ServiceDocumentQueryResult#aggregations}.
+             * Combined with GROUP_BY, the aggregates are computed per group value, in
+             * {@link ServiceDocumentQueryResult#aggregationsPerGroup}. The results will not contain
+             * links or documents. Combined with BROADCAST and OWNER_SELECTION, each node aggregates
+             * the documents it owns and the results are merged. With BROADCAST only, the result of
+             * the node with the most documents is used.
+             */
+            AGGREGATE,
         }
 
         public enum SortOrder {
@@ -279,6 +291,13 @@ public class QueryTask extends ServiceDocument {
          */
         public QueryTerm groupByTerm;
 
+        /**
+         * Numeric properties to aggregate. The property type must be LONG or DOUBLE. Used in
+         * combination with {@code QueryOption#AGGREGATE}
+         */
+        @Since(ReleaseConstants.RELEASE_VERSION_1_7_0)
+        public List<QueryTerm> aggregateTerms;
+
         /**
          * Primary sort order. Used in combination with {@code QueryOption#SORT}
          */
@@ -411,6 +430,7 @@ public class QueryTask extends ServiceDocument {
             clonedSpec.linkTerms = this.linkTerms;
             clonedSpec.selectTerms = this.selectTerms;
             clonedSpec.groupByTerm = this.groupByTerm;
+            clonedSpec.aggregateTerms = this.aggregateTerms;
             clonedSpec.options = EnumSet.copyOf(this.options);
             clonedSpec.query = this.query;
             clonedSpec.resultLimit = this.resultLimit;
@@ -1220,6 +1240,22 @@ public class QueryTask extends ServiceDocument {
             return this;
         }
 
+        /**
+         * Add the given numeric field name to the {@code QuerySpecification#aggregateTerms}.
+         * This method implicitly adds {@link QueryOption#AGGREGATE}
+         */
+        public Builder addAggregateTerm(String fieldName, TypeName fieldType) {
+            QueryTerm aggregateTerm = new QueryTerm();
+            aggregateTerm.propertyName = fieldName;
+            aggregateTerm.propertyType = fieldType;
+            if (this.querySpec.aggregateTerms == null) {
+                this.querySpec.aggregateTerms = new ArrayList<>();
+            }
+            this.querySpec.aggregateTerms.add(aggregateTerm);
+            addOption(QueryOption.AGGREGATE);
+            return this;
+        }
+
         /**
          * Sets the {@code QuerySpecification#groupByTerm}
          */
@@ -186,13 +186,45 @@ public class QueryTaskService extends StatefulService {
                         "querySpec.groupByTerm is required with " + QueryOption.GROUP_BY));
                 return false;
             }
-            if (initState.querySpec.sortTerm == null) {
+            if (initState.querySpec.sortTerm == null
+                    && !initState.querySpec.options.contains(QueryOption.AGGREGATE)) {
                 startPost.fail(new IllegalArgumentException(
                         "querySpec.sortTerm is required with " + QueryOption.GROUP_BY));
                 return false;
             }
         }
 
+        if (initState.querySpec.options.contains(QueryOption.AGGREGATE)) {
+            final String errFmt = QueryOption.AGGREGATE + " is not compatible with %s";
+            for (QueryOption option : EnumSet.of(QueryOption.EXPAND_CONTENT,
+                    QueryOption.EXPAND_BINARY_CONTENT, QueryOption.EXPAND_SELECTED_FIELDS,
+                    QueryOption.SELECT_LINKS, QueryOption.CONTINUOUS,
+                    QueryOption.CONTINUOUS_STOP_MATCH,
+                    QueryOption.READ_AFTER_WRITE_CONSISTENCY)) {
+                if (initState.querySpec.options.contains(option)) {
+                    startPost.fail(new IllegalArgumentException(
+                            String.format(errFmt, option)));
+                    return false;
+                }
+            }
+            if (initState.querySpec.aggregateTerms == null
+                    || initState.querySpec.aggregateTerms.isEmpty()) {
+                startPost.fail(new IllegalArgumentException(
+                        "querySpec.aggregateTerms must have at least one entry"));
+                return false;
+            }
+            for (QueryTask.QueryTerm term : initState.querySpec.aggregateTerms) {
+                if (term.propertyType != ServiceDocumentDescription.TypeName.LONG
+                        && term.propertyType != ServiceDocumentDescription.TypeName.DOUBLE) {
+                    startPost.fail(new IllegalArgumentException(
+                            "querySpec.aggregateTerms property type must be "
+                                    + ServiceDocumentDescription.TypeName.LONG + " or "
+                                    + ServiceDocumentDescription.TypeName.DOUBLE));
+                    return false;
+                }
+            }
+        }
+
         if (initState.querySpec.options.contains(QueryOption.SELECT_LINKS)) {
             final String errFmt = QueryOption.SELECT_LINKS + " is not compatible with %s";
             if (initState.querySpec.options.contains(QueryOption.COUNT)) {
@@ -373,6 +405,15 @@ public class QueryTaskService extends StatefulService {
                     queryResults.stream().map(r -> r.queryTimeMicros).max(Long::compare).orElse(0L);
         }
 
+        if (queryTask.querySpec.options.contains(QueryOption.AGGREGATE)) {
+            ServiceDocumentQueryResult result = new ServiceDocumentQueryResult();
+            result.queryTimeMicros = queryTask.taskInfo.durationMicros;
+            QueryTaskUtils.mergeAggregateQueries(queryResults, queryTask.querySpec.options,
+                    result);
+            onCompletion.accept(result, null);
+            return;
+        }
+
         boolean isPaginatedQuery = queryTask.querySpec.resultLimit != null
                 && queryTask.querySpec.resultLimit < Integer.MAX_VALUE
                 && !queryTask.querySpec.options.contains(QueryOption.TOP_RESULTS);
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
@@ -39,6 +40,7 @@ import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
 import com.vmware.xenon.common.ServiceDocumentDescription.TypeName;
 import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.ServiceDocumentQueryResult.AggregationResult;
 import com.vmware.xenon.common.ServiceHost;
 import com.vmware.xenon.common.TaskState;
 import com.vmware.xenon.common.UriUtils;
@@ -80,6 +82,70 @@ public final class QueryTaskUtils {
         return;
     }
 
+    /**
+     * Merges the results of a broadcast query with {@link QueryOption#AGGREGATE}. With
+     * {@link QueryOption#OWNER_SELECTION} each node aggregates only the documents it owns, and
+     * the aggregates of all nodes are combined. Otherwise the result of the node with the
+     * highest document count is used, like with {@link QueryOption#COUNT}
+     */
+    public static void mergeAggregateQueries(List<ServiceDocumentQueryResult> dataSources,
+            EnumSet<QueryOption> queryOptions, ServiceDocumentQueryResult result) {
+        result.documentLinks = Collections.emptyList();
+        result.documentCount = 0L;
+
+        if (!queryOptions.contains(QueryOption.OWNER_SELECTION)) {
+            for (ServiceDocumentQueryResult dataSource : dataSources) {
+                if (dataSource.documentCount != null
+                        && dataSource.documentCount >= result.documentCount) {
+                    result.documentCount = dataSource.documentCount;
+                    result.aggregations = dataSource.aggregations;
+                    result.aggregationsPerGroup = dataSource.aggregationsPerGroup;
+                }
+            }
+            return;
+        }
+
+        for (ServiceDocumentQueryResult dataSource : dataSources) {
+            if (dataSource.documentCount != null) {
+                result.documentCount += dataSource.documentCount;
+            }
+            if (dataSource.aggregations != null) {
+                if (result.aggregations == null) {
+                    result.aggregations = new HashMap<>();
+                }
+                mergeAggregations(dataSource.aggregations, result.aggregations);
+            }
+            if (dataSource.aggregationsPerGroup != null) {
+                if (result.aggregationsPerGroup == null) {
+                    result.aggregationsPerGroup = new TreeMap<>();
+                }
+                for (Entry<String, Map<String, AggregationResult>> e : dataSource.aggregationsPerGroup
+                        .entrySet()) {
+                    mergeAggregations(e.getValue(), result.aggregationsPerGroup
+                            .computeIfAbsent(e.getKey(), (k) -> new HashMap<>()));
+                }
+            }
+        }
+
+        if (result.aggregations != null) {
+            result.aggregations.values().forEach(AggregationResult::complete);
+        }
+        if (result.aggregationsPerGroup != null) {
+            for (Map<String, AggregationResult> aggregations : result.aggregationsPerGroup
+                    .values()) {
+                aggregations.values().forEach(AggregationResult::complete);
+            }
+        }
+    }
+
+    private static void mergeAggregations(Map<String, AggregationResult> source,
+            Map<String, AggregationResult> target) {
+        for (Entry<String, AggregationResult> e : source.entrySet()) {
+            target.computeIfAbsent(e.getKey(), (k) -> new AggregationResult())
+                    .merge(e.getValue());
+        }
+    }
+
     /**
      * Process the query task results for a broadcast query or a query with read
      * after write semantics (which uses a broadcast query under the covers)
@@ -103,7 +103,20 @@ public class ServiceHostManagementService extends StatefulService {
     public static final String STAT_NAME_SERVICE_CACHE_CLEAR_COUNT = "serviceCacheClearCount";
     public static final String STAT_NAME_SERVICE_CACHE_MISS_COUNT = "serviceCacheMissCount";
     public static final String STAT_NAME_SERVICE_CACHE_HIT_COUNT = "serviceCacheHitCount";
+    public static final String STAT_NAME_SERVICE_CACHE_EVICTION_COUNT = "serviceCacheEvictionCount";
+    public static final String STAT_NAME_SERVICE_CACHE_RESIDENT_COUNT = "serviceCacheResidentCount";
+    public static final String STAT_NAME_SERVICE_CACHE_RESIDENT_BYTES = "serviceCacheResidentBytes";
+    public static final String STAT_NAME_SERVICE_CACHE_RESIDENT_HIT_COUNT = "serviceCacheResidentHitCount";
+    public static final String STAT_NAME_SERVICE_CACHE_RESIDENT_MISS_COUNT = "serviceCacheResidentMissCount";
+    public static final String STAT_NAME_SERVICE_CACHE_LIMIT_BYTES = "serviceCacheLimitBytes";
     public static final String STAT_NAME_RATE_LIMITED_OP_COUNT = "rateLimitedOperationCount";
+    public static final String STAT_NAME_ADMISSION_LIMIT = "admissionLimit";
+    public static final String STAT_NAME_ADMISSION_IN_FLIGHT_COUNT = "admissionInFlightCount";
+    public static final String STAT_NAME_ADMISSION_SUBJECT_COUNT = "admissionSubjectCount";
+    public static final String STAT_NAME_ADMISSION_THROTTLED_COUNT = "admissionThrottledCount";
+    public static final String STAT_NAME_ADMISSION_REJECTED_COUNT = "admissionRejectedCount";
+    public static final String STAT_NAME_ADMISSION_SHORT_LATENCY_MICROS = "admissionShortLatencyMicros";
+    public static final String STAT_NAME_ADMISSION_LONG_LATENCY_MICROS = "admissionLongLatencyMicros";
     public static final String STAT_NAME_PENDING_SERVICE_DELETION_COUNT = "pendingServiceDeletionCount";
 
     public static final String STAT_NAME_AUTO_BACKUP_SKIPPED_COUNT = "autoBackupSkippedCount";
@@ -112,6 +125,9 @@ public class ServiceHostManagementService extends StatefulService {
 
     public static final String STAT_NAME_AUTHORIZATION_CACHE_SIZE = "authorizationCacheSize";
     public static final String STAT_NAME_AUTHORIZATION_CACHE_INSERT_COUNT = "authorizationCacheInsertCount";
+    public static final String STAT_NAME_AUTHORIZATION_CACHE_HIT_COUNT = "authorizationCacheHitCount";
+    public static final String STAT_NAME_AUTHORIZATION_CACHE_MISS_COUNT = "authorizationCacheMissCount";
+    public static final String STAT_NAME_AUTHORIZATION_CACHE_EVICTION_COUNT = "authorizationCacheEvictionCount";
 
     public ServiceHostManagementService() {
         super(ServiceHostState.class);
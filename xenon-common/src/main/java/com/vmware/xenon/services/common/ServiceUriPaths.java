@@ -63,6 +63,7 @@ public final class ServiceUriPaths {
 
     public static final String SYNCHRONIZATION_TASKS = CORE + "/synch-tasks";
     public static final String CHECKPOINTS = CORE + "/checkpoints";
+    public static final String CORE_SYNCHRONIZATION_DIGESTS = CORE + "/synch-digests";
 
     public static final String CORE_AUTH = CORE + "/auth";
     public static final String CORE_CREDENTIALS = CORE_AUTH + "/credentials";
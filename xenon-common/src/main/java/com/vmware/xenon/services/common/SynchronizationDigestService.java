@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.services.common;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import com.vmware.xenon.common.FNVHash;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.ServiceDocumentDescription.TypeName;
+import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.StatelessService;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.config.XenonConfiguration;
+import com.vmware.xenon.services.common.QueryTask.Query;
+import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
+import com.vmware.xenon.services.common.QueryTask.QueryTerm.MatchType;
+
+/**
+ * Computes a hash tree over the (documentSelfLink, documentVersion, documentEpoch) tuples of
+ * the local children of a factory.
+ *
+ * The synchronization task broadcasts a {@link DigestRequest} to this service on every peer
+ * and compares the returned trees. Children in buckets where all peers agree are skipped, so
+ * synchronization after a restart costs requests proportional to the differences instead of
+ * the number of documents.
+ */
+public class SynchronizationDigestService extends StatelessService {
+    public static final String SELF_LINK = ServiceUriPaths.CORE_SYNCHRONIZATION_DIGESTS;
+
+    public static final int MAX_LEAF_COUNT = 65536;
+
+    /**
+     * Number of leaves (buckets) in the digest trees built by the synchronization task.
+     * Must be a power of two
+     */
+    public static final int LEAF_COUNT = XenonConfiguration.integer(
+            SynchronizationDigestService.class,
+            "leafCount",
+            256
+    );
+
+    public static class DigestRequest {
+        /**
+         * SelfLink of the factory whose children are digested
+         */
+        public String factoryLink;
+
+        /**
+         * documentKind of the factory children
+         */
+        public String documentKind;
+
+        /**
+         * Document index link used by the factory children. The default index is used if null
+         */
+        public String indexLink;
+
+        /**
+         * Number of leaves in the tree, a power of two
+         */
+        public int leafCount;
+
+        /**
+         * Number of documents read from the index per query page
+         */
+        public int resultLimit;
+    }
+
+    /**
+     * A complete binary hash tree with a fixed number of leaves. Each document is hashed into
+     * the leaf selected by its self link, leaves hold the sum of their document hashes and
+     * every inner node hashes its two children. Trees built from the same set of tuples are
+     * equal, regardless of the order the documents were added in.
+     */
+    public static class DigestTree {
+        /**
+         * Node digests in heap order: the root is at index 1, the children of node i are at
+         * 2i and 2i + 1, and leaf b is at leafCount + b
+         */
+        public long[] nodes;
+
+        /**
+         * Number of documents added to the tree
+         */
+        public long documentCount;
+
+        public static DigestTree create(int leafCount) {
+            if (leafCount <= 0 || leafCount > MAX_LEAF_COUNT || Integer.bitCount(leafCount) != 1) {
+                throw new IllegalArgumentException("leafCount must be a power of two, up to "
+                        + MAX_LEAF_COUNT);
+            }
+            DigestTree tree = new DigestTree();
+            tree.nodes = new long[leafCount * 2];
+            return tree;
+        }
+
+        public int getLeafCount() {
+            return this.nodes.length / 2;
+        }
+
+        public void add(String documentSelfLink, long documentVersion, long documentEpoch) {
+            long hash = FNVHash.compute(documentSelfLink);
+            hash = computeHash(documentVersion, hash);
+            hash = computeHash(documentEpoch, hash);
+            int leafCount = getLeafCount();
+            this.nodes[leafCount + getBucket(documentSelfLink, leafCount)] += hash;
+            this.documentCount++;
+        }
+
+        /**
+         * Computes the inner nodes from the leaves. Must be called once all documents were added
+         */
+        public void computeInnerNodes() {
+            for (int i = getLeafCount() - 1; i > 0; i--) {
+                long hash = computeHash(this.nodes[2 * i], FNVHash.FNV_OFFSET_MINUS_MSB);
+                this.nodes[i] = computeHash(this.nodes[2 * i + 1], hash);
+            }
+        }
+    }
+
+    /**
+     * Returns the leaf of a tree with the given number of leaves that holds the document
+     */
+    public static int getBucket(String documentSelfLink, int leafCount) {
+        long hash = FNVHash.compute(documentSelfLink);
+        return (int) (hash ^ (hash >>> 32)) & (leafCount - 1);
+    }
+
+    /**
+     * Returns the buckets in which the trees do not all agree. Comparison descends from the
+     * root into differing sub-trees only
+     */
+    public static Set<Integer> findOutOfSyncBuckets(Collection<DigestTree> trees) {
+        Set<Integer> buckets = new HashSet<>();
+        Iterator<DigestTree> it = trees.iterator();
+        if (!it.hasNext()) {
+            return buckets;
+        }
+
+        DigestTree reference = it.next();
+        while (it.hasNext()) {
+            DigestTree tree = it.next();
+            if (tree.nodes.length != reference.nodes.length) {
+                throw new IllegalArgumentException("Digest trees have different leaf counts");
+            }
+            findOutOfSyncBuckets(reference, tree, 1, buckets);
+        }
+        return buckets;
+    }
+
+    private static void findOutOfSyncBuckets(DigestTree a, DigestTree b, int node,
+            Set<Integer> buckets) {
+        if (a.nodes[node] == b.nodes[node]) {
+            return;
+        }
+        int leafCount = a.getLeafCount();
+        if (node >= leafCount) {
+            buckets.add(node - leafCount);
+            return;
+        }
+        findOutOfSyncBuckets(a, b, 2 * node, buckets);
+        findOutOfSyncBuckets(a, b, 2 * node + 1, buckets);
+    }
+
+    private static long computeHash(long value, long hash) {
+        for (int i = 0; i < Long.BYTES; i++) {
+            hash = FNVHash.compute((int) (value >>> (i * 8)) & 0xFF, hash);
+        }
+        return hash;
+    }
+
+    @Override
+    public void handlePost(Operation post) {
+        if (!post.hasBody()) {
+            post.fail(new IllegalArgumentException("body is required"));
+            return;
+        }
+
+        DigestRequest request = post.getBody(DigestRequest.class);
+        if (request.factoryLink == null) {
+            post.fail(new IllegalArgumentException("factoryLink is required"));
+            return;
+        }
+        if (request.documentKind == null) {
+            post.fail(new IllegalArgumentException("documentKind is required"));
+            return;
+        }
+        if (request.resultLimit <= 0) {
+            post.fail(new IllegalArgumentException("resultLimit must be set"));
+            return;
+        }
+
+        DigestTree tree;
+        try {
+            tree = DigestTree.create(request.leafCount);
+        } catch (IllegalArgumentException e) {
+            post.fail(e);
+            return;
+        }
+
+        // only the built-in fields are expanded, the digest needs self link, version and epoch.
+        // Synchronization can index a document again without changing its version, and both
+        // entries match the query. Sorting by self link keeps them adjacent across pages, so
+        // each document is added once
+        Query query = Query.Builder.create()
+                .addFieldClause(ServiceDocument.FIELD_NAME_KIND, request.documentKind)
+                .addFieldClause(ServiceDocument.FIELD_NAME_SELF_LINK,
+                        request.factoryLink + UriUtils.URI_PATH_CHAR + UriUtils.URI_WILDCARD_CHAR,
+                        MatchType.WILDCARD)
+                .build();
+        QueryTask queryTask = QueryTask.Builder.createDirectTask()
+                .setQuery(query)
+                .addOption(QueryOption.EXPAND_CONTENT)
+                .addOption(QueryOption.EXPAND_BUILTIN_CONTENT_ONLY)
+                .addOption(QueryOption.FORWARD_ONLY)
+                .orderAscending(ServiceDocument.FIELD_NAME_SELF_LINK, TypeName.STRING)
+                .setResultLimit(request.resultLimit)
+                .build();
+        if (request.indexLink != null) {
+            queryTask.indexLink = request.indexLink;
+        }
+        queryTask.documentExpirationTimeMicros = Utils.fromNowMicrosUtc(
+                getHost().getOperationTimeoutMicros());
+
+        Operation.createPost(this, ServiceUriPaths.CORE_LOCAL_QUERY_TASKS)
+                .setBody(queryTask)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        post.fail(e);
+                        return;
+                    }
+                    addQueryResults(post, tree, o.getBody(QueryTask.class).results, null);
+                })
+                .sendWith(this);
+    }
+
+    private void addQueryResults(Operation post, DigestTree tree,
+            ServiceDocumentQueryResult results, String lastLink) {
+        String previousLink = lastLink;
+        if (results.documents != null) {
+            for (String link : results.documentLinks) {
+                if (link.equals(previousLink)) {
+                    continue;
+                }
+                previousLink = link;
+                ServiceDocument d = Utils.fromJson(results.documents.get(link),
+                        ServiceDocument.class);
+                tree.add(d.documentSelfLink, d.documentVersion,
+                        d.documentEpoch != null ? d.documentEpoch : 0);
+            }
+        }
+
+        if (results.nextPageLink == null) {
+            tree.computeInnerNodes();
+            post.setBodyNoCloning(tree).complete();
+            return;
+        }
+
+        String pageLastLink = previousLink;
+        Operation.createGet(this, results.nextPageLink)
+                .setCompletion((o, e) -> {
+                    if (e != null) {
+                        post.fail(e);
+                        return;
+                    }
+
+                    // pages are read once, delete them instead of waiting for expiration
+                    Operation.createDelete(this, results.nextPageLink)
+                            .sendWith(this);
+                    addQueryResults(post, tree, o.getBody(QueryTask.class).results, pageLastLink);
+                })
+                .sendWith(this);
+    }
+}
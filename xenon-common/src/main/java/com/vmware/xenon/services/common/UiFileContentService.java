@@ -22,6 +22,7 @@ import java.util.Map.Entry;
 import java.util.logging.Level;
 
 import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.Operation.OperationOption;
 import com.vmware.xenon.common.StatelessService;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
@@ -91,11 +92,14 @@ public abstract class UiFileContentService extends StatelessService {
 
         String uiResourcePath = selfLink + UriUtils.URI_PATH_CHAR + ServiceUriPaths.UI_RESOURCE_DEFAULT_FILE;
         Operation operation = get.clone();
+        // serve the default file in process, the listener writes the response for the client
+        operation.toggleOption(OperationOption.REMOTE, false);
         operation.setUri(UriUtils.buildUri(getHost(), uiResourcePath, uri.getQuery()))
                 .setCompletion((o, e) -> {
                     get.setBody(o.getBodyRaw())
                             .setStatusCode(o.getStatusCode())
-                            .setContentType(o.getContentType());
+                            .setContentType(o.getContentType())
+                            .transferResponseHeadersFrom(o);
                     if (e != null) {
                         get.fail(e);
                     } else {
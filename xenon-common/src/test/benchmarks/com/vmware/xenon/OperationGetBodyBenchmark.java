@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceDocument;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.serialization.KryoSerializers;
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
+
+@State(Scope.Thread)
+public class OperationGetBodyBenchmark {
+
+    @Param({"1", "25"})
+    private int sizeInKb;
+
+    private ExampleServiceState document;
+    private String json;
+    private byte[] binary;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.document = BenchmarkDataFactory.makeDocOfJsonSizeKb(this.sizeInKb);
+        this.json = Utils.toJson(this.document);
+        this.binary = KryoSerializers.serializeAsDocument(this.document, 256 * 1024).toBytes();
+    }
+
+    private static Operation createOp(Object body, String contentType) {
+        return new Operation()
+                .setBodyNoCloning(body)
+                .setContentType(contentType);
+    }
+
+    @Benchmark
+    public Object sameTypeBody() {
+        return createOp(this.document, Operation.MEDIA_TYPE_APPLICATION_JSON)
+                .getBody(ExampleServiceState.class);
+    }
+
+    @Benchmark
+    public Object superTypeBody() {
+        return createOp(this.document, Operation.MEDIA_TYPE_APPLICATION_JSON)
+                .getBody(ServiceDocument.class);
+    }
+
+    @Benchmark
+    public Object jsonBody() {
+        return createOp(this.json, Operation.MEDIA_TYPE_APPLICATION_JSON)
+                .getBody(ExampleServiceState.class);
+    }
+
+    @Benchmark
+    public Object kryoBody() {
+        return createOp(this.binary, Operation.MEDIA_TYPE_APPLICATION_KRYO_OCTET_STREAM)
+                .getBody(ExampleServiceState.class);
+    }
+
+    @Benchmark
+    public Object kryoBodyAsSuperType() {
+        Operation op = createOp(this.binary, Operation.MEDIA_TYPE_APPLICATION_KRYO_OCTET_STREAM);
+        op.getBody(ExampleServiceState.class);
+        return op.getBody(ServiceDocument.class);
+    }
+}
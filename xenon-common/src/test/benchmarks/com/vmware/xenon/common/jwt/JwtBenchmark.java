@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common.jwt;
+
+import java.security.GeneralSecurityException;
+import java.util.UUID;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.vmware.xenon.common.Claims;
+import com.vmware.xenon.common.jwt.Verifier.TokenException;
+
+/**
+ * Measures token sign and verify throughput. Verification runs with the verified token cache,
+ * and without it in a separate fork. The MAC benchmarks compare a {@link javax.crypto.Mac}
+ * created per signature against one reused per thread
+ */
+@State(Scope.Thread)
+public class JwtBenchmark {
+
+    private static final int TOKEN_COUNT = 256;
+
+    private static final String NO_VERIFIED_TOKEN_CACHE =
+            "-Dxenon.Verifier.verifiedTokenCacheSize=0";
+
+    private byte[] secret;
+    private Signer signer;
+    private Verifier verifier;
+    private MacPerThread macs;
+    private Claims claims;
+    private String[] tokens;
+    private byte[] payload;
+    private int tokenIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws GeneralSecurityException {
+        this.secret = UUID.randomUUID().toString().getBytes(Constants.DEFAULT_CHARSET);
+        this.signer = new Signer(this.secret);
+        this.verifier = new Verifier(this.secret);
+        this.macs = new MacPerThread(this.secret);
+
+        this.tokens = new String[TOKEN_COUNT];
+        for (int i = 0; i < TOKEN_COUNT; i++) {
+            this.tokens[i] = this.signer.sign(buildClaims("/core/authz/users/user-" + i));
+        }
+        this.claims = buildClaims("/core/authz/users/jane");
+        this.payload = this.tokens[0].getBytes(Constants.DEFAULT_CHARSET);
+    }
+
+    private static Claims buildClaims(String subject) {
+        Claims.Builder builder = new Claims.Builder();
+        builder.setIssuer("xenon");
+        builder.setSubject(subject);
+        builder.setExpirationTime(Long.MAX_VALUE / 1000000);
+        return builder.getResult();
+    }
+
+    private String nextToken() {
+        this.tokenIndex = (this.tokenIndex + 1) % TOKEN_COUNT;
+        return this.tokens[this.tokenIndex];
+    }
+
+    @Benchmark
+    public String sign() throws GeneralSecurityException {
+        return this.signer.sign(this.claims);
+    }
+
+    @Benchmark
+    public Claims verify() throws GeneralSecurityException, TokenException {
+        return this.verifier.verify(nextToken(), Claims.class);
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = NO_VERIFIED_TOKEN_CACHE)
+    public Claims verifyWithoutCache() throws GeneralSecurityException, TokenException {
+        return verify();
+    }
+
+    @Benchmark
+    public byte[] macPerSignature() throws GeneralSecurityException {
+        return Algorithm.HS256.sign(this.payload, this.secret);
+    }
+
+    @Benchmark
+    public byte[] macPerThread() throws GeneralSecurityException {
+        return this.macs.sign(Algorithm.HS256, this.payload);
+    }
+}
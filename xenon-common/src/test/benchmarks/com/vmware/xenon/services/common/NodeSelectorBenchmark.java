@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.services.common;
+
+import java.util.Collection;
+import java.util.UUID;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.vmware.xenon.common.FNVHash;
+import com.vmware.xenon.common.NodeSelectorService.SelectOwnerResponse;
+import com.vmware.xenon.services.common.NodeGroupService.NodeGroupState;
+
+/**
+ * Compares owner selection using the consistent hash ring against the squared distance
+ * scan over all nodes, used when virtual nodes are disabled
+ */
+@State(Scope.Thread)
+public class NodeSelectorBenchmark {
+
+    private static final int KEY_COUNT = 1024;
+
+    @Param({ "3", "32", "256" })
+    public int nodeCount;
+
+    @Param({ "64" })
+    public int virtualNodeCount;
+
+    @Param({ "1", "3" })
+    public int replicationFactor;
+
+    private NodeGroupState groupState;
+    private NodeSelectorHashRing ring;
+    private String selfId;
+    private String[] keys;
+    private int keyIndex;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.groupState = new NodeGroupState();
+        for (int i = 0; i < this.nodeCount; i++) {
+            NodeState m = new NodeState();
+            m.id = UUID.randomUUID().toString();
+            m.status = NodeState.NodeStatus.AVAILABLE;
+            this.groupState.nodes.put(m.id, m);
+            this.selfId = m.id;
+        }
+        this.ring = NodeSelectorHashRing.create(this.groupState, this.virtualNodeCount);
+
+        this.keys = new String[KEY_COUNT];
+        for (int i = 0; i < KEY_COUNT; i++) {
+            this.keys[i] = ExampleService.FACTORY_LINK + "/" + UUID.randomUUID().toString();
+        }
+    }
+
+    private String nextKey() {
+        this.keyIndex = (this.keyIndex + 1) % KEY_COUNT;
+        return this.keys[this.keyIndex];
+    }
+
+    @Benchmark
+    public Object selectWithHashRing() {
+        SelectOwnerResponse response = new SelectOwnerResponse();
+        response.key = nextKey();
+        Collection<NodeState> selectedNodes = this.ring.select(FNVHash.compute(response.key),
+                this.replicationFactor);
+        NodeState owner = selectedNodes.iterator().next();
+        response.ownerNodeId = owner.id;
+        response.isLocalHostOwner = response.ownerNodeId.equals(this.selfId);
+        response.ownerNodeGroupReference = owner.groupReference;
+        response.selectedNodes = selectedNodes;
+        response.availableNodeCount = this.ring.getAvailableNodeCount();
+        return response;
+    }
+
+    @Benchmark
+    public Object selectWithSquaredDistance() {
+        SelectOwnerResponse response = new SelectOwnerResponse();
+        response.key = nextKey();
+        return ConsistentHashingNodeSelectorService.selectClosestNodes(response,
+                this.groupState, this.replicationFactor, this.selfId);
+    }
+
+    @Benchmark
+    public Object buildHashRing() {
+        return NodeSelectorHashRing.create(this.groupState, this.virtualNodeCount);
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.services.common;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.vmware.xenon.common.ServiceDocumentDescription;
+import com.vmware.xenon.common.ServiceDocumentDescription.Builder;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.QueryValidationTestService.QueryValidationServiceState;
+
+/**
+ * Compares document merge, signature and indexing with properties accessed through method
+ * handles against reflection. The reflection variants run in forks with method handle
+ * accessors disabled
+ */
+@State(Scope.Thread)
+public class PropertyAccessorBenchmark {
+
+    private static final String REFLECTION_ACCESSORS =
+            "-Dxenon.ReflectionUtils.methodHandleAccessors=false";
+
+    private ServiceDocumentDescription desc;
+    private QueryValidationServiceState source;
+    private QueryValidationServiceState patch;
+    private LuceneIndexDocumentHelper indexDocHelper;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.desc = Builder.create().buildDescription(QueryValidationServiceState.class);
+        this.source = VerificationHost.buildQueryValidationState();
+        this.source.documentSelfLink = UUID.randomUUID().toString();
+        this.source.documentKind = Utils.buildKind(QueryValidationServiceState.class);
+        this.source.mapOfStrings = new LinkedHashMap<>();
+        this.source.mapOfStrings.put("key1", "value1");
+        this.source.mapOfStrings.put("key2", "value2");
+        this.source.listOfStrings = Arrays.asList("1", "2", "3", "4", "5");
+        this.source.dateValue = new Date();
+
+        this.patch = new QueryValidationServiceState();
+        this.patch.stringValue = UUID.randomUUID().toString();
+        this.patch.longValue = 5L;
+        this.patch.doubleValue = 3.0;
+
+        this.indexDocHelper = new LuceneIndexDocumentHelper();
+    }
+
+    @Benchmark
+    public boolean merge() {
+        return Utils.mergeWithState(this.desc, this.source, this.patch);
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = REFLECTION_ACCESSORS)
+    public boolean mergeWithReflection() {
+        return merge();
+    }
+
+    @Benchmark
+    public String signature() {
+        return Utils.computeSignature(this.source, this.desc);
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = REFLECTION_ACCESSORS)
+    public String signatureWithReflection() {
+        return signature();
+    }
+
+    @Benchmark
+    public int index() {
+        Document doc = this.indexDocHelper.getDoc();
+        this.indexDocHelper.addIndexableFieldsToDocument(this.source, this.desc);
+        int count = doc.getFields().size();
+        doc.clear();
+        return count;
+    }
+
+    @Benchmark
+    @Fork(jvmArgsAppend = REFLECTION_ACCESSORS)
+    public int indexWithReflection() {
+        return index();
+    }
+}
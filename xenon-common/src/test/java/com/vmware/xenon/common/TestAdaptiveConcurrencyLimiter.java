@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.AdaptiveConcurrencyLimiter.Decision;
+
+public class TestAdaptiveConcurrencyLimiter {
+
+    private static final String SUBJECT = "/core/users/a";
+    private static final String OTHER_SUBJECT = "/core/users/b";
+
+    /**
+     * Keeps the limiter saturated for the supplied number of request waves, each completing
+     * with the supplied latency
+     */
+    private static void runSaturated(AdaptiveConcurrencyLimiter limiter, int waves,
+            long latencyMicros) {
+        for (int w = 0; w < waves; w++) {
+            int count = limiter.getLimit();
+            int admitted = 0;
+            for (int i = 0; i < count; i++) {
+                if (limiter.acquire(SUBJECT) != Decision.REJECT) {
+                    admitted++;
+                }
+            }
+            for (int i = 0; i < admitted; i++) {
+                limiter.release(SUBJECT, latencyMicros);
+            }
+        }
+    }
+
+    @Test
+    public void throttleAndReject() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(16, 16, 16);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(Decision.ADMIT, limiter.acquire(SUBJECT));
+        }
+        assertFalse(limiter.hasCapacity());
+
+        // requests over the limit are throttled, up to the queue size of sqrt(limit)
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Decision.ADMIT_THROTTLED, limiter.acquire(SUBJECT));
+        }
+        assertEquals(Decision.REJECT, limiter.acquire(SUBJECT));
+        assertEquals(20, limiter.getInFlightCount());
+        assertEquals(4, limiter.getThrottledCount());
+        assertEquals(1, limiter.getRejectedCount());
+
+        for (int i = 0; i < 5; i++) {
+            limiter.release(SUBJECT, 100);
+        }
+        assertTrue(limiter.hasCapacity());
+        assertEquals(1, limiter.getSubjectCount());
+        for (int i = 0; i < 15; i++) {
+            limiter.release(SUBJECT, 100);
+        }
+        assertEquals(0, limiter.getInFlightCount());
+        assertEquals(0, limiter.getSubjectCount());
+    }
+
+    @Test
+    public void fairShare() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(16, 16, 16);
+        assertEquals(Decision.ADMIT, limiter.acquire(OTHER_SUBJECT));
+        for (int i = 0; i < 8; i++) {
+            assertEquals(Decision.ADMIT, limiter.acquire(SUBJECT));
+        }
+
+        // the limiter is contended and the subject holds its share, half of the limit
+        assertEquals(Decision.REJECT, limiter.acquire(SUBJECT));
+        assertEquals(Decision.ADMIT, limiter.acquire(OTHER_SUBJECT));
+
+        // a subject alone can use the whole limit
+        limiter.release(OTHER_SUBJECT, 100);
+        limiter.release(OTHER_SUBJECT, 100);
+        for (int i = 0; i < 8; i++) {
+            assertEquals(Decision.ADMIT, limiter.acquire(SUBJECT));
+        }
+    }
+
+    @Test
+    public void limitAdaptsToLatency() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100, 10, 1000);
+
+        // stable latency, the limit grows
+        runSaturated(limiter, 50, 1000);
+        int stableLimit = limiter.getLimit();
+        assertTrue(stableLimit > 100);
+        assertTrue(limiter.getLongLatencyMicros() > 0);
+
+        // latency grows as requests queue up, the limit shrinks
+        runSaturated(limiter, 50, 4000);
+        int queuedLimit = limiter.getLimit();
+        assertTrue(queuedLimit < stableLimit);
+        assertEquals(4000, limiter.getShortLatencyMicros(), 0);
+
+        // a latency spike shrinks the limit, but never under the minimum
+        runSaturated(limiter, 20, 1000000);
+        int spikeLimit = limiter.getLimit();
+        assertTrue(spikeLimit < queuedLimit);
+        assertTrue(spikeLimit >= 10);
+
+        // once latency recovers the limit grows again
+        runSaturated(limiter, 200, 1000);
+        assertTrue(limiter.getLimit() > spikeLimit);
+    }
+
+    @Test
+    public void unusedLimitDoesNotGrow() {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100, 10, 1000);
+        for (int i = 0; i < 1000; i++) {
+            limiter.acquire(SUBJECT);
+            limiter.release(SUBJECT, 1000);
+        }
+        assertEquals(100, limiter.getLimit());
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2014-2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.Operation.AuthorizationContext;
+
+public class TestAuthorizationContextCache {
+
+    private static AuthorizationContext createContext(String userLink, String token,
+            Long expirationTime) {
+        Claims.Builder cb = new Claims.Builder();
+        cb.setSubject(userLink);
+        cb.setExpirationTime(expirationTime);
+        AuthorizationContext.Builder ab = AuthorizationContext.Builder.create();
+        ab.setClaims(cb.getResult());
+        ab.setToken(token);
+        return ab.getResult();
+    }
+
+    private static long fromNowSeconds(long seconds) {
+        return TimeUnit.MICROSECONDS.toSeconds(Utils.getSystemNowMicrosUtc()) + seconds;
+    }
+
+    @Test
+    public void getAndClearByUser() {
+        AuthorizationContextCache cache = new AuthorizationContextCache(100);
+        AuthorizationContext jane1 = createContext("/users/jane", "jane-1", null);
+        AuthorizationContext jane2 = createContext("/users/jane", "jane-2", fromNowSeconds(60));
+        AuthorizationContext john = createContext("/users/john", "john-1", fromNowSeconds(60));
+        cache.put(jane1.getToken(), jane1);
+        cache.put(jane2.getToken(), jane2);
+        cache.put(john.getToken(), john);
+        assertEquals(3, cache.size());
+
+        assertSame(jane1, cache.get("jane-1"));
+        assertSame(jane2, cache.get("jane-2"));
+        assertNull(cache.get("unknown"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // clearing a user removes all its tokens, and only its tokens
+        cache.clear("/users/jane");
+        assertNull(cache.get("jane-1"));
+        assertNull(cache.get("jane-2"));
+        assertSame(john, cache.get("john-1"));
+        assertEquals(1, cache.size());
+
+        // tokens cached after a clear are indexed again
+        cache.put(jane1.getToken(), jane1);
+        cache.clear("/users/jane");
+        assertNull(cache.get("jane-1"));
+    }
+
+    @Test
+    public void expiration() {
+        AuthorizationContextCache cache = new AuthorizationContextCache(100);
+        AuthorizationContext expired = createContext("/users/jane", "expired",
+                fromNowSeconds(-1));
+        cache.put(expired.getToken(), expired);
+
+        assertNull(cache.get("expired"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    public void sizeLimit() {
+        int maxSize = 100;
+        AuthorizationContextCache cache = new AuthorizationContextCache(maxSize);
+
+        // expired entries are evicted first
+        AuthorizationContext expired = createContext("/users/jane", "expired",
+                fromNowSeconds(-1));
+        cache.put(expired.getToken(), expired);
+        for (int i = 0; i < maxSize * 10; i++) {
+            String token = "token-" + i;
+            cache.put(token, createContext("/users/" + (i % 7), token, fromNowSeconds(60)));
+            assertTrue(cache.size() <= maxSize);
+        }
+
+        assertNull(cache.get("expired"));
+        assertTrue(cache.getEvictionCount() >= maxSize * 9);
+    }
+}
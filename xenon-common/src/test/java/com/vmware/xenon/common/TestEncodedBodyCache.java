@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014-2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.net.URI;
+
+import org.junit.Test;
+
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
+
+public class TestEncodedBodyCache {
+
+    private static final URI PEER_URI = URI.create("http://localhost:8000/core/examples/1");
+
+    @Test
+    public void encodeOncePerBody() throws Throwable {
+        ExampleServiceState body = new ExampleServiceState();
+        body.name = "encode-once";
+        Operation op = Operation.createPatch(PEER_URI)
+                .setBodyNoCloning(body)
+                .setEncodedBodyCache(new EncodedBodyCache(null));
+
+        Operation first = op.clone();
+        byte[] data = first.getEncodedBodyCache().encodeBody(first);
+        assertEquals(data.length, first.getContentLength());
+        assertEquals(Operation.MEDIA_TYPE_APPLICATION_JSON, first.getContentType());
+
+        // clones share the cache, and the encoded body
+        Operation second = op.clone();
+        assertSame(data, second.getEncodedBodyCache().encodeBody(second));
+        assertEquals(data.length, second.getContentLength());
+
+        // a different body instance is encoded again
+        ExampleServiceState otherBody = new ExampleServiceState();
+        otherBody.name = "encode-once";
+        Operation third = op.clone().setBodyNoCloning(otherBody);
+        byte[] otherData = third.getEncodedBodyCache().encodeBody(third);
+        assertNotSame(data, otherData);
+        assertEquals(new String(data, Utils.CHARSET), new String(otherData, Utils.CHARSET));
+    }
+
+    @Test
+    public void encodeOncePerContentEncoding() throws Throwable {
+        String body = Utils.toJson(new ExampleServiceState());
+        Operation op = Operation.createPatch(PEER_URI)
+                .setBodyNoCloning(body)
+                .setEncodedBodyCache(new EncodedBodyCache(null));
+
+        Operation plain = op.clone();
+        byte[] data = plain.getEncodedBodyCache().encodeBody(plain);
+        assertEquals(body, new String(data, Utils.CHARSET));
+
+        Operation compressed = op.clone()
+                .addRequestHeader(Operation.CONTENT_ENCODING_HEADER,
+                        Operation.CONTENT_ENCODING_GZIP);
+        byte[] compressedData = compressed.getEncodedBodyCache().encodeBody(compressed);
+        assertNotSame(data, compressedData);
+        assertEquals(compressedData.length, compressed.getContentLength());
+
+        Operation compressedAgain = op.clone()
+                .addRequestHeader(Operation.CONTENT_ENCODING_HEADER,
+                        Operation.CONTENT_ENCODING_GZIP);
+        assertSame(compressedData,
+                compressedAgain.getEncodedBodyCache().encodeBody(compressedAgain));
+    }
+}
@@ -13,6 +13,8 @@
 
 package com.vmware.xenon.common;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
@@ -139,6 +141,42 @@ public class TestFileUtils extends BasicReusableHostTestCase {
         assertTrue(inMd5.equals(outMd5));
     }
 
+    @Test
+    public void parseByteRange() {
+        long length = 100;
+        assertRange(10, 30, FileUtils.ByteRange.fromRangeHeader("bytes=10-30", length));
+        assertRange(0, 0, FileUtils.ByteRange.fromRangeHeader("bytes=0-0", length));
+        assertRange(90, 99, FileUtils.ByteRange.fromRangeHeader("bytes=90-", length));
+        assertRange(90, 99, FileUtils.ByteRange.fromRangeHeader("bytes=90-1000", length));
+        assertRange(95, 99, FileUtils.ByteRange.fromRangeHeader("bytes=-5", length));
+        assertRange(0, 99, FileUtils.ByteRange.fromRangeHeader("bytes=-500", length));
+        assertRange(1, 2, FileUtils.ByteRange.fromRangeHeader(" Bytes=1-2 ", length));
+        // positions beyond the int range are supported
+        long largeLength = 1L << 40;
+        assertRange(largeLength - 10, largeLength - 1, FileUtils.ByteRange.fromRangeHeader(
+                "bytes=" + (largeLength - 10) + "-", largeLength));
+
+        assertEquals(FileUtils.ByteRange.UNSATISFIABLE,
+                FileUtils.ByteRange.fromRangeHeader("bytes=100-", length));
+        assertEquals(FileUtils.ByteRange.UNSATISFIABLE,
+                FileUtils.ByteRange.fromRangeHeader("bytes=-0", length));
+        assertEquals(FileUtils.ByteRange.UNSATISFIABLE,
+                FileUtils.ByteRange.fromRangeHeader("bytes=0-", 0));
+
+        // malformed and multiple ranges are ignored
+        assertNull(FileUtils.ByteRange.fromRangeHeader(null, length));
+        assertNull(FileUtils.ByteRange.fromRangeHeader("bytes=30-10", length));
+        assertNull(FileUtils.ByteRange.fromRangeHeader("bytes=a-b", length));
+        assertNull(FileUtils.ByteRange.fromRangeHeader("bytes=1-2,5-6", length));
+        assertNull(FileUtils.ByteRange.fromRangeHeader("items=1-2", length));
+        assertNull(FileUtils.ByteRange.fromRangeHeader("bytes=", length));
+    }
+
+    private static void assertRange(long first, long last, FileUtils.ByteRange range) {
+        assertEquals(first, range.first);
+        assertEquals(last, range.last);
+    }
+
     private File randomFile() throws Throwable {
         return randomFile(FileUtils.ContentRange.CHUNK_SIZE * 3);
     }
@@ -36,6 +36,7 @@ import org.junit.Test;
 import com.vmware.xenon.common.Operation.CompletionHandler;
 import com.vmware.xenon.common.Operation.SerializedOperation;
 import com.vmware.xenon.common.Service.Action;
+import com.vmware.xenon.common.serialization.KryoSerializers;
 import com.vmware.xenon.common.test.MinimalTestServiceState;
 import com.vmware.xenon.common.test.TestContext;
 import com.vmware.xenon.services.common.ExampleService;
@@ -786,6 +787,83 @@ public class TestOperation extends BasicReusableHostTestCase {
         assertEquals(rsp.statusCode, Operation.STATUS_CODE_BAD_METHOD);
     }
 
+    @Test
+    public void getBodyConversion() throws Throwable {
+        ExampleService.ExampleServiceState state = new ExampleService.ExampleServiceState();
+        state.name = "name";
+        state.counter = 3L;
+        state.keyValues.put("key", "value");
+        state.documentSelfLink = "/core/examples/a";
+        state.documentVersion = 2;
+
+        // a document requested as a super type is copied, without the sub type fields
+        Operation op = new Operation().setBodyNoCloning(state)
+                .setContentType(Operation.MEDIA_TYPE_APPLICATION_JSON);
+        ServiceDocument doc = op.getBody(ServiceDocument.class);
+        assertEquals(ServiceDocument.class, doc.getClass());
+        assertEquals(state.documentSelfLink, doc.documentSelfLink);
+        assertEquals(state.documentVersion, doc.documentVersion);
+        assertSame(state, op.getBodyRaw());
+        assertEquals(Utils.toJson(Utils.fromJson(Utils.toJson(state), ServiceDocument.class)),
+                Utils.toJson(doc));
+
+        // a kryo body is deserialized without producing JSON, and converts to super types
+        byte[] bytes = KryoSerializers.serializeAsDocument(state, 4096).toBytes();
+        op = new Operation().setBodyNoCloning(bytes)
+                .setContentType(Operation.MEDIA_TYPE_APPLICATION_KRYO_OCTET_STREAM);
+        ExampleService.ExampleServiceState dst = op.getBody(ExampleService.ExampleServiceState.class);
+        assertEquals(state.name, dst.name);
+        assertEquals("value", dst.keyValues.get("key"));
+        doc = op.getBody(ServiceDocument.class);
+        assertEquals(ServiceDocument.class, doc.getClass());
+        assertEquals(state.documentSelfLink, doc.documentSelfLink);
+
+        // JSON bodies keep the JSON form, for conversion to other types
+        op = new Operation().setBody(Utils.toJson(state))
+                .setContentType(Operation.MEDIA_TYPE_APPLICATION_JSON);
+        doc = op.getBody(ServiceDocument.class);
+        assertEquals(state.documentSelfLink, doc.documentSelfLink);
+        dst = op.getBody(ExampleService.ExampleServiceState.class);
+        assertEquals(state.name, dst.name);
+    }
+
+    @ServiceDocument.Frozen
+    public static class FrozenState extends ServiceDocument {
+        public String name;
+    }
+
+    @Test
+    public void setFrozenBody() throws Throwable {
+        FrozenState state = new FrozenState();
+        state.name = "name";
+
+        // frozen documents are not cloned
+        Operation op = new Operation().setBody(state)
+                .setContentType(Operation.MEDIA_TYPE_APPLICATION_JSON);
+        assertSame(state, op.getBodyRaw());
+        ExampleService.ExampleServiceState example = new ExampleService.ExampleServiceState();
+        op.setBody(example);
+        assertTrue(example != op.getBodyRaw());
+
+        FrozenDocuments.setMutationDetectionEnabled(true);
+        try {
+            op = new Operation().setBody(state)
+                    .setContentType(Operation.MEDIA_TYPE_APPLICATION_JSON);
+            assertSame(state, op.getBody(FrozenState.class));
+
+            // mutation after send is detected
+            state.name = "other";
+            try {
+                op.getBody(FrozenState.class);
+                fail("mutation of frozen document not detected");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains(FrozenState.class.getName()));
+            }
+        } finally {
+            FrozenDocuments.setMutationDetectionEnabled(false);
+        }
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testNonXenonErrorCode() throws Throwable {
         ServiceErrorResponse rsp = ServiceErrorResponse.create(
@@ -20,6 +20,9 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -151,4 +154,59 @@ public class TestOperationQueue {
         }
     }
 
+    @Test
+    public void concurrentOfferAndPoll() throws Throwable {
+        int limit = this.count / 10;
+        int producerCount = 4;
+        OperationQueue q = OperationQueue.createFifo(limit);
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger polled = new AtomicInteger();
+        AtomicInteger overLimitCount = new AtomicInteger();
+        CountDownLatch producersDone = new CountDownLatch(producerCount);
+
+        for (int p = 0; p < producerCount; p++) {
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < this.count; i++) {
+                    if (q.offer(Operation.createPost(null))) {
+                        accepted.incrementAndGet();
+                    }
+                    // the reserved count never exceeds the limit
+                    if (q.size() > limit) {
+                        overLimitCount.incrementAndGet();
+                    }
+                }
+                producersDone.countDown();
+            });
+            producer.start();
+        }
+
+        while (producersDone.getCount() > 0 || !q.isEmpty()) {
+            if (q.poll() != null) {
+                polled.incrementAndGet();
+            }
+            producersDone.await(0, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(0, overLimitCount.get());
+        assertEquals(accepted.get(), polled.get());
+        assertEquals(0, q.size());
+        assertTrue(q.offer(Operation.createPost(null)));
+        assertEquals(1, q.size());
+        q.clear();
+        assertEquals(0, q.size());
+    }
+
+    @Test
+    public void remove() {
+        OperationQueue q = OperationQueue.createLifo(this.count);
+        Operation first = Operation.createPost(null);
+        Operation second = Operation.createPost(null);
+        q.offer(first);
+        q.offer(second);
+        assertTrue(q.remove(first));
+        assertTrue(!q.remove(first));
+        assertEquals(1, q.size());
+        assertEquals(second, q.poll());
+        assertTrue(q.isEmpty());
+    }
 }
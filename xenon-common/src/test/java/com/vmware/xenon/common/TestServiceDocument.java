@@ -866,6 +866,48 @@ public class TestServiceDocument {
                 desc.fieldDescriptions.get("max").typeName);
     }
 
+    @Test
+    public void propertyAccessors() {
+        ServiceDocumentDescription desc = ServiceDocumentDescription.Builder.create()
+                .buildDescription(MultiTypeServiceDocument.class);
+        MultiTypeServiceDocument doc = new MultiTypeServiceDocument();
+
+        ServiceDocumentDescription.PropertyDescription l = desc.propertyDescriptions.get("l");
+        ServiceDocumentDescription.PropertyDescription aLong = desc.propertyDescriptions
+                .get("aLong");
+        ServiceDocumentDescription.PropertyDescription link = desc.propertyDescriptions
+                .get(ServiceDocument.FIELD_NAME_SELF_LINK);
+        assertNotNull(l.getter);
+        assertNotNull(l.setter);
+
+        // primitive values are boxed and unboxed, with widening, like with reflection
+        ReflectionUtils.setPropertyValue(l, doc, 5);
+        assertEquals(5L, doc.l);
+        assertEquals(5L, ReflectionUtils.getPropertyValue(l, doc));
+
+        ReflectionUtils.setPropertyValue(aLong, doc, 7L);
+        assertEquals(Long.valueOf(7), ReflectionUtils.getPropertyValue(aLong, doc));
+        ReflectionUtils.setPropertyValue(aLong, doc, null);
+        assertNull(doc.aLong);
+
+        ReflectionUtils.setPropertyValue(link, doc, "/a");
+        assertEquals("/a", ReflectionUtils.getPropertyValue(link, doc));
+
+        try {
+            ReflectionUtils.setPropertyValue(l, doc, null);
+            Assert.fail("null must not be assigned to a primitive field");
+        } catch (RuntimeException e) {
+            assertEquals(5L, doc.l);
+        }
+
+        try {
+            ReflectionUtils.setPropertyValue(link, doc, 1);
+            Assert.fail("value of the wrong type must not be assigned");
+        } catch (RuntimeException e) {
+            assertEquals("/a", doc.documentSelfLink);
+        }
+    }
+
     /**
      * Create a ServiceDocument instance with fields of all known types.
      */
@@ -57,7 +57,11 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
+import com.vmware.xenon.common.AdaptiveConcurrencyLimiter.Decision;
 import com.vmware.xenon.common.Operation.CompletionHandler;
+import com.vmware.xenon.common.Operation.OperationOption;
+import com.vmware.xenon.common.OperationProcessingChain.FilterReturnCode;
+import com.vmware.xenon.common.OperationProcessingChain.OperationProcessingContext;
 import com.vmware.xenon.common.Service.Action;
 import com.vmware.xenon.common.Service.ProcessingStage;
 import com.vmware.xenon.common.Service.ServiceOption;
@@ -178,6 +182,78 @@ public class TestServiceHost {
         this.host.testWait();
     }
 
+    @Test
+    public void blockingExecutor() throws Throwable {
+        setUp(false);
+        Service s = this.host.startServiceAndWait(MinimalTestService.class, UUID.randomUUID()
+                .toString());
+
+        // the operation context must flow to the blocking executor
+        int count = Utils.DEFAULT_THREAD_COUNT * 4;
+        this.host.testStart(count);
+        String contextId = UUID.randomUUID().toString();
+        OperationContext.setContextId(contextId);
+        try {
+            for (int i = 0; i < count; i++) {
+                this.host.run(this.host.getBlockingExecutor(), () -> {
+                    try {
+                        // tasks block, but must not starve each other
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        this.host.failIteration(e);
+                        return;
+                    }
+                    if (!contextId.equals(OperationContext.getContextId())) {
+                        this.host.failIteration(new IllegalStateException("context not set"));
+                        return;
+                    }
+                    this.host.completeIteration();
+                });
+            }
+        } finally {
+            OperationContext.setContextId(null);
+        }
+        this.host.testWait();
+
+        ExecutorService exec = this.host.allocateBlockingExecutor(s);
+        try {
+            this.host.testStart(1);
+            exec.execute(() -> this.host.completeIteration());
+            this.host.testWait();
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void virtualThreadExecutor() throws Throwable {
+        setUp(false);
+        ExampleServiceHost h = new ExampleServiceHost();
+        try {
+            String[] args = {
+                    "--sandbox=" + this.tmpFolder.getRoot().getAbsolutePath(),
+                    "--port=0",
+                    "--isVirtualThreadExecutorEnabled=" + Boolean.TRUE.toString()
+            };
+
+            h.initialize(args);
+            assertTrue(h.isVirtualThreadExecutorEnabled());
+            h.start();
+
+            // the host falls back to the fork join pool if virtual threads are not
+            // available, either way requests must be served
+            this.host.testStart(1);
+            h.sendRequest(Operation
+                    .createGet(UriUtils.buildUri(h.getUri(), ServiceUriPaths.DEFAULT_NODE_GROUP))
+                    .setReferer(this.host.getReferer())
+                    .forceRemote()
+                    .setCompletion(this.host.getCompletion()));
+            this.host.testWait();
+        } finally {
+            h.stop();
+        }
+    }
+
     @Test
     public void operationTracingFineFiner() throws Throwable {
         setUp(false);
@@ -289,6 +365,100 @@ public class TestServiceHost {
         }
     }
 
+    @Test
+    public void admissionControl() throws Throwable {
+        setUp(false);
+        this.host.setMaintenanceIntervalMicros(TimeUnit.MILLISECONDS.toMicros(100));
+        this.host.setAdmissionControlEnabled(true);
+        AdaptiveConcurrencyLimiter limiter = this.host.getAdmissionLimiter();
+
+        // send requests at once, more than the initial limit, and expect throttled requests
+        // to complete and rejected requests to fail with UNAVAILABLE
+        int count = limiter.getLimit() * 2;
+        AtomicInteger rejectedCount = new AtomicInteger();
+        TestContext ctx = this.host.testCreate(count);
+        for (int i = 0; i < count; i++) {
+            Operation get = Operation.createGet(this.host.getManagementServiceUri())
+                    .forceRemote()
+                    .setCompletion((o, e) -> {
+                        if (e == null) {
+                            ctx.completeIteration();
+                            return;
+                        }
+                        if (o.getStatusCode() != Operation.STATUS_CODE_UNAVAILABLE) {
+                            ctx.failIteration(e);
+                            return;
+                        }
+                        rejectedCount.incrementAndGet();
+                        ctx.completeIteration();
+                    });
+            this.host.send(get);
+        }
+        ctx.await();
+        this.host.log("Rejected %d out of %d requests", rejectedCount.get(), count);
+        assertEquals(rejectedCount.get(), limiter.getRejectedCount());
+
+        this.host.waitFor("limiter not released", () -> limiter.getInFlightCount() == 0);
+
+        // the limiter state is published on the management service
+        this.host.waitFor("admission stats not published", () -> {
+            Map<String, ServiceStat> stats = this.host.getServiceStats(
+                    this.host.getManagementServiceUri());
+            ServiceStat limitStat = stats.get(ServiceHostManagementService.STAT_NAME_ADMISSION_LIMIT);
+            ServiceStat inFlightStat = stats
+                    .get(ServiceHostManagementService.STAT_NAME_ADMISSION_IN_FLIGHT_COUNT);
+            return limitStat != null && limitStat.latestValue == limiter.getLimit()
+                    && inFlightStat != null && inFlightStat.latestValue == 0;
+        });
+        this.host.setAdmissionControlEnabled(false);
+    }
+
+    @Test
+    public void admissionControlFilter() throws Throwable {
+        setUp(false);
+        this.host.setAdmissionControlEnabled(true);
+        AdaptiveConcurrencyLimiter limiter = this.host.getAdmissionLimiter();
+        AdmissionControlFilter filter = new AdmissionControlFilter();
+        OperationProcessingContext context = OperationProcessingChain.create()
+                .createContext(this.host);
+
+        // an operation queued by its target service passes through the chain again, it
+        // must be admitted and released once
+        AtomicInteger completionCount = new AtomicInteger();
+        Operation op = Operation.createGet(this.host.getManagementServiceUri())
+                .setCompletion((o, e) -> completionCount.incrementAndGet());
+        op.toggleOption(OperationOption.REMOTE, true);
+        assertEquals(FilterReturnCode.CONTINUE_PROCESSING, filter.processRequest(op, context));
+        assertEquals(FilterReturnCode.CONTINUE_PROCESSING, filter.processRequest(op, context));
+        assertEquals(1, limiter.getInFlightCount());
+        op.complete();
+        assertEquals(1, completionCount.get());
+        assertEquals(0, limiter.getInFlightCount());
+
+        // the listener throttle handler is invoked when the operation is throttled, before
+        // the operation completes
+        int limit = limiter.getLimit();
+        String subject = "other";
+        for (int i = 0; i < limit; i++) {
+            assertEquals(Decision.ADMIT, limiter.acquire(subject));
+        }
+        AtomicInteger throttleCount = new AtomicInteger();
+        Operation throttledOp = Operation.createGet(this.host.getManagementServiceUri())
+                .setAdmissionThrottleHandler(throttleCount::incrementAndGet)
+                .setCompletion((o, e) -> completionCount.incrementAndGet());
+        throttledOp.toggleOption(OperationOption.REMOTE, true);
+        assertEquals(FilterReturnCode.CONTINUE_PROCESSING,
+                filter.processRequest(throttledOp, context));
+        assertTrue(throttledOp.hasOption(OperationOption.ADMISSION_THROTTLED));
+        assertEquals(1, throttleCount.get());
+        throttledOp.complete();
+        for (int i = 0; i < limit; i++) {
+            limiter.release(subject, 0);
+        }
+        assertEquals(0, limiter.getInFlightCount());
+        this.host.setAdmissionControlEnabled(false);
+    }
+
     @Test
     public void requestRateLimits() throws Throwable {
         CommandLineArgumentParser.parseFromProperties(this);
@@ -945,6 +1115,35 @@ public class TestServiceHost {
         }
     }
 
+    @Test
+    public void nativeTransport() throws Throwable {
+        setUp(false);
+        ExampleServiceHost h = new ExampleServiceHost();
+        try {
+            String[] args = {
+                    "--sandbox=" + this.tmpFolder.getRoot().getAbsolutePath(),
+                    "--port=0",
+                    "--isNativeTransportEnabled=" + Boolean.TRUE.toString()
+            };
+
+            h.initialize(args);
+            assertTrue(h.isNativeTransportEnabled());
+            h.start();
+
+            // the host falls back to NIO if epoll is not available, either way requests
+            // must go through the listener and client
+            this.host.testStart(1);
+            h.sendRequest(Operation
+                    .createGet(UriUtils.buildUri(h.getUri(), ServiceUriPaths.DEFAULT_NODE_GROUP))
+                    .setReferer(this.host.getReferer())
+                    .forceRemote()
+                    .setCompletion(this.host.getCompletion()));
+            this.host.testWait();
+        } finally {
+            h.stop();
+        }
+    }
+
 
     @Test
     public void setAuthEnforcement() throws Throwable {
@@ -1483,6 +1682,36 @@ public class TestServiceHost {
         assertNotNull(cacheHitStat);
         assertTrue(cacheHitStat.latestValue >= requestCount * this.serviceCount);
 
+        // verify the idle services were evicted, and resident service memory is reported
+        ServiceStat cacheEvictionStat = mgmtStats
+                .get(ServiceHostManagementService.STAT_NAME_SERVICE_CACHE_EVICTION_COUNT);
+        assertNotNull(cacheEvictionStat);
+        assertTrue(cacheEvictionStat.latestValue >= this.serviceCount);
+        ServiceStat residentBytesStat = mgmtStats
+                .get(ServiceHostManagementService.STAT_NAME_SERVICE_CACHE_RESIDENT_BYTES);
+        assertNotNull(residentBytesStat);
+        ServiceStat limitBytesStat = mgmtStats
+                .get(ServiceHostManagementService.STAT_NAME_SERVICE_CACHE_LIMIT_BYTES);
+        assertNotNull(limitBytesStat);
+        assertTrue(limitBytesStat.latestValue > 0);
+
+        // verify the resident hit and miss counts, published during maintenance. Every
+        // service was added back to the clock on its reload, then hit by each GET
+        double residentMaintCount = getHostMaintenanceCount();
+        this.host.waitFor("wait for main.", () -> {
+            double latestCount = getHostMaintenanceCount();
+            return latestCount > residentMaintCount + 1;
+        });
+        mgmtStats = this.host.getServiceStats(this.host.getManagementServiceUri());
+        ServiceStat residentMissStat = mgmtStats
+                .get(ServiceHostManagementService.STAT_NAME_SERVICE_CACHE_RESIDENT_MISS_COUNT);
+        assertNotNull(residentMissStat);
+        assertTrue(residentMissStat.latestValue >= this.serviceCount);
+        ServiceStat residentHitStat = mgmtStats
+                .get(ServiceHostManagementService.STAT_NAME_SERVICE_CACHE_RESIDENT_HIT_COUNT);
+        assertNotNull(residentHitStat);
+        assertTrue(residentHitStat.latestValue >= requestCount * this.serviceCount);
+
         // now set host cache clear delay to a short value but the services' cached clear
         // delay to a long value, and verify that the services are stopped only after
         // the long value
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.Service.ServiceOption;
+import com.vmware.xenon.common.ServiceHost.AttachedServiceInfo;
+import com.vmware.xenon.services.common.MinimalTestService;
+
+public class TestServiceRegistry {
+
+    private static AttachedServiceInfo attach(ServiceRegistry registry, String path,
+            ServiceOption... options) {
+        Service s = new MinimalTestService();
+        s.setSelfLink(path);
+        for (ServiceOption option : options) {
+            s.toggleOption(option, true);
+        }
+        AttachedServiceInfo serviceInfo = new AttachedServiceInfo();
+        serviceInfo.service = s;
+        registry.put(path, serviceInfo);
+        return serviceInfo;
+    }
+
+    private static List<String> prefixQuery(ServiceRegistry registry, String prefix) {
+        List<String> links = new ArrayList<>();
+        registry.forEachWithPrefix(prefix, serviceInfo -> links.add(serviceInfo.service.getSelfLink()));
+        Collections.sort(links);
+        return links;
+    }
+
+    private static List<String> optionQuery(ServiceRegistry registry,
+            EnumSet<ServiceOption> options, boolean matchAllOptions,
+            EnumSet<ServiceOption> exclusionOptions) {
+        List<String> links = new ArrayList<>();
+        registry.forEachWithOptions(options, matchAllOptions, exclusionOptions,
+                serviceInfo -> links.add(serviceInfo.service.getSelfLink()));
+        Collections.sort(links);
+        return links;
+    }
+
+    @Test
+    public void putAndRemove() {
+        ServiceRegistry registry = new ServiceRegistry();
+        attach(registry, "/core/examples");
+        AttachedServiceInfo first = attach(registry, "/core/examples/1");
+        attach(registry, "/core/examples/2");
+
+        assertEquals(3, registry.size());
+        assertEquals(2, registry.getServiceCount("/core/examples"));
+        assertEquals(1, registry.getServiceCount("/core"));
+        assertSame(first, registry.get("/core/examples/1"));
+
+        // replacing an entry does not change the counts
+        AttachedServiceInfo replacement = attach(registry, "/core/examples/1");
+        assertEquals(3, registry.size());
+        assertEquals(2, registry.getServiceCount("/core/examples"));
+
+        // removing a stale entry is a no-op
+        assertNull(registry.remove("/core/examples/1", first));
+        assertSame(replacement, registry.remove("/core/examples/1", replacement));
+        assertSame(null, registry.remove("/core/examples/1"));
+        assertEquals(2, registry.size());
+        assertEquals(1, registry.getServiceCount("/core/examples"));
+
+        registry.remove("/core/examples/2");
+        assertEquals(0, registry.getServiceCount("/core/examples"));
+        assertEquals(1, registry.size());
+
+        // a removed shard is re-created on the next put
+        attach(registry, "/core/examples/3");
+        assertEquals(1, registry.getServiceCount("/core/examples"));
+
+        registry.clear();
+        assertEquals(0, registry.size());
+        assertNull(registry.get("/core/examples"));
+    }
+
+    @Test
+    public void prefixQuery() {
+        ServiceRegistry registry = new ServiceRegistry();
+        attach(registry, "/");
+        attach(registry, "/core");
+        attach(registry, "/core/examples");
+        attach(registry, "/core/examples/1");
+        attach(registry, "/core/examples/2");
+        attach(registry, "/core/examples/2/child");
+        attach(registry, "/core/examples-other/1");
+        attach(registry, "/core/exa");
+
+        assertEquals(Arrays.asList("/core/examples/1", "/core/examples/2",
+                "/core/examples/2/child"), prefixQuery(registry, "/core/examples/"));
+        assertEquals(Arrays.asList("/core/examples", "/core/examples-other/1",
+                "/core/examples/1", "/core/examples/2", "/core/examples/2/child"),
+                prefixQuery(registry, "/core/examples"));
+        assertEquals(Arrays.asList("/core/exa", "/core/examples", "/core/examples-other/1",
+                "/core/examples/1", "/core/examples/2", "/core/examples/2/child"),
+                prefixQuery(registry, "/core/exa"));
+        assertEquals(8, prefixQuery(registry, "").size());
+        assertEquals(8, prefixQuery(registry, "/").size());
+        assertEquals(0, prefixQuery(registry, "/other").size());
+    }
+
+    @Test
+    public void optionQuery() {
+        ServiceRegistry registry = new ServiceRegistry();
+        attach(registry, "/core/examples", ServiceOption.FACTORY);
+        attach(registry, "/core/examples/1", ServiceOption.PERSISTENCE);
+        AttachedServiceInfo other = attach(registry, "/core/examples/2");
+        attach(registry, "/core/examples/2/stats", ServiceOption.UTILITY);
+
+        assertEquals(Arrays.asList("/core/examples"),
+                optionQuery(registry, EnumSet.of(ServiceOption.FACTORY), true, null));
+
+        // the children shard is visited, the caller filters the non matching services
+        assertEquals(Arrays.asList("/core/examples/1", "/core/examples/2"),
+                optionQuery(registry, EnumSet.of(ServiceOption.PERSISTENCE), false, null));
+
+        // shards where every service is excluded, or a utility service, are skipped
+        assertEquals(Arrays.asList("/core/examples/1", "/core/examples/2"),
+                optionQuery(registry, EnumSet.noneOf(ServiceOption.class), true,
+                        EnumSet.of(ServiceOption.FACTORY)));
+        assertEquals(0, optionQuery(registry, EnumSet.noneOf(ServiceOption.class), false,
+                null).size());
+
+        // toggled options are reflected in the shard counts
+        assertEquals(0, optionQuery(registry, EnumSet.of(ServiceOption.INSTRUMENTATION), false,
+                null).size());
+        other.service.toggleOption(ServiceOption.INSTRUMENTATION, true);
+        registry.updateOption(other.service, ServiceOption.INSTRUMENTATION, true);
+        assertEquals(Arrays.asList("/core/examples/1", "/core/examples/2"),
+                optionQuery(registry, EnumSet.of(ServiceOption.INSTRUMENTATION), false, null));
+        other.service.toggleOption(ServiceOption.INSTRUMENTATION, false);
+        registry.updateOption(other.service, ServiceOption.INSTRUMENTATION, false);
+        assertEquals(0, optionQuery(registry, EnumSet.of(ServiceOption.INSTRUMENTATION), false,
+                null).size());
+
+        // counts are released on remove
+        registry.remove("/core/examples");
+        assertEquals(0, optionQuery(registry, EnumSet.of(ServiceOption.FACTORY), true,
+                null).size());
+    }
+
+    @Test
+    public void namespaceOwner() {
+        ServiceRegistry registry = new ServiceRegistry();
+        attach(registry, "/ns", ServiceOption.URI_NAMESPACE_OWNER);
+        AttachedServiceInfo nested = attach(registry, "/ns/nested",
+                ServiceOption.URI_NAMESPACE_OWNER);
+
+        assertSame(nested.service, registry.findNamespaceOwner("/ns/nested/a/b"));
+        assertEquals("/ns", registry.findNamespaceOwner("/ns/a").getSelfLink());
+        registry.remove("/ns/nested");
+        assertEquals("/ns", registry.findNamespaceOwner("/ns/nested/a/b").getSelfLink());
+        assertNull(registry.findNamespaceOwner("/other"));
+    }
+}
@@ -291,6 +291,35 @@ class NoUpdateOnPutService extends StatefulService {
     }
 }
 
+class FrozenStateService extends StatefulService {
+
+    @ServiceDocument.Frozen
+    public static class State extends ServiceDocument {
+        public String name;
+        public Long counter;
+    }
+
+    public FrozenStateService() {
+        super(State.class);
+    }
+
+    @Override
+    public void handlePatch(Operation patch) {
+        State body = getBody(patch);
+        State currentState = getState(patch);
+        if (body.name != null) {
+            // incorrect, the cached state is frozen
+            currentState.name = body.name;
+            patch.complete();
+            return;
+        }
+
+        State newState = Utils.clone(currentState);
+        newState.counter = body.counter;
+        setState(patch, newState);
+        patch.complete();
+    }
+}
 
 public class TestStatefulService extends BasicReusableHostTestCase {
 
@@ -305,6 +334,16 @@ public class TestStatefulService extends BasicReusableHostTestCase {
     }
 
 
+    public static class ReplicatedFrozenStateService extends FrozenStateService {
+        public static final String FACTORY_LINK = ServiceUriPaths.CORE + "/replicated-frozen";
+
+        public ReplicatedFrozenStateService() {
+            super();
+            toggleOption(ServiceOption.REPLICATION, true);
+            toggleOption(ServiceOption.OWNER_SELECTION, true);
+        }
+    }
+
     @Rule
     public TestResults testResults = new TestResults();
 
@@ -775,6 +814,15 @@ public class TestStatefulService extends BasicReusableHostTestCase {
         assertTrue(limitExceededCountSt != null);
         assertTrue(limitExceededCountSt.latestValue > 1);
 
+        // requests beyond the limit were rejected, so at least limit requests were queued
+        ServiceStat contentionCountSt = stats
+                .get(Service.STAT_NAME_OPERATION_QUEUE_CONTENTION_COUNT);
+        assertTrue(contentionCountSt != null);
+        assertTrue(contentionCountSt.latestValue >= limit);
+        ServiceStat queueDepthSt = stats.get(Service.STAT_NAME_OPERATION_QUEUE_DEPTH);
+        assertTrue(queueDepthSt != null);
+        assertTrue(queueDepthSt.latestValue <= limit);
+
         // make sure no operations are cancelled if we are below the limit
         this.host.testStart(limit - 1);
         for (int i = 0; i < limit - 1; i++) {
@@ -1124,6 +1172,105 @@ public class TestStatefulService extends BasicReusableHostTestCase {
         }
     }
 
+    @Test
+    public void frozenState() throws Throwable {
+        FrozenDocuments.setMutationDetectionEnabled(true);
+        try {
+            URI serviceUri = UriUtils.buildUri(this.host, UUID.randomUUID().toString());
+            FrozenStateService.State initialState = new FrozenStateService.State();
+            initialState.name = "frozen";
+            initialState.counter = 0L;
+            this.host.startServiceAndWait(new FrozenStateService(), serviceUri.getPath(),
+                    initialState);
+
+            TestRequestSender sender = this.host.getTestRequestSender();
+            for (long i = 1; i <= 3; i++) {
+                FrozenStateService.State body = new FrozenStateService.State();
+                body.counter = i;
+                sender.sendAndWait(Operation.createPatch(serviceUri).setBody(body));
+                FrozenStateService.State state = sender.sendAndWait(
+                        Operation.createGet(serviceUri), FrozenStateService.State.class);
+                assertEquals(i, state.counter.longValue());
+                assertEquals(i, state.documentVersion);
+                assertEquals("frozen", state.name);
+            }
+
+            // a handler mutating the cached state in place is detected
+            FrozenStateService.State body = new FrozenStateService.State();
+            body.name = "mutated";
+            FailureResponse rsp = sender.sendAndWaitFailure(
+                    Operation.createPatch(serviceUri).setBody(body));
+            assertTrue(rsp.failure instanceof IllegalStateException);
+        } finally {
+            FrozenDocuments.setMutationDetectionEnabled(false);
+        }
+    }
+
+    @Test
+    public void frozenStateReplicated() throws Throwable {
+        int nodeCount = 3;
+        this.host.setUpPeerHosts(nodeCount);
+        this.host.joinNodesAndVerifyConvergence(nodeCount, true);
+        this.host.setNodeGroupQuorum(nodeCount);
+
+        for (VerificationHost h : this.host.getInProcessHostMap().values()) {
+            h.startFactory(new ReplicatedFrozenStateService());
+        }
+        VerificationHost peer = this.host.getPeerHost();
+        this.host.waitForReplicatedFactoryServiceAvailable(
+                UriUtils.buildUri(peer, ReplicatedFrozenStateService.FACTORY_LINK));
+
+        FrozenDocuments.setMutationDetectionEnabled(true);
+        try {
+            TestRequestSender sender = peer.getTestRequestSender();
+            List<String> links = new ArrayList<>();
+            for (int i = 0; i < nodeCount * 2; i++) {
+                FrozenStateService.State body = new FrozenStateService.State();
+                body.name = "frozen-" + i;
+                body.counter = 0L;
+                // a local POST hands the frozen instance to the factory without a copy
+                FrozenStateService.State created = sender.sendAndWait(
+                        Operation.createPost(peer, ReplicatedFrozenStateService.FACTORY_LINK)
+                                .setBody(body),
+                        FrozenStateService.State.class);
+                assertNull(body.documentSelfLink);
+                assertNull(body.documentOwner);
+                assertNull(body.documentEpoch);
+                assertNull(body.documentKind);
+                assertEquals(0, body.documentVersion);
+                assertNotNull(created.documentOwner);
+                links.add(created.documentSelfLink);
+            }
+
+            // a new epoch on the owner makes the cached state stale: the update must stamp the
+            // new epoch on a copy, not on the frozen state concurrent requests still read
+            for (String link : links) {
+                VerificationHost owner = this.host.getOwnerPeer(link);
+                ServiceConfigUpdateRequest configBody = ServiceConfigUpdateRequest.create();
+                configBody.epoch = 1L;
+                owner.getTestRequestSender().sendAndWait(Operation.createPatch(
+                        UriUtils.buildConfigUri(owner, link)).setBody(configBody));
+                FrozenStateService.State state = owner.getTestRequestSender().sendAndWait(
+                        Operation.createGet(owner, link), FrozenStateService.State.class);
+                assertEquals(1L, state.documentEpoch.longValue());
+                for (long i = 1; i <= 2; i++) {
+                    FrozenStateService.State body = new FrozenStateService.State();
+                    body.counter = i;
+                    owner.getTestRequestSender().sendAndWait(
+                            Operation.createPatch(owner, link).setBody(body));
+                }
+                state = sender.sendAndWait(
+                        Operation.createGet(peer, link), FrozenStateService.State.class);
+                assertEquals(2L, state.counter.longValue());
+                assertEquals(2L, state.documentVersion);
+                assertEquals(owner.getId(), state.documentOwner);
+                assertEquals(1L, state.documentEpoch.longValue());
+            }
+        } finally {
+            FrozenDocuments.setMutationDetectionEnabled(false);
+        }
+    }
+
     @Test
     public void forwardWithNullBodyResponse() throws Throwable {
 
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestTimingWheel {
+
+    private static final long TICK_MICROS = 1000;
+
+    public int count = 10000;
+
+    @Before
+    public void setUp() {
+        CommandLineArgumentParser.parseFromProperties(this);
+    }
+
+    @Test
+    public void scheduleAndAdvance() {
+        long start = 5 * TICK_MICROS + 10;
+        TimingWheel wheel = new TimingWheel(TICK_MICROS, start);
+        AtomicInteger ran = new AtomicInteger();
+
+        wheel.schedule(start + 2 * TICK_MICROS, ran::incrementAndGet);
+        assertEquals(1, wheel.size());
+
+        // deadline not reached yet
+        assertEquals(0, wheel.advance(start + TICK_MICROS));
+        assertEquals(0, ran.get());
+
+        assertEquals(1, wheel.advance(start + 3 * TICK_MICROS));
+        assertEquals(1, ran.get());
+        assertEquals(0, wheel.size());
+
+        // deadlines in the past run on the next advance, without the wheel time moving
+        TimingWheel.Timeout t = wheel.schedule(start, ran::incrementAndGet);
+        assertEquals(1, wheel.advance(start));
+        assertEquals(2, ran.get());
+        assertTrue(t.isExpired());
+        assertFalse(t.cancel());
+    }
+
+    @Test
+    public void cancel() {
+        TimingWheel wheel = new TimingWheel(TICK_MICROS, 0);
+        AtomicInteger ran = new AtomicInteger();
+        TimingWheel.Timeout t = wheel.schedule(10 * TICK_MICROS, ran::incrementAndGet);
+        wheel.schedule(10 * TICK_MICROS, ran::incrementAndGet);
+
+        assertTrue(t.cancel());
+        assertTrue(t.isCancelled());
+        assertFalse(t.cancel());
+        assertEquals(1, wheel.size());
+
+        assertEquals(1, wheel.advance(20 * TICK_MICROS));
+        assertEquals(1, ran.get());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void taskFailureDoesNotStopAdvance() {
+        TimingWheel wheel = new TimingWheel(TICK_MICROS, 0);
+        AtomicInteger ran = new AtomicInteger();
+        wheel.schedule(TICK_MICROS, () -> {
+            throw new IllegalStateException("expected");
+        });
+        wheel.schedule(TICK_MICROS, ran::incrementAndGet);
+        assertEquals(2, wheel.advance(TICK_MICROS));
+        assertEquals(1, ran.get());
+    }
+
+    /**
+     * Schedules tasks across all wheel levels, plus the overflow list, and verifies each runs
+     * once, on the first advance past its deadline
+     */
+    @Test
+    public void expirationAcrossLevels() {
+        long start = 123456789L;
+        long[] spans = new long[] {
+                TimingWheel.WHEEL_SIZE,
+                (long) TimingWheel.WHEEL_SIZE * TimingWheel.WHEEL_SIZE,
+                (long) TimingWheel.WHEEL_SIZE * TimingWheel.WHEEL_SIZE * TimingWheel.WHEEL_SIZE,
+                1L << 37,
+        };
+
+        for (long span : spans) {
+            TimingWheel wheel = new TimingWheel(TICK_MICROS, start);
+            Random r = new Random(span);
+            long[] now = new long[] { start };
+            long[] deadlines = new long[this.count];
+            long[] ranAt = new long[this.count];
+            int[] runCount = new int[this.count];
+            for (int i = 0; i < this.count; i++) {
+                int index = i;
+                deadlines[i] = start + (long) (r.nextDouble() * span * TICK_MICROS);
+                wheel.schedule(deadlines[i], () -> {
+                    ranAt[index] = now[0];
+                    runCount[index]++;
+                });
+            }
+
+            // advance in irregular steps, recording the time of each advance
+            List<Long> advanceTimes = new ArrayList<>();
+            advanceTimes.add(start);
+            long end = start + (span + 1) * TICK_MICROS;
+            long maxStep = Math.max(1, 2 * span * TICK_MICROS / 500);
+            while (now[0] < end) {
+                now[0] = Math.min(end, now[0] + 1 + (long) (r.nextDouble() * maxStep));
+                advanceTimes.add(now[0]);
+                wheel.advance(now[0]);
+            }
+
+            assertEquals(0, wheel.size());
+            for (int i = 0; i < this.count; i++) {
+                assertEquals(1, runCount[i]);
+                assertTrue(ranAt[i] >= deadlines[i]);
+                // the previous advance happened before the tick the deadline rounds up to
+                int at = advanceTimes.indexOf(ranAt[i]);
+                long previous = advanceTimes.get(at - 1);
+                long deadlineTick = (deadlines[i] + TICK_MICROS - 1) / TICK_MICROS;
+                assertTrue(previous / TICK_MICROS < deadlineTick);
+            }
+        }
+    }
+
+    @Test
+    public void deadlinesAreNotMissedWithSmallSteps() {
+        TimingWheel wheel = new TimingWheel(TICK_MICROS, 0);
+        long horizon = 5 * TimingWheel.WHEEL_SIZE * TimingWheel.WHEEL_SIZE;
+        long[] ranAt = new long[(int) horizon];
+        long[] now = new long[1];
+        for (int i = 0; i < horizon; i++) {
+            int index = i;
+            wheel.schedule(i * TICK_MICROS, () -> ranAt[index] = now[0]);
+        }
+        for (now[0] = 0; now[0] <= horizon * TICK_MICROS; now[0] += TICK_MICROS) {
+            wheel.advance(now[0]);
+        }
+        for (int i = 0; i < horizon; i++) {
+            // with single tick steps each task runs exactly at its deadline
+            assertEquals(i * TICK_MICROS, ranAt[i]);
+        }
+    }
+
+    /**
+     * Schedules and cancels tasks from several threads while another thread advances the wheel,
+     * and verifies each task that was not cancelled runs exactly once
+     */
+    @Test
+    public void concurrentScheduleCancelAndAdvance() throws Throwable {
+        int threadCount = 4;
+        TimingWheel wheel = new TimingWheel(TICK_MICROS, 0);
+        AtomicInteger ran = new AtomicInteger();
+        AtomicInteger cancelled = new AtomicInteger();
+        AtomicLong now = new AtomicLong();
+        AtomicBoolean isDone = new AtomicBoolean();
+
+        Thread ticker = new Thread(() -> {
+            while (!isDone.get()) {
+                wheel.advance(now.addAndGet(TICK_MICROS));
+            }
+        });
+        ticker.start();
+
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread producer = new Thread(() -> {
+                Random r = new Random();
+                for (int j = 0; j < this.count; j++) {
+                    long deadline = now.get() + r.nextInt(100) * TICK_MICROS;
+                    TimingWheel.Timeout t = wheel.schedule(deadline, ran::incrementAndGet);
+                    if (j % 2 == 0 && t.cancel()) {
+                        cancelled.incrementAndGet();
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        isDone.set(true);
+        ticker.join();
+
+        // past all deadlines
+        wheel.advance(now.get() + 200 * TICK_MICROS);
+        assertEquals(0, wheel.size());
+        assertEquals(threadCount * this.count, ran.get() + cancelled.get());
+        assertTrue(cancelled.get() > 0);
+    }
+}
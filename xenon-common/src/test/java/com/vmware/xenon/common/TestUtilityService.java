@@ -29,6 +29,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.vmware.xenon.common.Service.ServiceOption;
+import com.vmware.xenon.common.ServiceStats.RingBufferTimeSeriesStats;
 import com.vmware.xenon.common.ServiceStats.ServiceStat;
 import com.vmware.xenon.common.ServiceStats.ServiceStatLogHistogram;
 import com.vmware.xenon.common.ServiceStats.TimeSeriesStats;
@@ -650,6 +651,105 @@ public class TestUtilityService extends BasicReusableHostTestCase {
                 .equals(TimeUnit.MICROSECONDS.toMillis(sourceTimeMicrosUtc2)));
     }
 
+    @Test
+    public void testRingBufferTimeSeriesStats() throws Throwable {
+        long startTime = TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis());
+        int numBins = 4;
+        long interval = 1000;
+        TimeSeriesStats expected = new TimeSeriesStats(numBins, interval,
+                EnumSet.allOf(AggregationType.class));
+        TimeSeriesStats ring = new RingBufferTimeSeriesStats(numBins, interval,
+                EnumSet.allOf(AggregationType.class));
+
+        // fill more than the number of bins, with several data points per bin
+        double value = 100;
+        for (int i = 0; i < numBins * 2; i++) {
+            startTime += TimeUnit.MILLISECONDS.toMicros(interval);
+            for (int j = 0; j < 3; j++) {
+                value += j;
+                expected.add(startTime, value, j);
+                ring.add(startTime, value, j);
+            }
+        }
+
+        ring.refreshBins();
+        assertEquals(expected.bins.keySet(), ring.bins.keySet());
+        for (Map.Entry<Long, TimeBin> e : expected.bins.entrySet()) {
+            TimeBin expectedBin = e.getValue();
+            TimeBin bin = ring.bins.get(e.getKey());
+            assertEquals(expectedBin.count, bin.count, 0);
+            assertEquals(expectedBin.avg, bin.avg, 0.0001);
+            assertEquals(expectedBin.var, bin.var, 0.0001);
+            assertEquals(expectedBin.sum, bin.sum);
+            assertEquals(expectedBin.min, bin.min);
+            assertEquals(expectedBin.max, bin.max);
+            assertEquals(expectedBin.latest, bin.latest);
+        }
+
+        // the serialized form is the same as for the default implementation
+        ServiceStat stat = new ServiceStat();
+        stat.name = "ring";
+        stat.timeSeriesStats = ring;
+        String json = Utils.toJson(Utils.clone(stat));
+        assertTrue(!json.contains("slot"));
+        ServiceStat clone = Utils.fromJson(json, ServiceStat.class);
+        assertEquals(expected.bins.keySet(), clone.timeSeriesStats.bins.keySet());
+        assertEquals(numBins, clone.timeSeriesStats.numBins);
+        assertEquals(interval, clone.timeSeriesStats.binDurationMillis);
+
+        // data older than the bins is ignored
+        long oldTime = startTime - TimeUnit.MILLISECONDS.toMicros(interval * numBins);
+        ring.add(oldTime, value, 1);
+        ring.refreshBins();
+        assertEquals(expected.bins.keySet(), ring.bins.keySet());
+
+        // a subset of the aggregation types leaves the other aggregates unset
+        ring = new RingBufferTimeSeriesStats(numBins, interval, EnumSet.of(AggregationType.SUM));
+        ring.add(startTime, value, 1);
+        ring.add(startTime, value, 2);
+        ring.refreshBins();
+        TimeBin lastBin = ring.bins.get(ring.bins.lastKey());
+        assertTrue(lastBin.sum == 3);
+        assertTrue(lastBin.avg == null);
+        assertTrue(lastBin.count == 0);
+        assertTrue(lastBin.max == null);
+        assertTrue(lastBin.min == null);
+        assertTrue(lastBin.latest == null);
+
+        // concurrent updates to the same bin are not lost
+        TimeSeriesStats concurrentRing = new RingBufferTimeSeriesStats(numBins, interval,
+                EnumSet.of(AggregationType.AVG, AggregationType.SUM));
+        long binTime = startTime;
+        int threadCount = 4;
+        int updateCount = 10000;
+        TestContext ctx = testCreate(threadCount);
+        for (int t = 0; t < threadCount; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < updateCount; i++) {
+                    concurrentRing.add(binTime, 1, 1);
+                }
+                ctx.complete();
+            }).start();
+        }
+        testWait(ctx);
+        concurrentRing.refreshBins();
+        lastBin = concurrentRing.bins.get(concurrentRing.bins.lastKey());
+        assertEquals(threadCount * updateCount, lastBin.count, 0);
+        assertEquals(threadCount * updateCount, lastBin.sum, 0);
+        assertEquals(1.0, lastBin.avg, 0);
+
+        // the variance stays accurate for large values with a small spread: the values are
+        // 1e9 + {0, 3, 6, 9}, with squared differences from the average of 11.25 on average
+        ring = new RingBufferTimeSeriesStats(numBins, interval, EnumSet.of(AggregationType.AVG));
+        for (int i = 0; i < 1000; i++) {
+            ring.add(startTime, 1e9 + (i % 4) * 3, 0);
+        }
+        ring.refreshBins();
+        lastBin = ring.bins.get(ring.bins.lastKey());
+        assertEquals(1e9 + 4.5, lastBin.avg, 1e-6);
+        assertEquals(11.25 * 1000, lastBin.var, 1e-3);
+    }
+
     public static class SetAvailableValidationService extends StatefulService {
 
         public SetAvailableValidationService() {
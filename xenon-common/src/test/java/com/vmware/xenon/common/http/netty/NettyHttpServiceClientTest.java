@@ -19,6 +19,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -612,6 +613,31 @@ public class NettyHttpServiceClientTest {
                 services);
     }
 
+    @Test
+    public void patchRemoteNonAsciiBody() throws Throwable {
+        List<Service> services = this.host.doThroughputServiceStart(
+                1, MinimalTestService.class, this.host.buildMinimalTestState(), null,
+                null);
+        TestRequestSender sender = this.host.getTestRequestSender();
+
+        // two, three and four byte UTF-8 sequences, in JSON and binary bodies
+        String value = "caf\u00e9 \u2713 \ud83d\ude00 " + UUID.randomUUID().toString();
+        for (String contentType : Arrays.asList(Operation.MEDIA_TYPE_APPLICATION_JSON,
+                Operation.MEDIA_TYPE_APPLICATION_KRYO_OCTET_STREAM)) {
+            MinimalTestServiceState body = new MinimalTestServiceState();
+            body.id = UUID.randomUUID().toString();
+            body.stringValue = value;
+            Operation patch = Operation.createPatch(services.get(0).getUri())
+                    .setBody(body)
+                    .setContentType(contentType)
+                    .forceRemote();
+
+            Operation resOp = sender.sendAndWait(patch);
+            MinimalTestServiceState rsp = resOp.getBody(MinimalTestServiceState.class);
+            assertEquals(value, rsp.stringValue);
+        }
+    }
+
     @Test
     public void putOverMaxRequestLimit() throws Throwable {
         this.host.setOperationTimeOutMicros(TimeUnit.SECONDS.toMicros(1));
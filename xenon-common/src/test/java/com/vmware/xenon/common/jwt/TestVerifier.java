@@ -15,6 +15,8 @@ package com.vmware.xenon.common.jwt;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -105,4 +107,40 @@ public class TestVerifier extends TestCase {
         Rfc7519Claims claims = this.verifier.verify(jwt);
         assertNotNull(claims);
     }
+
+    @Test(expected = InvalidTokenException.class)
+    public void noAlgorithmHeader() throws Exception {
+        String header = b64e("{\"typ\": \"JWT\"}");
+        String payload = b64e("{}");
+        this.verifier.verify(String.format("%s.%s.signature", header, payload));
+    }
+
+    @Test(expected = InvalidTokenException.class)
+    public void invalidEncoding() throws Exception {
+        this.verifier.verify("a.b.c");
+    }
+
+    @Test
+    public void verifiedTokenCache() throws Exception {
+        String header = b64e("{\"typ\": \"JWT\", \"alg\": \"HS256\"}");
+        String payload = b64e("{\"sub\": \"jane\"}");
+        String signature = sign(header, payload);
+        String jwt = String.format("%s.%s.%s", header, payload, signature);
+
+        // claims of a verified token are cached, per claims type
+        Rfc7519Claims claims = this.verifier.verify(jwt);
+        assertEquals("jane", claims.getSubject());
+        assertSame(claims, this.verifier.verify(new String(jwt)));
+        Rfc7515A1Claims otherClaims = this.verifier.verify(jwt, Rfc7515A1Claims.class);
+        assertEquals("jane", otherClaims.getSubject());
+
+        // a token with the signature of a cached token is verified
+        String otherPayload = b64e("{\"sub\": \"john\"}");
+        try {
+            this.verifier.verify(String.format("%s.%s.%s", header, otherPayload, signature));
+            fail("Signature of a different token was accepted");
+        } catch (InvalidSignatureException e) {
+            // expected
+        }
+    }
 }
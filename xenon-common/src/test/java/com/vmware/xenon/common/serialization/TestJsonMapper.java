@@ -47,6 +47,7 @@ import com.vmware.xenon.common.ServiceHost.Arguments;
 import com.vmware.xenon.common.TestGsonConfiguration;
 import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.common.test.TestContext;
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
 import com.vmware.xenon.services.common.QueryTask.Query;
 import com.vmware.xenon.services.common.QueryTask.Query.Builder;
 
@@ -129,6 +130,41 @@ public class TestJsonMapper {
         }
     }
 
+    @Test
+    public void testObjectMapDocumentValue() {
+        ExampleServiceState state = new ExampleServiceState();
+        state.name = "jane";
+        state.counter = 5L;
+        state.documentSelfLink = "/core/examples/jane";
+
+        // documents are streamed into the map, the output must match the json tree
+        JsonMapTestObject docMap = new JsonMapTestObject();
+        docMap.map = new HashMap<>();
+        docMap.map.put(state.documentSelfLink, state);
+        docMap.map.put("null", null);
+        JsonMapTestObject treeMap = new JsonMapTestObject();
+        treeMap.map = new HashMap<>();
+        treeMap.map.put(state.documentSelfLink,
+                GsonSerializers.getJsonMapperFor(state).toJsonElement(state));
+        treeMap.map.put("null", null);
+        assertEquals(Utils.toJson(treeMap), Utils.toJson(docMap));
+
+        JsonMapTestObject dstMap = Utils.fromJson(Utils.toJson(docMap), JsonMapTestObject.class);
+        Object entry = dstMap.map.get(state.documentSelfLink);
+        assertTrue(entry instanceof JsonElement);
+        ExampleServiceState dstState = Utils.fromJson(entry, ExampleServiceState.class);
+        assertEquals(state.name, dstState.name);
+        assertEquals(state.counter, dstState.counter);
+
+        // documents convert directly, without a round trip through a string
+        dstState = Utils.fromJson(state, ExampleServiceState.class);
+        assertTrue(dstState == state);
+        ServiceDocument base = Utils.fromJson((Object) state, ServiceDocument.class);
+        assertEquals(state.documentSelfLink, base.documentSelfLink);
+        JsonElement tree = Utils.fromJson((Object) state, JsonElement.class);
+        assertEquals("jane", tree.getAsJsonObject().get("name").getAsString());
+    }
+
     @Test
     public void testObjectCollectionValue() {
         JsonColTestObject srcCol = new JsonColTestObject();
@@ -15,22 +15,30 @@
 package com.vmware.xenon.services.common;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.net.HttpURLConnection;
 import java.net.URI;
+import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import com.vmware.xenon.common.BasicReusableHostTestCase;
+import com.vmware.xenon.common.FileUtils;
 import com.vmware.xenon.common.Operation;
 import com.vmware.xenon.common.ServiceHost.ServiceHostState;
 import com.vmware.xenon.common.UriUtils;
 import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.test.TestRequestSender;
 import com.vmware.xenon.common.test.TestRequestSender.FailureResponse;
+import com.vmware.xenon.common.test.VerificationHost;
 
 public class TestDirectoryService extends BasicReusableHostTestCase {
 
@@ -56,6 +64,128 @@ public class TestDirectoryService extends BasicReusableHostTestCase {
         assertEquals(this.host.getId(), hs.id);
     }
 
+    private String createContentFile(int length) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(i % 10);
+        }
+        String content = sb.toString();
+        Path file = new File(this.host.getStorageSandbox()).toPath().resolve("content.txt");
+        Files.write(file, content.getBytes(Utils.CHARSET));
+        return content;
+    }
+
+    @Test
+    public void serveFromListener() throws IOException {
+        int length = 1000;
+        String content = createContentFile(length);
+        String link = SELF_LINK + "/content.txt";
+        TestRequestSender sender = this.host.getTestRequestSender();
+
+        Operation get = sender.sendAndWait(Operation.createGet(this.host, link).forceRemote());
+        assertEquals(Operation.STATUS_CODE_OK, get.getStatusCode());
+        assertEquals(content, get.getBody(String.class));
+        String entityTag = get.getResponseHeader(Operation.ETAG_HEADER);
+        assertNotNull(entityTag);
+        String lastModified = get.getResponseHeader(Operation.LAST_MODIFIED_HEADER);
+        assertNotNull(lastModified);
+
+        get = sender.sendAndWait(Operation.createGet(this.host, link).forceRemote()
+                .setConnectionSharing(true));
+        assertEquals(content, get.getBody(String.class));
+
+        // unchanged files are not sent again
+        get = sender.sendAndWait(Operation.createGet(this.host, link).forceRemote()
+                .addRequestHeader(Operation.IF_NONE_MATCH_HEADER, entityTag));
+        assertEquals(Operation.STATUS_CODE_NOT_MODIFIED, get.getStatusCode());
+        get = sender.sendAndWait(Operation.createGet(this.host, link)
+                .addRequestHeader(Operation.IF_MODIFIED_SINCE_HEADER, lastModified));
+        assertEquals(Operation.STATUS_CODE_NOT_MODIFIED, get.getStatusCode());
+
+        // ranges are served from the listener and in process, the last position is inclusive
+        String[][] ranges = {
+                { "bytes=10-30", "bytes 10-30/" + length, content.substring(10, 31) },
+                { "bytes=0-0", "bytes 0-0/" + length, content.substring(0, 1) },
+                { "bytes=990-", "bytes 990-999/" + length, content.substring(990) },
+                { "bytes=-5", "bytes 995-999/" + length, content.substring(995) },
+                { "bytes=900-2000", "bytes 900-999/" + length, content.substring(900) },
+        };
+        for (boolean isRemote : new boolean[] { true, false }) {
+            for (String[] r : ranges) {
+                get = Operation.createGet(this.host, link)
+                        .addRequestHeader(Operation.RANGE_HEADER, r[0]);
+                if (isRemote) {
+                    get.forceRemote();
+                }
+                get = sender.sendAndWait(get);
+                assertEquals(Operation.STATUS_CODE_PARTIAL_CONTENT, get.getStatusCode());
+                assertEquals(r[1], get.getResponseHeader(Operation.CONTENT_RANGE_HEADER));
+                Object body = get.getBodyRaw();
+                String range = body instanceof byte[] ? new String((byte[]) body, Utils.CHARSET)
+                        : (String) body;
+                assertEquals(r[2], range);
+            }
+
+            // ranges past the end of the file are not satisfiable
+            get = Operation.createGet(this.host, link)
+                    .addRequestHeader(Operation.RANGE_HEADER, "bytes=" + length + "-");
+            if (isRemote) {
+                get.forceRemote();
+            }
+            FailureResponse failure = sender.sendAndWaitFailure(get);
+            assertEquals(Operation.STATUS_CODE_RANGE_NOT_SATISFIABLE,
+                    failure.op.getStatusCode());
+
+            // malformed ranges are ignored, and the whole file is served
+            get = Operation.createGet(this.host, link)
+                    .addRequestHeader(Operation.RANGE_HEADER, "bytes=30-10");
+            if (isRemote) {
+                get.forceRemote();
+            }
+            get = sender.sendAndWait(get);
+            assertEquals(Operation.STATUS_CODE_OK, get.getStatusCode());
+            assertEquals(content, get.getBody(String.class));
+        }
+
+        // text files are still compressed for clients accepting gzip
+        URL url = UriUtils.buildUri(this.host, link).toURL();
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestProperty(Operation.ACCEPT_ENCODING_HEADER, Operation.CONTENT_ENCODING_GZIP);
+        assertEquals(Operation.CONTENT_ENCODING_GZIP,
+                conn.getHeaderField(Operation.CONTENT_ENCODING_HEADER));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPInputStream in = new GZIPInputStream(conn.getInputStream())) {
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        assertEquals(content, new String(out.toByteArray(), Utils.CHARSET));
+    }
+
+    @Test
+    public void serveFromSecureListener() throws Throwable {
+        // larger than a chunk, so the content is written in several parts
+        String content = createContentFile(FileUtils.ContentRange.CHUNK_SIZE + 1000);
+        VerificationHost secureHost = VerificationHost.create(0);
+        try {
+            VerificationHost.createAndAttachSSLClient(secureHost);
+            secureHost.setSecurePort(0);
+            secureHost.start();
+            secureHost.startServiceAndWait(
+                    new DirectoryContentService(new File(this.host.getStorageSandbox()).toPath()),
+                    SELF_LINK, null);
+
+            Operation get = secureHost.getTestRequestSender().sendAndWait(Operation.createGet(
+                    UriUtils.buildUri(secureHost.getSecureUri(), SELF_LINK + "/content.txt"))
+                    .forceRemote());
+            assertEquals(content, get.getBody(String.class));
+        } finally {
+            secureHost.tearDown();
+        }
+    }
+
     @Test
     public void testNonExistentFile() {
         String badFile = "/wikipedia.docx";
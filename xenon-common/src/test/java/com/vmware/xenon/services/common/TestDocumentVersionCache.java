@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.services.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TestDocumentVersionCache {
+
+    private static final String LINK = "/core/examples/a";
+
+    @Test
+    public void updateAndTouch() {
+        DocumentVersionCache cache = new DocumentVersionCache();
+        assertNull(cache.get(LINK));
+
+        cache.update(LINK, 2, 100);
+        DocumentVersionCache.Entry e = cache.get(LINK);
+        assertEquals(2, e.version);
+        assertEquals(100, e.updateTimeMicros);
+
+        // stale versions are ignored
+        cache.update(LINK, 1, 200);
+        assertEquals(2, cache.get(LINK).version);
+        assertEquals(100, cache.get(LINK).updateTimeMicros);
+
+        cache.touch(LINK, 300);
+        assertEquals(2, cache.get(LINK).version);
+        assertEquals(300, cache.get(LINK).updateTimeMicros);
+
+        // touch does not create entries
+        cache.touch("/core/examples/b", 300);
+        assertNull(cache.get("/core/examples/b"));
+        assertEquals(1, cache.size());
+
+        cache.remove(LINK);
+        assertNull(cache.get(LINK));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEstimatedBytes());
+
+        cache.recordLookup(true);
+        cache.recordLookup(false);
+        assertEquals(0.5, cache.getHitRatio(), 0);
+    }
+
+    @Test
+    public void hashCollisions() {
+        // every link hashes to the same key
+        DocumentVersionCache cache = new DocumentVersionCache(link -> 42L);
+        for (int i = 0; i < 10; i++) {
+            cache.update(LINK + i, i, i);
+        }
+        assertEquals(10, cache.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, cache.get(LINK + i).version);
+        }
+        assertNull(cache.get(LINK));
+
+        cache.remove(LINK + 5);
+        cache.update(LINK + 3, 30, 30);
+        assertNull(cache.get(LINK + 5));
+        assertEquals(30, cache.get(LINK + 3).version);
+        assertEquals(9, cache.get(LINK + 9).version);
+        assertEquals(9, cache.size());
+    }
+
+    @Test
+    public void growAndReuseRemovedSlots() {
+        DocumentVersionCache cache = new DocumentVersionCache();
+        int count = 10000;
+        for (int i = 0; i < count; i++) {
+            cache.update(LINK + i, i, i);
+        }
+        assertEquals(count, cache.size());
+        long bytes = cache.getEstimatedBytes();
+
+        // remove and re-add every other link, several times, leaving tombstones behind
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < count; i += 2) {
+                cache.remove(LINK + i);
+            }
+            assertEquals(count / 2, cache.size());
+            for (int i = 0; i < count; i += 2) {
+                assertNull(cache.get(LINK + i));
+                cache.update(LINK + i, i, i);
+            }
+        }
+
+        assertEquals(count, cache.size());
+        assertEquals(bytes, cache.getEstimatedBytes());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, cache.get(LINK + i).version);
+        }
+    }
+
+    @Test
+    public void applyMemoryLimit() {
+        DocumentVersionCache cache = new DocumentVersionCache();
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            cache.update(LINK + i, 1, 1);
+        }
+        long bytes = cache.getEstimatedBytes();
+        assertTrue(bytes > 0);
+
+        // within budget, nothing is evicted
+        assertEquals(0, cache.applyMemoryLimit(bytes, link -> true));
+        assertEquals(count, cache.size());
+
+        // evictable entries go first
+        int evicted = cache.applyMemoryLimit(bytes - 1, link -> link.endsWith("0"));
+        assertEquals(count / 10, evicted);
+        assertNull(cache.get(LINK + 10));
+        assertNotNull(cache.get(LINK + 11));
+
+        // with no evictable entries, whole segments are cleared until within budget
+        long budget = cache.getEstimatedBytes() / 2;
+        evicted = cache.applyMemoryLimit(budget, link -> false);
+        assertTrue(evicted > 0);
+        assertTrue(cache.getEstimatedBytes() <= budget);
+        assertEquals(count - count / 10 - evicted, cache.size());
+
+        // without a budget only evictable entries are removed
+        evicted = cache.applyMemoryLimit(0, link -> false);
+        assertEquals(0, evicted);
+        assertTrue(cache.size() > 0);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getEstimatedBytes());
+    }
+
+    @Test
+    public void concurrentUpdates() throws Throwable {
+        DocumentVersionCache cache = new DocumentVersionCache();
+        int threadCount = 8;
+        int versionCount = 1000;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Throwable> failures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threadCount; t++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                        for (int v = 0; v < versionCount; v++) {
+                            cache.update(LINK + (v % 10), v, v);
+                            cache.get(LINK + (v % 7));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failures) {
+                            failures.add(e);
+                        }
+                    }
+                });
+            }
+            start.countDown();
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+
+        assertTrue(failures.isEmpty());
+        assertEquals(10, cache.size());
+        for (int i = 0; i < 10; i++) {
+            // the highest version written for link i
+            int expected = versionCount - 10 + i;
+            assertEquals(expected, cache.get(LINK + i).version);
+        }
+    }
+}
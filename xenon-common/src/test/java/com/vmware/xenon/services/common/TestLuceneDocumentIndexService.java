@@ -52,6 +52,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
@@ -123,6 +124,24 @@ import com.vmware.xenon.services.common.TestLuceneDocumentIndexService.StateWith
 
 class FaultInjectionLuceneDocumentIndexService extends LuceneDocumentIndexService {
 
+    private final AtomicLong updateRequestCount = new AtomicLong();
+
+    @Override
+    public void handleRequest(Operation op) {
+        if (op.getAction() == Action.POST && op.getBodyRaw() instanceof UpdateIndexRequest) {
+            logInfo("DEBUG update %s", ((UpdateIndexRequest) op.getBodyRaw()).document.documentSelfLink);
+            this.updateRequestCount.incrementAndGet();
+        }
+        super.handleRequest(op);
+    }
+
+    /**
+     * Number of index update requests received, including the ones still queued
+     */
+    public long getUpdateRequestCount() {
+        return this.updateRequestCount.get();
+    }
+
     public void forceClosePaginatedSearchers() {
 
         logInfo("Closing all paginated searchers (%d)", this.paginatedSearcherManager.getSearcherSize());
@@ -204,6 +223,12 @@ class FaultInjectionLuceneDocumentIndexService extends LuceneDocumentIndexServic
         return existing;
     }
 
+    public ExecutorService setIndexingExecutorService(ExecutorService es) {
+        ExecutorService existing = this.privateIndexingExecutor;
+        this.privateIndexingExecutor = es;
+        return existing;
+    }
+
 }
 
 public class TestLuceneDocumentIndexService {
@@ -423,6 +448,10 @@ public class TestLuceneDocumentIndexService {
                 LuceneDocumentIndexService.DEFAULT_INDEX_FILE_COUNT_THRESHOLD_FOR_WRITER_REFRESH);
         LuceneDocumentIndexService.setExpiredDocumentSearchThreshold(
                 LuceneDocumentIndexService.DEFAULT_EXPIRED_DOCUMENT_SEARCH_THRESHOLD);
+        LuceneDocumentIndexService.setUpdateBatchSize(
+                LuceneDocumentIndexService.DEFAULT_UPDATE_BATCH_SIZE);
+        LuceneDocumentIndexService.setUpdateBatchWindowMicros(
+                LuceneDocumentIndexService.DEFAULT_UPDATE_BATCH_WINDOW_MICROS);
 
         TestRequestSender.clearAuthToken();
     }
@@ -1275,6 +1304,63 @@ public class TestLuceneDocumentIndexService {
         }
     }
 
+    @Test
+    public void prefixQueryPaging() throws Throwable {
+        int pageSize = (int) Math.max(1, this.serviceCount / 3);
+        try {
+            LuceneDocumentIndexService.setPrefixQueryPageSize(pageSize);
+            setUpHost(false);
+            URI factoryUri = UriUtils.buildUri(this.host, ExampleService.FACTORY_LINK);
+            doThroughputPost(false, factoryUri, null, null);
+
+            // a factory GET with more hits than the page size returns the first page and
+            // a link, relative to the factory, for the remaining results
+            TestRequestSender sender = this.host.getTestRequestSender();
+            Set<String> links = new HashSet<>();
+            URI pageUri = UriUtils.buildExpandLinksQueryUri(factoryUri);
+            int pageCount = 0;
+            while (pageUri != null) {
+                ServiceDocumentQueryResult page = sender.sendAndWait(Operation.createGet(pageUri),
+                        ServiceDocumentQueryResult.class);
+                assertTrue(page.documentLinks.size() <= pageSize);
+                assertEquals(page.documentLinks.size(), page.documents.size());
+                links.addAll(page.documentLinks);
+                pageCount++;
+                if (page.nextPageLink == null) {
+                    break;
+                }
+                assertTrue(page.nextPageLink.startsWith(ExampleService.FACTORY_LINK));
+                pageUri = UriUtils.buildUri(this.host, page.nextPageLink);
+            }
+            assertEquals(this.serviceCount, links.size());
+            assertTrue(pageCount > 1);
+
+            // without index updates, another paged GET shares the paginated searcher
+            int searcherCount = getPaginatedSearcherUpdateCountStat();
+            ServiceDocumentQueryResult firstPage = sender.sendAndWait(
+                    Operation.createGet(factoryUri), ServiceDocumentQueryResult.class);
+            assertNotNull(firstPage.nextPageLink);
+            assertEquals(searcherCount, getPaginatedSearcherUpdateCountStat());
+
+            // each document counts once towards the page size, whatever its number of versions
+            List<Operation> patches = new ArrayList<>();
+            for (String link : links) {
+                ExampleServiceState body = new ExampleServiceState();
+                body.counter = 1L;
+                patches.add(Operation.createPatch(this.host, link).setBody(body));
+            }
+            sender.sendAndWait(patches);
+            LuceneDocumentIndexService.setPrefixQueryPageSize((int) this.serviceCount);
+            ServiceDocumentQueryResult allLinks = sender.sendAndWait(
+                    Operation.createGet(factoryUri), ServiceDocumentQueryResult.class);
+            assertNull(allLinks.nextPageLink);
+            assertEquals(this.serviceCount, allLinks.documentLinks.size());
+        } finally {
+            LuceneDocumentIndexService.setPrefixQueryPageSize(
+                    LuceneDocumentIndexService.DEFAULT_PREFIX_QUERY_PAGE_SIZE);
+        }
+    }
+
     @Test
     public void throughputSelfLinkQuery() throws Throwable {
         setUpHost(false);
@@ -2968,6 +3054,70 @@ public class TestLuceneDocumentIndexService {
 
     }
 
+    @Test
+    public void updateBatching() throws Throwable {
+        int batchSize = 16;
+        LuceneDocumentIndexService.setUpdateBatchSize(batchSize);
+        setUpHost(false);
+        int serviceCount = batchSize * 2 + batchSize / 2;
+        URI factoryUri = UriUtils.buildFactoryUri(this.host, ExampleService.class);
+        Map<URI, ExampleServiceState> services = this.host.doFactoryChildServiceStart(
+                null, serviceCount, ExampleServiceState.class, (o) -> {
+                    ExampleServiceState body = new ExampleServiceState();
+                    body.name = UUID.randomUUID().toString();
+                    o.setBody(body);
+                }, factoryUri);
+
+        URI indexUri = this.host.getDocumentIndexServiceUri();
+        String batchStatName = LuceneDocumentIndexService.STAT_NAME_UPDATE_BATCH_SIZE
+                + ServiceStats.STAT_NAME_SUFFIX_PER_DAY;
+        ServiceStat batchStatBefore = this.host.getServiceStats(indexUri).get(batchStatName);
+        assertNotNull(batchStatBefore);
+
+        // park the only indexing thread until all the updates are queued, so each handler
+        // drains a full batch: batchSize, batchSize, then the remaining batchSize / 2
+        CountDownLatch indexingParked = new CountDownLatch(1);
+        ExecutorService indexingExecutor = Executors.newSingleThreadExecutor();
+        indexingExecutor.execute(() -> {
+            try {
+                indexingParked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ExecutorService existingExecutor = this.indexService
+                .setIndexingExecutorService(indexingExecutor);
+        try {
+            long updateCountBefore = this.indexService.getUpdateRequestCount();
+            TestContext ctx = this.host.testCreate(serviceCount);
+            for (URI u : services.keySet()) {
+                ExampleServiceState body = new ExampleServiceState();
+                body.counter = 1L;
+                this.host.send(Operation.createPatch(u).setBody(body)
+                        .setCompletion(ctx.getCompletion()));
+            }
+            this.host.waitFor("updates not queued", () -> this.indexService
+                    .getUpdateRequestCount() - updateCountBefore == serviceCount);
+            indexingParked.countDown();
+            this.host.testWait(ctx);
+        } finally {
+            indexingParked.countDown();
+            this.indexService.setIndexingExecutorService(existingExecutor);
+            indexingExecutor.shutdown();
+        }
+
+        ServiceStat batchStat = this.host.getServiceStats(indexUri).get(batchStatName);
+        assertEquals(3, batchStat.version - batchStatBefore.version);
+        assertEquals(batchSize / 2, batchStat.latestValue, 0);
+
+        // every version, including the initial POST, must be visible to an all versions query
+        QuerySpecification q = new QuerySpecification();
+        q.query = Query.Builder.create().addKindFieldClause(ExampleServiceState.class).build();
+        q.options = EnumSet.of(QueryOption.INCLUDE_ALL_VERSIONS);
+        long expectedCount = serviceCount * 2;
+        this.host.createAndWaitSimpleDirectQuery(q, expectedCount, expectedCount);
+    }
+
     @Test
     public void forcedIndexUpdateDuplicateVersionRemoval() throws Throwable {
         setUpHost(false);
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2014-2015 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.services.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import com.vmware.xenon.common.FNVHash;
+import com.vmware.xenon.services.common.NodeGroupService.NodeGroupState;
+import com.vmware.xenon.services.common.NodeState.NodeStatus;
+
+public class TestNodeSelectorHashRing {
+
+    private static final int VIRTUAL_NODE_COUNT = 64;
+
+    private static NodeGroupState createGroupState(int nodeCount) {
+        NodeGroupState groupState = new NodeGroupState();
+        for (int i = 0; i < nodeCount; i++) {
+            NodeState m = new NodeState();
+            m.id = UUID.randomUUID().toString();
+            m.status = NodeStatus.AVAILABLE;
+            groupState.nodes.put(m.id, m);
+        }
+        return groupState;
+    }
+
+    private static List<String> createKeys(int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            keys.add(ExampleService.FACTORY_LINK + "/" + i);
+        }
+        return keys;
+    }
+
+    @Test
+    public void selectOwner() {
+        int nodeCount = 8;
+        NodeGroupState groupState = createGroupState(nodeCount);
+        NodeSelectorHashRing ring = NodeSelectorHashRing.create(groupState, VIRTUAL_NODE_COUNT);
+        assertEquals(nodeCount, ring.getAvailableNodeCount());
+
+        // every node owns a share of the keys
+        Map<String, Integer> ownedKeyCount = new HashMap<>();
+        List<String> keys = createKeys(10000);
+        for (String key : keys) {
+            Collection<NodeState> selected = ring.select(FNVHash.compute(key), 1);
+            assertEquals(1, selected.size());
+            ownedKeyCount.merge(selected.iterator().next().id, 1, Integer::sum);
+        }
+        assertEquals(nodeCount, ownedKeyCount.size());
+
+        // a ring built from the same nodes, in any order, selects the same owners
+        NodeGroupState otherGroupState = new NodeGroupState();
+        List<NodeState> nodes = new ArrayList<>(groupState.nodes.values());
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            otherGroupState.nodes.put(nodes.get(i).id, nodes.get(i));
+        }
+        NodeSelectorHashRing otherRing = NodeSelectorHashRing.create(otherGroupState,
+                VIRTUAL_NODE_COUNT);
+        for (String key : keys) {
+            long keyHash = FNVHash.compute(key);
+            assertEquals(ring.select(keyHash, 1).iterator().next().id,
+                    otherRing.select(keyHash, 1).iterator().next().id);
+        }
+    }
+
+    @Test
+    public void selectReplicas() {
+        NodeGroupState groupState = createGroupState(5);
+        NodeSelectorHashRing ring = NodeSelectorHashRing.create(groupState, VIRTUAL_NODE_COUNT);
+
+        for (String key : createKeys(1000)) {
+            long keyHash = FNVHash.compute(key);
+            NodeState owner = ring.select(keyHash, 1).iterator().next();
+            Collection<NodeState> selected = ring.select(keyHash, 3);
+            assertEquals(3, selected.size());
+            assertEquals(3, new HashSet<>(selected).size());
+            assertSame(owner, selected.iterator().next());
+        }
+
+        // replication factor larger than the node count selects all nodes
+        assertEquals(5, ring.select(FNVHash.compute("/key"), 10).size());
+    }
+
+    @Test
+    public void unavailableNodesExcluded() {
+        NodeGroupState groupState = createGroupState(4);
+        NodeState unavailable = groupState.nodes.values().iterator().next();
+        unavailable.status = NodeStatus.UNAVAILABLE;
+
+        NodeSelectorHashRing ring = NodeSelectorHashRing.create(groupState, VIRTUAL_NODE_COUNT);
+        assertEquals(3, ring.getAvailableNodeCount());
+        for (String key : createKeys(1000)) {
+            for (NodeState m : ring.select(FNVHash.compute(key), 4)) {
+                assertTrue(!m.id.equals(unavailable.id));
+            }
+        }
+    }
+
+    @Test
+    public void rebind() {
+        NodeGroupState groupState = createGroupState(3);
+        NodeSelectorHashRing ring = NodeSelectorHashRing.create(groupState, VIRTUAL_NODE_COUNT);
+
+        // same membership, new group state instance
+        NodeGroupState sameMembers = new NodeGroupState();
+        for (NodeState m : groupState.nodes.values()) {
+            NodeState copy = new NodeState();
+            copy.id = m.id;
+            copy.status = m.status;
+            sameMembers.nodes.put(copy.id, copy);
+        }
+        NodeSelectorHashRing rebound = ring.rebind(sameMembers);
+        assertNotNull(rebound);
+        assertSame(sameMembers, rebound.groupState);
+        for (String key : createKeys(100)) {
+            long keyHash = FNVHash.compute(key);
+            NodeState owner = rebound.select(keyHash, 1).iterator().next();
+            assertSame(sameMembers.nodes.get(owner.id), owner);
+            assertEquals(ring.select(keyHash, 1).iterator().next().id, owner.id);
+        }
+
+        // membership change requires a new ring
+        NodeGroupState newMembers = createGroupState(1);
+        newMembers.nodes.putAll(groupState.nodes);
+        assertNull(ring.rebind(newMembers));
+    }
+}
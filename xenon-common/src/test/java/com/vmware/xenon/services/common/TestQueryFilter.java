@@ -15,9 +15,12 @@ package com.vmware.xenon.services.common;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -444,6 +447,44 @@ public class TestQueryFilter {
         assertTrue(filter.evaluate(document, this.description));
     }
 
+    @Test
+    public void requiredTermValues() throws QueryFilterException {
+        // every conjunction requires c1 or c2, but not both
+        QueryFilter filter = QueryFilter.create(createSimpleConjunctionOfDisjunctionsQuery());
+        assertNull(filter.getRequiredTermValues("c1"));
+        assertNull(filter.getRequiredTermValues("c5"));
+
+        // every conjunction requires c1
+        Query d = new Query();
+        d.occurance = Occurance.MUST_OCCUR;
+        d.addBooleanClause(createTerm("c2", "v2", Occurance.SHOULD_OCCUR));
+        d.addBooleanClause(createTerm("c3", "v3", Occurance.SHOULD_OCCUR));
+        Query q = new Query();
+        q.addBooleanClause(createTerm("c1", "v1", Occurance.MUST_OCCUR));
+        q.addBooleanClause(d);
+        filter = QueryFilter.create(q);
+        assertEquals(Collections.singleton("v1"), filter.getRequiredTermValues("c1"));
+
+        // disjunction over the same property yields all values
+        filter = QueryFilter.create(createSimpleDisjunctionOfConjunctionsQuery());
+        assertNull(filter.getRequiredTermValues("c1"));
+        q = new Query();
+        q.addBooleanClause(createTerm("c1", "v1", Occurance.SHOULD_OCCUR));
+        q.addBooleanClause(createTerm("c1", "v2", Occurance.SHOULD_OCCUR));
+        filter = QueryFilter.create(q);
+        assertEquals(new HashSet<>(Arrays.asList("v1", "v2")), filter.getRequiredTermValues("c1"));
+
+        // negated and non TERM matches do not constrain the property
+        q = new Query();
+        q.addBooleanClause(createTerm("c1", "v1", Occurance.MUST_NOT_OCCUR));
+        q.addBooleanClause(createTerm("c2", "v*", Occurance.MUST_OCCUR, MatchType.WILDCARD));
+        filter = QueryFilter.create(q);
+        assertNull(filter.getRequiredTermValues("c1"));
+        assertNull(filter.getRequiredTermValues("c2"));
+
+        assertNull(QueryFilter.TRUE.getRequiredTermValues("c1"));
+    }
+
     Query createWithListOfStringQuery() {
         String n1 = QueryTask.QuerySpecification.buildCollectionItemName("l1");
         String n2 = QueryTask.QuerySpecification.buildCollectionItemName("l2");
@@ -691,6 +732,54 @@ public class TestQueryFilter {
         assertFalse(filter.evaluate(document, this.description));
     }
 
+    @Test
+    public void evaluateBuiltInPropertiesWithoutDescription() throws QueryFilterException {
+        String kind = "test:kind";
+        Query selfLinkClause = createTerm(ServiceDocument.FIELD_NAME_SELF_LINK, "/test/*",
+                Occurance.MUST_OCCUR, MatchType.WILDCARD);
+        Query q = new Query();
+        q.addBooleanClause(createTerm(ServiceDocument.FIELD_NAME_KIND, kind, Occurance.MUST_OCCUR));
+        q.addBooleanClause(selfLinkClause);
+        QueryFilter filter = QueryFilter.create(q);
+        assertFalse(filter.isDescriptionRequired());
+        assertTrue(filter.matchesKind(kind));
+        assertFalse(filter.matchesKind("other:kind"));
+
+        QueryFilterDocument document = new QueryFilterDocument();
+        document.documentKind = kind;
+        document.documentSelfLink = "/test/1";
+        assertTrue(filter.evaluate(document, null));
+
+        // the wildcard is matched as a prefix, with regular expression semantics
+        document.documentSelfLink = "/test/1\n2";
+        assertFalse(filter.evaluate(document, null));
+        document.documentSelfLink = "/other/1";
+        assertFalse(filter.evaluate(document, null));
+
+        document.documentSelfLink = "/test/1";
+        document.documentKind = "other:kind";
+        assertFalse(filter.evaluate(document, null));
+
+        // other properties are read through the description
+        q.addBooleanClause(createTerm("c1", "v1", Occurance.MUST_OCCUR));
+        filter = QueryFilter.create(q);
+        assertTrue(filter.isDescriptionRequired());
+        document.documentKind = kind;
+        document.c1 = "v1";
+        assertTrue(filter.evaluate(document, this.description));
+
+        // kinds are not required if a conjunction does not constrain them
+        q = new Query();
+        q.addBooleanClause(createTerm(ServiceDocument.FIELD_NAME_KIND, kind,
+                Occurance.SHOULD_OCCUR));
+        q.addBooleanClause(createTerm(ServiceDocument.FIELD_NAME_SELF_LINK, "/test/*",
+                Occurance.SHOULD_OCCUR, MatchType.WILDCARD));
+        filter = QueryFilter.create(q);
+        assertTrue(filter.matchesKind("other:kind"));
+        document.documentKind = "other:kind";
+        assertTrue(filter.evaluate(document, null));
+    }
+
     @Test()
     public void matchTypePrefix() throws QueryFilterException {
         Query q = createTerm(ServiceDocument.FIELD_NAME_SELF_LINK, "/test/");
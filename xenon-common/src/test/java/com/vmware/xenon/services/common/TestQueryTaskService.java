@@ -66,6 +66,7 @@ import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyUsageOption;
 import com.vmware.xenon.common.ServiceDocumentDescription.TypeName;
 import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.ServiceDocumentQueryResult.AggregationResult;
 import com.vmware.xenon.common.ServiceErrorResponse;
 import com.vmware.xenon.common.ServiceHost.ServiceNotFoundException;
 import com.vmware.xenon.common.ServiceStats;
@@ -417,6 +418,56 @@ public class TestQueryTaskService {
         });
     }
 
+    @Test
+    public void continuousQueryTaskCandidateSelection() throws Throwable {
+        setUpHost();
+
+        // Create a continuous query task constrained on document kind
+        String textValue = UUID.randomUUID().toString();
+        Query query = Query.Builder.create()
+                .addKindFieldClause(QueryValidationServiceState.class)
+                .addFieldClause(QueryValidationServiceState.FIELD_NAME_TEXT_VALUE, textValue)
+                .build();
+        QueryTask queryTask = QueryTask.Builder.create()
+                .setQuery(query)
+                .addOption(QueryOption.CONTINUOUS)
+                .build();
+        queryTask.documentExpirationTimeMicros = Long.MAX_VALUE;
+        this.host.createQueryTaskService(queryTask);
+        waitForContiniousQueryActivation(this.host, 1.0);
+
+        // updates to documents of a different kind should not select the query as a candidate
+        URI exampleFactoryUri = UriUtils.buildFactoryUri(this.host, ExampleService.class);
+        TestContext ctx = this.host.testCreate(this.serviceCount);
+        for (int i = 0; i < this.serviceCount; i++) {
+            ExampleServiceState exampleState = new ExampleServiceState();
+            exampleState.name = textValue;
+            this.host.send(Operation.createPost(exampleFactoryUri).setBody(exampleState)
+                    .setCompletion(ctx.getCompletion()));
+        }
+        this.host.testWait(ctx);
+        assertEquals(0, getIndexStatValue(
+                LuceneDocumentIndexService.STAT_NAME_ACTIVE_QUERY_CANDIDATE_COUNT), 0);
+
+        // matching documents are evaluated, and every candidate is a match
+        QueryValidationServiceState newState = new QueryValidationServiceState();
+        newState.textValue = textValue;
+        startQueryTargetServices(this.serviceCount, newState);
+        this.host.waitFor("active query matches not reported", () -> getIndexStatValue(
+                LuceneDocumentIndexService.STAT_NAME_ACTIVE_QUERY_MATCH_COUNT) >= this.serviceCount);
+        assertEquals(getIndexStatValue(
+                LuceneDocumentIndexService.STAT_NAME_ACTIVE_QUERY_MATCH_COUNT),
+                getIndexStatValue(
+                        LuceneDocumentIndexService.STAT_NAME_ACTIVE_QUERY_CANDIDATE_COUNT), 0);
+    }
+
+    private double getIndexStatValue(String name) {
+        ServiceStats indexStats = this.host.getServiceState(null, ServiceStats.class,
+                UriUtils.buildStatsUri(this.host.getDocumentIndexServiceUri()));
+        ServiceStat st = indexStats.entries.get(name + ServiceStats.STAT_NAME_SUFFIX_PER_HOUR);
+        return st != null ? st.latestValue : 0;
+    }
+
     @Test
     public void continuousQueryTask() throws Throwable {
         setUpHost();
@@ -5553,4 +5604,136 @@ public class TestQueryTaskService {
 
     }
 
+    @Test
+    public void aggregateQuery() throws Throwable {
+        setUpHost();
+        TestRequestSender sender = this.host.getTestRequestSender();
+        URI exampleFactoryUri = UriUtils.buildUri(this.host, ExampleService.FACTORY_LINK);
+
+        List<Operation> posts = new ArrayList<>();
+        for (String group : Arrays.asList("one", "two")) {
+            for (int i = 1; i <= this.serviceCount; i++) {
+                ExampleServiceState s = new ExampleServiceState();
+                s.name = group;
+                s.counter = (long) i;
+                posts.add(Operation.createPost(exampleFactoryUri).setBody(s));
+            }
+        }
+        List<ExampleServiceState> states = sender.sendAndWait(posts, ExampleServiceState.class);
+
+        // only the latest version of a document is aggregated, and deleted documents are not
+        ExampleServiceState patch = new ExampleServiceState();
+        patch.counter = 1000L;
+        sender.sendAndWait(Operation.createPatch(this.host, states.get(0).documentSelfLink)
+                .setBody(patch));
+        sender.sendAndWait(Operation.createDelete(this.host, states.get(1).documentSelfLink));
+
+        long n = this.serviceCount;
+        long sum = n * (n + 1) / 2;
+
+        QueryTask task = QueryTask.Builder.createDirectTask()
+                .setQuery(Query.Builder.create().addKindFieldClause(ExampleServiceState.class)
+                        .build())
+                .addAggregateTerm(ExampleServiceState.FIELD_NAME_COUNTER, TypeName.LONG)
+                .build();
+        QueryTask result = sender.sendAndWait(
+                Operation.createPost(this.host, ServiceUriPaths.CORE_QUERY_TASKS).setBody(task),
+                QueryTask.class);
+        assertEquals(2 * n - 1, result.results.documentCount.longValue());
+        assertTrue(result.results.documentLinks.isEmpty());
+        AggregationResult counter = result.results.aggregations
+                .get(ExampleServiceState.FIELD_NAME_COUNTER);
+        assertEquals(2 * n - 1, counter.count);
+        assertEquals(2 * sum - 3 + 1000, counter.sum, 0);
+        assertEquals(1, counter.min, 0);
+        assertEquals(1000, counter.max, 0);
+        assertEquals(counter.sum / counter.count, counter.average, 0);
+        assertEquals(n / 2, counter.percentiles.get("50"), n / 2 * 0.01 + 1);
+
+        // aggregate per group
+        task = QueryTask.Builder.createDirectTask()
+                .setQuery(Query.Builder.create().addKindFieldClause(ExampleServiceState.class)
+                        .build())
+                .addAggregateTerm(ExampleServiceState.FIELD_NAME_COUNTER, TypeName.LONG)
+                .addOption(QueryOption.GROUP_BY)
+                .setGroupByTerm(ExampleServiceState.FIELD_NAME_NAME)
+                .build();
+        result = sender.sendAndWait(
+                Operation.createPost(this.host, ServiceUriPaths.CORE_QUERY_TASKS).setBody(task),
+                QueryTask.class);
+        assertNull(result.results.aggregations);
+        assertEquals(2, result.results.aggregationsPerGroup.size());
+        AggregationResult one = result.results.aggregationsPerGroup.get("one")
+                .get(ExampleServiceState.FIELD_NAME_COUNTER);
+        assertEquals(n - 1, one.count);
+        assertEquals(sum - 3 + 1000, one.sum, 0);
+        assertEquals(3, one.min, 0);
+        AggregationResult two = result.results.aggregationsPerGroup.get("two")
+                .get(ExampleServiceState.FIELD_NAME_COUNTER);
+        assertEquals(n, two.count);
+        assertEquals(sum, two.sum, 0);
+        assertEquals(n, two.max, 0);
+
+        // aggregate terms are required, and must be numeric
+        task.querySpec.aggregateTerms = null;
+        sender.sendAndWaitFailure(
+                Operation.createPost(this.host, ServiceUriPaths.CORE_QUERY_TASKS).setBody(task));
+        task = QueryTask.Builder.createDirectTask()
+                .setQuery(Query.Builder.create().addKindFieldClause(ExampleServiceState.class)
+                        .build())
+                .addAggregateTerm(ExampleServiceState.FIELD_NAME_NAME, TypeName.STRING)
+                .build();
+        sender.sendAndWaitFailure(
+                Operation.createPost(this.host, ServiceUriPaths.CORE_QUERY_TASKS).setBody(task));
+    }
+
+    @Test
+    public void aggregateBroadcastQuery() throws Throwable {
+        final int nodeCount = 3;
+
+        setUpHost();
+        this.host.setPeerSynchronizationEnabled(true);
+        this.host.setUpPeerHosts(nodeCount);
+        this.host.joinNodesAndVerifyConvergence(nodeCount, true);
+
+        URI exampleFactoryUri = UriUtils.buildUri(this.host.getPeerServiceUri(ExampleService.FACTORY_LINK));
+        this.host.waitForReplicatedFactoryServiceAvailable(exampleFactoryUri);
+
+        TestRequestSender sender = this.host.getTestRequestSender();
+        VerificationHost peer = this.host.getPeerHost();
+
+        List<Operation> posts = new ArrayList<>();
+        for (int i = 1; i <= this.serviceCount; i++) {
+            ExampleServiceState s = new ExampleServiceState();
+            s.name = "document" + i;
+            s.counter = (long) i;
+            posts.add(Operation.createPost(peer, ExampleService.FACTORY_LINK).setBody(s));
+        }
+        sender.sendAndWait(posts, ExampleServiceState.class);
+        long n = this.serviceCount;
+
+        // each node aggregates the documents it owns, and the results are combined
+        for (EnumSet<QueryOption> options : Arrays.asList(
+                EnumSet.of(QueryOption.BROADCAST, QueryOption.OWNER_SELECTION),
+                EnumSet.of(QueryOption.BROADCAST))) {
+            QueryTask task = QueryTask.Builder.createDirectTask()
+                    .setQuery(Query.Builder.create().addKindFieldClause(ExampleServiceState.class)
+                            .build())
+                    .addAggregateTerm(ExampleServiceState.FIELD_NAME_COUNTER, TypeName.LONG)
+                    .addOptions(options)
+                    .build();
+            QueryTask result = sender.sendAndWait(
+                    Operation.createPost(peer, ServiceUriPaths.CORE_QUERY_TASKS).setBody(task),
+                    QueryTask.class);
+            assertEquals(n, result.results.documentCount.longValue());
+            AggregationResult counter = result.results.aggregations
+                    .get(ExampleServiceState.FIELD_NAME_COUNTER);
+            assertEquals(n, counter.count);
+            assertEquals(n * (n + 1) / 2, counter.sum, 0);
+            assertEquals(1, counter.min, 0);
+            assertEquals(n, counter.max, 0);
+            assertEquals((n + 1) / 2.0, counter.average, 0);
+        }
+    }
+
 }
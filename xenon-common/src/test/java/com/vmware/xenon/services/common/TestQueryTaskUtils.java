@@ -14,6 +14,7 @@
 package com.vmware.xenon.services.common;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
@@ -21,6 +22,7 @@ import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Test;
@@ -30,6 +32,8 @@ import com.vmware.xenon.common.ServiceDocumentDescription;
 import com.vmware.xenon.common.ServiceDocumentDescription.Builder;
 import com.vmware.xenon.common.ServiceDocumentDescription.PropertyIndexingOption;
 import com.vmware.xenon.common.ServiceDocumentQueryResult;
+import com.vmware.xenon.common.ServiceDocumentQueryResult.AggregationResult;
+import com.vmware.xenon.common.Utils;
 import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
 import com.vmware.xenon.services.common.QueryTask.QuerySpecification.QueryOption;
 
@@ -171,6 +175,68 @@ public class TestQueryTaskUtils {
         return true;
     }
 
+    @Test
+    public void testMergeAggregateQueries() {
+        // each node aggregates a third of the values, -500 to 999 by steps of 0.5
+        List<ServiceDocumentQueryResult> results = Arrays.asList(
+                new ServiceDocumentQueryResult(), new ServiceDocumentQueryResult(),
+                new ServiceDocumentQueryResult());
+        for (int i = 0; i < 3000; i++) {
+            ServiceDocumentQueryResult r = results.get(i % 3);
+            if (r.aggregations == null) {
+                r.aggregations = new HashMap<>();
+                r.aggregations.put("value", new AggregationResult());
+                r.documentCount = 0L;
+            }
+            r.aggregations.get("value").add(i / 2.0 - 500);
+            r.documentCount++;
+        }
+
+        // results are serialized between nodes
+        for (int i = 0; i < results.size(); i++) {
+            results.get(i).aggregations.get("value").complete();
+            results.set(i, Utils.fromJson(Utils.toJson(results.get(i)),
+                    ServiceDocumentQueryResult.class));
+        }
+
+        ServiceDocumentQueryResult merged = new ServiceDocumentQueryResult();
+        QueryTaskUtils.mergeAggregateQueries(results,
+                EnumSet.of(QueryOption.AGGREGATE, QueryOption.OWNER_SELECTION), merged);
+        assertEquals(3000L, merged.documentCount.longValue());
+        assertNull(merged.aggregationsPerGroup);
+
+        AggregationResult value = merged.aggregations.get("value");
+        assertEquals(3000L, value.count);
+        assertEquals(-500.0, value.min, 0);
+        assertEquals(999.5, value.max, 0);
+        assertEquals(249.75, value.average, 0.0001);
+        assertEquals(value.average * value.count, value.sum, 0.0001);
+        // percentiles are within one percent of the actual value
+        assertEquals(249.5, value.percentiles.get("50"), 2.5);
+        assertEquals(849.5, value.percentiles.get("90"), 8.5);
+        assertEquals(984.5, value.percentiles.get("99"), 9.9);
+
+        // without owner selection, nodes aggregate the same replicated documents
+        merged = new ServiceDocumentQueryResult();
+        QueryTaskUtils.mergeAggregateQueries(results, EnumSet.of(QueryOption.AGGREGATE), merged);
+        assertEquals(1000L, merged.documentCount.longValue());
+        assertEquals(1000L, merged.aggregations.get("value").count);
+
+        // per group aggregates are merged by group value
+        for (ServiceDocumentQueryResult r : results) {
+            r.aggregationsPerGroup = new HashMap<>();
+            r.aggregationsPerGroup.put("group", r.aggregations);
+            r.aggregations = null;
+        }
+        merged = new ServiceDocumentQueryResult();
+        QueryTaskUtils.mergeAggregateQueries(results,
+                EnumSet.of(QueryOption.AGGREGATE, QueryOption.OWNER_SELECTION), merged);
+        assertNull(merged.aggregations);
+        Map<String, AggregationResult> group = merged.aggregationsPerGroup.get("group");
+        assertEquals(3000L, group.get("value").count);
+        assertEquals(249.75, group.get("value").average, 0.0001);
+    }
+
     @Test
     public void testGetQueryPropertyNames() throws Throwable {
         ServiceDocumentDescription desc = Builder.create().buildDescription(
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.services.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.vmware.xenon.common.BasicTestCase;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceStats;
+import com.vmware.xenon.common.ServiceStats.ServiceStat;
+import com.vmware.xenon.common.SynchronizationTaskService;
+import com.vmware.xenon.common.TaskState;
+import com.vmware.xenon.common.UriUtils;
+import com.vmware.xenon.common.Utils;
+import com.vmware.xenon.common.config.TestXenonConfiguration;
+import com.vmware.xenon.common.test.VerificationHost;
+import com.vmware.xenon.services.common.ExampleService.ExampleServiceState;
+import com.vmware.xenon.services.common.SynchronizationDigestService.DigestRequest;
+import com.vmware.xenon.services.common.SynchronizationDigestService.DigestTree;
+
+public class TestSynchronizationDigestService extends BasicTestCase {
+
+    public int serviceCount = 20;
+    public int nodeCount = 3;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        TestXenonConfiguration.override(
+                SynchronizationTaskService.class,
+                "isDigestSynchEnabled",
+                "true"
+        );
+    }
+
+    @AfterClass
+    public static void tearDownClass() throws Exception {
+        TestXenonConfiguration.restore();
+    }
+
+    @After
+    public void tearDown() {
+        this.host.tearDownInProcessPeers();
+        this.host.tearDown();
+    }
+
+    @Test
+    public void digestTree() {
+        int leafCount = 16;
+        DigestTree a = DigestTree.create(leafCount);
+        DigestTree b = DigestTree.create(leafCount);
+        List<String> links = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            links.add(UriUtils.buildUriPath(ExampleService.FACTORY_LINK, "child" + i));
+        }
+        for (String link : links) {
+            a.add(link, 1, 0);
+        }
+
+        // insertion order does not matter
+        List<String> shuffled = new ArrayList<>(links);
+        Collections.shuffle(shuffled);
+        for (String link : shuffled) {
+            b.add(link, 1, 0);
+        }
+        a.computeInnerNodes();
+        b.computeInnerNodes();
+        assertArrayEquals(a.nodes, b.nodes);
+        assertEquals(100, b.documentCount);
+        assertTrue(SynchronizationDigestService.findOutOfSyncBuckets(Arrays.asList(a, b)).isEmpty());
+
+        // a different version and a different epoch each mark their bucket
+        String versionLink = links.get(3);
+        String epochLink = links.get(42);
+        DigestTree c = DigestTree.create(leafCount);
+        for (String link : links) {
+            c.add(link, link.equals(versionLink) ? 2 : 1, link.equals(epochLink) ? 1 : 0);
+        }
+        c.computeInnerNodes();
+        Set<Integer> buckets = SynchronizationDigestService.findOutOfSyncBuckets(Arrays.asList(a, b, c));
+        assertTrue(buckets.contains(SynchronizationDigestService.getBucket(versionLink, leafCount)));
+        assertTrue(buckets.contains(SynchronizationDigestService.getBucket(epochLink, leafCount)));
+        assertTrue(buckets.size() <= 2);
+
+        // a missing document marks its bucket
+        DigestTree d = DigestTree.create(leafCount);
+        for (String link : links.subList(1, links.size())) {
+            d.add(link, 1, 0);
+        }
+        d.computeInnerNodes();
+        buckets = SynchronizationDigestService.findOutOfSyncBuckets(Arrays.asList(d, a));
+        assertEquals(Collections.singleton(SynchronizationDigestService.getBucket(links.get(0), leafCount)),
+                buckets);
+    }
+
+    @Test
+    public void localDigest() throws Throwable {
+        this.host.waitForReplicatedFactoryServiceAvailable(
+                UriUtils.buildUri(this.host, ExampleService.FACTORY_LINK));
+        List<ExampleServiceState> states = this.host.createExampleServices(
+                this.host, this.serviceCount, null, ExampleService.FACTORY_LINK);
+
+        DigestTree expected = DigestTree.create(SynchronizationDigestService.LEAF_COUNT);
+        for (ExampleServiceState s : states) {
+            expected.add(s.documentSelfLink, s.documentVersion,
+                    s.documentEpoch != null ? s.documentEpoch : 0);
+        }
+        expected.computeInnerNodes();
+
+        // page through the index in small pages
+        DigestTree tree = getDigest(this.host, this.serviceCount / 3);
+        assertEquals(this.serviceCount, tree.documentCount);
+        assertArrayEquals(expected.nodes, tree.nodes);
+
+        DigestRequest request = createDigestRequest(this.serviceCount);
+        request.leafCount = 3;
+        Operation post = Operation.createPost(this.host, SynchronizationDigestService.SELF_LINK)
+                .setBody(request);
+        this.host.getTestRequestSender().sendAndWaitFailure(post);
+    }
+
+    @Test
+    public void synchronizeDifferences() throws Throwable {
+        this.host.setUpPeerHosts(this.nodeCount);
+        this.host.joinNodesAndVerifyConvergence(this.nodeCount);
+        NodeGroupService.NodeGroupConfig cfg = new NodeGroupService.NodeGroupConfig();
+        cfg.nodeRemovalDelayMicros = TimeUnit.SECONDS.toMicros(1);
+        this.host.setNodeGroupConfig(cfg);
+        this.host.setNodeGroupQuorum(this.nodeCount - 1);
+        this.host.waitForNodeGroupConvergence();
+        this.host.waitForReplicatedFactoryServiceAvailable(
+                this.host.getPeerServiceUri(ExampleService.FACTORY_LINK));
+
+        List<ExampleServiceState> states = this.host.createExampleServices(
+                this.host.getPeerHost(), this.serviceCount, null, ExampleService.FACTORY_LINK);
+        waitForEqualDigests();
+
+        // stop a node, and update some services while it is down
+        VerificationHost factoryOwner = this.host.getOwnerPeer(ExampleService.FACTORY_LINK);
+        VerificationHost stoppedHost = this.host.getInProcessHostMap().values().stream()
+                .filter(h -> h != factoryOwner)
+                .findFirst().get();
+        this.host.stopHostAndPreserveState(stoppedHost);
+        this.host.waitForNodeGroupConvergence(this.nodeCount - 1, this.nodeCount - 1);
+
+        VerificationHost peer = this.host.getPeerHost();
+        List<Operation> patches = new ArrayList<>();
+        for (ExampleServiceState s : states.subList(0, 3)) {
+            ExampleServiceState body = new ExampleServiceState();
+            body.name = "updated";
+            patches.add(Operation.createPatch(peer, s.documentSelfLink).setBody(body));
+        }
+        this.host.getTestRequestSender().sendAndWait(patches);
+
+        // the restarted node holds stale versions, synchronization repairs only those
+        stoppedHost.setPort(0);
+        VerificationHost.restartStatefulHost(stoppedHost, false);
+        this.host.addPeerNode(stoppedHost);
+        this.host.joinNodesAndVerifyConvergence(this.nodeCount);
+        waitForEqualDigests();
+
+        // the membership changed, so all services are synchronized once. Later runs for the
+        // same membership, like the periodic checkpoint runs, compare digests
+        String taskLink = UriUtils.buildUriPath(SynchronizationTaskService.FACTORY_LINK,
+                UriUtils.convertPathCharsFromLink(ExampleService.FACTORY_LINK));
+        this.host.waitFor("services in synchronized buckets were not skipped", () -> {
+            for (VerificationHost h : this.host.getInProcessHostMap().values()) {
+                URI statsUri = UriUtils.buildStatsUri(h, taskLink);
+                ServiceStat stat = this.host.getServiceState(null, ServiceStats.class, statsUri)
+                        .entries.get(SynchronizationTaskService.STAT_NAME_CHILD_SYNCH_SKIPPED_COUNT);
+                if (stat != null && stat.latestValue > 0) {
+                    return true;
+                }
+            }
+            for (VerificationHost h : this.host.getInProcessHostMap().values()) {
+                restartSynchronization(h, taskLink);
+            }
+            return false;
+        });
+    }
+
+    @Test
+    public void reownAfterNodeLeaves() throws Throwable {
+        this.host.setUpPeerHosts(this.nodeCount);
+        this.host.joinNodesAndVerifyConvergence(this.nodeCount);
+        NodeGroupService.NodeGroupConfig cfg = new NodeGroupService.NodeGroupConfig();
+        cfg.nodeRemovalDelayMicros = TimeUnit.SECONDS.toMicros(1);
+        this.host.setNodeGroupConfig(cfg);
+        this.host.setNodeGroupQuorum(this.nodeCount - 1);
+        this.host.waitForNodeGroupConvergence();
+        this.host.waitForReplicatedFactoryServiceAvailable(
+                this.host.getPeerServiceUri(ExampleService.FACTORY_LINK));
+
+        List<ExampleServiceState> states = this.host.createExampleServices(
+                this.host.getPeerHost(), this.serviceCount, null, ExampleService.FACTORY_LINK);
+        waitForEqualDigests();
+
+        // stop a node that owns some of the services. The remaining replicas agree, so only
+        // the synchronization after the membership change moves those services to new owners
+        VerificationHost factoryOwner = this.host.getOwnerPeer(ExampleService.FACTORY_LINK);
+        VerificationHost stoppedHost = this.host.getInProcessHostMap().values().stream()
+                .filter(h -> h != factoryOwner)
+                .filter(h -> states.stream().anyMatch(s -> h.getId().equals(s.documentOwner)))
+                .findFirst().get();
+        this.host.stopHost(stoppedHost);
+        this.host.waitForNodeGroupConvergence(this.nodeCount - 1, this.nodeCount - 1);
+
+        VerificationHost peer = this.host.getPeerHost();
+        this.host.waitFor("services owned by the stopped node were not re-owned", () -> {
+            List<Operation> gets = new ArrayList<>();
+            for (ExampleServiceState s : states) {
+                gets.add(Operation.createGet(peer, s.documentSelfLink));
+            }
+            for (Operation get : this.host.getTestRequestSender().sendAndWait(gets)) {
+                if (stoppedHost.getId().equals(
+                        get.getBody(ExampleServiceState.class).documentOwner)) {
+                    return false;
+                }
+            }
+            return true;
+        });
+    }
+
+    private void restartSynchronization(VerificationHost h, String taskLink) {
+        SynchronizationTaskService.State current = this.host.getServiceState(null,
+                SynchronizationTaskService.State.class, UriUtils.buildUri(h, taskLink));
+        if (!TaskState.isFinished(current.taskInfo)
+                || current.fullSynchMembershipUpdateTimeMicros == null) {
+            return;
+        }
+
+        SynchronizationTaskService.State task = new SynchronizationTaskService.State();
+        task.documentSelfLink = current.documentSelfLink;
+        task.factorySelfLink = current.factorySelfLink;
+        task.factoryStateKind = current.factoryStateKind;
+        task.membershipUpdateTimeMicros = current.membershipUpdateTimeMicros;
+        task.nodeSelectorLink = current.nodeSelectorLink;
+        task.queryResultLimit = current.queryResultLimit;
+        task.taskInfo = TaskState.create();
+        Operation.createPost(h, SynchronizationTaskService.FACTORY_LINK)
+                .setBody(task)
+                .setReferer(this.host.getUri())
+                .sendWith(this.host);
+    }
+
+    private void waitForEqualDigests() {
+        this.host.waitFor("digests did not converge", () -> {
+            List<DigestTree> trees = new ArrayList<>();
+            for (VerificationHost h : this.host.getInProcessHostMap().values()) {
+                DigestTree tree = getDigest(h, this.serviceCount);
+                if (tree.documentCount != this.serviceCount) {
+                    return false;
+                }
+                trees.add(tree);
+            }
+            return SynchronizationDigestService.findOutOfSyncBuckets(trees).isEmpty();
+        });
+    }
+
+    private DigestTree getDigest(VerificationHost h, int resultLimit) {
+        Operation post = Operation.createPost(h, SynchronizationDigestService.SELF_LINK)
+                .setBody(createDigestRequest(resultLimit));
+        return this.host.getTestRequestSender().sendAndWait(post).getBody(DigestTree.class);
+    }
+
+    private DigestRequest createDigestRequest(int resultLimit) {
+        DigestRequest request = new DigestRequest();
+        request.factoryLink = ExampleService.FACTORY_LINK;
+        request.documentKind = Utils.buildKind(ExampleServiceState.class);
+        request.leafCount = SynchronizationDigestService.LEAF_COUNT;
+        request.resultLimit = resultLimit;
+        return request;
+    }
+}
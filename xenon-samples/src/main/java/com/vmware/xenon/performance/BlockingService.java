@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.performance;
+
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.StatelessService;
+
+/**
+ * Stateless service whose GET handler blocks the calling thread, simulating a handler doing
+ * file IO or calling a blocking library. The blocking work either runs on the handler thread
+ * or is offloaded to the host blocking executor
+ */
+public class BlockingService extends StatelessService {
+
+    public static final String SELF_LINK = PerfUtils.BENCH + "/blocking";
+
+    private final long blockMicros;
+    private final boolean isOffloaded;
+
+    public BlockingService(long blockMicros, boolean isOffloaded) {
+        this.blockMicros = blockMicros;
+        this.isOffloaded = isOffloaded;
+    }
+
+    @Override
+    public void handleGet(Operation get) {
+        if (!this.isOffloaded) {
+            block();
+            get.complete();
+            return;
+        }
+
+        getHost().run(getHost().getBlockingExecutor(), () -> {
+            block();
+            get.complete();
+        });
+    }
+
+    private void block() {
+        try {
+            TimeUnit.MICROSECONDS.sleep(this.blockMicros);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
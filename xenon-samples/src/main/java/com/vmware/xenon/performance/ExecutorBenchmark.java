@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2014-2017 VMware, Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License.  You may obtain a copy of
+ * the License at http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed
+ * under the License is distributed on an "AS IS" BASIS, without warranties or
+ * conditions of any kind, EITHER EXPRESS OR IMPLIED.  See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.vmware.xenon.performance;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import com.vmware.xenon.common.BlockingExecutors;
+import com.vmware.xenon.common.CommandLineArgumentParser;
+import com.vmware.xenon.common.FileUtils;
+import com.vmware.xenon.common.Operation;
+import com.vmware.xenon.common.ServiceHost;
+import com.vmware.xenon.common.Utils;
+
+/**
+ * Measures a mixed workload of blocking and non blocking requests against a host, for each
+ * executor configuration:
+ * <ul>
+ * <li>FORK_JOIN: blocking handlers run on the shared fork join pool</li>
+ * <li>BLOCKING_EXECUTOR: blocking handlers offload their work to the host blocking executor</li>
+ * <li>VIRTUAL_THREADS: all handlers run on virtual threads, skipped if not supported</li>
+ * </ul>
+ * Reports throughput and the latency of the non blocking requests, which suffer when blocked
+ * handlers starve the executor. Requests are sent in process, so the numbers exclude the
+ * network.
+ *
+ * Usage: java -cp xenon-samples.jar com.vmware.xenon.performance.ExecutorBenchmark
+ *   [--requestCount=N] [--concurrency=N] [--blockingPercent=N] [--blockMicros=N]
+ */
+public class ExecutorBenchmark {
+
+    public enum Mode {
+        FORK_JOIN, BLOCKING_EXECUTOR, VIRTUAL_THREADS
+    }
+
+    public static class Arguments {
+        public int requestCount = 10000;
+        public int concurrency = 256;
+        public int blockingPercent = 10;
+        public long blockMicros = TimeUnit.MILLISECONDS.toMicros(10);
+        public int warmupRequestCount = 2000;
+    }
+
+    private static class BenchmarkHost extends ServiceHost {
+    }
+
+    public static void main(String[] args) throws Throwable {
+        Arguments benchArgs = new Arguments();
+        CommandLineArgumentParser.parse(benchArgs, args);
+
+        for (Mode mode : Mode.values()) {
+            if (mode == Mode.VIRTUAL_THREADS && !BlockingExecutors.isVirtualThreadSupported()) {
+                Utils.log(ExecutorBenchmark.class, mode.name(), Level.INFO,
+                        "Virtual threads are not supported by this JVM, skipping");
+                continue;
+            }
+            run(mode, benchArgs);
+        }
+    }
+
+    private static void run(Mode mode, Arguments benchArgs) throws Throwable {
+        File sandbox = Files.createTempDirectory("xenon-executor-benchmark").toFile();
+        ServiceHost host = new BenchmarkHost();
+        try {
+            host.initialize(new String[] {
+                    "--port=0",
+                    "--bindAddress=127.0.0.1",
+                    "--sandbox=" + sandbox.getAbsolutePath(),
+                    "--isVirtualThreadExecutorEnabled=" + (mode == Mode.VIRTUAL_THREADS)
+            });
+            host.start();
+            host.startDefaultCoreServicesSynchronously();
+
+            CountDownLatch available = new CountDownLatch(1);
+            host.registerForServiceAvailability((o, e) -> available.countDown(),
+                    SimpleStatelessService.SELF_LINK, BlockingService.SELF_LINK);
+            host.startService(new SimpleStatelessService());
+            host.startService(new BlockingService(benchArgs.blockMicros,
+                    mode == Mode.BLOCKING_EXECUTOR));
+            available.await();
+
+            sendRequests(host, benchArgs, benchArgs.warmupRequestCount);
+
+            long startNanos = System.nanoTime();
+            long[] latencyMicros = sendRequests(host, benchArgs, benchArgs.requestCount);
+            double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+
+            Arrays.sort(latencyMicros);
+            Utils.log(ExecutorBenchmark.class, mode.name(), Level.INFO,
+                    "requests: %d, blocking: %d%%, throughput: %.0f ops/s, "
+                            + "non blocking latency p50: %d us, p99: %d us, max: %d us",
+                    benchArgs.requestCount, benchArgs.blockingPercent,
+                    benchArgs.requestCount / elapsedSeconds,
+                    percentile(latencyMicros, 0.5), percentile(latencyMicros, 0.99),
+                    latencyMicros.length == 0 ? 0 : latencyMicros[latencyMicros.length - 1]);
+        } finally {
+            host.stop();
+            FileUtils.deleteFiles(sandbox);
+        }
+    }
+
+    /**
+     * Sends the requests, keeping at most the configured number in flight, and returns the
+     * latency of the non blocking ones
+     */
+    private static long[] sendRequests(ServiceHost host, Arguments benchArgs, int count)
+            throws InterruptedException {
+        int blockingCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (isBlocking(benchArgs, i)) {
+                blockingCount++;
+            }
+        }
+
+        long[] latencyMicros = new long[count - blockingCount];
+        AtomicInteger latencyIndex = new AtomicInteger();
+        AtomicInteger failureCount = new AtomicInteger();
+        Semaphore inFlight = new Semaphore(benchArgs.concurrency);
+        CountDownLatch done = new CountDownLatch(count);
+
+        for (int i = 0; i < count; i++) {
+            boolean isBlocking = isBlocking(benchArgs, i);
+            String link = isBlocking ? BlockingService.SELF_LINK : SimpleStatelessService.SELF_LINK;
+            inFlight.acquire();
+            long startNanos = System.nanoTime();
+            Operation get = Operation.createGet(host, link)
+                    .setReferer(host.getUri())
+                    .setCompletion((o, e) -> {
+                        if (e != null) {
+                            failureCount.incrementAndGet();
+                        }
+                        if (!isBlocking) {
+                            latencyMicros[latencyIndex.getAndIncrement()] = TimeUnit.NANOSECONDS
+                                    .toMicros(System.nanoTime() - startNanos);
+                        }
+                        inFlight.release();
+                        done.countDown();
+                    });
+            host.sendRequest(get);
+        }
+
+        done.await();
+        if (failureCount.get() > 0) {
+            throw new IllegalStateException(failureCount.get() + " requests failed");
+        }
+        return latencyMicros;
+    }
+
+    private static boolean isBlocking(Arguments benchArgs, int i) {
+        return i % 100 < benchArgs.blockingPercent;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+    }
+}